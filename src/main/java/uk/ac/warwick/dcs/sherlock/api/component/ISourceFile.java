@@ -32,6 +32,11 @@ public interface ISourceFile {
 	 */
 	List<String> getFileContentsAsStringList();
 
+	/**
+	 * @return a hash of the content of the file, files with the same hash have the same content
+	 */
+	String getContentHash();
+
 	/**
 	 * @return a web path safe file identifier
 	 */
@@ -41,11 +41,21 @@ public interface IExecutor {
 	void shutdown();
 
 	/**
-	 * submits a job to this executor
+	 * submits a job to this executor, as an interactive job
 	 * @param job job to submit
 	 * @return was successful?
 	 */
-	boolean submitJob(IJob job);
+	default boolean submitJob(IJob job) {
+		return this.submitJob(job, JobSource.INTERACTIVE);
+	}
+
+	/**
+	 * submits a job to this executor, its priority is chosen from its size and who submitted it
+	 * @param job job to submit
+	 * @param source who submitted the job
+	 * @return was successful?
+	 */
+	boolean submitJob(IJob job, JobSource source);
 
 	/**
 	 * removes a finished job from the list of statuses
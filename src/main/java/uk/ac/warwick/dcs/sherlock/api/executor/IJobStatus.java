@@ -30,6 +30,13 @@ public interface IJobStatus extends Comparable<IJobStatus> {
 	 */
 	String getFormattedDuration();
 
+	/**
+	 * Returns the number of file pairs which were not run through the detectors because the files have identical content, their results were copied instead
+	 *
+	 * @return number of short-circuited pairs
+	 */
+	long getShortCircuitedPairCount();
+
 	/**
 	 * get the id of the jobstatus
 	 *
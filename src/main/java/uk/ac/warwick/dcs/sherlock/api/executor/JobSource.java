@@ -0,0 +1,17 @@
+package uk.ac.warwick.dcs.sherlock.api.executor;
+
+/**
+ * Who submitted a job, used along with the size of the job to choose its priority
+ */
+public enum JobSource {
+
+	/**
+	 * A user waiting on the result, such as through the web interface
+	 */
+	INTERACTIVE,
+
+	/**
+	 * A batch run nobody is waiting on, such as from the command line
+	 */
+	BATCH
+}
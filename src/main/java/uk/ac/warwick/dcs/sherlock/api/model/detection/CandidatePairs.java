@@ -0,0 +1,366 @@
+package uk.ac.warwick.dcs.sherlock.api.model.detection;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Set of file pairs worth running a full {@link PairwiseDetector} worker on, identified by the index of each file in the job's data list.
+ * <p>
+ * Built from an inverted index mapping each fingerprint to the files it occurs in, so only pairs which actually share fingerprints are ever considered. The cost is
+ * proportional to the number of (fingerprint, file, file) co-occurrences rather than to the square of the number of files. As in MOSS, fingerprints found in more
+ * than a set number of files can be ignored, so boilerplate shared by most of a cohort does not make that cost quadratic.
+ * </p>
+ * <p>
+ * For very large cohorts, where boilerplate shared by almost every file makes the inverted index produce nearly every pair, the pairs can instead be built from
+ * MinHash signatures with locality-sensitive hashing. Each file is reduced to a fixed number of minimum hash values, the signature is split into bands, and files
+ * agreeing on every row of any band become candidates if their estimated Jaccard similarity also reaches a threshold.
+ * </p>
+ */
+public class CandidatePairs {
+
+	private final PairCounts pairs;
+
+	private CandidatePairs(PairCounts pairs) {
+		this.pairs = pairs;
+	}
+
+	/**
+	 * Builds the candidate pairs from the fingerprints of each file using an inverted index
+	 *
+	 * @param fingerprints fingerprints for each file, duplicates within a file are ignored
+	 * @param minShared    minimum number of distinct fingerprints a pair must share to be a candidate
+	 * @param comparable   tests whether two files, by index, can be compared at all (e.g. are from different submissions), pairs failing it are never counted
+	 *
+	 * @return the candidate pairs
+	 */
+	public static CandidatePairs fromInvertedIndex(List<long[]> fingerprints, int minShared, FilePairSpliterator.PairFilter comparable) {
+		return fromInvertedIndex(fingerprints, minShared, 0, comparable);
+	}
+
+	/**
+	 * Builds the candidate pairs from the fingerprints of each file using an inverted index, ignoring fingerprints found in too many files.
+	 * <p>
+	 * An ignored fingerprint does not count towards the pairs sharing it, so a pair whose only common fingerprints are ignored is not a candidate. This is the
+	 * trade-off MOSS makes for boilerplate, and is why the limit is off unless set.
+	 * </p>
+	 *
+	 * @param fingerprints fingerprints for each file, duplicates within a file are ignored
+	 * @param minShared    minimum number of distinct fingerprints a pair must share to be a candidate
+	 * @param maxFiles     fingerprints found in more than this many files are ignored, 0 or below to use every fingerprint
+	 * @param comparable   tests whether two files, by index, can be compared at all (e.g. are from different submissions), pairs failing it are never counted
+	 *
+	 * @return the candidate pairs
+	 */
+	public static CandidatePairs fromInvertedIndex(List<long[]> fingerprints, int minShared, int maxFiles, FilePairSpliterator.PairFilter comparable) {
+		long[][] keys = new long[fingerprints.size()][];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = distinctSorted(fingerprints.get(i));
+		}
+		Postings index = new Postings(keys);
+
+		PairCounts shared = new PairCounts();
+		for (int k = 0; k < index.size(); k++) {
+			int from = index.start[k];
+			int to = index.start[k + 1];
+			if (to - from < 2 || (maxFiles > 0 && to - from > maxFiles)) {
+				continue;
+			}
+
+			for (int a = from; a < to; a++) {
+				for (int b = a + 1; b < to; b++) {
+					if (comparable.test(index.files[a], index.files[b])) {
+						shared.add(key(index.files[a], index.files[b]));
+					}
+				}
+			}
+		}
+
+		return new CandidatePairs(shared.atLeast(Math.max(minShared, 1)));
+	}
+
+	/**
+	 * Builds the candidate pairs from MinHash signatures of each file's fingerprints, using locality-sensitive hashing to find similar signatures.
+	 * <p>
+	 * A pair sharing a fraction s of its distinct fingerprints collides in at least one band with probability 1 - (1 - s^rows)^bands, so more rows make the filter
+	 * stricter and more bands make it more forgiving. Colliding pairs are then kept only if the fraction of equal signature values, an estimate of s, is at least
+	 * the threshold.
+	 * </p>
+	 *
+	 * @param fingerprints fingerprints for each file, duplicates within a file are ignored
+	 * @param permutations number of hash functions in each signature, bands beyond the signature length are not used
+	 * @param bands        number of bands the signature is split into
+	 * @param rows         number of signature values in each band
+	 * @param threshold    minimum estimated Jaccard similarity of a candidate pair
+	 * @param comparable   tests whether two files, by index, can be compared at all (e.g. are from different submissions), pairs failing it are never counted
+	 *
+	 * @return the candidate pairs
+	 */
+	public static CandidatePairs fromMinHash(List<long[]> fingerprints, int permutations, int bands, int rows, float threshold, FilePairSpliterator.PairFilter comparable) {
+		if (permutations <= 0 || bands <= 0 || rows <= 0) {
+			throw new IllegalArgumentException("MinHash needs at least one permutation, band and row");
+		}
+		bands = Math.max(1, Math.min(bands, permutations / rows));
+		rows = Math.min(rows, permutations);
+
+		long[] seeds = new long[permutations];
+		long state = 0x5DEECE66DL;
+		for (int k = 0; k < permutations; k++) {
+			state += 0x9E3779B97F4A7C15L;
+			seeds[k] = mix(state);
+		}
+
+		List<long[]> signatures = fingerprints.parallelStream().map(x -> signature(x, seeds)).collect(Collectors.toList());
+
+		// Files agreeing on every value of a band share a bucket, files without fingerprints are in none
+		PairCounts pairs = new PairCounts();
+		PairCounts rejected = new PairCounts();
+		long[][] keys = new long[signatures.size()][];
+		for (int b = 0; b < bands; b++) {
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = fingerprints.get(i).length > 0 ? new long[] { bandKey(signatures.get(i), b * rows, rows) } : new long[0];
+			}
+			Postings buckets = new Postings(keys);
+
+			for (int k = 0; k < buckets.size(); k++) {
+				int to = buckets.start[k + 1];
+				for (int a = buckets.start[k]; a < to; a++) {
+					for (int c = a + 1; c < to; c++) {
+						int file1 = buckets.files[a];
+						int file2 = buckets.files[c];
+						long pair = key(file1, file2);
+						if (pairs.get(pair) > 0 || rejected.get(pair) > 0) {
+							continue;
+						}
+
+						if (comparable.test(file1, file2) && similarity(signatures.get(file1), signatures.get(file2)) >= threshold) {
+							pairs.add(pair);
+						}
+						else {
+							rejected.add(pair);
+						}
+					}
+				}
+			}
+		}
+
+		return new CandidatePairs(pairs);
+	}
+
+	/**
+	 * @return the distinct values of the array, sorted
+	 */
+	private static long[] distinctSorted(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int size = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[size++] = sorted[i];
+			}
+		}
+		return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+	}
+
+	/**
+	 * MinHash signature of a set of fingerprints, the minimum of each seeded hash function over the set
+	 */
+	private static long[] signature(long[] fingerprints, long[] seeds) {
+		long[] signature = new long[seeds.length];
+		Arrays.fill(signature, Long.MAX_VALUE);
+		for (long fingerprint : fingerprints) {
+			for (int k = 0; k < seeds.length; k++) {
+				long hash = mix(fingerprint ^ seeds[k]);
+				if (hash < signature[k]) {
+					signature[k] = hash;
+				}
+			}
+		}
+		return signature;
+	}
+
+	private static long bandKey(long[] signature, int start, int rows) {
+		long hash = 1;
+		for (int r = start; r < start + rows; r++) {
+			hash = mix(hash * 31 + signature[r]);
+		}
+		return hash;
+	}
+
+	/**
+	 * Estimated Jaccard similarity, the fraction of signature values which are equal
+	 */
+	private static float similarity(long[] signature1, long[] signature2) {
+		int equal = 0;
+		for (int k = 0; k < signature1.length; k++) {
+			if (signature1[k] == signature2[k]) {
+				equal++;
+			}
+		}
+		return (float) equal / signature1.length;
+	}
+
+	/**
+	 * SplitMix64 finaliser, spreads every input bit over the whole output
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static long key(int i, int j) {
+		return i < j ? ((long) i << 32) | j : ((long) j << 32) | i;
+	}
+
+	/**
+	 * Inverted index of files by key, held in primitive arrays. The files with the k-th distinct key are {@code files[start[k]]} up to {@code files[start[k + 1]]},
+	 * exclusive, in ascending order.
+	 */
+	private static final class Postings {
+
+		final int[] start;
+		final int[] files;
+
+		/**
+		 * @param keys the distinct keys of each file, sorted
+		 */
+		Postings(long[][] keys) {
+			int total = 0;
+			for (long[] fileKeys : keys) {
+				total += fileKeys.length;
+			}
+
+			long[] distinct = new long[total];
+			int offset = 0;
+			for (long[] fileKeys : keys) {
+				System.arraycopy(fileKeys, 0, distinct, offset, fileKeys.length);
+				offset += fileKeys.length;
+			}
+			distinct = distinctSorted(distinct);
+
+			// Number each key by its place in the sorted keys, and count the files with each
+			int[][] ids = new int[keys.length][];
+			this.start = new int[distinct.length + 1];
+			for (int i = 0; i < keys.length; i++) {
+				ids[i] = new int[keys[i].length];
+				for (int k = 0; k < keys[i].length; k++) {
+					ids[i][k] = Arrays.binarySearch(distinct, keys[i][k]);
+					this.start[ids[i][k] + 1]++;
+				}
+			}
+			for (int k = 0; k < distinct.length; k++) {
+				this.start[k + 1] += this.start[k];
+			}
+
+			// Filling in file order keeps each key's files ascending
+			this.files = new int[total];
+			int[] next = Arrays.copyOf(this.start, distinct.length);
+			for (int i = 0; i < keys.length; i++) {
+				for (int id : ids[i]) {
+					this.files[next[id]++] = i;
+				}
+			}
+		}
+
+		/**
+		 * @return the number of distinct keys
+		 */
+		int size() {
+			return this.start.length - 1;
+		}
+	}
+
+	/**
+	 * Open addressing map from pair keys to counts, so counting co-occurrences does not box every pair. A key is never 0, as a pair has two different files, so 0
+	 * marks an empty slot.
+	 */
+	private static final class PairCounts {
+
+		private long[] keys = new long[16];
+		private int[] counts = new int[16];
+		private int size;
+
+		/**
+		 * Adds one to the count of a pair
+		 */
+		void add(long key) {
+			int slot = this.slot(key);
+			if (this.keys[slot] == 0) {
+				this.keys[slot] = key;
+				if (++this.size * 2 > this.keys.length) {
+					this.grow();
+					slot = this.slot(key);
+				}
+			}
+			this.counts[slot]++;
+		}
+
+		/**
+		 * @return the count of a pair, 0 if it was never added
+		 */
+		int get(long key) {
+			return this.counts[this.slot(key)];
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		/**
+		 * @return the pairs counted at least the given number of times
+		 */
+		PairCounts atLeast(int min) {
+			PairCounts result = new PairCounts();
+			for (int s = 0; s < this.keys.length; s++) {
+				if (this.keys[s] != 0 && this.counts[s] >= min) {
+					result.add(this.keys[s]);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * @return the slot holding the key, or the empty slot it would be placed in
+		 */
+		private int slot(long key) {
+			int mask = this.keys.length - 1;
+			int slot = (int) mix(key) & mask;
+			while (this.keys[slot] != 0 && this.keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow() {
+			long[] oldKeys = this.keys;
+			int[] oldCounts = this.counts;
+			this.keys = new long[oldKeys.length * 2];
+			this.counts = new int[oldKeys.length * 2];
+			for (int s = 0; s < oldKeys.length; s++) {
+				if (oldKeys[s] != 0) {
+					int slot = this.slot(oldKeys[s]);
+					this.keys[slot] = oldKeys[s];
+					this.counts[slot] = oldCounts[s];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param i index of the first file
+	 * @param j index of the second file
+	 *
+	 * @return whether the pair, in either order, is a candidate
+	 */
+	public boolean contains(int i, int j) {
+		return this.pairs.get(key(i, j)) > 0;
+	}
+
+	/**
+	 * @return the number of candidate pairs
+	 */
+	public int size() {
+		return this.pairs.size();
+	}
+}
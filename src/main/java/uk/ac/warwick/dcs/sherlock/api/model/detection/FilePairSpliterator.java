@@ -0,0 +1,213 @@
+package uk.ac.warwick.dcs.sherlock.api.model.detection;
+
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily enumerates the unordered pairs of files in a job, identified by the index of each file in the job's data list.
+ * <p>
+ * Pairs (i, j) with i &lt; j are numbered row by row, and the spliterator covers a range of these numbers, so no pair is created until it is consumed and a range
+ * can be halved in constant time for parallel streams. A filter is applied as the pairs are generated, so rejected pairs are never passed downstream. Each pair is
+ * encoded in a single long, the first index in the high 32 bits and the second in the low 32 bits, read back with {@link #first(long)} and {@link #second(long)}.
+ * </p>
+ */
+public class FilePairSpliterator implements Spliterator.OfLong {
+
+	/**
+	 * Ranges with fewer pairs than this are not split any further
+	 */
+	private static final long MIN_SPLIT_SIZE = 1024;
+
+	private final int files;
+	private final PairFilter filter;
+	private final long end;
+
+	private long index;
+	private boolean decoded;
+	private int i;
+	private int j;
+
+	/**
+	 * Creates a spliterator over every pair of files accepted by the filter
+	 *
+	 * @param files  the number of files
+	 * @param filter tests whether a pair, by index, should be produced, null to produce every pair
+	 */
+	public FilePairSpliterator(int files, PairFilter filter) {
+		this(files, filter, 0, pairCount(files));
+	}
+
+	private FilePairSpliterator(int files, PairFilter filter, long begin, long end) {
+		this.files = files;
+		this.filter = filter;
+		this.index = begin;
+		this.end = end;
+		this.decoded = false;
+	}
+
+	/**
+	 * Creates a stream over every pair of files accepted by the filter
+	 *
+	 * @param files    the number of files
+	 * @param filter   tests whether a pair, by index, should be produced, null to produce every pair
+	 * @param parallel whether the stream is parallel
+	 *
+	 * @return stream of the encoded pairs
+	 */
+	public static LongStream stream(int files, PairFilter filter, boolean parallel) {
+		return StreamSupport.longStream(new FilePairSpliterator(files, filter), parallel);
+	}
+
+	/**
+	 * @param files the number of files
+	 *
+	 * @return the number of unordered pairs of distinct files
+	 */
+	public static long pairCount(int files) {
+		return files < 2 ? 0 : (long) files * (files - 1) / 2;
+	}
+
+	/**
+	 * @param first  index of the first file
+	 * @param second index of the second file
+	 *
+	 * @return the encoded pair
+	 */
+	public static long pair(int first, int second) {
+		return ((long) first << 32) | second;
+	}
+
+	/**
+	 * @param pair encoded pair
+	 *
+	 * @return index of the first file in the pair
+	 */
+	public static int first(long pair) {
+		return (int) (pair >>> 32);
+	}
+
+	/**
+	 * @param pair encoded pair
+	 *
+	 * @return index of the second file in the pair
+	 */
+	public static int second(long pair) {
+		return (int) pair;
+	}
+
+	/**
+	 * Number of pairs numbered before the first pair of a row, (i, i + 1)
+	 */
+	private static long rowStart(long row, long files) {
+		return row * (2 * files - row - 1) / 2;
+	}
+
+	@Override
+	public boolean tryAdvance(LongConsumer action) {
+		while (this.index < this.end) {
+			long pair = this.next();
+			if (pair >= 0) {
+				action.accept(pair);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void forEachRemaining(LongConsumer action) {
+		while (this.index < this.end) {
+			long pair = this.next();
+			if (pair >= 0) {
+				action.accept(pair);
+			}
+		}
+	}
+
+	@Override
+	public Spliterator.OfLong trySplit() {
+		long remaining = this.end - this.index;
+		if (remaining < 2 * MIN_SPLIT_SIZE) {
+			return null;
+		}
+
+		long middle = this.index + (remaining / 2);
+		FilePairSpliterator prefix = new FilePairSpliterator(this.files, this.filter, this.index, middle);
+		this.index = middle;
+		this.decoded = false;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return this.end - this.index;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | NONNULL | IMMUTABLE;
+	}
+
+	/**
+	 * Moves to the next pair
+	 *
+	 * @return the encoded pair moved past, or -1 if it was rejected by the filter
+	 */
+	private long next() {
+		if (!this.decoded) {
+			this.decode();
+		}
+
+		int a = this.i;
+		int b = this.j;
+
+		this.index++;
+		if (++this.j == this.files) {
+			this.i++;
+			this.j = this.i + 1;
+		}
+
+		if (this.filter == null || this.filter.test(a, b)) {
+			return pair(a, b);
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the pair numbered by the current index, used when starting and after splitting
+	 */
+	private void decode() {
+		long n = this.files;
+		double b = 2 * n - 1;
+		long row = (long) ((b - Math.sqrt(b * b - 8.0 * this.index)) / 2);
+
+		// Correct any floating point error in the estimate
+		while (row > 0 && rowStart(row, n) > this.index) {
+			row--;
+		}
+		while (row + 1 < n && rowStart(row + 1, n) <= this.index) {
+			row++;
+		}
+
+		this.i = (int) row;
+		this.j = (int) (row + 1 + (this.index - rowStart(row, n)));
+		this.decoded = true;
+	}
+
+	/**
+	 * Tests whether a pair of files, by index, should be produced
+	 */
+	@FunctionalInterface
+	public interface PairFilter {
+
+		/**
+		 * @param i index of the first file, always less than j
+		 * @param j index of the second file
+		 *
+		 * @return whether the pair should be produced
+		 */
+		boolean test(int i, int j);
+	}
+}
@@ -1,17 +1,21 @@
 package uk.ac.warwick.dcs.sherlock.api.model.detection;
 
 import uk.ac.warwick.dcs.sherlock.api.annotation.AdjustableParameter;
+import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.PreProcessingStrategy;
+import uk.ac.warwick.dcs.sherlock.api.util.CompiledConstructor;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.ExecutorUtils;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.stream.LongStream;
 
 /**
  * An abstract IDetector implementation which constructs an individual, parallel worker for each combination of files in the dataset. This can be used as a base for pairwise matching algorithms.
@@ -28,11 +32,102 @@ public class PairwiseDetector<T extends PairwiseDetectorWorker> extends Detector
 			description = "When set to 1, only compare files with the same filename across submissions. Useful for multi-file submissions.")
 	public int matchByFilename;
 
+	/**
+	 * When enabled, filenames differing only in case are matched by {@link #matchByFilename}
+	 */
+	@AdjustableParameter(name = "Filename Match Ignores Case", defaultValue = 0, minimumBound = 0, maximumBound = 1, step = 1,
+			description = "When set to 1, filenames differing only in case are treated as the same when matching by filename.")
+	public int matchFilenameIgnoreCase;
+
+	/**
+	 * When enabled, the file extension is ignored by {@link #matchByFilename}
+	 */
+	@AdjustableParameter(name = "Filename Match Ignores Extension", defaultValue = 0, minimumBound = 0, maximumBound = 1, step = 1,
+			description = "When set to 1, the file extension is ignored when matching by filename.")
+	public int matchFilenameIgnoreExtension;
+
+	/**
+	 * Number of parent directories which must also match when matching by filename, 0 to only compare the filename
+	 */
+	@AdjustableParameter(name = "Filename Match Path Depth", defaultValue = 0, minimumBound = 0, maximumBound = 5, step = 1,
+			description = "Number of parent directories which must also match when matching by filename. 0 compares the filename only.")
+	public int matchFilenamePathDepth;
+
+	/**
+	 * When above 0, candidate pairs are generated from an inverted index of file fingerprints, and only files sharing at least this many distinct fingerprints are
+	 * passed to the workers. Only used by detectors which provide fingerprints through {@link #getCandidateFingerprints(ModelDataItem)}.
+	 */
+	@AdjustableParameter(name = "Minimum Shared Fingerprints", defaultValue = 0, minimumBound = 0, maximumBound = 100, step = 1,
+			description = "When above 0, only compare files which share at least this many fingerprints (e.g. N-Grams). Pairs with less in common are skipped without running the detector.")
+	public int minimumSharedFingerprints;
+
+	/**
+	 * When above 0, fingerprints found in more than this many files are treated as boilerplate and ignored by the inverted index, as MOSS does. Pairs which only
+	 * share such fingerprints are then not compared.
+	 */
+	@AdjustableParameter(name = "Maximum Fingerprint Frequency", defaultValue = 0, minimumBound = 0, maximumBound = 1000, step = 1,
+			description = "When above 0, fingerprints found in more than this many files are ignored when choosing which files to compare. 0 uses every fingerprint.")
+	public int maximumFingerprintFrequency;
+
+	/**
+	 * When above 0, candidate pairs are generated from MinHash signatures of this many permutations using locality-sensitive hashing, instead of the inverted
+	 * index. Intended for very large cohorts where boilerplate makes most files share some fingerprints. Only used by detectors which provide fingerprints.
+	 */
+	@AdjustableParameter(name = "MinHash Permutations", defaultValue = 0, minimumBound = 0, maximumBound = 512, step = 16,
+			description = "When above 0, estimate the similarity of files from MinHash signatures of this length, and only compare likely similar files. Intended for very large cohorts.")
+	public int minhashPermutations;
+
+	/**
+	 * Number of locality-sensitive hashing bands the MinHash signature is split into, more bands find more of the similar pairs at the cost of more candidates
+	 */
+	@AdjustableParameter(name = "MinHash Bands", defaultValue = 32, minimumBound = 1, maximumBound = 128, step = 1,
+			description = "Number of bands the MinHash signature is split into. More bands find more similar pairs, but produce more candidates.")
+	public int minhashBands;
+
+	/**
+	 * Number of MinHash signature values in each band, more rows make each band stricter
+	 */
+	@AdjustableParameter(name = "MinHash Rows", defaultValue = 4, minimumBound = 1, maximumBound = 32, step = 1,
+			description = "Number of signature values in each band. More rows only pair files which are more similar.")
+	public int minhashRows;
+
+	/**
+	 * Minimum Jaccard similarity, estimated from the MinHash signatures, for a pair to be compared
+	 */
+	@AdjustableParameter(name = "MinHash Threshold", defaultValue = 0.2f, minimumBound = 0.0f, maximumBound = 1.0f, step = 0.05f,
+			description = "Minimum estimated similarity of two files for them to be compared when MinHash is enabled.")
+	public float minhashThreshold;
+
+	/**
+	 * Worker constructors, compiled once per worker class and shared by every instance of the detector
+	 */
+	private static final ClassValue<CompiledConstructor<WorkerConstructor>> workerConstructors = new ClassValue<>() {
+		@Override
+		protected CompiledConstructor<WorkerConstructor> computeValue(Class<?> type) {
+			try {
+				return CompiledConstructor.compile(WorkerConstructor.class, type, IDetector.class, ModelDataItem.class, ModelDataItem.class);
+			}
+			catch (NoSuchMethodException | IllegalAccessException e) {
+				return null;
+			}
+		}
+	};
+
 	/**
 	 * Class object for the generic type of this detector's worker
 	 */
 	private final Class<T> typeArgumentClass;
 
+	/**
+	 * Constructor of the worker, with this detector bound if the worker is an inner class
+	 */
+	private WorkerConstructor workerConstructor;
+
+	/**
+	 * Number of pairs skipped by candidate generation in the last call to {@link #buildWorkers(List)}
+	 */
+	private int prunedPairCount;
+
 	/**
 	 * {@link IDetector} implementation which automatically builds a worker for each possible combination of the source files passed
 	 *
@@ -59,40 +154,179 @@ public class PairwiseDetector<T extends PairwiseDetectorWorker> extends Detector
 	}
 
 	/**
-	 * Recursively creates a list of all the possible combinations (unordered) of a specific size of an input list
+	 * {@inheritDoc}
+	 */
+	@Override
+	public final List<T> buildWorkers(List<ModelDataItem> data) {
+		this.prepareFileData(data);
+
+		// Copy once for constant time access by index, the executor passes a linked list
+		List<ModelDataItem> files = new ArrayList<>(data);
+		ISubmission[] submissions = files.stream().map(x -> x.getFile().getSubmission()).toArray(ISubmission[]::new);
+
+		CandidatePairs candidates = this.buildCandidatePairs(files, submissions);
+		AtomicInteger pruned = new AtomicInteger(0);
+
+		LongStream pairs;
+		if (matchByFilename == 0) {
+			pairs = FilePairSpliterator.stream(files.size(), (i, j) -> !submissions[i].equals(submissions[j]), true);
+		}
+		else {
+			// Only pair files inside each bucket of matching filenames, rather than filtering every pair
+			pairs = this.buildFilenameBuckets(files).parallelStream().flatMapToLong(bucket -> FilePairSpliterator
+					.stream(bucket.length, (i, j) -> !submissions[bucket[i]].equals(submissions[bucket[j]]), false)
+					.map(x -> FilePairSpliterator.pair(bucket[FilePairSpliterator.first(x)], bucket[FilePairSpliterator.second(x)])));
+		}
+
+		List<T> workers = pairs
+				.filter(x -> {
+					if (candidates == null || candidates.contains(FilePairSpliterator.first(x), FilePairSpliterator.second(x))) {
+						return true;
+					}
+					pruned.incrementAndGet();
+					return false;
+				})
+				.mapToObj(x -> this.getAbstractPairwiseDetectorWorker(files.get(FilePairSpliterator.first(x)), files.get(FilePairSpliterator.second(x))))
+				.filter(Objects::nonNull).collect(Collectors.toList());
+
+		this.prunedPairCount = pruned.get();
+		if (candidates != null) {
+			ExecutorUtils.logger.info("{}: candidate generation pruned {} of {} file pairs", this.getDisplayName(), this.prunedPairCount, this.prunedPairCount + workers.size());
+		}
+
+		return workers;
+	}
+
+	/**
+	 * Groups the files by their filename match key, keeping only groups with more than one file
 	 *
-	 * @param list list of items to find combinations of
-	 * @param size size of the combinations, 2 returns pairs etc...
-	 * @param <E>  list typing
+	 * @param files the data items, in the order used for their indexes
 	 *
-	 * @return list of all possible combinations
+	 * @return the indexes of the files in each group, in ascending order
 	 */
-	private static <E> Stream<List<E>> combinations(List<E> list, int size) {
-		if (size == 0) {
-			return Stream.of(Collections.emptyList());
+	private List<int[]> buildFilenameBuckets(List<ModelDataItem> files) {
+		Map<String, List<Integer>> buckets = new LinkedHashMap<>();
+		for (int i = 0; i < files.size(); i++) {
+			buckets.computeIfAbsent(this.getFilenameMatchKey(files.get(i)), k -> new ArrayList<>()).add(i);
+		}
+
+		return buckets.values().stream().filter(x -> x.size() > 1).map(x -> x.stream().mapToInt(Integer::intValue).toArray()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Fetches the key files are matched on when {@link #matchByFilename} is enabled, files are only compared if their keys are equal. By default the filename,
+	 * normalised according to the filename match parameters.
+	 *
+	 * @param file the file
+	 *
+	 * @return the match key
+	 */
+	protected String getFilenameMatchKey(ModelDataItem file) {
+		String name;
+		if (matchFilenamePathDepth > 0) {
+			String[] segments = file.getFile().getFileDisplayPath().split("/");
+			int start = Math.max(segments.length - 1 - matchFilenamePathDepth, 0);
+			name = String.join("/", Arrays.asList(segments).subList(start, segments.length));
 		}
 		else {
-			return IntStream.range(0, list.size()).boxed().flatMap(i -> combinations(list.subList(i + 1, list.size()), size - 1).map(t -> pipe(list.get(i), t)));
+			name = file.getFile().getFileDisplayName();
 		}
+
+		if (matchFilenameIgnoreExtension != 0) {
+			int dot = name.lastIndexOf('.');
+			if (dot > name.lastIndexOf('/') + 1) {
+				name = name.substring(0, dot);
+			}
+		}
+
+		if (matchFilenameIgnoreCase != 0) {
+			name = name.toLowerCase(Locale.ROOT);
+		}
+
+		return name;
 	}
 
-	private static <E> List<E> pipe(E head, List<E> tail) {
-		List<E> newList = new ArrayList<>(tail);
-		newList.add(0, head);
-		return newList;
+	/**
+	 * Builds the candidate pairs for the job if candidate generation is enabled and the detector provides fingerprints. MinHash is used if enabled, otherwise the
+	 * inverted index.
+	 *
+	 * @param data        the data items passed to {@link #buildWorkers(List)}
+	 * @param submissions the submission of each data item
+	 *
+	 * @return the candidate pairs, or null if every pair should be compared
+	 */
+	private CandidatePairs buildCandidatePairs(List<ModelDataItem> data, ISubmission[] submissions) {
+		int minimumShared = this.getMinimumSharedFingerprints();
+		if ((minimumShared <= 0 && minhashPermutations <= 0) || data.size() < 2) {
+			return null;
+		}
+
+		List<long[]> fingerprints = data.parallelStream().map(this::getCandidateFingerprints).collect(Collectors.toList());
+		if (fingerprints.contains(null)) {
+			return null;
+		}
+
+		FilePairSpliterator.PairFilter comparable = (i, j) -> !submissions[i].equals(submissions[j]);
+		if (minhashPermutations > 0) {
+			return CandidatePairs.fromMinHash(fingerprints, minhashPermutations, minhashBands, minhashRows, minhashThreshold, comparable);
+		}
+		return CandidatePairs.fromInvertedIndex(fingerprints, minimumShared, this.getMaximumFingerprintFrequency(data.size()), comparable);
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Fetches the fingerprints of a file for candidate pair generation. Two files which share no fingerprints, or fewer than the minimum set for the detector, are
+	 * never passed to a worker.
+	 * <p>
+	 * By default returns null, meaning the detector does not support candidate generation and every pair is compared.
+	 * </p>
+	 *
+	 * @param file the file to fingerprint
+	 *
+	 * @return the fingerprints of the file, or null if not supported
 	 */
-	@Override
-	public final List<T> buildWorkers(List<ModelDataItem> data) {
-		return combinations(data, 2)
-				.filter(x -> !x.get(0).getFile().getSubmission().equals(x.get(1).getFile().getSubmission()))
-				.filter(x -> matchByFilename == 0 ||
-						x.get(0).getFile().getFileDisplayName().equals(x.get(1).getFile().getFileDisplayName()))
-				.map(x -> this.getAbstractPairwiseDetectorWorker(x.get(0), x.get(1)))
-				.filter(Objects::nonNull).collect(Collectors.toList());
+	protected long[] getCandidateFingerprints(ModelDataItem file) {
+		return null;
+	}
+
+	/**
+	 * Fetches the minimum number of fingerprints a pair must share to be compared, by default the value of the Minimum Shared Fingerprints parameter. Detectors which
+	 * only ever match through shared fingerprints can raise it, so candidate generation is always used.
+	 *
+	 * @return the minimum number of shared fingerprints, 0 or below to compare every pair
+	 */
+	protected int getMinimumSharedFingerprints() {
+		return this.minimumSharedFingerprints;
+	}
+
+	/**
+	 * Fetches the number of files a fingerprint can be found in before the inverted index ignores it, by default the value of the Maximum Fingerprint Frequency
+	 * parameter. Detectors which always use candidate generation can set a limit of their own, so boilerplate does not make every pair a candidate.
+	 *
+	 * @param files the number of files in the job
+	 *
+	 * @return the maximum number of files, 0 or below to use every fingerprint
+	 */
+	protected int getMaximumFingerprintFrequency(int files) {
+		return this.maximumFingerprintFrequency;
+	}
+
+	/**
+	 * @return the number of pairs skipped by candidate generation in the last call to {@link #buildWorkers(List)}
+	 */
+	public int getPrunedPairCount() {
+		return this.prunedPairCount;
+	}
+
+	/**
+	 * Called once with all the data items before any workers are built. Implementations can override this to precompute per file state a single time and share it
+	 * read only between their workers, instead of each worker rebuilding it for every pair the file appears in.
+	 * <p>
+	 * The executor builds the workers as work on its own pool, so parallel streams used here run on that pool's threads rather than the common pool.
+	 * </p>
+	 *
+	 * @param data the data items passed to {@link #buildWorkers(List)}
+	 */
+	protected void prepareFileData(List<ModelDataItem> data) {
 	}
 
 	/**
@@ -104,21 +338,38 @@ public class PairwiseDetector<T extends PairwiseDetectorWorker> extends Detector
 	 * @return the new worker instance
 	 */
 	public T getAbstractPairwiseDetectorWorker(ModelDataItem file1Data, ModelDataItem file2Data) {
-
-		try {
-			try {
-				return this.typeArgumentClass.getConstructor(IDetector.class, ModelDataItem.class, ModelDataItem.class).newInstance(this, file1Data, file2Data);
-			}
-			catch (NoSuchMethodException e) {
-				return this.typeArgumentClass.getConstructor(this.getClass(), IDetector.class, ModelDataItem.class, ModelDataItem.class).newInstance(this, this, file1Data, file2Data);
+		WorkerConstructor constructor = this.workerConstructor;
+		if (constructor == null) {
+			CompiledConstructor<WorkerConstructor> compiled = workerConstructors.get(this.typeArgumentClass);
+			if (compiled == null) {
+				ExecutorUtils.logger
+						.error("Could not build workers for detector {}. Ensure that the detector is not an inner class and its worker class {} has a constructor matching constructor(IDetector parent, ModelDataItem file1Data, ModelDataItem file2Data)",
+								this.getClass().getName(), this.typeArgumentClass.getName());
+				return null;
 			}
-		}
-		catch (IllegalAccessException | InvocationTargetException | InstantiationException | NoSuchMethodException e) {
-			ExecutorUtils.logger
-					.error("Could not build workers for detector {}. Ensure that the detector is not an inner class and its worker class {} has a constructor matching constructor(IDetector parent, ModelDataItem file1Data, ModelDataItem file2Data)",
-							this.getClass().getName(), this.typeArgumentClass.getName());
+
+			constructor = compiled.bind(this);
+			this.workerConstructor = constructor;
 		}
 
-		return null;
+		return this.typeArgumentClass.cast(constructor.newWorker(this, file1Data, file2Data));
+	}
+
+	/**
+	 * Functional interface the worker constructors are compiled to
+	 */
+	@FunctionalInterface
+	public interface WorkerConstructor {
+
+		/**
+		 * Constructs a new worker
+		 *
+		 * @param parent    the detector building the worker
+		 * @param file1Data ModelDataItem for file 1
+		 * @param file2Data ModelDataItem for file 2
+		 *
+		 * @return the new worker
+		 */
+		PairwiseDetectorWorker newWorker(IDetector parent, ModelDataItem file1Data, ModelDataItem file2Data);
 	}
 }
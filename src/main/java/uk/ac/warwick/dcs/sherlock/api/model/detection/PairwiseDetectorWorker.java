@@ -25,6 +25,20 @@ public abstract class PairwiseDetectorWorker<K extends AbstractModelTaskRawResul
 		this.file2 = file2Data;
 	}
 
+	/**
+	 * @return preprocessed data for file 1
+	 */
+	public ModelDataItem getFile1Data() {
+		return this.file1;
+	}
+
+	/**
+	 * @return preprocessed data for file 2
+	 */
+	public ModelDataItem getFile2Data() {
+		return this.file2;
+	}
+
 	/**
 	 * Gets the results of the worker execution, only minimal processing should be performed in this method
 	 *
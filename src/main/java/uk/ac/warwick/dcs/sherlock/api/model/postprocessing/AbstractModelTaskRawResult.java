@@ -15,6 +15,8 @@ import java.util.Set;
 import org.springframework.security.access.method.P;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -105,6 +107,22 @@ public abstract class AbstractModelTaskRawResult<T extends AbstractMatch<T>> imp
 		this.put(object, file1Loc, file1Loc, file2Loc, file2Loc);
 	}
 
+	/**
+	 * Getter for the persistent ID of the first file in the comparison pair, without fetching the file.
+	 * @return First ID.
+	 */
+	public long getFile1Id() {
+		return this.file1id;
+	}
+
+	/**
+	 * Getter for the persistent ID of the second file in the comparison pair, without fetching the file.
+	 * @return Second ID.
+	 */
+	public long getFile2Id() {
+		return this.file2id;
+	}
+
 	/**
 	 * Getter for ID of first file in comparison pair.
 	 * @return First ID.
@@ -357,6 +375,115 @@ public abstract class AbstractModelTaskRawResult<T extends AbstractMatch<T>> imp
 		}
 	}
 
+	/**
+	 * Removes a sequence of ranges of lines, giving exactly the same result as calling {@link #removeLine(PairedTuple)} for each in turn.
+	 * <p>
+	 * Most skeleton code ranges do not overlap any match of a given pair. For those removeLine only reverses the order of the matches and replaces each match
+	 * with a copy, so they are counted rather than applied. Per file interval sets of the current locations find the ranges which do overlap a match, only these
+	 * are passed to removeLine, after applying any pending reversal.
+	 * </p>
+	 * @param lines paired ITuples of <<file1start, file1end>, <file2start, file2end>> to remove, in order
+	 */
+	public synchronized void removeLines(List<PairedTuple<Integer, Integer, Integer, Integer>> lines) {
+		LineIntervals file1Intervals = null;
+		LineIntervals file2Intervals = null;
+		boolean reversed = false;
+		boolean copyPending = false;
+
+		for (PairedTuple<Integer, Integer, Integer, Integer> line : lines) {
+			if (file1Intervals == null) {
+				file1Intervals = new LineIntervals(this.locations, true);
+				file2Intervals = new LineIntervals(this.locations, false);
+			}
+
+			if (!file1Intervals.overlaps(line.getPoint1()) && !file2Intervals.overlaps(line.getPoint2())) {
+				reversed = !reversed;
+				copyPending = true;
+				continue;
+			}
+
+			if (reversed) {
+				Collections.reverse(this.locations);
+				Collections.reverse(this.objects);
+				reversed = false;
+			}
+			this.removeLine(line);
+			copyPending = false;
+			file1Intervals = null;
+		}
+
+		if (reversed) {
+			Collections.reverse(this.locations);
+			Collections.reverse(this.objects);
+		}
+		if (copyPending) {
+			// removeLine leaves every remaining match a copy, copies of copies are the same
+			for (int i = 0; i < this.objects.size(); i++) {
+				T match = this.objects.get(i).copy();
+				match.setLines(this.locations.get(i));
+				this.objects.set(i, match);
+			}
+		}
+	}
+
+	/**
+	 * Interval set of one file's side of the locations, to check whether a range overlaps any of them
+	 */
+	private static class LineIntervals {
+
+		// Starts in ascending order, with the largest end of any location up to and including each start
+		private final int[] starts;
+		private final int[] maxEnds;
+
+		// removeLine treats a location starting at -1 as a flag to remove it, whatever the range
+		private final boolean removeFlag;
+
+		LineIntervals(List<PairedTuple<Integer, Integer, Integer, Integer>> locations, boolean file1) {
+			long[] packed = new long[locations.size()];
+			int[] ends = new int[locations.size()];
+			boolean flag = false;
+			for (int i = 0; i < locations.size(); i++) {
+				ITuple<Integer, Integer> range = file1 ? locations.get(i).getPoint1() : locations.get(i).getPoint2();
+				packed[i] = ((long) range.getKey() << 32) | i;
+				ends[i] = range.getValue();
+				flag |= range.getKey() == -1;
+			}
+			this.removeFlag = flag;
+			Arrays.sort(packed);
+
+			this.starts = new int[packed.length];
+			this.maxEnds = new int[packed.length];
+			for (int i = 0; i < packed.length; i++) {
+				this.starts[i] = (int) (packed[i] >> 32);
+				int end = ends[(int) packed[i]];
+				this.maxEnds[i] = i == 0 ? end : Math.max(this.maxEnds[i - 1], end);
+			}
+		}
+
+		/**
+		 * Matches the overlap test of {@link #removePairFrom(ITuple, ITuple)}, a range overlaps a location unless one starts after the other ends
+		 */
+		boolean overlaps(ITuple<Integer, Integer> range) {
+			if (this.removeFlag) {
+				return true;
+			}
+
+			// Number of locations starting at or before the end of the range
+			int lo = 0;
+			int hi = this.starts.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (this.starts[mid] <= range.getValue()) {
+					lo = mid + 1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			return lo > 0 && this.maxEnds[lo - 1] >= range.getKey();
+		}
+	}
+
 	/**
 	 * Takes two ranges as two tuples, the first being the current range, and the second being the range of values to remove
 	 * @param original The current range, in the form of a ITuple <start, end>
@@ -0,0 +1,103 @@
+package uk.ac.warwick.dcs.sherlock.api.model.postprocessing;
+
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlock;
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index from file persistent ids to the {@link ICodeBlockGroup} instances containing them
+ * <p>
+ * Built once from a list of groups, after which the groups of a file, or of a set of files, are found without testing every group. Groups are always returned in
+ * the order of the list the index was built from, the same as filtering the list. The index does not see groups added to or removed from the list afterwards.
+ * </p>
+ */
+public class FileGroupIndex {
+
+	private final List<ICodeBlockGroup> groups;
+	private final Map<Long, BitSet> fileGroups;
+
+	/**
+	 * Builds the index
+	 *
+	 * @param groups the groups to index
+	 */
+	public FileGroupIndex(Collection<? extends ICodeBlockGroup> groups) {
+		this.groups = new ArrayList<>(groups);
+		this.fileGroups = new HashMap<>();
+
+		for (int i = 0; i < this.groups.size(); i++) {
+			for (ICodeBlock block : this.groups.get(i).getCodeBlocks()) {
+				if (block.getFile() != null) {
+					this.fileGroups.computeIfAbsent(block.getFile().getPersistentId(), x -> new BitSet()).set(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param fileId persistent id of the file
+	 *
+	 * @return the groups containing the file
+	 */
+	public List<ICodeBlockGroup> getGroups(long fileId) {
+		BitSet set = this.fileGroups.get(fileId);
+		return set != null ? this.toList(set) : new ArrayList<>();
+	}
+
+	/**
+	 * @param fileIds persistent ids of the files
+	 *
+	 * @return the groups containing at least one of the files
+	 */
+	public List<ICodeBlockGroup> getGroups(Collection<Long> fileIds) {
+		return this.toList(this.union(fileIds));
+	}
+
+	/**
+	 * @param fileIds1 persistent ids of the first set of files
+	 * @param fileIds2 persistent ids of the second set of files
+	 *
+	 * @return the groups containing at least one file from each set
+	 */
+	public List<ICodeBlockGroup> getGroups(Collection<Long> fileIds1, Collection<Long> fileIds2) {
+		BitSet set = this.union(fileIds1);
+		set.and(this.union(fileIds2));
+		return this.toList(set);
+	}
+
+	/**
+	 * @return the persistent ids of every file in at least one group
+	 */
+	public Set<Long> getFileIds() {
+		return Collections.unmodifiableSet(this.fileGroups.keySet());
+	}
+
+	private BitSet union(Collection<Long> fileIds) {
+		BitSet res = new BitSet(this.groups.size());
+		if (fileIds != null) {
+			for (Long fileId : fileIds) {
+				BitSet set = this.fileGroups.get(fileId);
+				if (set != null) {
+					res.or(set);
+				}
+			}
+		}
+		return res;
+	}
+
+	private List<ICodeBlockGroup> toList(BitSet set) {
+		List<ICodeBlockGroup> res = new ArrayList<>(set.cardinality());
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+			res.add(this.groups.get(i));
+		}
+		return res;
+	}
+}
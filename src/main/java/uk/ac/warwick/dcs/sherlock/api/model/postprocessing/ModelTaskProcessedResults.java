@@ -1,10 +1,14 @@
 package uk.ac.warwick.dcs.sherlock.api.model.postprocessing;
 
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlock;
 import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
 import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
 import uk.ac.warwick.dcs.sherlock.api.util.SherlockHelper;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -20,12 +24,18 @@ public class ModelTaskProcessedResults {
 	private Map<ISourceFile, Integer> totals;
 	private List<ICodeBlockGroup> groups;
 
+	// Built by indexFiles once post-processing is finished, null while the groups can still change
+	private volatile FileGroupIndex index;
+	private volatile Map<Long, Integer> totalsById;
+
 	/**
 	 * default constructor
 	 */
 	public ModelTaskProcessedResults() {
 		this.groups = new LinkedList<>();
 		this.totals = null;
+		this.index = null;
+		this.totalsById = null;
 	}
 
 	/**
@@ -37,6 +47,7 @@ public class ModelTaskProcessedResults {
 		try {
 			ICodeBlockGroup g = SherlockHelper.getInstanceOfCodeBlockGroup();
 			this.groups.add(g);
+			this.index = null;
 			return g;
 		}
 		catch (IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e) {
@@ -46,6 +57,31 @@ public class ModelTaskProcessedResults {
 		return null;
 	}
 
+	/**
+	 * Copies the results of a file to a file with the same content which was not run through the detector. A block with the same lines, score and internal
+	 * skeleton code is added for the duplicate to every group containing the original, and the original's scoring total is used for the duplicate if totals are
+	 * set.
+	 *
+	 * @param original  the file the detector was run on
+	 * @param duplicate the file with the same content
+	 */
+	public void copyFileResults(ISourceFile original, ISourceFile duplicate) {
+		for (ICodeBlockGroup group : this.getGroups(original)) {
+			ICodeBlock block = group.getCodeBlock(original);
+			for (ITuple<Integer, Integer> lines : block.getLineNumbers()) {
+				HashSet<ITuple<Integer, Integer>> skeleton = block.getInternalSkeletonCode().get(lines);
+				group.addCodeBlock(duplicate, block.getBlockScore(), lines, block.getSubtreeWeight(), skeleton != null ? new HashSet<>(skeleton) : null);
+			}
+		}
+
+		if (this.totals != null) {
+			Map<ISourceFile, Integer> totals = new HashMap<>(this.totals);
+			totals.put(duplicate, this.getFileTotal(original));
+			this.setFileTotals(totals);
+		}
+		this.index = null;
+	}
+
 	/**
 	 * Remove unpopulated groups from the list (groups covering fewer than 2 files)
 	 *
@@ -53,9 +89,26 @@ public class ModelTaskProcessedResults {
 	 */
 	public boolean cleanGroups() {
 		this.groups = this.groups.stream().filter(ICodeBlockGroup::isPopulated).collect(Collectors.toList());
+		this.index = null;
 		return false;
 	}
 
+	/**
+	 * Indexes the groups and scoring totals by file, so the groups of a file and its total are found without searching every group and total.
+	 * <p>
+	 * Called once post-processing has finished. The index is dropped if groups are added or removed through this object afterwards, and the groups list must not be
+	 * modified directly once indexed.
+	 * </p>
+	 */
+	public void indexFiles() {
+		if (this.totals != null) {
+			Map<Long, Integer> byId = new HashMap<>();
+			this.totals.forEach((file, total) -> byId.putIfAbsent(file.getPersistentId(), total));
+			this.totalsById = byId;
+		}
+		this.index = new FileGroupIndex(this.groups);
+	}
+
 	/**
 	 * Returns the scoring total for the file passed, by default this is the total number of lines in the file. Can be set to a custom value via the totals map if appropriate
 	 *
@@ -69,6 +122,15 @@ public class ModelTaskProcessedResults {
 				return this.totals.get(file);
 			}
 
+			Map<Long, Integer> byId = this.totalsById;
+			if (byId != null) {
+				Integer total = byId.get(file.getPersistentId());
+				if (total != null) {
+					return total;
+				}
+				return file.getTotalLineCount();
+			}
+
 			for (Map.Entry<ISourceFile, Integer> entry : this.totals.entrySet()) {
 				if (entry.getKey().getPersistentId() == file.getPersistentId()) {
 					return entry.getValue();
@@ -88,6 +150,10 @@ public class ModelTaskProcessedResults {
 	 * @return list of groups
 	 */
 	public List<ICodeBlockGroup> getGroups(ISourceFile file1, ISourceFile file2) {
+		FileGroupIndex index = this.index;
+		if (index != null) {
+			return index.getGroups(file1.getPersistentId()).stream().filter(g -> g.filePresent(file2)).collect(Collectors.toList());
+		}
 		return groups.stream().filter(g -> g.filePresent(file1) && g.filePresent(file2)).collect(Collectors.toList());
 	}
 
@@ -108,6 +174,10 @@ public class ModelTaskProcessedResults {
 	 * @return list of groups
 	 */
 	public List<ICodeBlockGroup> getGroups(ISourceFile file) {
+		FileGroupIndex index = this.index;
+		if (index != null) {
+			return index.getGroups(file.getPersistentId());
+		}
 		return groups.stream().filter(g -> g.filePresent(file)).collect(Collectors.toList());
 	}
 
@@ -119,6 +189,7 @@ public class ModelTaskProcessedResults {
 	public void removeGroup(ICodeBlockGroup group) {
 		if (group != null) {
 			this.groups.remove(group);
+			this.index = null;
 		}
 	}
 
@@ -132,5 +203,6 @@ public class ModelTaskProcessedResults {
 	 */
 	public void setFileTotals(Map<ISourceFile, Integer> totalsMap) {
 		this.totals = totalsMap;
+		this.totalsById = null;
 	}
 }
@@ -1,8 +1,33 @@
 package uk.ac.warwick.dcs.sherlock.api.model.preprocessing;
 
 import uk.ac.warwick.dcs.sherlock.api.util.ASTNode;
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST;
 import uk.ac.warwick.dcs.sherlock.api.util.IPreprocessArtifact;
 
+/**
+ * A file's AST, either as a tree of {@link ASTNode} objects or as a compact {@link FlatAST}. The generators emit the flat form, as the ASTs of every file are
+ * kept for the whole of a job.
+ *
+ * @param ast  the object tree, null if only the flat tree was emitted
+ * @param flat the flat tree, null if only the object tree was emitted
+ */
 public record ASTArtifact(
-        ASTNode<?> ast
-) implements IPreprocessArtifact {}
\ No newline at end of file
+        ASTNode<?> ast,
+        FlatAST flat
+) implements IPreprocessArtifact {
+
+    public ASTArtifact(ASTNode<?> ast) {
+        this(ast, null);
+    }
+
+    public ASTArtifact(FlatAST flat) {
+        this(null, flat);
+    }
+
+    /**
+     * @return the flat tree, flattening the object tree if the flat tree was not emitted
+     */
+    public FlatAST toFlat() {
+        return this.flat != null ? this.flat : FlatAST.of(this.ast);
+    }
+}
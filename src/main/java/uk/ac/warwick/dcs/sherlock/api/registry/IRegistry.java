@@ -1,5 +1,6 @@
 package uk.ac.warwick.dcs.sherlock.api.registry;
 
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Lexer;
 import uk.ac.warwick.dcs.sherlock.api.annotation.AdjustableParameterObj;
 import uk.ac.warwick.dcs.sherlock.api.model.detection.IDetector;
@@ -29,6 +30,15 @@ public interface IRegistry {
 	 */
 	ITuple<Class<? extends IAdvancedPreProcessor>, Class<? extends Lexer>> getAdvancedPostProcessorForLanguage(Class<? extends IAdvancedPreProcessorGroup> group, String language);
 
+	/**
+	 * Creates a new instance of an IAdvancedPreProcessor, through its constructor compiled once when registered
+	 *
+	 * @param preProcessor preprocessor class
+	 *
+	 * @return new instance of the preprocessor, or null if it could not be created
+	 */
+	IAdvancedPreProcessor getAdvancedPreProcessorInstance(Class<? extends IAdvancedPreProcessor> preProcessor);
+
 	/**
 	 * Get the description of a detector
 	 *
@@ -56,6 +66,15 @@ public interface IRegistry {
 	 */
 	String getDetectorDisplayName(Class<? extends IDetector> det);
 
+	/**
+	 * Creates a new instance of a detector, through its constructor compiled once when registered
+	 *
+	 * @param det detector class
+	 *
+	 * @return new instance of the detector, or null if it could not be created
+	 */
+	IDetector getDetectorInstance(Class<? extends IDetector> det);
+
 	/**
 	 * Get the languages supported by the detector
 	 *
@@ -116,6 +135,25 @@ public interface IRegistry {
 	 */
 	List<AdjustableParameterObj> getPostProcessorAdjustableParametersFromDetector(Class<? extends IDetector> det);
 
+	/**
+	 * Creates a new instance of an IGeneralPreProcessor, through its constructor compiled once when registered
+	 *
+	 * @param preProcessor preprocessor class
+	 *
+	 * @return new instance of the preprocessor, or null if it could not be created
+	 */
+	IGeneralPreProcessor getGeneralPreProcessorInstance(Class<? extends IGeneralPreProcessor> preProcessor);
+
+	/**
+	 * Creates a new instance of a lexer reading from the input, through its constructor compiled on first use
+	 *
+	 * @param lexer lexer class
+	 * @param input the input to lex
+	 *
+	 * @return new instance of the lexer, or null if it could not be created
+	 */
+	Lexer getLexerInstance(Class<? extends Lexer> lexer, CharStream input);
+
 	/**
 	 * Get correct instance of IPostProcessor to process an AbstractModelTaskRawResult object
 	 *
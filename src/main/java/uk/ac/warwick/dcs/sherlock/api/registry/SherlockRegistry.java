@@ -37,6 +37,20 @@ public class SherlockRegistry {
 		return null;
 	}
 
+	/**
+	 * Creates a new instance of an {@link IAdvancedPreProcessor}
+	 *
+	 * @param preProcessor preprocessor class
+	 *
+	 * @return the new instance, or null if it could not be created
+	 */
+	public static IAdvancedPreProcessor getAdvancedPreProcessorInstance(Class<? extends IAdvancedPreProcessor> preProcessor) {
+		if (registry != null) {
+			return registry.getAdvancedPreProcessorInstance(preProcessor);
+		}
+		return null;
+	}
+
 	/**
 	 * @param det detector class
 	 *
@@ -73,6 +87,20 @@ public class SherlockRegistry {
 		return null;
 	}
 
+	/**
+	 * Creates a new instance of a detector
+	 *
+	 * @param det detector class
+	 *
+	 * @return the new instance, or null if it could not be created
+	 */
+	public static IDetector getDetectorInstance(Class<? extends IDetector> det) {
+		if (registry != null) {
+			return registry.getDetectorInstance(det);
+		}
+		return null;
+	}
+
 	/**
 	 * @param det detector class
 	 *
@@ -109,6 +137,20 @@ public class SherlockRegistry {
 		return null;
 	}
 
+	/**
+	 * Creates a new instance of an {@link IGeneralPreProcessor}
+	 *
+	 * @param preProcessor preprocessor class
+	 *
+	 * @return the new instance, or null if it could not be created
+	 */
+	public static IGeneralPreProcessor getGeneralPreProcessorInstance(Class<? extends IGeneralPreProcessor> preProcessor) {
+		if (registry != null) {
+			return registry.getGeneralPreProcessorInstance(preProcessor);
+		}
+		return null;
+	}
+
 	/**
 	 * Returns the set of registered languages
 	 *
@@ -136,6 +178,21 @@ public class SherlockRegistry {
 		return null;
 	}
 
+	/**
+	 * Creates a new lexer reading from the input
+	 *
+	 * @param lexer lexer class
+	 * @param input the input to lex
+	 *
+	 * @return the new lexer, or null if it could not be created
+	 */
+	public static Lexer getLexerInstance(Class<? extends Lexer> lexer, CharStream input) {
+		if (registry != null) {
+			return registry.getLexerInstance(lexer, input);
+		}
+		return null;
+	}
+
 	/**
 	 * Gets the adjustable parameters for a postprocessor
 	 *
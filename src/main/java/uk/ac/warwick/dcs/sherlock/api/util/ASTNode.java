@@ -48,7 +48,6 @@ public abstract class ASTNode<K extends Enum<K> & ASTNode.NodeKind> {
     private String abstractFingerprint; // MD5 of subtree with selected values abstracted
     private int weight;                 // Number of nodes in subtree
     private int height;                 // Height of subtree
-    private Set<ASTNode<?>> descendants = null;
 
     // -------------------------------------------------------------------------
     // Abstract contract for subclasses
@@ -190,17 +189,24 @@ public abstract class ASTNode<K extends Enum<K> & ASTNode.NodeKind> {
 
     /**
      * Returns all descendants of this node (including itself).
-     * Result is cached after the first call (populate via {@code preprocessTree}).
+     *
+     * <p>Built on every call and not cached, as keeping a set on every node takes memory
+     * quadratic in the depth of the tree. Code testing descendants repeatedly should number
+     * the nodes in pre-order, where the descendants of a node are the {@code weight} nodes
+     * starting at it.</p>
      */
     public Set<ASTNode<?>> getDescendants() {
-        if (descendants != null) return descendants;
         Set<ASTNode<?>> result = new HashSet<>();
-        result.add(this);
-        for (ASTNode<?> child : children) {
-            result.addAll(child.getDescendants());
+        Deque<ASTNode<?>> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            ASTNode<?> node = stack.pop();
+            result.add(node);
+            for (ASTNode<?> child : node.children) {
+                stack.push(child);
+            }
         }
-        descendants = result;
-        return descendants;
+        return result;
     }
 
     // -------------------------------------------------------------------------
@@ -0,0 +1,143 @@
+package uk.ac.warwick.dcs.sherlock.api.util;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * A constructor compiled once into an implementation of a functional interface, so instances can be created in hot loops without reflection
+ * <p>
+ * The constructor is linked with {@link LambdaMetafactory}, giving the same call cost as a lambda calling {@code new} directly. Where the metafactory cannot be
+ * used, for example for a class in another module, the constructor's {@link MethodHandle} is wrapped instead. Constructors of inner classes take the
+ * enclosing instance first; it is bound with {@link #bind(Object)}, which is cheap enough to call once per enclosing instance.
+ * </p>
+ *
+ * @param <F> the functional interface the constructor is compiled to
+ */
+public final class CompiledConstructor<F> {
+
+	private final Class<F> functionalInterface;
+	private final MethodHandle constructor;
+	private final MethodHandle binder;
+	private final F instance;
+
+	private CompiledConstructor(Class<F> functionalInterface, MethodHandle constructor, MethodHandle binder, F instance) {
+		this.functionalInterface = functionalInterface;
+		this.constructor = constructor;
+		this.binder = binder;
+		this.instance = instance;
+	}
+
+	/**
+	 * Compiles a constructor of a class into a functional interface
+	 * <p>
+	 * The constructor taking the parameter types is used, or if the class is an inner class without one, the constructor taking its enclosing instance followed
+	 * by the parameter types. The interface's single abstract method must take the parameter types, and return a supertype of the class.
+	 * </p>
+	 *
+	 * @param functionalInterface the interface to compile to, eg. {@link java.util.function.Supplier} for a nullary constructor
+	 * @param clazz               the class to construct
+	 * @param parameterTypes      the parameter types of the constructor, excluding any enclosing instance
+	 * @param <F>                 type of the interface
+	 *
+	 * @return the compiled constructor
+	 *
+	 * @throws NoSuchMethodException  if there is no matching constructor, or the interface is not functional
+	 * @throws IllegalAccessException if the constructor could not be accessed
+	 */
+	public static <F> CompiledConstructor<F> compile(Class<F> functionalInterface, Class<?> clazz, Class<?>... parameterTypes) throws NoSuchMethodException, IllegalAccessException {
+		Method sam = Arrays.stream(functionalInterface.getMethods()).filter(m -> Modifier.isAbstract(m.getModifiers())).findFirst()
+				.orElseThrow(() -> new NoSuchMethodException(functionalInterface.getName() + " is not a functional interface"));
+
+		MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+
+		Class<?>[] captured = {};
+		MethodHandle constructor;
+		try {
+			constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class, parameterTypes));
+		}
+		catch (NoSuchMethodException e) {
+			if (clazz.getEnclosingClass() == null || Modifier.isStatic(clazz.getModifiers())) {
+				throw e;
+			}
+
+			captured = new Class<?>[] { clazz.getEnclosingClass() };
+			Class<?>[] innerTypes = new Class<?>[parameterTypes.length + 1];
+			innerTypes[0] = clazz.getEnclosingClass();
+			System.arraycopy(parameterTypes, 0, innerTypes, 1, parameterTypes.length);
+			constructor = lookup.findConstructor(clazz, MethodType.methodType(void.class, innerTypes));
+		}
+
+		MethodHandle binder = null;
+		try {
+			CallSite site = LambdaMetafactory.metafactory(lookup, sam.getName(), MethodType.methodType(functionalInterface, captured),
+					MethodType.methodType(sam.getReturnType(), sam.getParameterTypes()), constructor, MethodType.methodType(clazz, parameterTypes));
+			binder = site.getTarget();
+		}
+		catch (LambdaConversionException | IllegalArgumentException e) {
+			// Fall back to wrapping the method handle, slower per call but still free of reflection
+		}
+
+		F instance = null;
+		if (captured.length == 0) {
+			instance = binder != null ? bind(functionalInterface, binder) : MethodHandleProxies.asInterfaceInstance(functionalInterface, constructor);
+		}
+
+		return new CompiledConstructor<>(functionalInterface, constructor, binder, instance);
+	}
+
+	private static <F> F bind(Class<F> functionalInterface, MethodHandle binder, Object... captured) {
+		try {
+			return functionalInterface.cast(binder.invokeWithArguments(captured));
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	/**
+	 * @return whether the constructor takes an enclosing instance, which must be bound with {@link #bind(Object)}
+	 */
+	public boolean isInner() {
+		return this.instance == null;
+	}
+
+	/**
+	 * @return the compiled constructor, for a class which is not an inner class
+	 *
+	 * @throws IllegalStateException if the constructor takes an enclosing instance
+	 */
+	public F get() {
+		if (this.instance == null) {
+			throw new IllegalStateException("The constructor takes an enclosing instance, use bind()");
+		}
+		return this.instance;
+	}
+
+	/**
+	 * Fetches the compiled constructor with its enclosing instance bound, if it takes one
+	 *
+	 * @param enclosing the enclosing instance, ignored if the class is not an inner class
+	 *
+	 * @return the compiled constructor
+	 */
+	public F bind(Object enclosing) {
+		if (this.instance != null) {
+			return this.instance;
+		}
+		if (this.binder != null) {
+			return bind(this.functionalInterface, this.binder, enclosing);
+		}
+		return MethodHandleProxies.asInterfaceInstance(this.functionalInterface, this.constructor.bindTo(enclosing));
+	}
+}
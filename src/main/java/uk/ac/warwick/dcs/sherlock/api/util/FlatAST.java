@@ -0,0 +1,283 @@
+package uk.ac.warwick.dcs.sherlock.api.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, immutable form of an {@link ASTNode} tree, for keeping the ASTs of every file in a job.
+ *
+ * <p>Each node is an {@code int} id, and its fields are held in parallel primitive arrays
+ * (kind, parent, first child, next sibling, weight, height, fingerprints and line range)
+ * rather than an object with a children list, a metadata map and boxed values. Character
+ * positions are not kept, and equal node values share one string.</p>
+ *
+ * <p>Nodes are numbered in pre-order, the root being 0, so the descendants of a node
+ * (including itself) are the {@code weight} ids starting at its own.</p>
+ *
+ * <p>The fingerprint of a subtree is a 128-bit structural hash, computed bottom-up from the
+ * node's kind and value and the fingerprints of its children, in order. Strict fingerprints
+ * use every value, abstract fingerprints drop the values of the kinds the node class abstracts,
+ * as in {@link ASTNode#computeFingerprint(boolean)}. Each half is a separately seeded 64-bit
+ * hash, finished with the MurmurHash3 mixer, so the chance of any two different subtrees among
+ * {@code n} sharing a fingerprint is about {@code n^2 / 2^129}: below 10^-20 for a hundred
+ * million subtrees. Where that is not enough, {@link #isIsomorphic(int, FlatAST, int, boolean)}
+ * compares the subtrees themselves.</p>
+ */
+public final class FlatAST {
+
+    /** Id used for a missing parent, child or sibling. */
+    public static final int NONE = -1;
+
+    /** Line used for a node without line metadata. */
+    public static final int NO_LINE = -1;
+
+    // Seeds of the two halves of each fingerprint
+    private static final long SEED_HIGH = 0x9e3779b97f4a7c15L;
+    private static final long SEED_LOW = 0xc2b2ae3d27d4eb4fL;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long CHILD_MULTIPLIER = 0x9fb21c651e98df25L;
+
+    // Constants of the tree's kind enum, indexed by the ordinals in kinds, and whether the abstract fingerprint drops the value of each kind
+    private final Enum<?>[] kindValues;
+    private final boolean[] abstractKinds;
+
+    private final short[] kinds;
+    private final String[] values;
+    private final int[] parents;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] weights;
+    private final int[] heights;
+    private final long[] strictHigh;
+    private final long[] strictLow;
+    private final long[] abstractHigh;
+    private final long[] abstractLow;
+    private final int[] startLines;
+    private final int[] endLines;
+
+    private FlatAST(ASTNode<?> root) {
+        List<ASTNode<?>> nodes = new ArrayList<>();
+        List<Integer> parentIds = new ArrayList<>();
+
+        // Pre-order, each node is given the next id as it is popped
+        Deque<ASTNode<?>> stack = new ArrayDeque<>();
+        Deque<Integer> stackParents = new ArrayDeque<>();
+        stack.push(root);
+        stackParents.push(NONE);
+        while (!stack.isEmpty()) {
+            ASTNode<?> node = stack.pop();
+            nodes.add(node);
+            parentIds.add(stackParents.pop());
+            int id = nodes.size() - 1;
+            List<ASTNode<?>> children = node.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+                stackParents.push(id);
+            }
+        }
+
+        int size = nodes.size();
+        this.kindValues = root.getKind().getDeclaringClass().getEnumConstants();
+        this.abstractKinds = new boolean[this.kindValues.length];
+        for (Object kind : root.abstractValueKinds()) {
+            this.abstractKinds[((Enum<?>) kind).ordinal()] = true;
+        }
+
+        this.kinds = new short[size];
+        this.values = new String[size];
+        this.parents = new int[size];
+        this.firstChildren = new int[size];
+        this.nextSiblings = new int[size];
+        this.weights = new int[size];
+        this.heights = new int[size];
+        this.strictHigh = new long[size];
+        this.strictLow = new long[size];
+        this.abstractHigh = new long[size];
+        this.abstractLow = new long[size];
+        this.startLines = new int[size];
+        this.endLines = new int[size];
+        Arrays.fill(this.firstChildren, NONE);
+        Arrays.fill(this.nextSiblings, NONE);
+
+        // Children are visited in order, so each is linked after the last child visited of its parent
+        int[] lastChildren = new int[size];
+        Arrays.fill(lastChildren, NONE);
+        Map<String, String> distinctValues = new HashMap<>();
+        for (int id = 0; id < size; id++) {
+            ASTNode<?> node = nodes.get(id);
+            int parent = parentIds.get(id);
+            this.kinds[id] = (short) node.getKind().ordinal();
+            this.values[id] = distinctValues.computeIfAbsent(node.getValue(), v -> v);
+            this.parents[id] = parent;
+            this.startLines[id] = line(node, "startLine");
+            this.endLines[id] = line(node, "endLine");
+            if (parent != NONE) {
+                if (lastChildren[parent] == NONE) {
+                    this.firstChildren[parent] = id;
+                } else {
+                    this.nextSiblings[lastChildren[parent]] = id;
+                }
+                lastChildren[parent] = id;
+            }
+        }
+
+        long[] kindHigh = new long[this.kindValues.length];
+        long[] kindLow = new long[this.kindValues.length];
+        for (Enum<?> kind : this.kindValues) {
+            kindHigh[kind.ordinal()] = hash(kind.name(), SEED_HIGH);
+            kindLow[kind.ordinal()] = hash(kind.name(), SEED_LOW);
+        }
+        long emptyHigh = hash("", SEED_HIGH);
+        long emptyLow = hash("", SEED_LOW);
+
+        // Children have higher ids than their parents, so every child is done before its parent
+        for (int id = size - 1; id >= 0; id--) {
+            int kind = this.kinds[id];
+            long valueHigh = hash(this.values[id], SEED_HIGH);
+            long valueLow = hash(this.values[id], SEED_LOW);
+            long sHigh = label(kindHigh[kind], valueHigh);
+            long sLow = label(kindLow[kind], valueLow);
+            long aHigh = this.abstractKinds[kind] ? label(kindHigh[kind], emptyHigh) : sHigh;
+            long aLow = this.abstractKinds[kind] ? label(kindLow[kind], emptyLow) : sLow;
+
+            int weight = 1;
+            int height = 0;
+            int childCount = 0;
+            for (int child = this.firstChildren[id]; child != NONE; child = this.nextSiblings[child]) {
+                weight += this.weights[child];
+                height = Math.max(height, this.heights[child]);
+                sHigh = combine(sHigh, this.strictHigh[child]);
+                sLow = combine(sLow, this.strictLow[child]);
+                aHigh = combine(aHigh, this.abstractHigh[child]);
+                aLow = combine(aLow, this.abstractLow[child]);
+                childCount++;
+            }
+
+            this.weights[id] = weight;
+            this.heights[id] = height + 1;
+            this.strictHigh[id] = mix(sHigh + childCount);
+            this.strictLow[id] = mix(sLow + childCount);
+            this.abstractHigh[id] = mix(aHigh + childCount);
+            this.abstractLow[id] = mix(aLow + childCount);
+        }
+    }
+
+    /**
+     * Flattens an object tree. The nodes are only read, their caches are not written.
+     *
+     * @param root root of the tree
+     * @return the flat tree
+     */
+    public static FlatAST of(ASTNode<?> root) {
+        return new FlatAST(root);
+    }
+
+    private static int line(ASTNode<?> node, String key) {
+        Integer line = node.getMetadata(key, Integer.class);
+        return line != null ? line : NO_LINE;
+    }
+
+    // MurmurHash3's 64-bit finaliser, every input bit affects every output bit
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Seeded FNV-1a over the characters, mixed with the length
+    private static long hash(String s, long seed) {
+        long h = seed;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return mix(h ^ s.length());
+    }
+
+    private static long label(long kind, long value) {
+        return mix(kind * CHILD_MULTIPLIER + value);
+    }
+
+    private static long combine(long h, long child) {
+        return mix(h * CHILD_MULTIPLIER + child);
+    }
+
+    /** Returns the number of nodes in the tree. */
+    public int size() { return kinds.length; }
+
+    /** Returns the id of the root, always 0. */
+    public int getRoot() { return 0; }
+
+    public Enum<?> getKind(int node)  { return kindValues[kinds[node]]; }
+    public String getValue(int node)    { return values[node]; }
+    public int getParent(int node)      { return parents[node]; }
+    public int getFirstChild(int node)  { return firstChildren[node]; }
+    public int getNextSibling(int node) { return nextSiblings[node]; }
+    public boolean isLeaf(int node)     { return firstChildren[node] == NONE; }
+
+    /** Returns the number of nodes in the node's subtree, including itself. */
+    public int getWeight(int node) { return weights[node]; }
+    public int getHeight(int node) { return heights[node]; }
+
+    /** Returns the strict or abstract fingerprint of the node's subtree. */
+    public Fingerprint getFingerprint(int node, boolean useAbstraction) {
+        return useAbstraction ? new Fingerprint(abstractHigh[node], abstractLow[node]) : new Fingerprint(strictHigh[node], strictLow[node]);
+    }
+
+    /** Returns whether two subtrees, of this or another tree, have the same strict or abstract fingerprint. */
+    public boolean sameFingerprint(int node, FlatAST other, int otherNode, boolean useAbstraction) {
+        return useAbstraction
+                ? abstractHigh[node] == other.abstractHigh[otherNode] && abstractLow[node] == other.abstractLow[otherNode]
+                : strictHigh[node] == other.strictHigh[otherNode] && strictLow[node] == other.strictLow[otherNode];
+    }
+
+    /**
+     * Compares two subtrees node by node, to rule out fingerprints which are equal by chance.
+     *
+     * @param node           root of the subtree in this tree
+     * @param other          the tree of the other subtree, of the same node class, may be this tree
+     * @param otherNode      root of the other subtree
+     * @param useAbstraction whether the values abstracted by the abstract fingerprint are ignored
+     * @return whether the subtrees have the same shape, kinds and values
+     */
+    public boolean isIsomorphic(int node, FlatAST other, int otherNode, boolean useAbstraction) {
+        if (weights[node] != other.weights[otherNode]) return false;
+
+        for (int k = 0; k < weights[node]; k++) {
+            int a = node + k;
+            int b = otherNode + k;
+            // In pre-order, the parent of every node below the roots fixes the shape of the subtree
+            if (k > 0 && parents[a] - node != other.parents[b] - otherNode) return false;
+            if (kinds[a] != other.kinds[b]) return false;
+            if (!(useAbstraction && abstractKinds[kinds[a]]) && !values[a].equals(other.values[b])) return false;
+        }
+        return true;
+    }
+
+    /** Returns the first line of the node, or {@link #NO_LINE} if it has no line metadata. */
+    public int getStartLine(int node) { return startLines[node]; }
+
+    /** Returns the last line of the node, or {@link #NO_LINE} if it has no line metadata. */
+    public int getEndLine(int node) { return endLines[node]; }
+
+    /** Returns whether the node is a descendant of the ancestor, or the ancestor itself. */
+    public boolean isDescendant(int node, int ancestor) {
+        return node >= ancestor && node < ancestor + weights[ancestor];
+    }
+
+    /**
+     * A 128-bit subtree fingerprint, as a map key.
+     *
+     * @param high the first 64 bits
+     * @param low  the last 64 bits
+     */
+    public record Fingerprint(long high, long low) {}
+}
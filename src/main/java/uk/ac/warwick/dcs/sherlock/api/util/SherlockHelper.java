@@ -6,6 +6,7 @@ import uk.ac.warwick.dcs.sherlock.api.component.ISourceFileHelper;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.util.function.Supplier;
 
 /**
  * Static helper functions and access to various engine functions which do not fit elsewhere in the api
@@ -22,6 +23,11 @@ public class SherlockHelper {
 	 */
 	private static Class<? extends ICodeBlockGroup> codeBlockGroupClass;
 
+	/**
+	 * Compiled constructor of the ICodeBlockGroup implementation, created on first use
+	 */
+	private static volatile Supplier<? extends ICodeBlockGroup> codeBlockGroupConstructor;
+
 	/**
 	 * Builds the reference string of a field by prepending the declaring class name
 	 * @param field field to build reference for
@@ -40,7 +46,17 @@ public class SherlockHelper {
 	 * @throws InvocationTargetException inuse code block group class is null, ensure SherlockEngine is running correctly
 	 */
 	public static ICodeBlockGroup getInstanceOfCodeBlockGroup() throws IllegalAccessException, InstantiationException, NoSuchMethodException, InvocationTargetException {
-		return codeBlockGroupClass.getConstructor().newInstance();
+		Supplier<? extends ICodeBlockGroup> constructor = codeBlockGroupConstructor;
+		if (constructor == null) {
+			if (codeBlockGroupClass == null) {
+				throw new InvocationTargetException(null, "No code block group class has been set");
+			}
+
+			constructor = CompiledConstructor.compile(Supplier.class, codeBlockGroupClass).get();
+			codeBlockGroupConstructor = constructor;
+		}
+
+		return constructor.get();
 	}
 
 	/**
@@ -2,6 +2,7 @@ package uk.ac.warwick.dcs.sherlock.engine;
 
 import org.apache.commons.lang3.SystemUtils;
 
+import java.beans.Transient;
 import java.io.File;
 
 /**
@@ -13,13 +14,32 @@ public class Configuration {
 	private Boolean enableExternalModules;
 
 	private Boolean encryptFiles;
+	private Boolean migrateLegacyEncryption;
 	private int jobCompleteDismissalTime;
+	private int concurrentJobs;
+	private int largeJobFiles;
+	private int priorityAgingTime;
+	private Boolean jobPreemption;
+	private int workerParallelism;
+	private int concurrentWork;
+	private int pairResultCacheSize;
+	private String workerThreadName;
+	private Thread.UncaughtExceptionHandler workerExceptionHandler;
 
 	public Configuration() {
 		this.setDataPath(SystemUtils.IS_OS_WINDOWS ? System.getenv("APPDATA") + File.separator + "Sherlock" : System.getProperty("user.home") + File.separator + ".Sherlock");
 		this.setEnableExternalModules(true);
 		this.setEncryptFiles(true);
+		this.setMigrateLegacyEncryption(true);
 		this.setJobCompleteDismissalTime(3);
+		this.setConcurrentJobs(2);
+		this.setLargeJobFiles(200);
+		this.setPriorityAgingTime(300);
+		this.setJobPreemption(true);
+		this.setWorkerParallelism(0);
+		this.setConcurrentWork(4);
+		this.setPairResultCacheSize(256);
+		this.setWorkerThreadName("Sherlock-Worker");
 	}
 
 	public String getDataPath() {
@@ -46,6 +66,14 @@ public class Configuration {
 		this.encryptFiles = encryptFiles;
 	}
 
+	public Boolean getMigrateLegacyEncryption() {
+		return migrateLegacyEncryption;
+	}
+
+	public void setMigrateLegacyEncryption(Boolean migrateLegacyEncryption) {
+		this.migrateLegacyEncryption = migrateLegacyEncryption;
+	}
+
 	public int getJobCompleteDismissalTime() {
 		return jobCompleteDismissalTime;
 	}
@@ -53,4 +81,104 @@ public class Configuration {
 	public void setJobCompleteDismissalTime(int jobCompleteDismissalTime) {
 		this.jobCompleteDismissalTime = jobCompleteDismissalTime;
 	}
+
+	public int getConcurrentJobs() {
+		return concurrentJobs;
+	}
+
+	public void setConcurrentJobs(int concurrentJobs) {
+		this.concurrentJobs = Math.max(1, concurrentJobs);
+	}
+
+	/**
+	 * @return the number of files above which a job is given a lower priority than smaller jobs from the same kind of submitter
+	 */
+	public int getLargeJobFiles() {
+		return largeJobFiles;
+	}
+
+	public void setLargeJobFiles(int largeJobFiles) {
+		this.largeJobFiles = Math.max(1, largeJobFiles);
+	}
+
+	/**
+	 * @return the number of seconds a waiting job or unit of work takes to rise one priority level, so lower priority jobs are never starved
+	 */
+	public int getPriorityAgingTime() {
+		return priorityAgingTime;
+	}
+
+	public void setPriorityAgingTime(int priorityAgingTime) {
+		this.priorityAgingTime = Math.max(0, priorityAgingTime);
+	}
+
+	/**
+	 * @return whether a running job gives up its slot between phases when a higher priority job is waiting for one
+	 */
+	public Boolean getJobPreemption() {
+		return jobPreemption;
+	}
+
+	public void setJobPreemption(Boolean jobPreemption) {
+		this.jobPreemption = jobPreemption;
+	}
+
+	/**
+	 * @return the number of threads in the executor's work pool, 0 or below to use one per available processor
+	 */
+	public int getWorkerParallelism() {
+		return workerParallelism;
+	}
+
+	public void setWorkerParallelism(int workerParallelism) {
+		this.workerParallelism = workerParallelism;
+	}
+
+	/**
+	 * @return the number of units of work, such as one detector's comparisons, the executor runs on its work pool at once
+	 */
+	public int getConcurrentWork() {
+		return concurrentWork;
+	}
+
+	public void setConcurrentWork(int concurrentWork) {
+		this.concurrentWork = Math.max(1, concurrentWork);
+	}
+
+	/**
+	 * @return the number of megabytes of detector results kept in memory for each pair of files compared, so a re-run job only compares pairs with a new or
+	 * changed file, 0 to always compare every pair
+	 */
+	public int getPairResultCacheSize() {
+		return pairResultCacheSize;
+	}
+
+	public void setPairResultCacheSize(int pairResultCacheSize) {
+		this.pairResultCacheSize = Math.max(0, pairResultCacheSize);
+	}
+
+	/**
+	 * @return the name given to the executor's work pool threads, each is suffixed with its number
+	 */
+	public String getWorkerThreadName() {
+		return workerThreadName;
+	}
+
+	public void setWorkerThreadName(String workerThreadName) {
+		this.workerThreadName = workerThreadName;
+	}
+
+	/**
+	 * Not saved to the configuration file, can only be set in code before the engine is initialised
+	 *
+	 * @return the handler for exceptions escaping a work pool thread, null to log them
+	 */
+	@Transient
+	public Thread.UncaughtExceptionHandler getWorkerExceptionHandler() {
+		return workerExceptionHandler;
+	}
+
+	public void setWorkerExceptionHandler(Thread.UncaughtExceptionHandler workerExceptionHandler) {
+		this.workerExceptionHandler = workerExceptionHandler;
+	}
 }
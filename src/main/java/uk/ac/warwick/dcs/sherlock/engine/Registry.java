@@ -1,5 +1,6 @@
 package uk.ac.warwick.dcs.sherlock.engine;
 
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.Lexer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,16 +12,18 @@ import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.AbstractModelTaskRawR
 import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.IPostProcessor;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.*;
 import uk.ac.warwick.dcs.sherlock.api.registry.IRegistry;
+import uk.ac.warwick.dcs.sherlock.api.util.CompiledConstructor;
 import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
 import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.ExecutorUtils;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -41,6 +44,10 @@ public class Registry implements IRegistry {
 
 	private final Map<PreProcessingStrategy, Map<String, Class<? extends Lexer>>> strategyLexerCache;
 
+	// Constructors of the registered classes, compiled once so instances are created in the executor without reflection
+	private final Map<Class<?>, Supplier<?>> constructorCache;
+	private final Map<Class<? extends Lexer>, Function<CharStream, ? extends Lexer>> lexerConstructorCache;
+
 	Registry() {
 		this.languageRegistry = new ConcurrentHashMap<>();
 
@@ -50,6 +57,9 @@ public class Registry implements IRegistry {
 		this.postProcRegistry = new ConcurrentHashMap<>();
 
 		this.strategyLexerCache = new ConcurrentHashMap<>();
+
+		this.constructorCache = new ConcurrentHashMap<>();
+		this.lexerConstructorCache = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -99,6 +109,14 @@ public class Registry implements IRegistry {
 		return null;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IAdvancedPreProcessor getAdvancedPreProcessorInstance(Class<? extends IAdvancedPreProcessor> preProcessor) {
+		return this.newInstance(preProcessor);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -135,6 +153,14 @@ public class Registry implements IRegistry {
 		return null;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IDetector getDetectorInstance(Class<? extends IDetector> det) {
+		return this.newInstance(det);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -167,6 +193,14 @@ public class Registry implements IRegistry {
 		return null;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IGeneralPreProcessor getGeneralPreProcessorInstance(Class<? extends IGeneralPreProcessor> preProcessor) {
+		return this.newInstance(preProcessor);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -231,6 +265,24 @@ public class Registry implements IRegistry {
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Lexer getLexerInstance(Class<? extends Lexer> lexer, CharStream input) {
+		Function<CharStream, ? extends Lexer> constructor = this.compileLexerConstructor(lexer);
+		if (constructor != null) {
+			try {
+				return constructor.apply(input);
+			}
+			catch (Exception e) {
+				logger.error("An error occurred creating Lexer '{}'", lexer.getName(), e);
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -263,13 +315,7 @@ public class Registry implements IRegistry {
 	public IPostProcessor getPostProcessorInstance(Class<? extends AbstractModelTaskRawResult> rawClass) {
 		Class<? extends IPostProcessor> p = this.postProcRegistry.get(rawClass).proc;
 		if (p != null) {
-			try {
-				return p.getConstructor().newInstance();
-			}
-			catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-				logger.error("An error occurred create IPostProcessor instance", e);
-				return null;
-			}
+			return this.newInstance(p);
 		}
 		else {
 			logger.warn("Could not find IPostProcessor instance to process {} object", rawClass.getName());
@@ -321,6 +367,14 @@ public class Registry implements IRegistry {
 				return false;
 			}
 
+			try {
+				this.compileConstructor(preProcessor);
+			}
+			catch (NoSuchMethodException | IllegalAccessException e) {
+				logger.error("Ensure IAdvancedPreProcessor '{}' has a nullary constructor, not registering", preProcessor.getName());
+				return false;
+			}
+
 			AdvPreProcessorData data = new AdvPreProcessorData();
 			data.lexer = (Class<? extends Lexer>) type;
 			data.clazz = preProcessor;
@@ -357,9 +411,9 @@ public class Registry implements IRegistry {
 
 		IDetector tester;
 		try {
-			tester = detector.getConstructor().newInstance();
+			tester = this.compileConstructor(detector).get();
 		}
-		catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+		catch (NoSuchMethodException | IllegalAccessException e) {
 			logger.error("Ensure IDetector '{}' has a nullary constructor", detector.getName());
 			return false;
 		}
@@ -446,7 +500,7 @@ public class Registry implements IRegistry {
 		PreProcessorData data = new PreProcessorData();
 
 		try {
-			ILexerSpecification spec = preProcessor.getConstructor().newInstance().getLexerSpecification();
+			ILexerSpecification spec = this.compileConstructor(preProcessor).get().getLexerSpecification();
 			this.languageRegistry.forEach((k, v) -> {
 				for (Class<? extends Lexer> lex : v.lexers) {
 					try {
@@ -468,7 +522,7 @@ public class Registry implements IRegistry {
 				}
 			});
 		}
-		catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+		catch (IllegalAccessException | NoSuchMethodException e) {
 			e.printStackTrace();
 		}
 		catch (NoClassDefFoundError e) {
@@ -500,6 +554,7 @@ public class Registry implements IRegistry {
 			}
 
 			data.lexers.add(lexer);
+			this.compileLexerConstructor(lexer);
 			return true;
 		}
 
@@ -519,9 +574,9 @@ public class Registry implements IRegistry {
 		}
 
 		try {
-			postProcessor.getConstructor().newInstance();
+			this.compileConstructor(postProcessor).get();
 		}
-		catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
+		catch (IllegalAccessException | NoSuchMethodException e) {
 			logger.error("Ensure IPostProcessor '{}'has a nullary constructors", postProcessor.getName());
 			return false;
 		}
@@ -641,6 +696,68 @@ public class Registry implements IRegistry {
 		return true;
 	}
 
+	/**
+	 * Compiles the nullary constructor of a class, or fetches it if already compiled
+	 *
+	 * @param clazz class to construct
+	 * @param <T>   type of the class
+	 *
+	 * @return supplier of new instances
+	 *
+	 * @throws NoSuchMethodException  if the class has no nullary constructor
+	 * @throws IllegalAccessException if the constructor could not be accessed
+	 */
+	private <T> Supplier<T> compileConstructor(Class<T> clazz) throws NoSuchMethodException, IllegalAccessException {
+		Supplier<?> constructor = this.constructorCache.get(clazz);
+		if (constructor == null) {
+			constructor = CompiledConstructor.compile(Supplier.class, clazz).get();
+			this.constructorCache.putIfAbsent(clazz, constructor);
+		}
+
+		return (Supplier<T>) constructor;
+	}
+
+	/**
+	 * Compiles the constructor of a lexer taking its input, or fetches it if already compiled
+	 *
+	 * @param lexer lexer class
+	 *
+	 * @return function creating new lexers from their input, or null if the lexer has no such constructor
+	 */
+	private Function<CharStream, ? extends Lexer> compileLexerConstructor(Class<? extends Lexer> lexer) {
+		return this.lexerConstructorCache.computeIfAbsent(lexer, l -> {
+			try {
+				return CompiledConstructor.compile(Function.class, l, CharStream.class).get();
+			}
+			catch (NoSuchMethodException | IllegalAccessException e) {
+				logger.error("Ensure Lexer '{}' has a constructor taking a CharStream", l.getName());
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates a new instance of a class through its compiled nullary constructor
+	 *
+	 * @param clazz class to construct
+	 * @param <T>   type of the class
+	 *
+	 * @return the new instance, or null if it could not be created
+	 */
+	private <T> T newInstance(Class<T> clazz) {
+		try {
+			return this.compileConstructor(clazz).get();
+		}
+		catch (NoSuchMethodException | IllegalAccessException e) {
+			logger.error("Ensure '{}' has a nullary constructor", clazz.getName(), e);
+		}
+		catch (Exception e) {
+			logger.error("An error occurred creating an instance of '{}'", clazz.getName(), e);
+		}
+
+		return null;
+	}
+
 	private PostProcessorData getPostProcessorData(Class<? extends IPostProcessor> postProcessor) {
 		return this.postProcRegistry.values().stream().filter(x -> x.proc.equals(postProcessor)).findFirst().orElse(null);
 	}
@@ -4,6 +4,8 @@ import uk.ac.warwick.dcs.sherlock.api.component.IJob;
 import uk.ac.warwick.dcs.sherlock.api.component.WorkStatus;
 import uk.ac.warwick.dcs.sherlock.api.executor.IExecutor;
 import uk.ac.warwick.dcs.sherlock.api.executor.IJobStatus;
+import uk.ac.warwick.dcs.sherlock.api.executor.JobSource;
+import uk.ac.warwick.dcs.sherlock.engine.Configuration;
 import uk.ac.warwick.dcs.sherlock.engine.SherlockEngine;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.*;
 import uk.ac.warwick.dcs.sherlock.engine.executor.pool.PoolExecutorJob;
@@ -23,19 +25,60 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 	private final Map<IJob, PoolExecutorJob> queuedJobs;
 	private final Map<IJob, Future<?>> runningJobs;
 
-	private final PriorityBlockingQueue<PoolExecutorJob> queue;
+	private final AgingQueue<PoolExecutorJob> queue;
 	private final PriorityWorkScheduler scheduler;
+	private final PairResultCache pairResults;
 	private final ExecutorService exec;
 	private final ExecutorService execScheduler;
 
+	// Number of job slots not currently running a job
+	private final Semaphore freeSlots;
+	private final int jobSlots;
+
+	// Jobs which gave up their slot between phases, mapped to the latch their thread is waiting on to be resumed
+	private final Map<PoolExecutorJob, CountDownLatch> pausedJobs;
+	private final boolean preemption;
+	private final int largeJobFiles;
+
 	private final AtomicInteger curID;
 
+	/**
+	 * Creates an executor with the number of concurrent jobs set in the configuration
+	 */
 	public BaseExecutor() {
+		this(SherlockEngine.configuration != null ? SherlockEngine.configuration.getConcurrentJobs() : 1);
+	}
+
+	/**
+	 * Creates an executor which runs up to jobSlots jobs at once.
+	 * <p>
+	 * Every job submits its parallel work to the same {@link PriorityWorkScheduler}, so the slots share one pool of worker threads and running more jobs at once
+	 * does not oversubscribe the machine. Jobs are started in priority order as slots become free, waiting jobs rise in priority as they age so none are starved.
+	 * </p>
+	 * <p>
+	 * If preemption is enabled a running job gives up its slot between phases when a higher priority job is waiting, and carries on once it is started again.
+	 * </p>
+	 * <p>
+	 * The results of the file pairs each task compares are kept in a {@link PairResultCache}, so a job run again after submissions are added or removed only
+	 * compares the pairs with a new file.
+	 * </p>
+	 *
+	 * @param jobSlots maximum number of jobs to run concurrently, at least 1
+	 */
+	public BaseExecutor(int jobSlots) {
+		Configuration config = SherlockEngine.configuration;
 		this.scheduler = new PriorityWorkScheduler();
+		this.pairResults = new PairResultCache((config != null ? config.getPairResultCacheSize() : 256) * 1024L * 1024L);
+		this.jobSlots = Math.max(1, jobSlots);
+		this.preemption = config == null || config.getJobPreemption() == null || config.getJobPreemption();
+		this.largeJobFiles = config != null ? config.getLargeJobFiles() : 200;
 
-		this.exec = Executors.newSingleThreadExecutor();
+		// Paused jobs keep their thread while waiting, the slots rather than the thread pool limit how many run at once
+		this.exec = Executors.newCachedThreadPool();
 		this.execScheduler = Executors.newSingleThreadExecutor();
-		this.queue = new PriorityBlockingQueue<PoolExecutorJob>(5, Comparator.comparing(PoolExecutorJob::getPriority));
+		this.freeSlots = new Semaphore(this.jobSlots);
+		this.queue = new AgingQueue<>(5, (config != null ? config.getPriorityAgingTime() : 300) * 1000L);
+		this.pausedJobs = new ConcurrentHashMap<>();
 		this.jobMap = new ConcurrentHashMap<>();
 		this.queuedJobs = new ConcurrentHashMap<>();
 		this.runningJobs = new ConcurrentHashMap<>();
@@ -45,50 +88,36 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 		this.execScheduler.execute(() -> {
 			while (true) {
 				try {
-					PoolExecutorJob job;
-					job = this.queue.take();
-					this.queuedJobs.remove(job.getJob());
-
-					ExecutorUtils.logger.info("Job {} starting", job.getId());
+					// Wait for a free slot before taking a job, so the highest priority job at that moment is the one started
+					this.freeSlots.acquire();
 
-					job.getStatus().startJob();
-
-					Future<?> f = this.exec.submit(job);
-					this.runningJobs.put(job.getJob(), f);
+					PoolExecutorJob job;
 					try {
-						f.get();
+						job = this.queue.take();
 					}
-					catch (CancellationException e) {
-						ExecutorUtils.logger.info("Job {} cancelled", job.getId());
+					catch (InterruptedException e) {
+						this.freeSlots.release();
+						throw e;
 					}
-					catch (ExecutionException e) {
-						ExecutorUtils.logger.error("Job {} failed", job.getId(), e);
-						job.getJob().setStatus(WorkStatus.INTERRUPTED);
-						job.getStatus().failJob();
-					}
-					finally {
-						this.runningJobs.remove(job.getJob());
+					this.queuedJobs.remove(job.getJob());
+					job.setTakenAt(this.queue.now());
+
+					// A paused job already has its thread, hand it the slot and wake it
+					CountDownLatch paused = this.pausedJobs.remove(job);
+					if (paused != null) {
+						ExecutorUtils.logger.info("Job {} resuming", job.getId());
+						paused.countDown();
+						continue;
 					}
 
-					if (job.getStatus().isCancellationRequested()) {
-						job.getJob().setStatus(WorkStatus.INTERRUPTED);
-						job.getStatus().cancelJob();
-					}
-					else if (job.getJob().getStatus().equals(WorkStatus.COMPLETE)) {
-						job.getStatus().finishJob();
-					}
-					else {
-						job.getJob().setStatus(WorkStatus.INTERRUPTED);
-						job.getStatus().failJob();
-					}
+					ExecutorUtils.logger.info("Job {} starting", job.getId());
 
-					//Remove after some configured time
-					if (job.getJob().getStatus().equals(WorkStatus.COMPLETE) && SherlockEngine.configuration.getJobCompleteDismissalTime() > 0) {
-						Thread thread = new Thread(new JobDismisser(this, job));
-						thread.start();
-					}
+					job.getStatus().startJob();
 
-					ExecutorUtils.logger.info("Job {} finished, took: {}", job.getId(), job.getStatus().getFormattedDuration());
+					// Register the job as running before it starts, so it cannot finish and be removed before being added
+					FutureTask<?> f = new FutureTask<>(() -> this.runJob(job), null);
+					this.runningJobs.put(job.getJob(), f);
+					this.exec.execute(f);
 				}
 				catch (InterruptedException e) {
 					Thread.currentThread().interrupt();
@@ -98,6 +127,73 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 		});
 	}
 
+	/**
+	 * Runs a job in the calling slot thread, records its final state and frees the slot
+	 *
+	 * @param job the job to run
+	 */
+	private void runJob(PoolExecutorJob job) {
+		boolean failed = false;
+		try {
+			try {
+				job.run();
+			}
+			catch (Throwable e) {
+				// Errors too, such as a stack overflow walking a deeply nested tree, the FutureTask running this would otherwise swallow them unlogged
+				ExecutorUtils.logger.error("Job {} failed", job.getId(), e);
+				failed = true;
+			}
+			finally {
+				this.runningJobs.remove(job.getJob());
+			}
+
+			if (job.getStatus().isCancellationRequested()) {
+				ExecutorUtils.logger.info("Job {} cancelled", job.getId());
+				job.getJob().setStatus(WorkStatus.INTERRUPTED);
+				job.getStatus().cancelJob();
+			}
+			else if (!failed && job.getJob().getStatus().equals(WorkStatus.COMPLETE)) {
+				job.getStatus().finishJob();
+			}
+			else {
+				job.getStatus().failJob();
+				job.getJob().setStatus(WorkStatus.INTERRUPTED);
+			}
+
+			//Remove after some configured time
+			if (job.getJob().getStatus().equals(WorkStatus.COMPLETE) && SherlockEngine.configuration.getJobCompleteDismissalTime() > 0) {
+				Thread thread = new Thread(new JobDismisser(this, job));
+				thread.start();
+			}
+
+			ExecutorUtils.logger.info("Job {} finished, took: {}", job.getId(), job.getStatus().getFormattedDuration());
+			ExecutorUtils.logger.debug("Work pool after job {}: {}", job.getId(), this.scheduler.getStatistics());
+		}
+		finally {
+			// A job left unfinished could never be submitted again
+			if (!job.getStatus().isFinished()) {
+				job.getStatus().failJob();
+			}
+			this.freeSlots.release();
+		}
+	}
+
+	/**
+	 * @return the maximum number of jobs this executor runs at once
+	 */
+	public int getJobSlots() {
+		return this.jobSlots;
+	}
+
+	/**
+	 * Fetches a snapshot of the pool running the parallel work of every job, to see whether the running jobs are saturating the CPU
+	 *
+	 * @return the pool's thread, queue and steal counts
+	 */
+	public WorkPoolStatistics getWorkPoolStatistics() {
+		return this.scheduler.getStatistics();
+	}
+
 	@Override
 	public List<IJobStatus> getAllJobStatuses() {
 		List<IJobStatus> res = new ArrayList<>(this.jobMap.values());
@@ -129,7 +225,7 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 
 	@Override
 	public List<IJob> getWaitingJobs() {
-		return this.queue.stream().map(PoolExecutorJob::getJob).collect(Collectors.toList());
+		return this.queue.getItems().stream().map(PoolExecutorJob::getJob).collect(Collectors.toList());
 	}
 
 	@Override
@@ -140,7 +236,10 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 			this.submitWork(task);
 
 			try {
-				task.wait();
+				// Other work runs alongside, so only return once this task is actually complete
+				while (!task.isComplete()) {
+					task.wait();
+				}
 			}
 			catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
@@ -148,6 +247,36 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 		}
 	}
 
+	@Override
+	public void preemptionPoint(PoolExecutorJob job) {
+		// Only give way when every slot is taken, otherwise the waiting job is about to start anyway
+		long rank = this.queue.runningRank(job.getRank(), job.getTakenAt());
+		if (!this.preemption || this.freeSlots.availablePermits() > 0 || !this.queue.hasWaitingBefore(rank)) {
+			return;
+		}
+
+		CountDownLatch resumed = new CountDownLatch(1);
+		this.pausedJobs.put(job, resumed);
+		this.queuedJobs.put(job.getJob(), job);
+		job.getStatus().setMessage("Paused");
+		job.setRank(rank);
+		this.queue.add(job, rank);
+		this.freeSlots.release();
+
+		ExecutorUtils.logger.info("Job {} paused for a higher priority job", job.getId());
+
+		try {
+			resumed.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (!job.getStatus().isCancellationRequested()) {
+			job.getStatus().setMessage("");
+		}
+	}
+
 	@Override
 	public void shutdown() {
 		this.scheduler.shutdown();
@@ -156,7 +285,7 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 	}
 
 	@Override
-	public boolean submitJob(IJob job) {
+	public boolean submitJob(IJob job, JobSource source) {
 		if (job == null) {
 			ExecutorUtils.logger.error("Job is null");
 			return false;
@@ -183,14 +312,16 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 			return false;
 		}
 
-		JobStatus s = new JobStatus(curID.getAndIncrement(), Priority.DEFAULT);
+		Priority priority = Priority.forJob(job.getFiles().length, source != null ? source : JobSource.INTERACTIVE, this.largeJobFiles);
+		JobStatus s = new JobStatus(curID.getAndIncrement(), priority);
 		this.jobMap.put(job, s);
 
-		PoolExecutorJob j = new PoolExecutorJob(this, job, s);
+		PoolExecutorJob j = new PoolExecutorJob(this, this.pairResults, job, s);
 		this.queuedJobs.put(job, j);
-		this.queue.add(j);
+		j.setRank(this.queue.rankOf(priority));
+		this.queue.add(j, j.getRank());
 
-		ExecutorUtils.logger.info("Job {} added to queue", job.getPersistentId());
+		ExecutorUtils.logger.info("Job {} added to queue with priority {}", job.getPersistentId(), priority);
 
 		return true;
 	}
@@ -229,7 +360,16 @@ public class BaseExecutor implements IExecutor, IPriorityWorkSchedulerWrapper {
 		status.requestCancellation();
 		job.setStatus(WorkStatus.INTERRUPTED);
 
-		PoolExecutorJob queued = this.queuedJobs.remove(job);
+		PoolExecutorJob queued = this.queuedJobs.get(job);
+		if (queued != null && this.pausedJobs.containsKey(queued)) {
+			// A paused job still holds its thread, resume it ahead of everything else so it stops straight away
+			if (this.queue.remove(queued)) {
+				this.queue.add(queued, Long.MIN_VALUE);
+			}
+			return true;
+		}
+
+		queued = this.queuedJobs.remove(job);
 		if (queued != null) {
 			boolean removed = this.queue.remove(queued);
 			status.cancelJob();
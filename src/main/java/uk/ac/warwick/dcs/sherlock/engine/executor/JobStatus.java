@@ -20,11 +20,13 @@ public class JobStatus implements IJobStatus {
 	private final AtomicFloat progressIncrement = new AtomicFloat();
 	private final int id;
 	private final Priority priority;
-	private Instant startTime;
-	private Duration duration;
-	private int step;
-	private String message;
+	// Read by other threads while the job runs, use volatile as accessed across threads
+	private volatile Instant startTime;
+	private volatile Duration duration;
+	private volatile int step;
+	private volatile String message;
 	private volatile boolean cancellationRequested;
+	private volatile long shortCircuitedPairs;
 
 	public JobStatus(int id, Priority priority) {
 		this.id = id;
@@ -103,6 +105,15 @@ public class JobStatus implements IJobStatus {
 		return DurationFormatUtils.formatDuration(this.getDuration().toMillis(), "H:mm:ss.SSSS", true);
 	}
 
+	@Override
+	public long getShortCircuitedPairCount() {
+		return this.shortCircuitedPairs;
+	}
+
+	public void setShortCircuitedPairCount(long shortCircuitedPairs) {
+		this.shortCircuitedPairs = shortCircuitedPairs;
+	}
+
 	@Override
 	public int getId() {
 		return id;
@@ -0,0 +1,172 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.common;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Blocking queue which takes items in priority order, aging waiting items so none are starved
+ * <p>
+ * Each item is given a rank when it is added, its time of arrival plus one aging interval for every level its {@link Priority} is below {@link Priority#HIGH}.
+ * Items are taken lowest rank first, then in order of arrival. This is the same order as raising a waiting item by one priority level every aging interval: a
+ * {@link Priority#DEFAULT} item is taken before any {@link Priority#HIGH} item arriving more than three intervals after it, however busy the queue is.
+ * </p>
+ * <p>
+ * As ranks do not change while waiting, an item can be taken out and added back later, keeping the time it has already waited. Only waiting counts towards
+ * aging, so an item which has been running is pushed back by the time it ran for, see {@link #runningRank(long, long)}.
+ * </p>
+ *
+ * @param <T> type of the queued items
+ */
+public class AgingQueue<T> {
+
+	private final PriorityBlockingQueue<Entry<T>> queue;
+	private final AtomicLong sequence;
+	private final long agingInterval;
+	private final LongSupplier clock;
+
+	/**
+	 * Creates a queue aged using the system clock
+	 *
+	 * @param initialCapacity initial capacity of the queue
+	 * @param agingInterval   milliseconds a waiting item takes to rise one priority level
+	 */
+	public AgingQueue(int initialCapacity, long agingInterval) {
+		this(initialCapacity, agingInterval, System::currentTimeMillis);
+	}
+
+	/**
+	 * Creates a queue
+	 *
+	 * @param initialCapacity initial capacity of the queue
+	 * @param agingInterval   time a waiting item takes to rise one priority level, in the units of the clock
+	 * @param clock           source of the current time
+	 */
+	public AgingQueue(int initialCapacity, long agingInterval, LongSupplier clock) {
+		this.queue = new PriorityBlockingQueue<>(Math.max(1, initialCapacity), Comparator.<Entry<T>>comparingLong(e -> e.rank).thenComparingLong(e -> e.sequence));
+		this.sequence = new AtomicLong(0);
+		this.agingInterval = Math.max(0, agingInterval);
+		this.clock = clock;
+	}
+
+	/**
+	 * Computes the rank of an item with a priority arriving now
+	 *
+	 * @param priority priority of the item
+	 *
+	 * @return the rank, lower is taken first
+	 */
+	public long rankOf(Priority priority) {
+		return this.clock.getAsLong() + priority.ordinal() * this.agingInterval;
+	}
+
+	/**
+	 * @return the current time of the queue's clock
+	 */
+	public long now() {
+		return this.clock.getAsLong();
+	}
+
+	/**
+	 * Computes the rank of an item which has been running since it was taken from the queue, so it can be compared against waiting items or added back
+	 *
+	 * @param rank    rank of the item when it was taken
+	 * @param takenAt time the item was taken, from {@link #now()}
+	 *
+	 * @return the rank pushed back by the time the item has been running
+	 */
+	public long runningRank(long rank, long takenAt) {
+		return rank + Math.max(0, this.clock.getAsLong() - takenAt);
+	}
+
+	/**
+	 * Adds an item arriving now
+	 *
+	 * @param item     item to add
+	 * @param priority priority of the item
+	 *
+	 * @return the rank given to the item, to add it back with later
+	 */
+	public long add(T item, Priority priority) {
+		long rank = this.rankOf(priority);
+		this.add(item, rank);
+		return rank;
+	}
+
+	/**
+	 * Adds an item with a given rank, such as one taken out earlier
+	 *
+	 * @param item item to add
+	 * @param rank rank of the item
+	 */
+	public void add(T item, long rank) {
+		this.queue.add(new Entry<>(item, rank, this.sequence.getAndIncrement()));
+	}
+
+	/**
+	 * Takes the lowest ranked item, waiting for one to be added if the queue is empty
+	 *
+	 * @return the item
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public T take() throws InterruptedException {
+		return this.queue.take().item;
+	}
+
+	/**
+	 * Takes the lowest ranked item without waiting
+	 *
+	 * @return the item, or null if the queue is empty
+	 */
+	public T poll() {
+		Entry<T> e = this.queue.poll();
+		return e != null ? e.item : null;
+	}
+
+	/**
+	 * Removes an item from the queue
+	 *
+	 * @param item item to remove, compared by identity
+	 *
+	 * @return whether the item was queued
+	 */
+	public boolean remove(T item) {
+		return this.queue.removeIf(e -> e.item == item);
+	}
+
+	/**
+	 * Checks whether an item ranked before the given rank is waiting, to decide whether a running item should give way
+	 *
+	 * @param rank rank to compare against
+	 *
+	 * @return true if the lowest ranked waiting item has a lower rank
+	 */
+	public boolean hasWaitingBefore(long rank) {
+		Entry<T> head = this.queue.peek();
+		return head != null && head.rank < rank;
+	}
+
+	/**
+	 * @return the number of waiting items
+	 */
+	public int size() {
+		return this.queue.size();
+	}
+
+	/**
+	 * @return the waiting items, in the order they will be taken
+	 */
+	public List<T> getItems() {
+		List<Entry<T>> entries = new ArrayList<>(this.queue);
+		entries.sort(this.queue.comparator());
+		List<T> res = new ArrayList<>(entries.size());
+		entries.forEach(e -> res.add(e.item));
+		return res;
+	}
+
+	private record Entry<T>(T item, long rank, long sequence) {}
+}
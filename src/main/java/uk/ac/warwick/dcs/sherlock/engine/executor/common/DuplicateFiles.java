@@ -0,0 +1,281 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.common;
+
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.AbstractModelTaskRawResult;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.ModelTaskProcessedResults;
+import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
+import uk.ac.warwick.dcs.sherlock.api.util.PairedTuple;
+import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Groups the files of a job with the same content, so each group is only run through the detectors once
+ * <p>
+ * Files are compared by a hash of their content with whitespace normalised on each line, keeping the lines so line numbers are the same in every file of a
+ * group. One file of each group, the original, is detected as normal, and its results are copied to the other files of the group after post-processing, along
+ * with a group matching the whole of each file. Files with the same content as a skeleton code file are not detected at all, as every line would be removed as
+ * skeleton code.
+ * </p>
+ * <p>
+ * A copy is only given the original's results if that loses no pairs. Files in the same submission as the original are never compared with it, so a copy from
+ * another submission is detected itself when the original shares its submission with another detected file. The original is taken from the submission with
+ * the fewest files, so this is needed as rarely as possible.
+ * </p>
+ */
+public class DuplicateFiles {
+
+	private final Map<ISourceFile, List<ISourceFile>> duplicates;
+	private final Map<ISourceFile, List<ISourceFile>> identical;
+	private final List<ISourceFile> detectedFiles;
+	private final long shortCircuitedPairs;
+
+	private DuplicateFiles(Map<ISourceFile, List<ISourceFile>> duplicates, Map<ISourceFile, List<ISourceFile>> identical, List<ISourceFile> detectedFiles,
+			long shortCircuitedPairs) {
+		this.duplicates = duplicates;
+		this.identical = identical;
+		this.detectedFiles = detectedFiles;
+		this.shortCircuitedPairs = shortCircuitedPairs;
+	}
+
+	/**
+	 * Finds the files with the same content in a job
+	 *
+	 * @param files           the files of the job's workspace
+	 * @param skeletonFileIds persistent ids of every file in the skeleton code submission
+	 *
+	 * @return the duplicate files
+	 */
+	public static DuplicateFiles find(List<ISourceFile> files, Set<Long> skeletonFileIds) {
+		Set<String> skeletonHashes = new HashSet<>();
+		Map<String, List<ISourceFile>> groups = new LinkedHashMap<>();
+		for (ISourceFile file : files) {
+			String hash = hash(file);
+			if (skeletonFileIds.contains(file.getPersistentId())) {
+				skeletonHashes.add(hash);
+			}
+			else {
+				groups.computeIfAbsent(hash, k -> new ArrayList<>()).add(file);
+			}
+		}
+
+		Map<ISubmission, Long> submissionSizes = groups.values().stream().flatMap(List::stream)
+				.collect(Collectors.groupingBy(ISourceFile::getSubmission, Collectors.counting()));
+
+		// Original -> every file with its content
+		Map<ISourceFile, List<ISourceFile>> identical = new LinkedHashMap<>();
+		List<ISourceFile> legitimate = new ArrayList<>();
+		groups.forEach((hash, group) -> {
+			legitimate.addAll(group);
+			if (!skeletonHashes.contains(hash)) {
+				identical.put(group.stream().min(Comparator.comparingLong(f -> submissionSizes.get(f.getSubmission()))).get(), group);
+			}
+		});
+
+		// Detecting a copy can add a second detected file to the submission of another original, so repeat until no more copies need detecting
+		Set<ISourceFile> detected = new HashSet<>(identical.keySet());
+		Map<ISubmission, Integer> detectedPerSubmission = new HashMap<>();
+		detected.forEach(f -> detectedPerSubmission.merge(f.getSubmission(), 1, Integer::sum));
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Map.Entry<ISourceFile, List<ISourceFile>> entry : identical.entrySet()) {
+				ISubmission submission = entry.getKey().getSubmission();
+				for (ISourceFile copy : entry.getValue()) {
+					if (copy.getSubmission() != submission && detectedPerSubmission.get(submission) > 1 && detected.add(copy)) {
+						detectedPerSubmission.merge(copy.getSubmission(), 1, Integer::sum);
+						changed = true;
+					}
+				}
+			}
+		}
+
+		Map<ISourceFile, List<ISourceFile>> duplicates = new LinkedHashMap<>();
+		identical.forEach((original, group) -> {
+			List<ISourceFile> copies = group.stream().filter(f -> !detected.contains(f)).collect(Collectors.toList());
+			if (!copies.isEmpty()) {
+				duplicates.put(original, copies);
+			}
+		});
+		identical.values().removeIf(group -> group.size() < 2);
+
+		// Keep the workspace order for the files which are detected
+		List<ISourceFile> detectedLegitimate = legitimate.stream().filter(detected::contains).collect(Collectors.toList());
+		List<ISourceFile> detectedFiles = files.stream().filter(f -> skeletonFileIds.contains(f.getPersistentId()) || detected.contains(f)).collect(Collectors.toList());
+
+		return new DuplicateFiles(duplicates, identical, detectedFiles, comparablePairs(legitimate) - comparablePairs(detectedLegitimate));
+	}
+
+	/**
+	 * Hashes the content of a file with the whitespace on each line normalised, and trailing blank lines removed
+	 *
+	 * @param file the file
+	 *
+	 * @return hex string of the hash
+	 */
+	static String hash(ISourceFile file) {
+		List<String> lines = file.getFileContentsAsStringList().stream().map(l -> l.strip().replaceAll("\\s+", " ")).collect(Collectors.toList());
+		int end = lines.size();
+		while (end > 0 && lines.get(end - 1).isEmpty()) {
+			end--;
+		}
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (int i = 0; i < end; i++) {
+				digest.update(lines.get(i).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) '\n');
+			}
+
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			// Every Java platform must support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param files files to pair
+	 *
+	 * @return number of pairs of the files from different submissions, the pairs which are compared
+	 */
+	private static long comparablePairs(Collection<ISourceFile> files) {
+		long pairs = (long) files.size() * (files.size() - 1) / 2;
+		for (long count : files.stream().collect(Collectors.groupingBy(ISourceFile::getSubmission, Collectors.counting())).values()) {
+			pairs -= count * (count - 1) / 2;
+		}
+		return pairs;
+	}
+
+	/**
+	 * @return the files to preprocess and detect, every file not a duplicate of another, in workspace order
+	 */
+	public List<ISourceFile> getDetectedFiles() {
+		return this.detectedFiles;
+	}
+
+	/**
+	 * @return the number of file pairs from different submissions which are not run through the detectors, as the files are identical to each other, to a file
+	 * which is run, or to skeleton code
+	 */
+	public long getShortCircuitedPairCount() {
+		return this.shortCircuitedPairs;
+	}
+
+	/**
+	 * @return whether no detected file has duplicates, so there are no results to copy
+	 */
+	public boolean isEmpty() {
+		return this.identical.isEmpty();
+	}
+
+	/**
+	 * Gathers the lines of each detected duplicate file matched to skeleton code in a task's raw results, before the skeleton code is removed from them
+	 *
+	 * @param rawResults      the raw results of the task
+	 * @param skeletonFileIds persistent ids of every file in the skeleton code submission
+	 *
+	 * @return the skeleton code lines of each detected duplicate file, by persistent id
+	 */
+	public Map<Long, List<ITuple<Integer, Integer>>> getSkeletonLines(List<AbstractModelTaskRawResult> rawResults, Set<Long> skeletonFileIds) {
+		Set<Long> originals = this.identical.keySet().stream().map(ISourceFile::getPersistentId).collect(Collectors.toSet());
+		Map<Long, List<ITuple<Integer, Integer>>> lines = new HashMap<>();
+		if (rawResults == null) {
+			return lines;
+		}
+
+		for (AbstractModelTaskRawResult result : rawResults) {
+			boolean skeleton1 = skeletonFileIds.contains(result.getFile1Id());
+			long other = skeleton1 ? result.getFile2Id() : result.getFile1Id();
+			if ((skeleton1 || skeletonFileIds.contains(result.getFile2Id())) && originals.contains(other)) {
+				List<ITuple<Integer, Integer>> fileLines = lines.computeIfAbsent(other, k -> new ArrayList<>());
+				List<PairedTuple<Integer, Integer, Integer, Integer>> locations = result.getLocations();
+				for (PairedTuple<Integer, Integer, Integer, Integer> location : locations) {
+					fileLines.add(skeleton1 ? location.getPoint2() : location.getPoint1());
+				}
+			}
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Copies the results of each original to its duplicates which were not detected, and adds a group matching the whole of the files of each set of duplicates
+	 * from more than one submission, leaving out their skeleton code
+	 *
+	 * @param results       the post processed results of a task, indexed again once updated
+	 * @param skeletonLines the skeleton code lines of each detected duplicate file from {@link #getSkeletonLines(List, Set)}
+	 */
+	public void copyResults(ModelTaskProcessedResults results, Map<Long, List<ITuple<Integer, Integer>>> skeletonLines) {
+		this.duplicates.forEach((original, copies) -> copies.forEach(copy -> results.copyFileResults(original, copy)));
+
+		this.identical.forEach((original, group) -> {
+			if (group.stream().map(ISourceFile::getSubmission).distinct().count() < 2) {
+				return;
+			}
+
+			List<ITuple<Integer, Integer>> lines = removeLines(original.getTotalLineCount(), skeletonLines.getOrDefault(original.getPersistentId(), Collections.emptyList()));
+			if (lines.isEmpty()) {
+				return;
+			}
+
+			ICodeBlockGroup codeBlockGroup = results.addGroup();
+			if (codeBlockGroup != null) {
+				codeBlockGroup.setComment("Identical Files");
+				group.forEach(file -> codeBlockGroup.addCodeBlock(file, 1, lines, Collections.nCopies(lines.size(), null)));
+			}
+		});
+
+		results.indexFiles();
+	}
+
+	/**
+	 * Removes line ranges from the lines of a file
+	 *
+	 * @param lineCount number of lines in the file
+	 * @param remove    inclusive ranges of lines to remove, ranges starting below 1 are ignored
+	 *
+	 * @return the inclusive ranges of lines left, in order
+	 */
+	static List<ITuple<Integer, Integer>> removeLines(int lineCount, List<ITuple<Integer, Integer>> remove) {
+		List<ITuple<Integer, Integer>> sorted = remove.stream().filter(x -> x.getKey() > 0 && x.getValue() >= x.getKey()).sorted(Comparator.comparing(ITuple::getKey))
+				.collect(Collectors.toList());
+
+		List<ITuple<Integer, Integer>> lines = new ArrayList<>();
+		int next = 1;
+		for (ITuple<Integer, Integer> range : sorted) {
+			if (range.getKey() > next) {
+				lines.add(new Tuple<>(next, Math.min(range.getKey() - 1, lineCount)));
+			}
+			next = Math.max(next, range.getValue() + 1);
+			if (next > lineCount) {
+				break;
+			}
+		}
+		if (next <= lineCount) {
+			lines.add(new Tuple<>(next, lineCount));
+		}
+
+		return lines.stream().filter(x -> x.getKey() <= x.getValue()).collect(Collectors.toList());
+	}
+}
@@ -1,5 +1,7 @@
 package uk.ac.warwick.dcs.sherlock.engine.executor.common;
 
+import uk.ac.warwick.dcs.sherlock.engine.executor.pool.PoolExecutorJob;
+
 import java.util.concurrent.ForkJoinTask;
 
 /**
@@ -22,4 +24,12 @@ public interface IPriorityWorkSchedulerWrapper {
 	 */
 	void submitWork(PriorityWorkTask task);
 
+	/**
+	 * Called by a running job between its phases. If a higher priority job is waiting for a slot the job gives up its slot and this blocks until the job is
+	 * started again.
+	 *
+	 * @param job the running job
+	 */
+	void preemptionPoint(PoolExecutorJob job);
+
 }
@@ -0,0 +1,353 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.common;
+
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.component.ITask;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.DetectorWorker;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.IDetector;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.PairwiseDetectorWorker;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.AbstractModelTaskRawResult;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the raw result of each pair of files compared by a task, so when a job is run again, such as after late submissions are added, only the pairs with a new
+ * or changed file are run through the detector.
+ * <p>
+ * Results are kept per task along with the workspace language and the task's parameters, and are dropped if either changes. Each pair is keyed by the persistent
+ * id and content hash of both files, the ids are part of the key as raw results refer to their files by id. Pairs without matches are kept too, as most pairs
+ * have none. Only the workers of pairwise detectors are replaced, as their results depend only on the two files compared. The detector still chooses which pairs
+ * to compare, so the results are the same as those of a full run.
+ * </p>
+ * <p>
+ * Results are kept serialised, as skeleton code removal changes the raw results of a run, so each run reads its own copy. References to source files are written
+ * by id and read back as the files of the current run. Each run replaces the results of its task, so pairs of removed files are dropped. Once over its size
+ * limit, the results of the tasks used least recently are dropped.
+ * </p>
+ */
+public class PairResultCache {
+
+	// Rough size of a map entry and its key, added to the size of each result
+	private static final long ENTRY_OVERHEAD = 128;
+
+	private static final byte[] NO_MATCHES = new byte[0];
+
+	private final long capacity;
+	private final LinkedHashMap<Long, TaskResults> tasks;
+
+	/**
+	 * @param capacity maximum number of bytes of results to keep, 0 or below to keep none
+	 */
+	public PairResultCache(long capacity) {
+		this.capacity = Math.max(0, capacity);
+		this.tasks = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/**
+	 * Fetches the results kept for a task, dropping them if the language or the task's parameters have changed since they were stored
+	 *
+	 * @param task     the task
+	 * @param language the language of the job's workspace
+	 *
+	 * @return the results of the task, null if the cache is disabled
+	 */
+	public synchronized TaskResults getTaskResults(ITask task, String language) {
+		if (this.capacity == 0) {
+			return null;
+		}
+
+		String configuration = getConfiguration(task, language);
+		TaskResults results = this.tasks.get(task.getPersistentId());
+		if (results == null || !results.configuration.equals(configuration)) {
+			results = new TaskResults(configuration);
+			this.tasks.put(task.getPersistentId(), results);
+		}
+
+		return results;
+	}
+
+	/**
+	 * @return the approximate number of bytes of results kept
+	 */
+	public synchronized long getSize() {
+		return this.tasks.values().stream().mapToLong(x -> x.size).sum();
+	}
+
+	/**
+	 * Drops the results of the tasks used least recently until the cache is within its size limit
+	 */
+	public synchronized void trim() {
+		long size = this.getSize();
+		Iterator<TaskResults> iterator = this.tasks.values().iterator();
+		while (size > this.capacity && iterator.hasNext()) {
+			size -= iterator.next().size;
+			iterator.remove();
+		}
+	}
+
+	private static String getConfiguration(ITask task, String language) {
+		Map<String, Float> parameters = task.getParameterMapping() != null ? new TreeMap<>(task.getParameterMapping()) : Collections.emptyMap();
+		return task.getDetector() + "\n" + language + "\n" + parameters;
+	}
+
+	/**
+	 * @return the key of the pair compared by a worker, null if its results cannot be kept
+	 */
+	private static PairKey getKey(DetectorWorker worker) {
+		if (worker instanceof StoredResultWorker stored) {
+			return stored.key;
+		}
+
+		if (worker instanceof PairwiseDetectorWorker pairwise && pairwise.getFile1Data() != null && pairwise.getFile2Data() != null) {
+			ISourceFile file1 = pairwise.getFile1Data().getFile();
+			ISourceFile file2 = pairwise.getFile2Data().getFile();
+			if (file1 != null && file2 != null && file1.getContentHash() != null && file2.getContentHash() != null) {
+				return new PairKey(file1.getPersistentId(), file1.getContentHash(), file2.getPersistentId(), file2.getContentHash());
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the serialised result, {@link #NO_MATCHES} if there are no matches, or null if it could not be serialised
+	 */
+	static byte[] serialise(AbstractModelTaskRawResult result) {
+		if (result == null || result.isEmpty()) {
+			return NO_MATCHES;
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream out = new ResultOutputStream(bytes)) {
+				out.writeObject(result);
+			}
+			return bytes.toByteArray();
+		}
+		catch (IOException e) {
+			ExecutorUtils.logger.warn("Could not keep the result of a file pair, it will be compared again on the next run", e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the deserialised result, or null if it could not be deserialised
+	 */
+	static AbstractModelTaskRawResult deserialise(byte[] result, Map<Long, ISourceFile> files, ClassLoader classLoader) {
+		try (ObjectInputStream in = new ResultInputStream(new ByteArrayInputStream(result), files, classLoader)) {
+			return (AbstractModelTaskRawResult) in.readObject();
+		}
+		catch (IOException | ClassNotFoundException | ClassCastException e) {
+			ExecutorUtils.logger.warn("Could not read the kept result of a file pair, comparing it again", e);
+			return null;
+		}
+	}
+
+	/**
+	 * The results kept for one task
+	 */
+	public static class TaskResults {
+
+		private final String configuration;
+
+		private volatile Map<PairKey, byte[]> results;
+		private volatile long size;
+		private volatile int reusedCount;
+		private volatile int emptyResultCount;
+
+		private TaskResults(String configuration) {
+			this.configuration = configuration;
+			this.results = Collections.emptyMap();
+			this.size = 0;
+			this.reusedCount = 0;
+			this.emptyResultCount = 0;
+		}
+
+		/**
+		 * Replaces the workers of the pairs with a kept result by workers which read the result, keeping the order of the workers
+		 *
+		 * @param parent  the detector which built the workers
+		 * @param workers the workers built for the run
+		 *
+		 * @return the workers to run
+		 */
+		public List<DetectorWorker> useStoredResults(IDetector parent, List<DetectorWorker> workers) {
+			Map<PairKey, byte[]> stored = this.results;
+			Map<Long, ISourceFile> files = new HashMap<>();
+			List<DetectorWorker> result = new ArrayList<>(workers.size());
+			int reused = 0;
+			int empty = 0;
+
+			for (DetectorWorker worker : workers) {
+				PairKey key = getKey(worker);
+				byte[] bytes = key != null ? stored.get(key) : null;
+				if (bytes == null) {
+					result.add(worker);
+					continue;
+				}
+
+				PairwiseDetectorWorker pairwise = (PairwiseDetectorWorker) worker;
+				files.put(key.file1(), pairwise.getFile1Data().getFile());
+				files.put(key.file2(), pairwise.getFile2Data().getFile());
+				result.add(new StoredResultWorker(parent, pairwise, key, bytes, files));
+				reused++;
+				if (bytes.length == 0) {
+					empty++;
+				}
+			}
+
+			this.reusedCount = reused;
+			this.emptyResultCount = empty;
+			return result;
+		}
+
+		/**
+		 * @return the number of workers replaced by the last call to {@link #useStoredResults(IDetector, List)}
+		 */
+		public int getReusedCount() {
+			return this.reusedCount;
+		}
+
+		/**
+		 * @return the number of workers returned by the last call to {@link #useStoredResults(IDetector, List)} which give no raw result, as their pair has no
+		 * matches
+		 */
+		public int getEmptyResultCount() {
+			return this.emptyResultCount;
+		}
+
+		/**
+		 * Keeps the result of every pair compared in a run, replacing those of the previous run. Must be called before the raw results are changed by skeleton
+		 * code removal.
+		 *
+		 * @param workers the workers of the run, once executed
+		 */
+		public void store(List<DetectorWorker> workers) {
+			Map<PairKey, byte[]> stored = new ConcurrentHashMap<>();
+			workers.parallelStream().forEach(worker -> {
+				PairKey key = getKey(worker);
+				if (key != null) {
+					byte[] bytes = worker instanceof StoredResultWorker s ? s.bytes : serialise(worker.getRawResult());
+					if (bytes != null) {
+						stored.put(key, bytes);
+					}
+				}
+			});
+
+			this.results = stored;
+			this.size = stored.values().stream().mapToLong(x -> x.length + ENTRY_OVERHEAD).sum();
+		}
+
+		/**
+		 * @return the number of pairs with a kept result
+		 */
+		public int getPairCount() {
+			return this.results.size();
+		}
+	}
+
+	/**
+	 * Identifies a pair of files by id and content
+	 */
+	private record PairKey(long file1, String hash1, long file2, String hash2) {
+
+	}
+
+	/**
+	 * Stands in for a source file in a serialised result
+	 */
+	private record FileReference(long id) implements Serializable {
+
+	}
+
+	/**
+	 * Reads back the kept result of a pair, or compares the pair if the result cannot be read
+	 */
+	private static class StoredResultWorker extends DetectorWorker<AbstractModelTaskRawResult> {
+
+		private final PairwiseDetectorWorker original;
+		private final PairKey key;
+		private final byte[] bytes;
+		private final Map<Long, ISourceFile> files;
+
+		private AbstractModelTaskRawResult result;
+
+		StoredResultWorker(IDetector parent, PairwiseDetectorWorker original, PairKey key, byte[] bytes, Map<Long, ISourceFile> files) {
+			super(parent);
+			this.original = original;
+			this.key = key;
+			this.bytes = bytes;
+			this.files = files;
+			this.result = null;
+		}
+
+		@Override
+		public void execute() {
+			if (this.bytes.length == 0) {
+				return;
+			}
+
+			this.result = deserialise(this.bytes, this.files, this.parent.getClass().getClassLoader());
+			if (this.result == null) {
+				this.original.execute();
+				this.result = this.original.getRawResult();
+			}
+		}
+
+		@Override
+		public AbstractModelTaskRawResult getRawResult() {
+			return this.result;
+		}
+	}
+
+	/**
+	 * Writes each source file as a {@link FileReference}, the files belong to the storage and are not part of the result
+	 */
+	private static class ResultOutputStream extends ObjectOutputStream {
+
+		ResultOutputStream(OutputStream out) throws IOException {
+			super(out);
+			this.enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) {
+			return obj instanceof ISourceFile file ? new FileReference(file.getPersistentId()) : obj;
+		}
+	}
+
+	/**
+	 * Reads each {@link FileReference} as the file of the current run, and loads classes from the detector's class loader, which may be a module's
+	 */
+	private static class ResultInputStream extends ObjectInputStream {
+
+		private final Map<Long, ISourceFile> files;
+		private final ClassLoader classLoader;
+
+		ResultInputStream(InputStream in, Map<Long, ISourceFile> files, ClassLoader classLoader) throws IOException {
+			super(in);
+			this.files = files;
+			this.classLoader = classLoader;
+			this.enableResolveObject(true);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (this.classLoader != null) {
+				try {
+					return Class.forName(desc.getName(), false, this.classLoader);
+				}
+				catch (ClassNotFoundException e) {
+					// Primitive types and classes the loader cannot see
+				}
+			}
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) {
+			return obj instanceof FileReference reference ? this.files.get(reference.id()) : obj;
+		}
+	}
+}
@@ -1,10 +1,29 @@
 package uk.ac.warwick.dcs.sherlock.engine.executor.common;
 
+import uk.ac.warwick.dcs.sherlock.api.executor.JobSource;
+
 /**
  * Priority enum
  * <p>
  * Highest to lowest
  */
 public enum Priority {
-	HIGH, MEDIUM, LOW, DEFAULT
+	HIGH, MEDIUM, LOW, DEFAULT;
+
+	/**
+	 * Chooses the priority of a job, interactive jobs are ahead of batch jobs and within each small jobs are ahead of large ones
+	 *
+	 * @param files         number of files in the job
+	 * @param source        who submitted the job
+	 * @param largeJobFiles number of files above which a job is large
+	 *
+	 * @return the priority
+	 */
+	public static Priority forJob(int files, JobSource source, int largeJobFiles) {
+		boolean large = files > largeJobFiles;
+		if (source == JobSource.BATCH) {
+			return large ? DEFAULT : LOW;
+		}
+		return large ? MEDIUM : HIGH;
+	}
 }
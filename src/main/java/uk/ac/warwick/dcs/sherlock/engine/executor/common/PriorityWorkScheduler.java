@@ -1,41 +1,91 @@
 package uk.ac.warwick.dcs.sherlock.engine.executor.common;
 
-import java.util.Comparator;
+import uk.ac.warwick.dcs.sherlock.engine.Configuration;
+import uk.ac.warwick.dcs.sherlock.engine.SherlockEngine;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Scheduler which does work in priority order
+ * <p>
+ * Several units of work, up to a concurrency limit, run on the pool at once, so the detectors of a job overlap instead of running one after another. When a slot
+ * frees up the highest priority waiting work is started next, waiting work rises in priority as it ages so low priority work is never starved.
+ * </p>
+ * <p>
+ * Work is run on a {@link ForkJoinPool} owned by the scheduler, rather than the common pool shared with the web server and other libraries. The parallelism, thread
+ * names and uncaught exception handler of the pool are taken from the {@link Configuration}.
+ * </p>
  */
 public class PriorityWorkScheduler {
 
-	private final PriorityBlockingQueue<PriorityWorkTask> priorityQueue;
+	private final AgingQueue<PriorityWorkTask> priorityQueue;
 	private final ForkJoinPool priorityWorkForkPool;
 	private final ExecutorService priorityWorkScheduler;
 
+	// Number of units of work which can be started without exceeding the concurrency limit
+	private final Semaphore freeSlots;
+	private final int concurrency;
+
 	public PriorityWorkScheduler() {
 		this(10);
 	}
 
 	public PriorityWorkScheduler(Integer queueSize) {
-		this.priorityWorkForkPool = ForkJoinPool.commonPool();
+		this(queueSize, SherlockEngine.configuration);
+	}
+
+	/**
+	 * Creates a scheduler with its own work pool
+	 *
+	 * @param queueSize     initial capacity of the work queue
+	 * @param configuration configuration to take the pool settings from, null for the defaults
+	 */
+	public PriorityWorkScheduler(Integer queueSize, Configuration configuration) {
+		this(queueSize, configuration != null ? configuration.getConcurrentWork() : 4, configuration != null ? configuration.getWorkerParallelism() : 0,
+				configuration != null ? configuration.getWorkerThreadName() : null, configuration != null ? configuration.getWorkerExceptionHandler() : null,
+				(configuration != null ? configuration.getPriorityAgingTime() : 300) * 1000L);
+	}
+
+	/**
+	 * Creates a scheduler with its own work pool
+	 *
+	 * @param queueSize        initial capacity of the work queue
+	 * @param concurrency      maximum number of units of work running at once, at least 1
+	 * @param parallelism      number of threads in the work pool, 0 or below for one per available processor
+	 * @param threadName       name of the work pool threads, each is suffixed with its number
+	 * @param exceptionHandler handler for exceptions escaping a work pool thread, null to log them
+	 * @param agingInterval    milliseconds waiting work takes to rise one priority level
+	 */
+	public PriorityWorkScheduler(Integer queueSize, int concurrency, int parallelism, String threadName, Thread.UncaughtExceptionHandler exceptionHandler,
+			long agingInterval) {
+		this.priorityWorkForkPool = createPool(parallelism, threadName, exceptionHandler);
 		this.priorityWorkScheduler = Executors.newSingleThreadExecutor();
+		this.concurrency = Math.max(1, concurrency);
+		this.freeSlots = new Semaphore(this.concurrency);
 
-		this.priorityQueue = new PriorityBlockingQueue<>(queueSize, Comparator.comparing(PriorityWorkTask::getPriority));
+		this.priorityQueue = new AgingQueue<>(queueSize, agingInterval);
 
 		this.priorityWorkScheduler.execute(() -> {
 			while (true) {
 				try {
-					PriorityWorkTask nextTask = this.priorityQueue.take();
+					// Wait for a free slot before taking work, so the highest priority work at that moment is the one started
+					this.freeSlots.acquire();
 
-					synchronized (nextTask) {
-						this.priorityWorkForkPool.execute(nextTask.getTopAction());
-						nextTask.getTopAction().join();
-						nextTask.notifyAll();
+					PriorityWorkTask nextTask;
+					try {
+						nextTask = this.priorityQueue.take();
+					}
+					catch (InterruptedException e) {
+						this.freeSlots.release();
+						throw e;
 					}
 
+					this.priorityWorkForkPool.execute(() -> this.run(nextTask));
 				}
 				catch (InterruptedException e) {
 					break;
@@ -44,8 +94,56 @@ public class PriorityWorkScheduler {
 		});
 	}
 
+	/**
+	 * Runs a unit of work in the calling pool thread, then frees its slot and wakes anyone waiting for it
+	 *
+	 * @param task the work to run
+	 */
+	private void run(PriorityWorkTask task) {
+		try {
+			task.getTopAction().invoke();
+		}
+		catch (RuntimeException e) {
+			ExecutorUtils.logger.error("Scheduled work failed", e);
+		}
+		finally {
+			this.freeSlots.release();
+			task.setComplete();
+		}
+	}
+
+	private static ForkJoinPool createPool(int parallelism, String threadName, Thread.UncaughtExceptionHandler exceptionHandler) {
+		int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		String name = threadName != null && !threadName.isBlank() ? threadName : "Sherlock-Worker";
+		Thread.UncaughtExceptionHandler handler = exceptionHandler != null ? exceptionHandler :
+				(thread, e) -> ExecutorUtils.logger.error("Uncaught exception in work pool thread {}", thread.getName(), e);
+
+		AtomicInteger count = new AtomicInteger(0);
+		ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName(name + "-" + count.incrementAndGet());
+			return thread;
+		};
+
+		return new ForkJoinPool(threads, factory, handler, false);
+	}
+
 	public void scheduleJob(PriorityWorkTask work) {
-		priorityQueue.add(work);
+		priorityQueue.add(work, work.getPriority());
+	}
+
+	/**
+	 * @return the maximum number of units of work running at once
+	 */
+	public int getConcurrency() {
+		return this.concurrency;
+	}
+
+	/**
+	 * @return a snapshot of the work pool's thread and queue counts
+	 */
+	public WorkPoolStatistics getStatistics() {
+		return new WorkPoolStatistics(this.priorityWorkForkPool);
 	}
 
 	public void shutdown() {
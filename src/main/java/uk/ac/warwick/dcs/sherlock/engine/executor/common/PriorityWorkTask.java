@@ -10,6 +10,9 @@ public class PriorityWorkTask {
 	private ForkJoinTask topAction;
 	private Priority priority;
 
+	// Set by the scheduler once the work has finished, guarded by the task's monitor
+	private boolean complete;
+
 	public PriorityWorkTask(ForkJoinTask topAction, Priority priority) {
 		this.topAction = topAction;
 		this.priority = priority;
@@ -22,4 +25,19 @@ public class PriorityWorkTask {
 	ForkJoinTask getTopAction() {
 		return topAction;
 	}
+
+	/**
+	 * Marks the work as finished and wakes any threads waiting on this task
+	 */
+	synchronized void setComplete() {
+		this.complete = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * @return whether the scheduler has finished running the work, successfully or not
+	 */
+	public synchronized boolean isComplete() {
+		return complete;
+	}
 }
@@ -0,0 +1,86 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.common;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Snapshot of the state of the {@link PriorityWorkScheduler}'s work pool.
+ * <p>
+ * Values are estimates taken from {@link ForkJoinPool} at the time of the snapshot. Running threads close to the parallelism while tasks are queued means the
+ * pool is saturated. A low running count with nothing queued means the work is not splitting into enough tasks to use every thread.
+ * </p>
+ */
+public class WorkPoolStatistics {
+
+	private final int parallelism;
+	private final int poolSize;
+	private final int activeThreads;
+	private final int runningThreads;
+	private final long queuedTasks;
+	private final int queuedSubmissions;
+	private final long steals;
+
+	WorkPoolStatistics(ForkJoinPool pool) {
+		this.parallelism = pool.getParallelism();
+		this.poolSize = pool.getPoolSize();
+		this.activeThreads = pool.getActiveThreadCount();
+		this.runningThreads = pool.getRunningThreadCount();
+		this.queuedTasks = pool.getQueuedTaskCount();
+		this.queuedSubmissions = pool.getQueuedSubmissionCount();
+		this.steals = pool.getStealCount();
+	}
+
+	/**
+	 * @return the target number of worker threads
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @return the number of worker threads started and not yet terminated
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @return the number of threads stealing or executing tasks
+	 */
+	public int getActiveThreads() {
+		return activeThreads;
+	}
+
+	/**
+	 * @return the number of threads executing tasks which are not blocked waiting to join others
+	 */
+	public int getRunningThreads() {
+		return runningThreads;
+	}
+
+	/**
+	 * @return the number of tasks forked by worker threads and waiting in their queues
+	 */
+	public long getQueuedTasks() {
+		return queuedTasks;
+	}
+
+	/**
+	 * @return the number of top level tasks submitted to the pool and not yet started
+	 */
+	public int getQueuedSubmissions() {
+		return queuedSubmissions;
+	}
+
+	/**
+	 * @return the total number of tasks stolen from one thread's queue by another, increasing steals show work being balanced across threads
+	 */
+	public long getSteals() {
+		return steals;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("parallelism %d, threads %d, active %d, running %d, queued tasks %d, queued submissions %d, steals %d", parallelism, poolSize, activeThreads,
+				runningThreads, queuedTasks, queuedSubmissions, steals);
+	}
+}
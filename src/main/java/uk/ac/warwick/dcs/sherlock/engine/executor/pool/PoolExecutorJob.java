@@ -4,36 +4,47 @@ import uk.ac.warwick.dcs.sherlock.api.component.*;
 import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.AbstractModelTaskRawResult;
 import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.ModelTaskProcessedResults;
 import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
-import uk.ac.warwick.dcs.sherlock.api.util.PairedTuple;
 import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
 import uk.ac.warwick.dcs.sherlock.engine.SherlockEngine;
 import uk.ac.warwick.dcs.sherlock.engine.executor.JobStatus;
+import uk.ac.warwick.dcs.sherlock.engine.executor.common.DuplicateFiles;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.ExecutorUtils;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.IPriorityWorkSchedulerWrapper;
+import uk.ac.warwick.dcs.sherlock.engine.executor.common.PairResultCache;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.Priority;
 import uk.ac.warwick.dcs.sherlock.engine.executor.work.WorkPreProcessFiles;
+import uk.ac.warwick.dcs.sherlock.engine.executor.work.WorkRemoveSkeletonCode;
+import uk.ac.warwick.dcs.sherlock.engine.executor.work.WorkScoreFiles;
 
-import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 
-
-record FileIdPair(long file1Id, long file2Id) {}
-
 /**
  * Executor which handles job wide tasks, uses 1 task executor per task
  */
 public class PoolExecutorJob implements Runnable {
 
 	private final IPriorityWorkSchedulerWrapper scheduler;
+	private final PairResultCache pairResults;
 	private final IJob job;
 	private final JobStatus status;
 
-	public PoolExecutorJob(IPriorityWorkSchedulerWrapper scheduler, IJob job, JobStatus status) {
+	// Rank in the executor's queue and when the job was last taken from it, kept when the job is paused so it does not lose the time already waited
+	private volatile long rank;
+	private volatile long takenAt;
+
+	/**
+	 * @param scheduler   scheduler to run the job's work on
+	 * @param pairResults results of file pairs kept from earlier runs, null to compare every pair
+	 * @param job         the job to run
+	 * @param status      status of the job
+	 */
+	public PoolExecutorJob(IPriorityWorkSchedulerWrapper scheduler, PairResultCache pairResults, IJob job, JobStatus status) {
 		this.scheduler = scheduler;
+		this.pairResults = pairResults;
 		this.job = job;
 		this.status = status;
 	}
@@ -46,6 +57,28 @@ public class PoolExecutorJob implements Runnable {
 		return this.status.getPriority();
 	}
 
+	/**
+	 * @return the rank the job was last queued with, see {@link uk.ac.warwick.dcs.sherlock.engine.executor.common.AgingQueue}
+	 */
+	public long getRank() {
+		return this.rank;
+	}
+
+	public void setRank(long rank) {
+		this.rank = rank;
+	}
+
+	/**
+	 * @return the time the job was last started or resumed, from the executor queue's clock
+	 */
+	public long getTakenAt() {
+		return this.takenAt;
+	}
+
+	public void setTakenAt(long takenAt) {
+		this.takenAt = takenAt;
+	}
+
 	public JobStatus getStatus() {
 		return this.status;
 	}
@@ -64,9 +97,23 @@ public class PoolExecutorJob implements Runnable {
 		return false;
 	}
 
+	/**
+	 * Called between phases of the job, gives the job's slot to a higher priority waiting job if there is one and waits to be resumed
+	 *
+	 * @return true if the job has been cancelled and should stop
+	 */
+	private boolean pauseOrStop() {
+		if (stopIfCancelled()) {
+			return true;
+		}
+
+		this.scheduler.preemptionPoint(this);
+		return stopIfCancelled();
+	}
+
 	@Override
 	public void run() {
-		List<PoolExecutorTask> tasks = job.getTasks().stream().map(x -> new PoolExecutorTask(this.status, scheduler, x, job.getWorkspace().getLanguage())).collect(Collectors.toList());
+		List<PoolExecutorTask> tasks = job.getTasks().stream().map(x -> new PoolExecutorTask(this.status, scheduler, this.pairResults, x, job.getWorkspace().getLanguage())).collect(Collectors.toList());
 		ExecutorService exServ = Executors.newFixedThreadPool(Math.max(1, tasks.size()));
 		try {
 
@@ -77,10 +124,17 @@ public class PoolExecutorJob implements Runnable {
 		}
 		if (stopIfCancelled()) return;
 
+		// Files with the same content are only run through the detectors once, their results are copied after post-processing
+		Set<Long> skeletonFileIds = this.job.getWorkspace().getFiles().stream().filter(f -> f.getSubmission().getName().equals(SherlockEngine.skeletonCodeName))
+				.map(ISourceFile::getPersistentId).collect(Collectors.toSet());
+		DuplicateFiles duplicates = DuplicateFiles.find(this.job.getWorkspace().getFiles(), skeletonFileIds);
+		List<ISourceFile> detectedFiles = duplicates.getDetectedFiles();
+		this.status.setShortCircuitedPairCount(duplicates.getShortCircuitedPairCount());
+
 		// Run preprocessing, detection, and postprocessing
 		job.setStatus(WorkStatus.ACTIVE);
 		this.status.nextStep();
-		this.status.calculateProgressIncrement(tasks.stream().mapToInt(t -> t.getPreProcessingStrategies().size()).sum() * this.job.getWorkspace().getFiles().size());
+		this.status.calculateProgressIncrement(tasks.stream().mapToInt(t -> t.getPreProcessingStrategies().size()).sum() * detectedFiles.size());
 
 		List<PoolExecutorTask> detTasks = tasks.stream().filter(x -> x.getStatus() != WorkStatus.COMPLETE).collect(Collectors.toList());
 
@@ -90,9 +144,9 @@ public class PoolExecutorJob implements Runnable {
 			return;
 		}
 
-		RecursiveAction preProcess = new WorkPreProcessFiles(new ArrayList<>(detTasks), this.job.getWorkspace().getFiles());
-		this.scheduler.invokeWork(preProcess, Priority.DEFAULT);
-		if (stopIfCancelled()) return;
+		RecursiveAction preProcess = new WorkPreProcessFiles(new ArrayList<>(detTasks), detectedFiles);
+		this.scheduler.invokeWork(preProcess, this.getPriority());
+		if (pauseOrStop()) return;
 
 		// Check that preprocessing went okay
 		detTasks.stream().filter(x -> x.dataItems.size() == 0).peek(x -> {
@@ -116,7 +170,7 @@ public class PoolExecutorJob implements Runnable {
 			job.setStatus(WorkStatus.INTERRUPTED);
 			return;
 		}
-		if (stopIfCancelled()) return;
+		if (pauseOrStop()) return;
 
 		this.status.nextStep();
 		this.status.calculateProgressIncrement(detTasks.stream().mapToInt(PoolExecutorTask::getWorkerSize).sum());
@@ -129,7 +183,7 @@ public class PoolExecutorJob implements Runnable {
 			job.setStatus(WorkStatus.INTERRUPTED);
 			return;
 		}
-		if (stopIfCancelled()) return;
+		if (pauseOrStop()) return;
 
 		job.setStatus(WorkStatus.REGEN_RESULTS);
 
@@ -142,154 +196,35 @@ public class PoolExecutorJob implements Runnable {
 		//for each combination of (lsn.lfm, lsk.lfj):
 		//  remove from Result((lsn.lfm, lsk.lfj)):
 		//	Any locations that exist in S.lfm and Result((lsn.lfm, lsk.lfj)), and Any locations in S.lfj and Result((lsn.lfm, lsk.lfj)).
+		//The skeleton code lines of each legitimate file are gathered into per file interval lists, then the results of every task are stripped in parallel
+		// The skeleton code lines of the detected duplicates are needed to leave them out of the groups matching the whole of the duplicates
+		Map<ITask, Map<Long, List<ITuple<Integer, Integer>>>> duplicateSkeletonLines = new HashMap<>();
+		for (PoolExecutorTask detTask : detTasks) {
+			duplicateSkeletonLines.put(detTask.getTask(), skeletonFileIds.isEmpty() || duplicates.isEmpty() ? Collections.emptyMap() :
+					duplicates.getSkeletonLines(detTask.getTask().getRawResults(), skeletonFileIds));
+		}
 
-		// TODO: add threading to this 
-		//for each task in the job (ie for each detector being ran)
-		for (PoolExecutorTask poolTask : detTasks){//O(D)
-			//get the EntityTask which contains all the results for the Detector's task
-			ITask entityTask = poolTask.getTask();
-			//hashmap for skeleton code results, for easy lookup, keys are <skeleton code file id, legitimate file id>
-			HashMap<FileIdPair, AbstractModelTaskRawResult> skeletonCodeResults = new HashMap();
-			List<AbstractModelTaskRawResult> normalSubmissionResults = new ArrayList();
-			Set<Long> skeletonCodeFileIDs = new HashSet();
-
-			List<AbstractModelTaskRawResult> results = entityTask.getRawResults();
-			if (results == null) {
-				continue;
-			}
-			for (AbstractModelTaskRawResult result : results){//O(L+S)
-				//we know that results for code from same submissions are filtered out before this, so can assume that if first file 
-				// comes from skeleton code, then the second file is legitimate.
-				if (result.getFile1().getSubmission().getName().equals(SherlockEngine.skeletonCodeName)){
-					skeletonCodeResults.put(new FileIdPair(result.getFile1().getPersistentId(), result.getFile2().getPersistentId()), result);
-					skeletonCodeFileIDs.add(result.getFile1().getPersistentId());
-				} else if(result.getFile2().getSubmission().getName().equals(SherlockEngine.skeletonCodeName)){
-					skeletonCodeResults.put(new FileIdPair(result.getFile2().getPersistentId(), result.getFile1().getPersistentId()), result);
-					skeletonCodeFileIDs.add(result.getFile2().getPersistentId());
-				} else {
-					normalSubmissionResults.add(result);
-				}
-			}
-
-			//now we have a bunch of results, with skeleton code submissions in the hashmap, and normal submissions in the list
-			// as well as a list of skeleton code file ids
-
-			//first check if there actually are any skeleton code submissions
-			if (skeletonCodeFileIDs.size() == 0){
-				break; //can just break since whether or not there is a skeleton code submission will be consistent across all tasks
-			}
-			//now go through each result
-			for (AbstractModelTaskRawResult result : normalSubmissionResults){ //O(L)
-				//and for each result, get the skeleton code result for each file
-				for (Long fileID : skeletonCodeFileIDs){ //O(S), which is effectively constant (unless someones uploading 100s of skeleton files...)
-					//get the skeleton code result for the first file
-					AbstractModelTaskRawResult skeletonCodeResult1 = skeletonCodeResults.get(new FileIdPair(fileID, result.getFile1().getPersistentId()));
-					//and the second file
-					AbstractModelTaskRawResult skeletonCodeResult2 = skeletonCodeResults.get(new FileIdPair(fileID, result.getFile2().getPersistentId()));
-
-					//if there is no skeleton code result, then we can just continue
-					if (skeletonCodeResult1 == null && skeletonCodeResult2 == null){
-						continue;
-					}
-
-					//otherwise, get all the locations of all the matches between the two files and the skeleton code
-					// file
-					List<PairedTuple<Integer, Integer, Integer, Integer>> skeletonCodeFile1Matches;
-					List<PairedTuple<Integer, Integer, Integer, Integer>> skeletonCodeFile2Matches;
-
-					if (skeletonCodeResult1 == null){
-						skeletonCodeFile1Matches = new ArrayList<>();
-					}else{
-						skeletonCodeFile1Matches = skeletonCodeResult1.getLocations();
-					}
-
-					if (skeletonCodeResult2 == null){
-						skeletonCodeFile2Matches = new ArrayList<>();
-					}else{
-						skeletonCodeFile2Matches = skeletonCodeResult2.getLocations();
-					}
-
-					//now the intention with the following code is to get the code in a state which miniises the number of 
-					// loops spent removing lines from the raw results. The idea is to go through both lists of matches
-					// and combine them, stripping the skeleton code matches but combining the legitimate matches into
-					// one paired tuple. ie going from:
-					//	skeletonCodeResult1: <<skeleCodeMatchStartLine1, skeleCodeMatchEndLine1>,<legitMatchStartLine1, legitMatchEndLine1>>
-					//  skeletonCodeResult2: <<skeleCodeMatchStartLine2, skeleCodeMatchEndLine2>,<legitMatchStartLine2, legitMatchEndLine2>>
-					//to:
-					//  results: <<legitMatchStartLine1, legitMatchEndLine1>,<legitMatchStartLine2, legitMatchEndLine2>>
-					//so do one loop over both lists (rather than two)
-					for (int i = 0; i < skeletonCodeFile1Matches.size() || i < skeletonCodeFile2Matches.size(); i++){ //O(M)
-						ITuple<Integer, Integer> file1Match;
-						//and check if there are matches left in the first file
-						if (i >= skeletonCodeFile1Matches.size()){
-							//if not, then just use a dummy match, which will never affect results
-							file1Match = new Tuple<>(-1,-1);
-						} else {
-							//otherwise, get the match
-							PairedTuple<Integer, Integer, Integer, Integer> skeletonCodeFile1Match = skeletonCodeFile1Matches.get(i);
-							//and if the first file is from the skeleton code submission, then use the second pair of locations
-							// which represent the start and end of the code block in the legitimate file
-							if (skeletonCodeResult1.getFile1().getSubmission().getName().equals(SherlockEngine.skeletonCodeName)){
-								file1Match = skeletonCodeFile1Match.getPoint2();
-							}else{
-								//otherwise, use the first pair of locations
-								file1Match = skeletonCodeFile1Match.getPoint1();
-							}
-						}
-						//then do the same for the second file
-						ITuple<Integer, Integer> file2Match;
-						if (i >= skeletonCodeFile2Matches.size()){
-							file2Match = new Tuple<>(-1,-1);
-						} else {
-							PairedTuple<Integer, Integer, Integer, Integer> skeletonCodeFile2Match = skeletonCodeFile2Matches.get(i);
-							if (skeletonCodeResult2.getFile1().getSubmission().getName().equals(SherlockEngine.skeletonCodeName)){
-								file2Match = skeletonCodeFile2Match.getPoint2();
-							}else{
-								file2Match = skeletonCodeFile2Match.getPoint1();
-							}
-						}
-
-
-						//now we have one paired tuple, we can call the removeLine method to remove it from the raw result
-						result.removeLine(new PairedTuple<>(file1Match, file2Match));//O(M)
+		if (!skeletonFileIds.isEmpty()) {
+			List<List<AbstractModelTaskRawResult>> taskResults = detTasks.stream().map(x -> x.getTask().getRawResults()).collect(Collectors.toList());
+			WorkRemoveSkeletonCode removeSkeletonCode = new WorkRemoveSkeletonCode(taskResults, skeletonFileIds);
+			this.scheduler.invokeWork(removeSkeletonCode, this.getPriority());
 
-					}
-				}
-			}
-			//finally, do a cleanup to remove any matches that now have no lines in them
-			//first remake the full list of rawresults
-			List<AbstractModelTaskRawResult> fullResults = new ArrayList<>();
-			for (AbstractModelTaskRawResult result : normalSubmissionResults){//O(L)
-				//and just check that there are actually lines left in the result
-				if (result.getLocations().size()>0){
-					//clean up the internal skeleton code
-					result.cleanInternalSkeletonCode();
-					//and add it to the full list
-					fullResults.add(result);
+			List<List<AbstractModelTaskRawResult>> cleanedResults = removeSkeletonCode.getResults();
+			for (int i = 0; i < cleanedResults.size(); i++) {
+				if (cleanedResults.get(i) == null) {
+					continue;
 				}
+
+				//skeleton code matches are left out of the new results, users are unlikely to care how much of the skeleton code was used
+				ITask entityTask = detTasks.get(i).getTask();
+				entityTask.clearResults();
+				entityTask.setRawResults(cleanedResults.get(i));
+				entityTask.setComplete();
 			}
-			//now here we *can* add skeleton code matches back in, if we want to. I imagine that users probably
-			// dont care about how much someone has used the skeleton code though so will just leave it out.
-			//If you want to add skeleton code back, you can just uncomment this:
-			// for (AbstractModelTaskRawResult subResult : skeletonCodeResults.values()){
-			// 	fullResults.add(subResult);
-			// }
-
-			//then clear the results, and set the new results,
-			entityTask.clearResults();
-			entityTask.setRawResults(fullResults);
-			//then reset the job as complete
-			entityTask.setComplete();
 		}
 
-		//so overall, the time complexity of this is O(D) * [O(L+S) + O(L)*O(S)*O(M)*O(M) + O(L)]
-		// Which is equal to O(D) * O(L+S + L*S*M^2 + L)
-		// Where D is the number of detectors, L is the number of legitimate files to be analysed,
-		// S is the number of skeleton code files, and M is the number of matches per file
-		// Since D and S are small, this brings us to worst case O(L*M^2). Feel free to optimise further!
-
 		// Run postprocessing
-		if (stopIfCancelled()) return;
+		if (pauseOrStop()) return;
 		this.status.setStep(5);
 		List<PoolExecutorTask> postTasks = tasks.stream().filter(x -> x.getStatus() == WorkStatus.COMPLETE).collect(Collectors.toList());
 		List<ITuple<ITask, ModelTaskProcessedResults>> results = new LinkedList<>();
@@ -300,6 +235,11 @@ public class PoolExecutorJob implements Runnable {
 			for (int i = 0; i < postTasks.size(); i++) {
 				if (stopIfCancelled()) return;
 				ModelTaskProcessedResults m = tmp.get(i).get();
+				Map<Long, List<ITuple<Integer, Integer>>> skeletonLines = duplicateSkeletonLines.get(postTasks.get(i).getTask());
+				if (skeletonLines != null && !duplicates.isEmpty()) {
+					m = m != null ? m : new ModelTaskProcessedResults();
+					duplicates.copyResults(m, skeletonLines);
+				}
 				if (m != null && m.getGroups().size() > 0) {
 					results.add(new Tuple<>(postTasks.get(i).getTask(), m));
 				}
@@ -323,7 +263,13 @@ public class PoolExecutorJob implements Runnable {
 			List<ICodeBlockGroup> allGroups = results.stream().flatMap(f -> f.getValue().getGroups().stream()).collect(Collectors.toList());
 			SherlockEngine.storage.storeCodeBlockGroups(allGroups);
 
-			// TODO: thread scoring loops
+			// Score the files in parallel, then store the scores in file order so the results are the same whatever the number of threads
+			List<ISourceFile> files = this.job.getWorkspace().getFiles();
+			int threshold = Math.min(Math.max(files.size() / Runtime.getRuntime().availableProcessors(), 1), 4);
+			WorkScoreFiles scoreFiles = new WorkScoreFiles(this.status, files, results.stream().map(ITuple::getValue).collect(Collectors.toList()), threshold);
+			this.scheduler.invokeWork(scoreFiles, this.getPriority());
+			if (stopIfCancelled()) return;
+
 			IResultJob jobRes = this.job.createNewResult();
 			
 			// Track which groups have been added to each task to prevent duplicates
@@ -333,64 +279,38 @@ public class PoolExecutorJob implements Runnable {
 				taskGroupsAdded.put(t.getKey(), new HashSet<>());
 			}
 			
-			for (ISourceFile file : this.job.getWorkspace().getFiles()) {
+			for (int f = 0; f < files.size(); f++) {
 				if (stopIfCancelled()) return;
+				ISourceFile file = files.get(f);
 				IResultFile fileRes = jobRes.addFile(file);
-				List<ITuple<ICodeBlockGroup, Float>> overallGroupScores = new LinkedList<>();
-
-				for (ITuple<ITask, ModelTaskProcessedResults> t : results) {
-					try {
-						List<ICodeBlockGroup> groupsContainingFile = t.getValue().getGroups(file);
-						int fileTotal = t.getValue().getFileTotal(file);
-
-						// Detect if AST-based by checking first block's subtreeWeight
-						boolean isAST = !groupsContainingFile.isEmpty() && groupsContainingFile.get(0).getCodeBlock(file).getSubtreeWeight() != null && groupsContainingFile.get(0).getCodeBlock(file).getSubtreeWeight() != null;
-
-						// Construct block scores weighted against the whole file, by default uses file line count, but can be set to custom totals (eg. variable counts)
-						AtomicReference<Float> fullSize = new AtomicReference<>((float) 0);
-
-						List<ITuple<ICodeBlockGroup, Float>> groupScores = groupsContainingFile.stream().map(x -> {
-							ICodeBlock b = x.getCodeBlock(file);
-
-							if (isAST) {
-								// AST-based: weight by node count instead of line count
-								float subtreeWeight = b.getSubtreeWeight();
-								return new Tuple<>(x, b.getBlockScore() * (subtreeWeight/fileTotal));
-							}else {
-								// Syntax/token-based: weight by line count
-								float size = b.getLineNumbers().stream().mapToInt(y -> y.getValue()- y.getKey() + 1).sum();
-							    fullSize.updateAndGet(v -> v + size);
-							return new Tuple<>(x, b.getBlockScore() * (size/fileTotal));
-							}
-
-						}).collect(Collectors.toList());
-
-						// For non-AST detectors, normalise against full size to counteract overlapping line ranges.
-						// Skipped for AST: AST groups are pairwise (2 files each), so fullSize sums subtree weights
-						// across ALL pairs, incorrectly deflating per-pair scores.
-						if (!isAST && fullSize.get() > fileTotal) {
-							float factor = fullSize.get() / fileTotal;
-							groupScores.forEach(x -> x.setValue(x.getValue()/factor));
-						}
+				WorkScoreFiles.FileScores fileScores = scoreFiles.getScores(f);
+				if (fileScores == null) {
+					// Scoring was stopped part way through
+					job.setStatus(WorkStatus.INTERRUPTED);
+					return;
+				}
 
-						this.status.incrementProgress();
+				for (int i = 0; i < results.size(); i++) {
+					WorkScoreFiles.TaskScores taskScores = fileScores.taskScores()[i];
+					if (taskScores == null) {
+						continue;
+					}
 
-						IResultTask taskRes = fileRes.addTaskResult(t.getKey());
+					try {
+						ITask task = results.get(i).getKey();
+						IResultTask taskRes = fileRes.addTaskResult(task);
 						
 						// Only add groups that haven't been added to this task yet (prevents duplicates across files)
-						Set<Integer> addedGroups = taskGroupsAdded.get(t.getKey());
-						List<ICodeBlockGroup> newGroups = groupsContainingFile.stream()
+						Set<Integer> addedGroups = taskGroupsAdded.get(task);
+						List<ICodeBlockGroup> newGroups = taskScores.groups().stream()
 							.filter(g -> addedGroups.add(System.identityHashCode(g)))
 							.collect(Collectors.toList());
 						if (!newGroups.isEmpty()) {
 							taskRes.addContainingBlock(newGroups);
 						}
 
-						// calculate and store the scores from the group scores, uses weightings
-						calculateScoreForBlockList(file, groupScores, taskRes, taskRes.getClass().getDeclaredMethod("setTaskScore", float.class), taskRes.getClass().getDeclaredMethod("addFileScore", ISourceFile.class, float.class));
-						overallGroupScores.addAll(groupScores);
-
-						this.status.incrementProgress();
+						storeScores(files, file, taskScores.scores(), taskRes::addFileScore);
+						taskRes.setTaskScore(taskScores.scores().score());
 					}
 					catch (Exception e) {
 						synchronized (ExecutorUtils.logger) {
@@ -399,20 +319,18 @@ public class PoolExecutorJob implements Runnable {
 					}
 				}
 
-				try {
-					calculateScoreForBlockList(file, overallGroupScores, fileRes, fileRes.getClass().getDeclaredMethod("setOverallScore", float.class), fileRes.getClass().getDeclaredMethod("addFileScore", ISourceFile.class, float.class));
-				}
-				catch (NoSuchMethodException e) {
-					e.printStackTrace();
-				}
-
-				this.status.incrementProgress();
+				storeScores(files, file, fileScores.scores(), fileRes::addFileScore);
+				fileRes.setOverallScore(fileScores.scores().score());
 			}
 		}
 		else {
 			ExecutorUtils.logger.info("Job {} produced no results", job.getPersistentId());
 		}
 
+		if (duplicates.getShortCircuitedPairCount() > 0) {
+			ExecutorUtils.logger.info("Job {} short-circuited {} file pairs with identical content", job.getPersistentId(), duplicates.getShortCircuitedPairCount());
+		}
+
 		job.setStatus(WorkStatus.COMPLETE);
 		}
 		finally {
@@ -420,25 +338,11 @@ public class PoolExecutorJob implements Runnable {
 		}
 	}
 
-	@SuppressWarnings ("Duplicates")
-	private void calculateScoreForBlockList(ISourceFile file, List<ITuple<ICodeBlockGroup, Float>> groupScores, Object obj, Method methodTotal, Method methodPerFile) {
-		try {
-			// Score each file for the task first, then use the max as the overall score
-			float maxScore = 0f;
-			for (ISourceFile fileComp : this.job.getWorkspace().getFiles()) {
-				if (!fileComp.equals(file)) {
-					float s = (float) groupScores.stream().filter(g -> g.getKey().filePresent(fileComp)).mapToDouble(x -> x.getValue()).sum();
-					float capped = s > 1 ? 1 : s;
-					methodPerFile.invoke(obj, fileComp, capped);
-					if (capped > maxScore) maxScore = capped;
-				}
+	private static void storeScores(List<ISourceFile> files, ISourceFile file, WorkScoreFiles.Scores scores, BiConsumer<ISourceFile, Float> addFileScore) {
+		for (int i = 0; i < files.size(); i++) {
+			if (!files.get(i).equals(file)) {
+				addFileScore.accept(files.get(i), scores.fileScores()[i]);
 			}
-
-			// Overall score = maximum score against any single other file
-			methodTotal.invoke(obj, maxScore);
-		}
-		catch (Exception e) {
-			e.printStackTrace();
 		}
 	}
 }
@@ -13,16 +13,17 @@ import uk.ac.warwick.dcs.sherlock.api.registry.SherlockRegistry;
 import uk.ac.warwick.dcs.sherlock.engine.executor.JobStatus;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.ExecutorUtils;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.IPriorityWorkSchedulerWrapper;
+import uk.ac.warwick.dcs.sherlock.engine.executor.common.PairResultCache;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.Priority;
 import uk.ac.warwick.dcs.sherlock.engine.executor.work.IWorkTask;
 import uk.ac.warwick.dcs.sherlock.engine.executor.work.WorkDetect;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 /**
@@ -31,6 +32,7 @@ import java.util.stream.Collectors;
 public class PoolExecutorTask implements Callable<ModelTaskProcessedResults>, IWorkTask {
 
 	private final IPriorityWorkSchedulerWrapper scheduler;
+	private final PairResultCache pairResults;
 	private final JobStatus status;
 	private final ITask task;
 	private final String language;
@@ -39,24 +41,25 @@ public class PoolExecutorTask implements Callable<ModelTaskProcessedResults>, IW
 	private List<PreProcessingStrategy> preProcessingStrategies;
 	// Use volatile as accessed across threads
 	private volatile List<DetectorWorker> workers;
+	// Results kept from earlier runs of the task, null if none are kept
+	private volatile PairResultCache.TaskResults storedResults;
 
-	PoolExecutorTask(JobStatus jobStatus, IPriorityWorkSchedulerWrapper scheduler, ITask task, String language) {
+	PoolExecutorTask(JobStatus jobStatus, IPriorityWorkSchedulerWrapper scheduler, PairResultCache pairResults, ITask task, String language) {
 		this.callType = 1;
 		this.status = jobStatus;
 		this.scheduler = scheduler;
+		this.pairResults = pairResults;
 		this.task = task;
 		this.language = language;
 
 		this.dataItems = Collections.synchronizedList(new LinkedList<>());
 		this.workers = null;
+		this.storedResults = null;
 
-		try {
-			IDetector instance = task.getDetector().getConstructor().newInstance();
+		IDetector instance = SherlockRegistry.getDetectorInstance(task.getDetector());
+		if (instance != null) {
 			this.preProcessingStrategies = instance.getPreProcessors();
 		}
-		catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-			e.printStackTrace();
-		}
 	}
 
 	@Override
@@ -116,29 +119,39 @@ public class PoolExecutorTask implements Callable<ModelTaskProcessedResults>, IW
 			return;
 		}
 
-		IDetector detector;
-		try {
-			detector = this.task.getDetector().getConstructor().newInstance();
-		}
-		catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-			e.printStackTrace();
+		IDetector detector = SherlockRegistry.getDetectorInstance(this.task.getDetector());
+		if (detector == null) {
+			ExecutorUtils.logger.error("Could not create an instance of detector {}", this.getDetector().getName());
 			return;
 		}
 
 		ExecutorUtils.processAdjustableParameters(detector, this.task.getParameterMapping());
 
+		// Built as work on the scheduler's pool, so detectors preparing their file data with parallel streams use the work pool rather than the common pool
+		ForkJoinTask<List<DetectorWorker>> building = ForkJoinTask.adapt(() -> detector.buildWorkers(this.dataItems));
+		this.scheduler.invokeWork(building, this.status.getPriority());
 		try {
-			this.workers = detector.buildWorkers(this.dataItems);
+			this.workers = building.isDone() ? building.join() : null;
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 		}
 
-		if (this.workers.size() == 0) {
+		if (this.workers == null || this.workers.size() == 0) {
 			ExecutorUtils.logger.error("Error building detector {}, no workers were built", this.getDetector().getName());
 			return; // Abort early
 		}
 
+		// Pairs compared in an earlier run of the task, with the same files and parameters, read their results back rather than being compared again
+		this.storedResults = this.pairResults != null ? this.pairResults.getTaskResults(this.task, this.language) : null;
+		if (this.storedResults != null) {
+			this.workers = this.storedResults.useStoredResults(detector, this.workers);
+			if (this.storedResults.getReusedCount() > 0) {
+				ExecutorUtils.logger.info("{}: reusing the results of {} of {} file pairs from an earlier run", this.getDetector().getName(), this.storedResults.getReusedCount(),
+						this.workers.size());
+			}
+		}
+
 		this.status.incrementProgress();
 		this.callType = 2;
 	}
@@ -156,17 +169,27 @@ public class PoolExecutorTask implements Callable<ModelTaskProcessedResults>, IW
 			int threshold = Math.min(Math.max(this.workers.size() / Runtime.getRuntime().availableProcessors(), 1), 4); //set min and max num workers in a thread
 
 			WorkDetect detect = new WorkDetect(this.status, this.workers, threshold);
-			this.scheduler.invokeWork(detect, Priority.DEFAULT);
+			this.scheduler.invokeWork(detect, this.status.getPriority());
 			if (this.status.isCancellationRequested() || Thread.currentThread().isInterrupted()) {
 				return;
 			}
 			List<AbstractModelTaskRawResult> rawResults = detect.getResults();
 
-			if (this.workers.size() != rawResults.size()) {
-				ExecutorUtils.logger.error("Error running workers, got {} results from {} workers", rawResults.size(), this.workers.size());
+			// Kept pairs without matches give no result
+			int expected = this.workers.size() - (this.storedResults != null ? this.storedResults.getEmptyResultCount() : 0);
+			if (expected != rawResults.size()) {
+				ExecutorUtils.logger.error("Error running workers, got {} results from {} workers", rawResults.size(), expected);
 				return;
 			}
 
+			// Keep the results before skeleton code removal changes them
+			if (this.storedResults != null) {
+				PairResultCache.TaskResults stored = this.storedResults;
+				List<DetectorWorker> executed = this.workers;
+				this.scheduler.invokeWork(ForkJoinTask.adapt(() -> stored.store(executed)), this.status.getPriority());
+				this.pairResults.trim();
+			}
+
 			rawResults = rawResults.stream().filter(Objects::nonNull).filter(x -> !x.isEmpty()).collect(Collectors.toList());
 			if (rawResults.size() > 0) {
 
@@ -206,6 +229,7 @@ public class PoolExecutorTask implements Callable<ModelTaskProcessedResults>, IW
 					ExecutorUtils.processAdjustableParameters(postProcessor, this.task.getParameterMapping());
 					ModelTaskProcessedResults processedResults = postProcessor.processResults(this.task.getJob().getWorkspace().getFiles(), rawResults);
 					processedResults.cleanGroups();
+					processedResults.indexFiles();
 					this.status.incrementProgress();
 
 					return processedResults;
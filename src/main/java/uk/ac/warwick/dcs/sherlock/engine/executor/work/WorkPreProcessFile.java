@@ -17,7 +17,6 @@ import uk.ac.warwick.dcs.sherlock.engine.executor.common.ExecutorUtils;
 import uk.ac.warwick.dcs.sherlock.module.model.base.preprocessing.StandardStringifier;
 import uk.ac.warwick.dcs.sherlock.module.model.base.preprocessing.StandardTokeniser;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -89,58 +88,51 @@ public class WorkPreProcessFile extends RecursiveAction {
 				return;
 			}
 			if (strategy.isAdvanced()) {
-				try {
-					Class<? extends IAdvancedPreProcessorGroup> groupClass = (Class<? extends IAdvancedPreProcessorGroup>) strategy.getPreProcessorClasses().get(0);
-					ITuple<Class<? extends IAdvancedPreProcessor>, Class<? extends Lexer>> t = SherlockRegistry.getAdvancedPostProcessorForLanguage(groupClass, task.getLanguage());
-
-					CharStream stream = CharStreams.fromString(this.fileContent, this.file.getFileDisplayPath());
-					Lexer lexer = ExecutorUtils.configureAntlrLexer(t.getValue().getDeclaredConstructor(CharStream.class).newInstance(stream));
-					IAdvancedPreProcessor processor = t.getKey().getConstructor().newInstance();
-					IPreprocessArtifact artifact = (IPreprocessArtifact) processor.getClass().getMethod("process", t.getValue()).invoke(processor, lexer);
-					map.put(strategy.getName(), artifact);
-				}
-				catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
-					e.printStackTrace();
+				Class<? extends IAdvancedPreProcessorGroup> groupClass = (Class<? extends IAdvancedPreProcessorGroup>) strategy.getPreProcessorClasses().get(0);
+				ITuple<Class<? extends IAdvancedPreProcessor>, Class<? extends Lexer>> t = SherlockRegistry.getAdvancedPostProcessorForLanguage(groupClass, task.getLanguage());
+
+				CharStream stream = CharStreams.fromString(this.fileContent, this.file.getFileDisplayPath());
+				Lexer lexer = SherlockRegistry.getLexerInstance(t.getValue(), stream);
+				IAdvancedPreProcessor<Lexer> processor = SherlockRegistry.getAdvancedPreProcessorInstance(t.getKey());
+				if (lexer != null && processor != null) {
+					// The registry verified the processor takes this lexer type, so it can be called through the interface
+					map.put(strategy.getName(), processor.process(ExecutorUtils.configureAntlrLexer(lexer)));
 				}
 			}
 			else {
-				try {
-					Class<? extends Lexer> clazz = SherlockRegistry.getLexerForStrategy(strategy, task.getLanguage());
-					if (clazz != null) {
-						CharStream stream = CharStreams.fromString(this.fileContent, this.file.getFileDisplayPath());
-						Lexer lexer = ExecutorUtils.configureAntlrLexer(clazz.getDeclaredConstructor(CharStream.class).newInstance(stream));
-						List<? extends Token> tokensMaster = lexer.getAllTokens();
-
-						List<? extends Token> tokens = new LinkedList<>(tokensMaster);
-						for (Class<? extends IPreProcessor> processorClass : strategy.getPreProcessorClasses()) {
-							try {
-								IGeneralPreProcessor processor = (IGeneralPreProcessor) processorClass.getConstructor().newInstance();
-								tokens = processor.process(tokens, lexer.getVocabulary(), task.getLanguage());
-							}
-							catch (InstantiationException | IllegalAccessException e) {
-								e.printStackTrace();
-							}
-						}
+				Class<? extends Lexer> clazz = SherlockRegistry.getLexerForStrategy(strategy, task.getLanguage());
+				Lexer lexer = null;
+				if (clazz != null) {
+					lexer = SherlockRegistry.getLexerInstance(clazz, CharStreams.fromString(this.fileContent, this.file.getFileDisplayPath()));
+				}
 
-						ITokenStringifier stringifier;
-						if (strategy.getStringifier() != null) {
-							stringifier = strategy.getStringifier();
-						}
-						else if (strategy instanceof GenericGeneralPreProcessingStrategy && ((GenericGeneralPreProcessingStrategy) strategy).isResultTokenised()) {
-							stringifier = new StandardTokeniser();
-						}
-						else {
-							stringifier = new StandardStringifier();
+				if (lexer != null) {
+					ExecutorUtils.configureAntlrLexer(lexer);
+					List<? extends Token> tokensMaster = lexer.getAllTokens();
+
+					List<? extends Token> tokens = new LinkedList<>(tokensMaster);
+					for (Class<? extends IPreProcessor> processorClass : strategy.getPreProcessorClasses()) {
+						IGeneralPreProcessor processor = SherlockRegistry.getGeneralPreProcessorInstance((Class<? extends IGeneralPreProcessor>) processorClass);
+						if (processor != null) {
+							tokens = processor.process(tokens, lexer.getVocabulary(), task.getLanguage());
 						}
+					}
 
-						map.put(strategy.getName(), new LineListArtifact(stringifier.processTokens(tokens, lexer.getVocabulary())));
+					ITokenStringifier stringifier;
+					if (strategy.getStringifier() != null) {
+						stringifier = strategy.getStringifier();
+					}
+					else if (strategy instanceof GenericGeneralPreProcessingStrategy && ((GenericGeneralPreProcessingStrategy) strategy).isResultTokenised()) {
+						stringifier = new StandardTokeniser();
 					}
 					else {
-						ExecutorUtils.logger.error("Strategy is not valid for the passed language, this should have been caught at startup!");
+						stringifier = new StandardStringifier();
 					}
+
+					map.put(strategy.getName(), new LineListArtifact(stringifier.processTokens(tokens, lexer.getVocabulary())));
 				}
-				catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException | InstantiationException e) {
-					e.printStackTrace();
+				else {
+					ExecutorUtils.logger.error("Strategy is not valid for the passed language, this should have been caught at startup!");
 				}
 			}
 			task.getJobStatus().incrementProgress();
@@ -0,0 +1,203 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.work;
+
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.AbstractModelTaskRawResult;
+import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
+import uk.ac.warwick.dcs.sherlock.api.util.PairedTuple;
+import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recursive action to remove skeleton code matches from the raw results of a job's tasks
+ * <p>
+ * Each task's results comparing a skeleton code file to a legitimate file are gathered into per file interval lists, the skeleton code lines of each legitimate
+ * file keyed by skeleton file. Every other result only depends on the interval lists of its own two files, so the results of every task are then processed in
+ * parallel. The ranges removed from each result, and their order, are the same as removing them one skeleton code match at a time, so the output is unchanged.
+ * </p>
+ */
+public class WorkRemoveSkeletonCode extends RecursiveAction {
+
+	private static final ITuple<Integer, Integer> NO_LINES = new Tuple<>(-1, -1);
+
+	private final List<List<AbstractModelTaskRawResult>> taskResults;
+	private final Set<Long> skeletonFileIds;
+
+	private final List<Removal> removals;
+	private final int threshold;
+	private final int begin;
+	private final int end;
+
+	private volatile List<List<AbstractModelTaskRawResult>> results;
+
+	/**
+	 * Creates the action for a job
+	 *
+	 * @param taskResults     the raw results of each task, null for a task without results
+	 * @param skeletonFileIds persistent ids of every file in the skeleton code submission
+	 */
+	public WorkRemoveSkeletonCode(List<List<AbstractModelTaskRawResult>> taskResults, Set<Long> skeletonFileIds) {
+		this.taskResults = taskResults;
+		this.skeletonFileIds = skeletonFileIds;
+		this.removals = null;
+		this.threshold = 0;
+		this.begin = 0;
+		this.end = 0;
+		this.results = Collections.emptyList();
+	}
+
+	private WorkRemoveSkeletonCode(List<Removal> removals, int threshold, int begin, int end) {
+		this.taskResults = null;
+		this.skeletonFileIds = null;
+		this.removals = removals;
+		this.threshold = threshold;
+		this.begin = begin;
+		this.end = end;
+	}
+
+	/**
+	 * @return for each task the remaining results with the skeleton code removed, or null if the task's results should be left as they are
+	 */
+	public List<List<AbstractModelTaskRawResult>> getResults() {
+		return this.results;
+	}
+
+	@Override
+	protected void compute() {
+		if (this.removals != null) {
+			this.removeRange();
+			return;
+		}
+
+		List<List<AbstractModelTaskRawResult>> res = new ArrayList<>(Collections.nCopies(this.taskResults.size(), null));
+		List<List<AbstractModelTaskRawResult>> legitimate = new ArrayList<>(Collections.nCopies(this.taskResults.size(), null));
+		List<Removal> all = new ArrayList<>();
+
+		for (int t = 0; t < this.taskResults.size(); t++) {
+			List<AbstractModelTaskRawResult> results = this.taskResults.get(t);
+			if (results == null) {
+				continue;
+			}
+
+			List<AbstractModelTaskRawResult> normal = new ArrayList<>();
+			List<Removal> taskRemovals = plan(results, this.skeletonFileIds, normal);
+
+			// Whether there is skeleton code is consistent across all tasks, so stop at the first task without any
+			if (taskRemovals == null) {
+				break;
+			}
+			legitimate.set(t, normal);
+			all.addAll(taskRemovals);
+		}
+
+		int threshold = Math.max(1, all.size() / (Runtime.getRuntime().availableProcessors() * 4));
+		new WorkRemoveSkeletonCode(all, threshold, 0, all.size()).invoke();
+
+		// Keep the results with lines left, in their original order
+		for (int t = 0; t < legitimate.size(); t++) {
+			if (legitimate.get(t) != null) {
+				List<AbstractModelTaskRawResult> remaining = new ArrayList<>();
+				for (AbstractModelTaskRawResult result : legitimate.get(t)) {
+					if (result.getLocations().size() > 0) {
+						remaining.add(result);
+					}
+				}
+				res.set(t, remaining);
+			}
+		}
+
+		this.results = res;
+	}
+
+	private void removeRange() {
+		int size = this.end - this.begin;
+		if (size > this.threshold) {
+			int middle = this.begin + (size / 2);
+			invokeAll(new WorkRemoveSkeletonCode(this.removals, this.threshold, this.begin, middle),
+					new WorkRemoveSkeletonCode(this.removals, this.threshold, middle, this.end));
+			return;
+		}
+
+		for (int i = this.begin; i < this.end; i++) {
+			Removal removal = this.removals.get(i);
+			removal.result.removeLines(removal.lines);
+			if (removal.result.getLocations().size() > 0) {
+				removal.result.cleanInternalSkeletonCode();
+			}
+		}
+	}
+
+	/**
+	 * Works out the skeleton code lines to remove from each legitimate result of a task.
+	 * <p>
+	 * For each skeleton code file, the lines matched against both of the result's files are removed together, pairing the nth skeleton match in file 1 with
+	 * the nth in file 2, and using an empty range once either runs out.
+	 * </p>
+	 *
+	 * @param results         the task's raw results
+	 * @param skeletonFileIds persistent ids of the skeleton code files
+	 * @param normal          filled with the task's results not involving skeleton code, in order
+	 *
+	 * @return the removals for the legitimate results, or null if none of the task's results involve skeleton code
+	 */
+	static List<Removal> plan(List<AbstractModelTaskRawResult> results, Set<Long> skeletonFileIds, List<AbstractModelTaskRawResult> normal) {
+		// Legitimate file id -> skeleton file id -> lines of the legitimate file matched to the skeleton file
+		Map<Long, Map<Long, List<ITuple<Integer, Integer>>>> skeletonLines = new HashMap<>();
+		Set<Long> skeletonIds = new HashSet<>();
+
+		for (AbstractModelTaskRawResult result : results) {
+			boolean skeleton1 = skeletonFileIds.contains(result.getFile1Id());
+			if (!skeleton1 && !skeletonFileIds.contains(result.getFile2Id())) {
+				normal.add(result);
+				continue;
+			}
+
+			long skeletonId = skeleton1 ? result.getFile1Id() : result.getFile2Id();
+			long legitimateId = skeleton1 ? result.getFile2Id() : result.getFile1Id();
+			List<PairedTuple<Integer, Integer, Integer, Integer>> locations = result.getLocations();
+			List<ITuple<Integer, Integer>> lines = new ArrayList<>(locations.size());
+			for (PairedTuple<Integer, Integer, Integer, Integer> location : locations) {
+				lines.add(skeleton1 ? location.getPoint2() : location.getPoint1());
+			}
+
+			skeletonLines.computeIfAbsent(legitimateId, x -> new HashMap<>()).put(skeletonId, lines);
+			skeletonIds.add(skeletonId);
+		}
+
+		if (skeletonIds.isEmpty()) {
+			return null;
+		}
+
+		List<Removal> removals = new ArrayList<>(normal.size());
+		for (AbstractModelTaskRawResult result : normal) {
+			Map<Long, List<ITuple<Integer, Integer>>> file1Lines = skeletonLines.getOrDefault(result.getFile1Id(), Collections.emptyMap());
+			Map<Long, List<ITuple<Integer, Integer>>> file2Lines = skeletonLines.getOrDefault(result.getFile2Id(), Collections.emptyMap());
+
+			List<PairedTuple<Integer, Integer, Integer, Integer>> lines = new ArrayList<>();
+			for (Long skeletonId : skeletonIds) {
+				List<ITuple<Integer, Integer>> lines1 = file1Lines.get(skeletonId);
+				List<ITuple<Integer, Integer>> lines2 = file2Lines.get(skeletonId);
+				if (lines1 == null && lines2 == null) {
+					continue;
+				}
+				lines1 = lines1 != null ? lines1 : Collections.emptyList();
+				lines2 = lines2 != null ? lines2 : Collections.emptyList();
+
+				for (int i = 0; i < lines1.size() || i < lines2.size(); i++) {
+					lines.add(new PairedTuple<>(i < lines1.size() ? lines1.get(i) : NO_LINES, i < lines2.size() ? lines2.get(i) : NO_LINES));
+				}
+			}
+			removals.add(new Removal(result, lines));
+		}
+
+		return removals;
+	}
+
+	record Removal(AbstractModelTaskRawResult result, List<PairedTuple<Integer, Integer, Integer, Integer>> lines) {}
+}
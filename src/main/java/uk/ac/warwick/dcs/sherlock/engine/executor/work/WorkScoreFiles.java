@@ -0,0 +1,192 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.work;
+
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlock;
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.ModelTaskProcessedResults;
+import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
+import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
+import uk.ac.warwick.dcs.sherlock.engine.executor.JobStatus;
+import uk.ac.warwick.dcs.sherlock.engine.executor.common.ExecutorUtils;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Recursive action to score each file of a job against every other file, for each task and overall
+ * <p>
+ * Every file is scored by a single thread, and the scores are kept in per file arrays rather than written to the job's results, so the scores do not depend on
+ * the number of threads or the order the files are scored in. The caller stores them in the results in file order once the action completes.
+ * </p>
+ */
+public class WorkScoreFiles extends RecursiveAction {
+
+	private final JobStatus status;
+
+	private final List<ISourceFile> files;
+	private final List<ModelTaskProcessedResults> results;
+	private final FileScores[] scores;
+
+	private final int threshold;
+	private final int begin;
+	private final int end;
+
+	/**
+	 * Creates the action for a job
+	 *
+	 * @param jobStatus status of the job, to report progress to
+	 * @param files     the files of the job's workspace
+	 * @param results   the post processed results of each task with results
+	 * @param threshold maximum number of files scored in one action before splitting
+	 */
+	public WorkScoreFiles(JobStatus jobStatus, List<ISourceFile> files, List<ModelTaskProcessedResults> results, int threshold) {
+		this(jobStatus, files, results, new FileScores[files.size()], threshold, 0, files.size());
+	}
+
+	private WorkScoreFiles(JobStatus jobStatus, List<ISourceFile> files, List<ModelTaskProcessedResults> results, FileScores[] scores, int threshold, int begin,
+			int end) {
+		this.status = jobStatus;
+
+		this.files = files;
+		this.results = results;
+		this.scores = scores;
+
+		this.threshold = threshold;
+		this.begin = begin;
+		this.end = end;
+	}
+
+	/**
+	 * @param fileIndex index of the file in the list passed to the constructor
+	 *
+	 * @return the scores of the file, or null if it was not scored because the job was cancelled
+	 */
+	public FileScores getScores(int fileIndex) {
+		return this.scores[fileIndex];
+	}
+
+	@Override
+	protected void compute() {
+		int size = this.end - this.begin;
+
+		if (size > this.threshold) {
+			int middle = this.begin + (size / 2);
+			invokeAll(new WorkScoreFiles(this.status, this.files, this.results, this.scores, this.threshold, this.begin, middle),
+					new WorkScoreFiles(this.status, this.files, this.results, this.scores, this.threshold, middle, this.end));
+			return;
+		}
+
+		for (int i = this.begin; i < this.end; i++) {
+			if (this.status.isCancellationRequested() || Thread.currentThread().isInterrupted()) {
+				break;
+			}
+			this.scores[i] = this.scoreFile(this.files.get(i));
+			this.status.incrementProgress();
+		}
+	}
+
+	private FileScores scoreFile(ISourceFile file) {
+		List<ITuple<ICodeBlockGroup, Float>> overallGroupScores = new LinkedList<>();
+		TaskScores[] taskScores = new TaskScores[this.results.size()];
+
+		for (int t = 0; t < this.results.size(); t++) {
+			try {
+				ModelTaskProcessedResults result = this.results.get(t);
+				List<ICodeBlockGroup> groupsContainingFile = result.getGroups(file);
+				int fileTotal = result.getFileTotal(file);
+
+				// Detect if AST-based by checking first block's subtreeWeight
+				boolean isAST = !groupsContainingFile.isEmpty() && groupsContainingFile.get(0).getCodeBlock(file).getSubtreeWeight() != null;
+
+				// Construct block scores weighted against the whole file, by default uses file line count, but can be set to custom totals (eg. variable counts)
+				AtomicReference<Float> fullSize = new AtomicReference<>((float) 0);
+
+				List<ITuple<ICodeBlockGroup, Float>> groupScores = groupsContainingFile.stream().map(x -> {
+					ICodeBlock b = x.getCodeBlock(file);
+
+					if (isAST) {
+						// AST-based: weight by node count instead of line count
+						float subtreeWeight = b.getSubtreeWeight();
+						return new Tuple<>(x, b.getBlockScore() * (subtreeWeight / fileTotal));
+					}
+					else {
+						// Syntax/token-based: weight by line count
+						float size = b.getLineNumbers().stream().mapToInt(y -> y.getValue() - y.getKey() + 1).sum();
+						fullSize.updateAndGet(v -> v + size);
+						return new Tuple<>(x, b.getBlockScore() * (size / fileTotal));
+					}
+				}).collect(Collectors.toList());
+
+				// For non-AST detectors, normalise against full size to counteract overlapping line ranges.
+				// Skipped for AST: AST groups are pairwise (2 files each), so fullSize sums subtree weights
+				// across ALL pairs, incorrectly deflating per-pair scores.
+				if (!isAST && fullSize.get() > fileTotal) {
+					float factor = fullSize.get() / fileTotal;
+					groupScores.forEach(x -> x.setValue(x.getValue() / factor));
+				}
+
+				this.status.incrementProgress();
+
+				taskScores[t] = new TaskScores(groupsContainingFile, this.scoreAgainstFiles(file, groupScores));
+				overallGroupScores.addAll(groupScores);
+
+				this.status.incrementProgress();
+			}
+			catch (Exception e) {
+				synchronized (ExecutorUtils.logger) {
+					ExecutorUtils.logger.error("Scorer error: ", e);
+				}
+			}
+		}
+
+		return new FileScores(taskScores, this.scoreAgainstFiles(file, overallGroupScores));
+	}
+
+	/**
+	 * Scores a file against each other file as the sum of its group scores for groups containing both, capped at 1
+	 */
+	private Scores scoreAgainstFiles(ISourceFile file, List<ITuple<ICodeBlockGroup, Float>> groupScores) {
+		float[] fileScores = new float[this.files.size()];
+		float maxScore = 0f;
+
+		for (int i = 0; i < this.files.size(); i++) {
+			ISourceFile fileComp = this.files.get(i);
+			if (!fileComp.equals(file)) {
+				float s = (float) groupScores.stream().filter(g -> g.getKey().filePresent(fileComp)).mapToDouble(x -> x.getValue()).sum();
+				float capped = s > 1 ? 1 : s;
+				fileScores[i] = capped;
+				if (capped > maxScore) maxScore = capped;
+			}
+		}
+
+		// Overall score = maximum score against any single other file
+		return new Scores(fileScores, maxScore);
+	}
+
+	/**
+	 * Scores of one file against every other file
+	 *
+	 * @param fileScores score against each file, by index in the job's file list, the file itself is left as 0
+	 * @param score      the maximum score against any single other file
+	 */
+	public record Scores(float[] fileScores, float score) {}
+
+	/**
+	 * Scores of one file for a task
+	 *
+	 * @param groups the task's groups containing the file
+	 * @param scores the file's scores from these groups
+	 */
+	public record TaskScores(List<ICodeBlockGroup> groups, Scores scores) {}
+
+	/**
+	 * Scores of one file for each task and overall
+	 *
+	 * @param taskScores scores for each task, by index in the results list, null where scoring the task failed
+	 * @param scores     scores from the groups of all the tasks
+	 */
+	public record FileScores(TaskScores[] taskScores, Scores scores) {}
+}
@@ -6,6 +6,7 @@ import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlock;
 import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
 import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
 import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.FileGroupIndex;
 import uk.ac.warwick.dcs.sherlock.api.report.IReportGenerator;
 import uk.ac.warwick.dcs.sherlock.api.report.IReportManager;
 import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
@@ -51,6 +52,16 @@ public class ReportManager implements IReportManager<SubmissionMatchGroup, Submi
 	 */
 	private final Map<List<Long>, Float> fileMatchScores;
 
+	/**
+	 * Every ICodeBlockGroup stored in results, indexed by the files they contain.
+	 */
+	private final FileGroupIndex groupIndex;
+
+	/**
+	 * Maps submission ids to the ids of their files which are in at least one ICodeBlockGroup.
+	 */
+	private final Map<Long, Set<Long>> groupSubmissionFileMap;
+
 	/**
 	 * The object used to generate the report information.
 	 */
@@ -78,17 +89,13 @@ public class ReportManager implements IReportManager<SubmissionMatchGroup, Submi
 		});
 
 		fillSubmissionFileMap();
-	}
 
-	/**
-	 * Retrieve every ICodeBlockGroup stored in results.
-	 * @return a list of ICodeBlockGroups.
-	 */
-	private List<ICodeBlockGroup> getCodeBlockGroups() {
 		List<ICodeBlockGroup> codeBlockGroups = new ArrayList<>();
 		this.results.getFileResults().stream().flatMap(file -> file.getTaskResults().stream()).filter(task -> task.getContainingBlocks() != null)
 				.forEach(task -> codeBlockGroups.addAll(task.getContainingBlocks()));
-		return codeBlockGroups;
+		this.groupIndex = new FileGroupIndex(codeBlockGroups);
+		this.groupSubmissionFileMap = new HashMap<>();
+		fillGroupSubmissionFileMap(codeBlockGroups);
 	}
 
 	/**
@@ -97,10 +104,7 @@ public class ReportManager implements IReportManager<SubmissionMatchGroup, Submi
 	 * @return a list of relevant ICodeBlockGroups.
 	 */
 	private List<ICodeBlockGroup> getCodeBlockGroups(ISubmission submission) {
-		List<ICodeBlockGroup> codeBlockGroups = new ArrayList<>();
-		this.results.getFileResults().stream().flatMap(file -> file.getTaskResults().stream()).filter(task -> task.getContainingBlocks() != null)
-				.flatMap(task -> task.getContainingBlocks().stream().filter(group -> group.submissionIdPresent(submission.getId()))).forEach(group -> codeBlockGroups.add(group));
-		return codeBlockGroups;
+		return this.groupIndex.getGroups(this.groupSubmissionFileMap.get(submission.getId()));
 	}
 
 	/**
@@ -109,10 +113,7 @@ public class ReportManager implements IReportManager<SubmissionMatchGroup, Submi
 	 * @return a list of relevant ICodeBlockGroups.
 	 */
 	private List<ICodeBlockGroup> getCodeBlockGroups(List<ISubmission> submissions) {
-		List<ICodeBlockGroup> codeBlockGroups = new ArrayList<>();
-		this.results.getFileResults().stream().flatMap(file -> file.getTaskResults().stream()).filter(task -> task.getContainingBlocks() != null)
-				.flatMap(task -> task.getContainingBlocks().stream().filter(group -> group.submissionIdPresent(submissions.get(0).getId()) && group.submissionIdPresent(submissions.get(1).getId()))).forEach(group -> codeBlockGroups.add(group));
-		return codeBlockGroups;
+		return this.groupIndex.getGroups(this.groupSubmissionFileMap.get(submissions.get(0).getId()), this.groupSubmissionFileMap.get(submissions.get(1).getId()));
 	}
 
 	/**
@@ -195,6 +196,20 @@ public class ReportManager implements IReportManager<SubmissionMatchGroup, Submi
 		}
 	}
 
+	/**
+	 * Fill in groupSubmissionFileMap from the files of the code blocks in each ICodeBlockGroup.
+	 * @param codeBlockGroups every ICodeBlockGroup stored in results.
+	 */
+	private void fillGroupSubmissionFileMap(List<ICodeBlockGroup> codeBlockGroups) {
+		for (ICodeBlockGroup codeBlockGroup : codeBlockGroups) {
+			for (ICodeBlock codeBlock : codeBlockGroup.getCodeBlocks()) {
+				if (codeBlock.getFile() != null && codeBlock.getFile().getSubmission() != null) {
+					this.groupSubmissionFileMap.computeIfAbsent(codeBlock.getFile().getSubmission().getId(), x -> new HashSet<>()).add(codeBlock.getFile().getPersistentId());
+				}
+			}
+		}
+	}
+
 	/**
 	 * To be called by the web report pages. Gets a list of submission summaries.
 	 * @return a list of the matching SubmissionSummaries, each containing their ids, overall scores, and a list of the submissions that they were matched with.
@@ -213,28 +228,25 @@ public class ReportManager implements IReportManager<SubmissionMatchGroup, Submi
 			ArrayList<Tuple<Long, Float>> matchingSubs = new ArrayList<>();
 			ArrayList<Long> matchingSubIds = new ArrayList<>();
 
-			//Look through all the code block groups to determine which submissions have been matched with which other submissions.
-			for(ICodeBlockGroup codeBlockGroup : getCodeBlockGroups()) {
-				//If this group contains a file for the current submission, add all other submissions in the group to the list, if they aren't already added
-				if(codeBlockGroup.submissionIdPresent(submissionId)) {
-					for(ICodeBlock codeBlock : codeBlockGroup.getCodeBlocks()) {
-						if (codeBlock.getFile() == null || codeBlock.getFile().getSubmission() == null) {
+			//Look through the code block groups containing a file for the current submission to determine which other submissions it has been matched with.
+			for(ICodeBlockGroup codeBlockGroup : this.groupIndex.getGroups(this.groupSubmissionFileMap.get(submissionId))) {
+				//Add all other submissions in the group to the list, if they aren't already added
+				for(ICodeBlock codeBlock : codeBlockGroup.getCodeBlocks()) {
+					if (codeBlock.getFile() == null || codeBlock.getFile().getSubmission() == null) {
+						continue;
+					}
+					long currentId = codeBlock.getFile().getSubmission().getId();
+					if(currentId != submissionId && !matchingSubIds.contains(currentId)) {
+						if (!submissionFileMap.containsKey(currentId)) {
+							logger.info("Skipping incomplete match for submission {} -> {}", submissionId, currentId);
 							continue;
 						}
-						long currentId = codeBlock.getFile().getSubmission().getId();
-						if(currentId != submissionId && !matchingSubIds.contains(currentId)) {
-							if (!submissionFileMap.containsKey(currentId)) {
-								logger.info("Skipping incomplete match for submission {} -> {}", submissionId, currentId);
-								continue;
-							}
-							float matchScore = getMaxMatchScore(submissionId, currentId);
-
-							matchingSubs.add(new Tuple<>(currentId, matchScore));
-							matchingSubIds.add(currentId);
-						}
+						float matchScore = getMaxMatchScore(submissionId, currentId);
+
+						matchingSubs.add(new Tuple<>(currentId, matchScore));
+						matchingSubIds.add(currentId);
 					}
 				}
-
 			}
 			submissionSummary.addMatchingSubmissions(matchingSubs);
 			output.add(submissionSummary);
@@ -8,6 +8,7 @@ import uk.ac.warwick.dcs.sherlock.api.exception.SubmissionUnsupportedException;
 import uk.ac.warwick.dcs.sherlock.api.exception.WorkspaceUnsupportedException;
 import uk.ac.warwick.dcs.sherlock.api.storage.IStorageWrapper;
 import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
+import uk.ac.warwick.dcs.sherlock.engine.SherlockEngine;
 import uk.ac.warwick.dcs.sherlock.engine.report.ReportManager;
 
 import jakarta.persistence.Query;
@@ -51,6 +52,10 @@ public class BaseStorage implements IStorageWrapper {
 			this.database.removeObject(orphans);
 		}
 
+		if (SherlockEngine.configuration.getMigrateLegacyEncryption()) {
+			this.migrateLegacyEncryption();
+		}
+
 		//list = this.database.runQuery("SELECT t from Task t", EntityTask.class).stream().filter(x -> x.getStatus() == WorkStatus.PREPARED).collect(Collectors.toList());
 		List<EntityJob> jobs = this.database.runQuery("SELECT j from Job j", EntityJob.class);
 		jobs.stream().filter(j -> j.getTasks().size() > 0 && j.getStatus() == WorkStatus.ACTIVE).forEach(j -> {
@@ -72,6 +77,48 @@ public class BaseStorage implements IStorageWrapper {
 		this.removeCodeBlockGroups();
 	}
 
+	/**
+	 * Moves everything encrypted with the legacy PBKDF2 derived keys over to envelope keys, so each legacy key is derived only once more. Each object is saved with
+	 * its new secure parameter before its new file replaces the old one, and keeps its old parameter if it cannot be saved.
+	 */
+	private void migrateLegacyEncryption() {
+		int count = 0;
+		for (EntityFile f : this.database.runQuery("SELECT f from File f", EntityFile.class)) {
+			byte[] oldParam = f.getSecureParam();
+			if (this.filesystem.migrateFile(f)) {
+				if (this.saveMigrated(f, oldParam)) {
+					count++;
+				}
+				this.filesystem.finishFileMigration(f);
+			}
+		}
+		for (EntityTask t : this.database.runQuery("SELECT t from Task t", EntityTask.class)) {
+			byte[] oldParam = t.getSecureParam();
+			if (this.filesystem.migrateTaskRawResults(t)) {
+				if (this.saveMigrated(t, oldParam)) {
+					count++;
+				}
+				this.filesystem.finishTaskMigration(t);
+			}
+		}
+
+		if (count > 0) {
+			logger.info("Migrated {} stored objects to envelope encryption keys", count);
+		}
+	}
+
+	private boolean saveMigrated(BaseStorageFilesystem.IStorable storable, byte[] oldParam) {
+		try {
+			this.database.storeObject(storable);
+			return true;
+		}
+		catch (RuntimeException e) {
+			logger.error("Error saving migrated encryption parameters, keeping the legacy file", e);
+			storable.setSecureParam(oldParam);
+			return false;
+		}
+	}
+
 	@Override
 	public void close() {
 		this.database.close();
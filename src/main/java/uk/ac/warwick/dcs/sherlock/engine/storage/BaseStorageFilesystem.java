@@ -14,12 +14,11 @@ import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.security.AlgorithmParameters;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.InvalidParameterSpecException;
 import java.security.spec.KeySpec;
 import java.sql.Timestamp;
 import java.util.LinkedList;
@@ -33,6 +32,9 @@ public class BaseStorageFilesystem {
 
 	private static final Logger logger = LoggerFactory.getLogger(BaseStorageFilesystem.class);
 
+	private StorageKeyManager keyManager = null;
+	private boolean envelopeKeysInUse = false;
+
 	/**
 	 * Loads a file from the filesystem
 	 *
@@ -157,6 +159,47 @@ public class BaseStorageFilesystem {
 		}
 	}
 
+	/**
+	 * Re-encrypts a file stored with a legacy PBKDF2 derived key using an envelope key, so later loads skip the key derivation
+	 *
+	 * @param file file to migrate
+	 *
+	 * @return true if the file was migrated, its new secure parameter must then be saved to the database before calling {@link #finishFileMigration}
+	 */
+	boolean migrateFile(EntityFile file) {
+		return this.migrateStorable(file, this.computeFileIdentifier(file));
+	}
+
+	/**
+	 * Completes or abandons the migration of a file, depending on which secure parameter it now holds
+	 *
+	 * @param file file being migrated
+	 */
+	void finishFileMigration(EntityFile file) {
+		this.finishMigration(file, this.computeFileIdentifier(file));
+	}
+
+	/**
+	 * Re-encrypts a tasks raw results stored with a legacy PBKDF2 derived key using an envelope key
+	 *
+	 * @param task task to migrate
+	 *
+	 * @return true if the raw results were migrated, the tasks new secure parameter must then be saved to the database before calling {@link
+	 * #finishTaskMigration}
+	 */
+	boolean migrateTaskRawResults(EntityTask task) {
+		return this.migrateStorable(task, this.computeTaskIdentifier(task));
+	}
+
+	/**
+	 * Completes or abandons the migration of a tasks raw results, depending on which secure parameter the task now holds
+	 *
+	 * @param task task being migrated
+	 */
+	void finishTaskMigration(EntityTask task) {
+		this.finishMigration(task, this.computeTaskIdentifier(task));
+	}
+
 	boolean updateFileArchive(EntityFile file, EntityArchive newArchive) {
 		String oldIdentifier = this.computeFileIdentifier(file);
 		String newIdentifier = this.computeFileIdentifier(file, newArchive);
@@ -175,6 +218,21 @@ public class BaseStorageFilesystem {
 	 * @return Objects to be removed from the database (files and tasks)
 	 */
 	public List<Object> validateFileStore(List<EntityFile> allFiles, List<EntityTask> allTasks) {
+		// Settle migrations interrupted by a previous session before their new files could be taken as extra files
+		allFiles.forEach(this::finishFileMigration);
+		allTasks.forEach(this::finishTaskMigration);
+
+		this.envelopeKeysInUse = allFiles.stream().anyMatch(f -> StorageKeyManager.isEnvelope(f.getSecureParam())) || allTasks.stream()
+				.anyMatch(t -> StorageKeyManager.isEnvelope(t.getSecureParam()));
+		if (this.envelopeKeysInUse) {
+			try {
+				this.getKeyManager();
+			}
+			catch (IOException | GeneralSecurityException e) {
+				logger.error("Could not load the file store master key, encrypted files cannot be read or stored", e);
+			}
+		}
+
 		List<String> filesInStore = this.getAllFiles();
 		if (filesInStore == null) {
 			return null;
@@ -253,7 +311,14 @@ public class BaseStorageFilesystem {
 		return new File(path);
 	}
 
-	private SecretKey getKey(IStorable storable) {
+	/**
+	 * Derives the key used for storables encrypted before envelope keys were introduced, only needed to read them
+	 *
+	 * @param storable storable to get the key for
+	 *
+	 * @return the derived key
+	 */
+	static SecretKey getLegacyKey(IStorable storable) {
 		try {
 			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
 			KeySpec spec = new PBEKeySpec(storable.getHash().toCharArray(), String.format("%08d", storable.getTimestamp().getTime() % 100000000).getBytes(), 65536, 192);
@@ -266,6 +331,38 @@ public class BaseStorageFilesystem {
 		return null;
 	}
 
+	/**
+	 * Fetches the key manager, loading or creating the master key on first use
+	 *
+	 * @return the key manager
+	 *
+	 * @throws IOException              if the master key file cannot be read or written
+	 * @throws GeneralSecurityException if a master key cannot be generated
+	 */
+	private synchronized StorageKeyManager getKeyManager() throws IOException, GeneralSecurityException {
+		if (this.keyManager == null) {
+			this.keyManager = new StorageKeyManager(new File(SherlockEngine.configuration.getDataPath() + File.separator + "Store.key"), this.envelopeKeysInUse);
+		}
+		return this.keyManager;
+	}
+
+	/**
+	 * Builds the cipher to decrypt a storable, using its wrapped data key or, for legacy storables, the PBKDF2 derived key
+	 *
+	 * @param storable storable to decrypt
+	 *
+	 * @return initialised cipher
+	 */
+	private Cipher getDecryptCipher(IStorable storable) throws IOException, GeneralSecurityException {
+		if (StorageKeyManager.isEnvelope(storable.getSecureParam())) {
+			return this.getKeyManager().getCipher(Cipher.DECRYPT_MODE, storable.getSecureParam());
+		}
+
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.DECRYPT_MODE, getLegacyKey(storable), new IvParameterSpec(storable.getSecureParam()));
+		return cipher;
+	}
+
 	/**
 	 * Main method to load a storable from the database
 	 *
@@ -276,6 +373,13 @@ public class BaseStorageFilesystem {
 	 */
 	private byte[] loadStorable(IStorable storable, String identfier) {
 		File fileToLoad = this.getFileFromIdentifier(identfier);
+
+		// A saved migration whose file has not been moved into place yet
+		File migrated = new File(fileToLoad.getPath() + ".migrate");
+		if (migrated.exists() && StorageKeyManager.isEnvelope(storable.getSecureParam())) {
+			fileToLoad = migrated;
+		}
+
 		if (!fileToLoad.exists()) {
 			logger.error("File not in storage");
 			return null;
@@ -285,9 +389,7 @@ public class BaseStorageFilesystem {
 			byte[] rawContent = FileUtils.readFileToByteArray(fileToLoad);
 
 			if (storable.getSecureParam() != null) {
-				Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-				cipher.init(Cipher.DECRYPT_MODE, this.getKey(storable), new IvParameterSpec(storable.getSecureParam()));
-				rawContent = cipher.doFinal(rawContent);
+				rawContent = this.getDecryptCipher(storable).doFinal(rawContent);
 			}
 
 			if (!storable.getHash().equals(DigestUtils.sha512Hex(rawContent))) {
@@ -297,7 +399,7 @@ public class BaseStorageFilesystem {
 
 			return rawContent;
 		}
-		catch (NoSuchPaddingException | NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | IOException e) {
+		catch (GeneralSecurityException | IOException e) {
 			logger.error("Error reading file", e);
 		}
 
@@ -327,7 +429,7 @@ public class BaseStorageFilesystem {
 	 * @param identifier the identifier for the storable, computed using the other methods in this class
 	 * @param content    the content to store for the storable
 	 *
-	 * @return successful?
+	 * @return successful? if not, nothing was written and the storable must not be saved to the database
 	 */
 	private boolean storeStorable(IStorable storable, String identifier, byte[] content) {
 		storable.setHash(DigestUtils.sha512Hex(content));
@@ -340,27 +442,97 @@ public class BaseStorageFilesystem {
 
 		try {
 			if (SherlockEngine.configuration.getEncryptFiles()) {
-				Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-				cipher.init(Cipher.ENCRYPT_MODE, this.getKey(storable));
-				AlgorithmParameters params = cipher.getParameters();
+				byte[] secureParam = this.getKeyManager().createSecureParam();
+				Cipher cipher = this.getKeyManager().getCipher(Cipher.ENCRYPT_MODE, secureParam);
 
-				storable.setSecureParam(params.getParameterSpec(IvParameterSpec.class).getIV());
 				FileUtils.writeByteArrayToFile(fileToStore, cipher.doFinal(content));
+				storable.setSecureParam(secureParam);
 			}
 			else {
 				FileUtils.writeByteArrayToFile(fileToStore, content);
 			}
 		}
-		catch (IOException | IllegalBlockSizeException | InvalidParameterSpecException | BadPaddingException | NoSuchPaddingException | NoSuchAlgorithmException e) {
-			e.printStackTrace();
+		catch (IOException e) {
+			logger.error("Error writing file to storage, file not stored", e);
+			fileToStore.delete();
+			return false;
 		}
-		catch (InvalidKeyException e) {
-			logger.error("Error generating encryption key, file encryption can be disabled in the config file", e);
+		catch (GeneralSecurityException e) {
+			logger.error("Error generating encryption key, file not stored, file encryption can be disabled in the config file", e);
+			fileToStore.delete();
+			return false;
 		}
 
 		return true;
 	}
 
+	/**
+	 * Re-encrypts a storable using an envelope key if it was stored with a legacy PBKDF2 derived key.
+	 * <p>
+	 * The new content is written beside the old file, which is left in place. The storable is given its new secure parameter, and the new file is only moved over
+	 * the old one by {@link #finishMigration} once that parameter has been saved to the database, so the database never holds a parameter the file in place cannot
+	 * be read with.
+	 * </p>
+	 *
+	 * @param storable   storable implementation to migrate
+	 * @param identifier the identifier for the storable
+	 *
+	 * @return true if the storable was migrated
+	 */
+	private boolean migrateStorable(IStorable storable, String identifier) {
+		byte[] oldParam = storable.getSecureParam();
+		File file = this.getFileFromIdentifier(identifier);
+		if (oldParam == null || StorageKeyManager.isEnvelope(oldParam) || !file.exists()) {
+			return false;
+		}
+
+		byte[] content = this.loadStorable(storable, identifier);
+		if (content == null) {
+			return false;
+		}
+
+		File tmp = new File(file.getPath() + ".migrate");
+		try {
+			byte[] secureParam = this.getKeyManager().createSecureParam();
+			FileUtils.writeByteArrayToFile(tmp, this.getKeyManager().getCipher(Cipher.ENCRYPT_MODE, secureParam).doFinal(content));
+			storable.setSecureParam(secureParam);
+			return true;
+		}
+		catch (IOException | GeneralSecurityException e) {
+			logger.error("Error migrating file encryption", e);
+			tmp.delete();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Settles a migration started by {@link #migrateStorable}. If the storable holds an envelope parameter it has been saved with it, and the new file is moved into
+	 * place. Otherwise the migration never reached the database and the new file is dropped, leaving the legacy file in use.
+	 *
+	 * @param storable   storable being migrated
+	 * @param identifier the identifier for the storable
+	 */
+	private void finishMigration(IStorable storable, String identifier) {
+		File file = this.getFileFromIdentifier(identifier);
+		File tmp = new File(file.getPath() + ".migrate");
+		if (!tmp.exists()) {
+			return;
+		}
+
+		if (!StorageKeyManager.isEnvelope(storable.getSecureParam())) {
+			tmp.delete();
+			return;
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			logger.error("Error completing file encryption migration, it will be retried on the next start", e);
+		}
+	}
+
 	/**
 	 * Interface for utility methods for database objects with files also in the filestore
 	 * <br><br>
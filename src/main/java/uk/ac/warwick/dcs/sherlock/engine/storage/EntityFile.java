@@ -102,6 +102,14 @@ public class EntityFile implements ISourceFile, IStorable, Serializable {
 		return list;
 	}
 
+	/**
+	 * The hash is the one checked when the file is loaded from storage, of the content as it was stored
+	 */
+	@Override
+	public String getContentHash() {
+		return this.hash;
+	}
+
 	@Override
 	public String getFileDisplayName() {
 		return this.filename + "." + this.extension;
@@ -0,0 +1,176 @@
+package uk.ac.warwick.dcs.sherlock.engine.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Envelope key management for the file store.
+ * <p>
+ * Each stored object is encrypted with its own random data key. The data key is wrapped with a single master key and kept, with the IV, in the object's secure
+ * parameter. Loading an object only needs an AES key unwrap, instead of the PBKDF2 derivation with 65536 iterations done for objects stored before this scheme.
+ * The master key is generated when the store first encrypts an object and is kept beside the database, outside the store directory. It is never regenerated once
+ * objects have been wrapped with it, as they could not be read again.
+ * </p>
+ * <p>
+ * Secure parameters from the old scheme hold only a 16 byte IV, so the two formats are told apart by length. Old objects stay readable, and {@link
+ * BaseStorageFilesystem#migrateStorable} rewraps them into this scheme.
+ * </p>
+ */
+class StorageKeyManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(StorageKeyManager.class);
+
+	private static final byte ENVELOPE_VERSION = 1;
+	private static final int MASTER_KEY_LENGTH = 32; // 256 bit
+	private static final int IV_LENGTH = 16;
+	private static final int DATA_KEY_LENGTH = 24; // 192 bit, the same strength as the legacy keys
+	private static final int WRAPPED_KEY_LENGTH = DATA_KEY_LENGTH + 8; // AES key wrap adds one 64 bit block
+	private static final int ENVELOPE_LENGTH = 1 + IV_LENGTH + WRAPPED_KEY_LENGTH;
+
+	private final SecretKey masterKey;
+	private final SecureRandom random;
+
+	/**
+	 * Loads the master key from the key file, generating and saving a new one if it does not exist yet and no stored objects depend on it
+	 *
+	 * @param keyFile     file holding the master key
+	 * @param keyExpected whether objects wrapped with an existing master key are in the store, a missing key file is then an error
+	 *
+	 * @throws IOException              if the key file cannot be read or written, or is missing while objects depend on it
+	 * @throws GeneralSecurityException if a key cannot be generated
+	 */
+	StorageKeyManager(File keyFile, boolean keyExpected) throws IOException, GeneralSecurityException {
+		this.random = new SecureRandom();
+
+		if (keyFile.exists()) {
+			byte[] encoded = FileUtils.readFileToByteArray(keyFile);
+			if (encoded.length != MASTER_KEY_LENGTH) {
+				throw new IOException("File store master key " + keyFile + " is damaged, expected " + MASTER_KEY_LENGTH + " bytes but found " + encoded.length);
+			}
+			this.masterKey = new SecretKeySpec(encoded, "AES");
+			Arrays.fill(encoded, (byte) 0);
+		}
+		else if (keyExpected) {
+			throw new IOException("File store master key " + keyFile + " is missing but stored objects are encrypted with it, restore it to read them");
+		}
+		else {
+			KeyGenerator generator = KeyGenerator.getInstance("AES");
+			generator.init(MASTER_KEY_LENGTH * 8, this.random);
+			this.masterKey = generator.generateKey();
+
+			byte[] encoded = this.masterKey.getEncoded();
+			try {
+				writeKeyFile(keyFile, encoded);
+			}
+			finally {
+				Arrays.fill(encoded, (byte) 0);
+			}
+			logger.warn("Generated a new file store master key at {}, it is needed to read anything stored from now on", keyFile);
+		}
+	}
+
+	/**
+	 * Writes the key to a file only the owner can read, created with those permissions and moved into place once complete
+	 */
+	private static void writeKeyFile(File keyFile, byte[] encoded) throws IOException {
+		Path dir = keyFile.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(dir);
+
+		Path tmp;
+		try {
+			tmp = Files.createTempFile(dir, keyFile.getName(), ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		}
+		catch (UnsupportedOperationException e) {
+			tmp = Files.createTempFile(dir, keyFile.getName(), ".tmp");
+			File f = tmp.toFile();
+			f.setReadable(false, false);
+			f.setWritable(false, false);
+			f.setReadable(true, true);
+			f.setWritable(true, true);
+		}
+
+		try {
+			Files.write(tmp, encoded);
+			Files.move(tmp, keyFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Checks whether a secure parameter was created by this scheme
+	 *
+	 * @param secureParam the secure parameter of a stored object
+	 *
+	 * @return true if it holds a wrapped data key, false if it is a legacy IV
+	 */
+	static boolean isEnvelope(byte[] secureParam) {
+		return secureParam != null && secureParam.length == ENVELOPE_LENGTH && secureParam[0] == ENVELOPE_VERSION;
+	}
+
+	/**
+	 * Creates the secure parameter for a new object, a random IV and a new data key wrapped with the master key
+	 *
+	 * @return the secure parameter to store with the object
+	 *
+	 * @throws GeneralSecurityException if the data key cannot be wrapped
+	 */
+	byte[] createSecureParam() throws GeneralSecurityException {
+		byte[] dataKey = new byte[DATA_KEY_LENGTH];
+		this.random.nextBytes(dataKey);
+
+		try {
+			Cipher wrap = Cipher.getInstance("AESWrap");
+			wrap.init(Cipher.WRAP_MODE, this.masterKey);
+			byte[] wrapped = wrap.wrap(new SecretKeySpec(dataKey, "AES"));
+
+			byte[] secureParam = new byte[ENVELOPE_LENGTH];
+			secureParam[0] = ENVELOPE_VERSION;
+			byte[] iv = new byte[IV_LENGTH];
+			this.random.nextBytes(iv);
+			System.arraycopy(iv, 0, secureParam, 1, IV_LENGTH);
+			System.arraycopy(wrapped, 0, secureParam, 1 + IV_LENGTH, WRAPPED_KEY_LENGTH);
+			return secureParam;
+		}
+		finally {
+			Arrays.fill(dataKey, (byte) 0);
+		}
+	}
+
+	/**
+	 * Builds the content cipher for an object from its secure parameter
+	 *
+	 * @param mode        {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+	 * @param secureParam secure parameter created by {@link #createSecureParam()}
+	 *
+	 * @return an initialised AES/CBC cipher
+	 *
+	 * @throws GeneralSecurityException if the data key cannot be unwrapped
+	 */
+	Cipher getCipher(int mode, byte[] secureParam) throws GeneralSecurityException {
+		Cipher unwrap = Cipher.getInstance("AESWrap");
+		unwrap.init(Cipher.UNWRAP_MODE, this.masterKey);
+		SecretKey dataKey = (SecretKey) unwrap.unwrap(Arrays.copyOfRange(secureParam, 1 + IV_LENGTH, ENVELOPE_LENGTH), "AES", Cipher.SECRET_KEY);
+
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(mode, dataKey, new IvParameterSpec(secureParam, 1, IV_LENGTH));
+		return cipher;
+	}
+}
@@ -10,6 +10,7 @@ import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
 import uk.ac.warwick.dcs.sherlock.api.component.IJob;
 import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
 import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
+import uk.ac.warwick.dcs.sherlock.api.executor.JobSource;
 import uk.ac.warwick.dcs.sherlock.api.registry.SherlockRegistry;
 import uk.ac.warwick.dcs.sherlock.api.util.ZipMultipartFile;
 import uk.ac.warwick.dcs.sherlock.module.cli.services.WorkspaceManagementService;
@@ -666,7 +667,7 @@ public class WorkspaceCmd implements Runnable {
             if (template != null) {
                 try {
                     System.out.println("Running analysis...");
-                    long jobid = workspace.runTemplate(template);
+                    long jobid = workspace.runTemplate(template, JobSource.BATCH);
                     System.out.println(String.format("Analysis complete. Saved with job ID %s", jobid));
                 } catch (TemplateContainsNoDetectors tcnd) {
                     System.out.println("Template does not have any associated detectors.");
@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.web.multipart.MultipartFile;
 import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
 import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
+import uk.ac.warwick.dcs.sherlock.api.executor.JobSource;
 import uk.ac.warwick.dcs.sherlock.api.model.detection.IDetector;
 import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
 import uk.ac.warwick.dcs.sherlock.engine.SherlockEngine;
@@ -318,6 +319,22 @@ public class WorkspaceWrapper {
      * @throws NoFilesUploaded if no files were uploaded
      */
     public long runTemplate(TemplateWrapper templateWrapper) throws TemplateContainsNoDetectors, ClassNotFoundException, ParameterNotFound, DetectorNotFound, NoFilesUploaded {
+        return this.runTemplate(templateWrapper, JobSource.INTERACTIVE);
+    }
+
+    /**
+     * Runs a template on a workspace
+     *
+     * @param templateWrapper the template to run
+     * @param source who is running the template, used to choose the job's priority
+     *
+     * @throws TemplateContainsNoDetectors if there are no detectors in the template
+     * @throws ClassNotFoundException if the detector no longer exists
+     * @throws ParameterNotFound if the parameter no longer exists
+     * @throws DetectorNotFound if the detector no longer exists
+     * @throws NoFilesUploaded if no files were uploaded
+     */
+    public long runTemplate(TemplateWrapper templateWrapper, JobSource source) throws TemplateContainsNoDetectors, ClassNotFoundException, ParameterNotFound, DetectorNotFound, NoFilesUploaded {
 		if (templateWrapper.getTemplate().getDetectors().isEmpty())
 		    throw new TemplateContainsNoDetectors("No detectors in chosen template.");
 
@@ -351,7 +368,7 @@ public class WorkspaceWrapper {
             }
         }
 
-		SherlockEngine.executor.submitJob(job);
+		SherlockEngine.executor.submitJob(job, source);
 
 		return job.getPersistentId();
     }
@@ -8,6 +8,7 @@ import uk.ac.warwick.dcs.sherlock.api.event.EventPreInitialisation;
 import uk.ac.warwick.dcs.sherlock.module.model.base.detection.ASTDetector;
 import uk.ac.warwick.dcs.sherlock.module.model.base.detection.NGramDetector;
 import uk.ac.warwick.dcs.sherlock.module.model.base.detection.VariableNameDetector;
+import uk.ac.warwick.dcs.sherlock.module.model.base.detection.WinnowingDetector;
 import uk.ac.warwick.dcs.sherlock.module.model.base.lang.JavaLexer;
 import uk.ac.warwick.dcs.sherlock.module.model.base.lang.HaskellLexer;
 import uk.ac.warwick.dcs.sherlock.module.model.base.postprocessing.ASTPostProcessor;
@@ -50,6 +51,9 @@ public class ModuleModelBase {
 		SherlockRegistry.registerDetector(NGramDetector.class);
 		SherlockRegistry.registerPostProcessor(NGramPostProcessor.class, NGramRawResult.class);
 
+		// Reports NGramMatches, so shares the N-Gram post processor
+		SherlockRegistry.registerDetector(WinnowingDetector.class);
+
 		SherlockRegistry.registerDetector(ASTDetector.class);
 		SherlockRegistry.registerPostProcessor(ASTPostProcessor.class, ASTRawResult.class);
 
@@ -7,7 +7,8 @@ import uk.ac.warwick.dcs.sherlock.api.model.detection.PairwiseDetector;
 import uk.ac.warwick.dcs.sherlock.api.model.detection.PairwiseDetectorWorker;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.ASTArtifact;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.PreProcessingStrategy;
-import uk.ac.warwick.dcs.sherlock.api.util.ASTNode;
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST;
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST.Fingerprint;
 import uk.ac.warwick.dcs.sherlock.module.model.base.postprocessing.ASTRawResult;
 import uk.ac.warwick.dcs.sherlock.module.model.base.preprocessing.ASTGenerator;
 
@@ -50,67 +51,93 @@ public class ASTDetector extends PairwiseDetector<ASTDetector.ASTDetectorWorker>
     )
     public int ABSTRACT_MATCHING;
 
+    @AdjustableParameter(
+        name = "Verify Anchor Matches",
+        defaultValue = 0,
+        minimumBound = 0,
+        maximumBound = 1,
+        step = 1,
+        description = "When true (1), compares two subtrees node by node before matching them as identical, rather than trusting their 128-bit fingerprints alone."
+    )
+    public int VERIFY_ANCHORS;
+
+    // Smallest number of files a subtree must be in before it is treated as boilerplate by default
+    static final int MIN_BOILERPLATE_FILES = 10;
+
     public ASTDetector() {
         super("AST Detector", "Detects plagiarism by comparing the abstract syntax tree structures of source files",
                 ASTDetectorWorker.class, PreProcessingStrategy.of("ast", ASTGenerator.class));
     }
 
-    // Preprocess tree: compute fingerprints, weights, and heights
-    private void preprocessTree(ASTNode<?> root) {
-        // Post-order traversal to compute bottom-up
-        Stack<ASTNode<?>> stack = new Stack<>();
-        Set<ASTNode<?>> visited = new HashSet<>();
-        stack.push(root);
-        while (!stack.isEmpty()) {
-            ASTNode<?> node = stack.peek();
-            // Check if all children have been processed
-            boolean childrenReady = true;
-            for (ASTNode<?> child : node.getChildren()) {
-                if (!visited.contains(child)) {
-                    stack.push(child);
-                    childrenReady = false;
-                }
-            }
-            if (childrenReady) {
-                // Process this node
-                node.computeWeight();
-                node.computeHeight();
-                node.computeFingerprint(false); // STRICT
-                node.computeFingerprint(true); // ABSTRACT
-                node.getDescendants(); // Precompute descendants for O(1) retrieval later
-                visited.add(node);
-                stack.pop();
-            }
+    // Precomputed fingerprints for each file, built by prepareFileData before any workers run, then only read
+    private volatile Map<ModelDataItem, ASTFingerprints> fingerprints = null;
+
+    /**
+     * Precomputes the fingerprints of every file's AST once for the job, in parallel, so the
+     * pair workers share them read-only instead of reprocessing each tree for every pair.
+     */
+    @Override
+    protected void prepareFileData(List<ModelDataItem> data) {
+        this.fingerprints = null;
+        if (data == null) return;
+
+        List<ASTFingerprints> built = data.parallelStream()
+                .map(x -> ASTFingerprints.of(getTree(x)))
+                .toList();
+
+        // ModelDataItem has no equals, the same instance is passed to every worker
+        Map<ModelDataItem, ASTFingerprints> map = new IdentityHashMap<>(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            map.put(data.get(i), built.get(i));
         }
+        this.fingerprints = map;
     }
 
-    // Group nodes in a subtree by height (computed BFS)
-    private Map<Integer, List<ASTNode<?>>> groupByHeight(ASTNode<?> root) {
-        Map<Integer, List<ASTNode<?>>> heightMap = new HashMap<>();
-        Queue<ASTNode<?>> queue = new LinkedList<>();
-        queue.add(root);
-        while (!queue.isEmpty()) {
-            ASTNode<?> node = queue.poll();
-            int height = node.getHeight();
-            heightMap.putIfAbsent(height, new ArrayList<>());
-            heightMap.get(height).add(node);
-            queue.addAll(node.getChildren());
-        }
-        return heightMap;
+    /**
+     * Indexes the files by the fingerprints of their subtrees above the minimum height, so only
+     * files with an anchor in common are compared. A pair sharing none has no anchors, and so no
+     * containers either, as containers are only looked for among the ancestors of anchors.
+     */
+    @Override
+    protected long[] getCandidateFingerprints(ModelDataItem file) {
+        return getFingerprints(file).getAnchorFingerprints(MIN_HEIGHT, ABSTRACT_MATCHING == 1);
     }
 
-    // Get nodes in post-order (children before parents)
-    private List<ASTNode<?>> postOrder(ASTNode<?> root) {
-        List<ASTNode<?>> result = new ArrayList<>();
-        postOrderHelper(root, result);
-        return result;
+    /**
+     * A pair without any shared subtree can never produce a match, so candidate generation is always used
+     */
+    @Override
+    protected int getMinimumSharedFingerprints() {
+        return Math.max(super.getMinimumSharedFingerprints(), 1);
     }
 
-    private void postOrderHelper(ASTNode<?> node, List<ASTNode<?>> result) {
-        for (ASTNode<?> child : node.getChildren()) {
-            postOrderHelper(child, result);
-        }
-        result.add(node);
+    /**
+     * As candidate generation is always used, a subtree every file has (a method given out with the
+     * assignment, a common getter) would otherwise make every pair of files a candidate. Unless the
+     * Maximum Fingerprint Frequency is set, subtrees found in more than half of the files, and in more
+     * than {@value #MIN_BOILERPLATE_FILES}, are ignored when choosing which files to compare.
+     * <p>
+     * A pair whose only common subtrees are that widespread is then not compared, so its matches on
+     * those subtrees are not reported. A pair which also shares a rarer subtree is compared in full,
+     * boilerplate included.
+     * </p>
+     */
+    @Override
+    protected int getMaximumFingerprintFrequency(int files) {
+        int maximum = super.getMaximumFingerprintFrequency(files);
+        return maximum > 0 ? maximum : Math.max(files / 2, MIN_BOILERPLATE_FILES);
+    }
+
+    // Fetch the precomputed fingerprints for a file, building them if the file was not prepared
+    ASTFingerprints getFingerprints(ModelDataItem file) {
+        Map<ModelDataItem, ASTFingerprints> map = this.fingerprints;
+        ASTFingerprints fp = map != null ? map.get(file) : null;
+        return fp != null ? fp : ASTFingerprints.of(getTree(file));
+    }
+
+    // The generators emit flat trees, an object tree is flattened here
+    private static FlatAST getTree(ModelDataItem file) {
+        return ((ASTArtifact) file.getPreProcessedArtifact("ast")).toFlat();
     }
 
     /**
@@ -119,78 +146,86 @@ public class ASTDetector extends PairwiseDetector<ASTDetector.ASTDetectorWorker>
     public class ASTDetectorWorker extends PairwiseDetectorWorker<ASTRawResult> {
 
         private final boolean useAbstraction;
-
-        private Set<ASTNode<?>> anchorMatched1;
-        private Set<ASTNode<?>> anchorMatched2;
-        private Set<ASTNode<?>> containerMatched1;
-        private Set<ASTNode<?>> containerMatched2;
-        private Map<ASTNode<?>, ASTNode<?>> anchorMap;
+        private final boolean verifyAnchors;
+
+        // Nodes are the ids of the flat trees, so the state of each node is kept in arrays indexed by them
+        private boolean[] anchorMatched1;
+        private boolean[] anchorMatched2;
+        private boolean[] containerMatched1;
+        private boolean[] containerMatched2;
+        private int[] anchorMap; // anchor partner in tree2 of each node of tree1, FlatAST.NONE if it has none
+        private int[] visited2;  // the last candidate search to walk past each node of tree2
+        private int search;
+        private ASTFingerprints fp1;
+        private ASTFingerprints fp2;
+        private FlatAST tree1;
+        private FlatAST tree2;
 
         public ASTDetectorWorker(IDetector parent, ModelDataItem file1Data, ModelDataItem file2Data) {
             super(parent, file1Data, file2Data);
             this.useAbstraction = ABSTRACT_MATCHING == 1;
+            this.verifyAnchors = VERIFY_ANCHORS == 1;
         }
 
-        // Recursively add mappings for isomorphic descendants of descendant anchor-mappings
-        private void addAnchorDescendantMappings(Map<ASTNode<?>, ASTNode<?>> anchorMap, ASTNode<?> n1, ASTNode<?> n2) {
-            List<ASTNode<?>> children1 = n1.getChildren();
-            List<ASTNode<?>> children2 = n2.getChildren();
-            for (int i = 0; i < children1.size(); i++) {
-                ASTNode<?> c1 = children1.get(i);
-                ASTNode<?> c2 = children2.get(i);
-                anchorMatched1.add(c1);
-                anchorMatched2.add(c2);
-                anchorMap.put(c1, c2);
-                addAnchorDescendantMappings(anchorMap, c1, c2); // recurse
+        // Add mappings for all descendants of an anchor-mapping, the subtrees are isomorphic so their nodes line up in pre-order
+        private void addAnchorDescendantMappings(int n1, int n2) {
+            for (int k = 1; k < tree1.getWeight(n1); k++) {
+                anchorMatched1[n1 + k] = true;
+                anchorMatched2[n2 + k] = true;
+                anchorMap[n1 + k] = n2 + k;
             }
         }
 
         // helper function for adding to metadata output mappings
-        private void addToRawResult(ASTRawResult res, ASTNode<?> n1, int subtreeWeight1,ASTNode<?> n2, int subtreeWeight2, float similarityScore) {
-            if (n1.getMetadata("startLine") == null || n2.getMetadata("startLine") == null) {
+        private void addToRawResult(ASTRawResult res, int n1, int subtreeWeight1, int n2, int subtreeWeight2, float similarityScore) {
+            if (tree1.getStartLine(n1) == FlatAST.NO_LINE || tree2.getStartLine(n2) == FlatAST.NO_LINE) {
                 // Missing line metadata, skip this match
                 return;
             }
 
-            int refStart = n1.getMetadata("startLine", Integer.class);
-            int refEnd = n1.getMetadata("endLine", Integer.class);
-            int checkStart = n2.getMetadata("startLine", Integer.class);
-            int checkEnd = n2.getMetadata("endLine", Integer.class);
+            int refStart = tree1.getStartLine(n1);
+            int refEnd = tree1.getEndLine(n1);
+            int checkStart = tree2.getStartLine(n2);
+            int checkEnd = tree2.getEndLine(n2);
             ASTMatch match = new ASTMatch(refStart, refEnd, checkStart, checkEnd, similarityScore, this.file1.getFile(), subtreeWeight1, this.file2.getFile(), subtreeWeight2);
             res.addMatch(match);
         }
 
-        // Find candidate nodes from tree2 that could match n1 (BFS)
-        private List<ASTNode<?>> findCandidates(ASTNode<?> n1, ASTNode<?> root2) {
-            List<ASTNode<?>> candidates = new ArrayList<>();
-            Queue<ASTNode<?>> queue = new LinkedList<>();
-            queue.add(root2); // BFS process root2 level by level
-
-            while (!queue.isEmpty()) {
-                ASTNode<?> n2 = queue.poll();
-                
-                // Must have same kind (node type) and be unmatched (NOT NECESSARILY FINGERPRINT MATCHED)
-                if (n2.getKind().equals(n1.getKind()) && !anchorMatched2.contains(n2)) {
-                    // Must have some matching anchor-mapped descendants
-                    boolean hasCommonAnchorMappedDescendants = false;
-                    Set<ASTNode<?>> desc1 = n1.getDescendants(); // Now O(1) from cache
-                    Set<ASTNode<?>> desc2 = n2.getDescendants();
-
-                    for (ASTNode<?> d1 : desc1) {
-                        if (anchorMatched1.contains(d1)) { // check every anchor-mapped descendant of n1 for a direct mapping to a descendant of n2
-                            if (anchorMap.containsKey(d1) && desc2.contains(anchorMap.get(d1))) {
-                                hasCommonAnchorMappedDescendants = true;
-                                break;
-                            }
-                        }
-                    }
-                    // Must have some matching anchor-mapped descendants
-                    if (hasCommonAnchorMappedDescendants) {
+        // Find the partners in tree2 of n1's anchor-mapped descendants, sorted so the partners in any subtree of tree2 can be counted with a binary search
+        private int[] findPartners(int n1) {
+            int[] partners = new int[tree1.getWeight(n1)];
+            int count = 0;
+            for (int d1 = n1; d1 < n1 + tree1.getWeight(n1); d1++) { // the descendants of n1 follow it in pre-order
+                if (anchorMap[d1] != FlatAST.NONE) { // only anchor-mapped nodes have a partner
+                    partners[count++] = anchorMap[d1];
+                }
+            }
+            partners = Arrays.copyOf(partners, count);
+            Arrays.sort(partners);
+            return partners;
+        }
+
+        // Find candidate nodes from tree2 that could match n1, in BFS order
+        // A candidate must contain one of the partners of n1's anchor-mapped descendants, so the candidates are the ancestors of those partners, found by
+        // walking up from each partner instead of searching the whole of tree2
+        private List<Integer> findCandidates(int n1, int[] partners) {
+            List<Integer> candidates = new ArrayList<>();
+            search++;
+
+            for (int partner : partners) {
+                int n2 = partner;
+                while (n2 != FlatAST.NONE && visited2[n2] != search) { // stop at a node already walked past, its ancestors have been too
+                    visited2[n2] = search;
+                    // Must have same kind (node type) and be unmatched (NOT NECESSARILY FINGERPRINT MATCHED)
+                    if (tree2.getKind(n2) == tree1.getKind(n1) && !anchorMatched2[n2]) {
                         candidates.add(n2);
                     }
+                    n2 = tree2.getParent(n2);
                 }
-                queue.addAll(n2.getChildren());
             }
+
+            // Same order as a BFS of tree2, so ties in similarity go to the same candidate
+            candidates.sort(Comparator.comparingInt(fp2::getBfsPosition));
             return candidates;
         }
 
@@ -200,123 +235,138 @@ public class ASTDetector extends PairwiseDetector<ASTDetector.ASTDetectorWorker>
          */
         @Override
         public void execute() {
+            // Fingerprints, weights and heights of each AST, shared read-only with the other workers
+            this.fp1 = getFingerprints(this.file1);
+            this.fp2 = getFingerprints(this.file2);
+            this.tree1 = fp1.getTree();
+            this.tree2 = fp2.getTree();
+
             // Temp data-structure initialisation
-            this.anchorMatched1 = new HashSet<>();
-            this.anchorMatched2 = new HashSet<>();
-            this.containerMatched1 = new HashSet<>();
-            this.containerMatched2 = new HashSet<>();
-            this.anchorMap = new HashMap<>();
-
-            // Gets each line as a string in the list, as returned by the specified preprocessor
-            ASTArtifact artiF1 = (ASTArtifact) this.file1.getPreProcessedArtifact("ast");
-            ASTArtifact artiF2 = (ASTArtifact) this.file2.getPreProcessedArtifact("ast");
-            // Get the root node of each AST
-            ASTNode<?> tree1 = artiF1.ast();
-            ASTNode<?> tree2 = artiF2.ast();
-            
-            // Preprocess: compute fingerprints, weights, and heights
-            preprocessTree(tree1);
-            preprocessTree(tree2);
+            this.anchorMatched1 = new boolean[tree1.size()];
+            this.anchorMatched2 = new boolean[tree2.size()];
+            this.containerMatched1 = new boolean[tree1.size()];
+            this.containerMatched2 = new boolean[tree2.size()];
+            this.anchorMap = new int[tree1.size()];
+            Arrays.fill(this.anchorMap, FlatAST.NONE);
+            this.visited2 = new int[tree2.size()];
+            this.search = 0;
 
             // Make raw result output container of "node mappings"
-            ASTRawResult res = new ASTRawResult(this.file1.getFile(), this.file2.getFile(), tree1, tree2);
+            ASTRawResult res = new ASTRawResult(this.file1.getFile(), this.file2.getFile(), tree1.size(), tree2.size());
 
             // PHASE 1: Top-down greedy search for isomorphic subtrees (anchors)
-            Map<Integer, List<ASTNode<?>>> heightMap1 = groupByHeight(tree1);
-            Map<Integer, List<ASTNode<?>>> heightMap2 = groupByHeight(tree2);
-
             // Get all heights in descending order
             Set<Integer> allHeights = new TreeSet<>(Collections.reverseOrder()); // O(logn) search, order-aware
-            allHeights.addAll(heightMap1.keySet());
-            allHeights.addAll(heightMap2.keySet());
+            allHeights.addAll(fp1.getHeights());
+            allHeights.addAll(fp2.getHeights());
 
             for (int height : allHeights) { // Top-down traversal to maximise subtree coverage and prevent redundant matches
                 if (height < MIN_HEIGHT) break; // skip if subtree height too small to be meaningful
 
-                List<ASTNode<?>> nodes1 = heightMap1.getOrDefault(height, Collections.emptyList());
-                List<ASTNode<?>> nodes2 = heightMap2.getOrDefault(height, Collections.emptyList());
-
-                // find fingerprint matches --> optimised by comparing only nodes with same height
-                for (ASTNode<?> n1 : nodes1) {
-                    if (anchorMatched1.contains(n1)) continue;
-                    
-                    for (ASTNode<?> n2 : nodes2) {
-                        if (anchorMatched2.contains(n2)) continue;
-
-                        // Anchor-mapping conditions depend on parametrised matching strictness
-                        if (n1.getFingerprint(useAbstraction).equals(n2.getFingerprint(useAbstraction))) {
-                            // Add mapping for this subtree
-                            addToRawResult(res, n1, n1.getWeight(), n2, n2.getWeight(), 1.0f);
-                            anchorMatched1.add(n1);
-                            anchorMatched2.add(n2);
-                            anchorMap.put(n1, n2); // Build a map of anchor-mapped nodes for O(1) lookup during container matching
-
-                            // Also add anchor-mappings for all descendants (they're isomorphic too)
-                            addAnchorDescendantMappings(anchorMap, n1, n2);
-                            break; // Move to the next node from tree1
+                int[] nodes1 = fp1.getNodesOfHeight(height);
+
+                // Hash join: tree2's nodes of this height are bucketed by fingerprint, so each node from tree1 probes a single bucket
+                Map<Fingerprint, int[]> buckets2 = fp2.getFingerprintBuckets(height, useAbstraction);
+                if (buckets2.isEmpty()) continue;
+
+                // Position of the first node in each bucket which may be unmatched, nodes are never unmatched so the buckets are only scanned once
+                Map<int[], Integer> cursors = new IdentityHashMap<>();
+
+                for (int n1 : nodes1) {
+                    if (anchorMatched1[n1]) continue;
+
+                    // Anchor-mapping conditions depend on parametrised matching strictness
+                    int[] bucket = buckets2.get(tree1.getFingerprint(n1, useAbstraction));
+                    if (bucket == null) continue;
+
+                    // Take the first unmatched node with the same fingerprint, in BFS order
+                    int cursor = cursors.getOrDefault(bucket, 0);
+                    while (cursor < bucket.length && anchorMatched2[bucket[cursor]]) {
+                        cursor++;
+                    }
+                    if (cursor == bucket.length) {
+                        cursors.put(bucket, cursor);
+                        continue;
+                    }
+
+                    int n2 = bucket[cursor];
+                    if (verifyAnchors) {
+                        // Nodes whose fingerprint only matches by chance are passed over, but stay in the bucket for other nodes from tree1
+                        cursors.put(bucket, cursor);
+                        n2 = FlatAST.NONE;
+                        for (int k = cursor; k < bucket.length && n2 == FlatAST.NONE; k++) {
+                            if (!anchorMatched2[bucket[k]] && tree1.isIsomorphic(n1, tree2, bucket[k], useAbstraction)) {
+                                n2 = bucket[k];
+                            }
                         }
+                        if (n2 == FlatAST.NONE) continue;
+                    } else {
+                        cursors.put(bucket, cursor + 1);
                     }
+
+                    // Add mapping for this subtree
+                    addToRawResult(res, n1, tree1.getWeight(n1), n2, tree2.getWeight(n2), 1.0f);
+                    anchorMatched1[n1] = true;
+                    anchorMatched2[n2] = true;
+                    anchorMap[n1] = n2; // Build a map of anchor-mapped nodes for O(1) lookup during container matching
+
+                    // Also add anchor-mappings for all descendants (they're isomorphic too)
+                    addAnchorDescendantMappings(n1, n2);
                 }
             }
 
-            List<ASTNode<?>> postOrder1 = postOrder(tree1);
-            List<ASTNode<?>> postOrder2 = postOrder(tree2);
+            int[] postOrder1 = fp1.getPostOrder();
+            int[] postOrder2 = fp2.getPostOrder();
             // PHASE 1.5: Pre-calculate the sum of anchor weights for every subtree
             // This allows O(1) retrieval of the "subtracted" weight during Phase 2
-            Map<ASTNode<?>, Integer> anchorWeightSums1 = new HashMap<>();
-            Map<ASTNode<?>, Integer> anchorWeightSums2 = new HashMap<>();
-             
-            for (ASTNode<?> n : postOrder1) {
+            int[] anchorWeightSums1 = new int[tree1.size()];
+            int[] anchorWeightSums2 = new int[tree2.size()];
+
+            for (int n : postOrder1) {
                 int sum = 0;
-                if (anchorMatched1.contains(n)) {
-                    sum = n.getWeight(); // Entire subtree is matched; its anchor weight is its total weight
+                if (anchorMatched1[n]) {
+                    sum = tree1.getWeight(n); // Entire subtree is matched; its anchor weight is its total weight
                 } else {
-                    for (ASTNode<?> child : n.getChildren()) { // Not an anchor itself, so pull up the anchor weights from below
-                        sum += anchorWeightSums1.getOrDefault(child, 0); 
+                    for (int child = tree1.getFirstChild(n); child != FlatAST.NONE; child = tree1.getNextSibling(child)) { // Not an anchor itself, so pull up the anchor weights from below
+                        sum += anchorWeightSums1[child];
                     }
                 }
-                anchorWeightSums1.put(n, sum); // each node key stores the total weight of anchor-mapped nodes in its subtree
+                anchorWeightSums1[n] = sum; // each node stores the total weight of anchor-mapped nodes in its subtree
             }
-            for (ASTNode<?> n : postOrder2) {
+            for (int n : postOrder2) {
                 int sum = 0;
-                if (anchorMatched2.contains(n)) {
-                    sum = n.getWeight(); 
+                if (anchorMatched2[n]) {
+                    sum = tree2.getWeight(n);
                 } else {
-                    for (ASTNode<?> child : n.getChildren()) { 
-                        sum += anchorWeightSums2.getOrDefault(child, 0); 
+                    for (int child = tree2.getFirstChild(n); child != FlatAST.NONE; child = tree2.getNextSibling(child)) {
+                        sum += anchorWeightSums2[child];
                     }
                 }
-                anchorWeightSums2.put(n, sum); 
+                anchorWeightSums2[n] = sum;
             }
 
             // PHASE 2: Bottom-up search for similar subtrees (containers) based on Dice similarity of their children
-            for (ASTNode<?> n1 : postOrder1) {
-                if (anchorMatched1.contains(n1)) continue; // If already anchor-mapped, skip
-                if (n1.getChildren().isEmpty()) continue; // container-type mappings cannot be leaves
+            for (int n1 : postOrder1) {
+                if (anchorMatched1[n1]) continue; // If already anchor-mapped, skip
+                if (tree1.isLeaf(n1)) continue; // container-type mappings cannot be leaves
 
                 // Check if this node has any anchor-mapped descendants
-                boolean hasAnchorMatchedDescendants = anchorWeightSums1.getOrDefault(n1, 0) > 0;
+                boolean hasAnchorMatchedDescendants = anchorWeightSums1[n1] > 0;
                 if (!hasAnchorMatchedDescendants) continue;
 
                 // Find the candidate matches in tree2
-                List<ASTNode<?>> candidates = findCandidates(n1, tree2);
+                int[] partners = findPartners(n1);
+                List<Integer> candidates = findCandidates(n1, partners);
 
                 // Find the BEST container match for a node (for tree1 from tree2)
-                ASTNode<?> bestMatch = null;
+                int bestMatch = FlatAST.NONE;
                 float bestDice = 0;
 
-                for (ASTNode<?> candidate : candidates) { // Compute Dice coefficient between n1 and candidate node from tree2
+                for (int candidate : candidates) { // Compute Dice coefficient between n1 and candidate node from tree2
                     // dice(t1, t2) = 2 * |common_descendants| / (|desc(t1)| + |desc(t2)|)
-                    Set<ASTNode<?>> desc1 = n1.getDescendants();
-                    Set<ASTNode<?>> descCandidate = candidate.getDescendants();
-                    int commonCount = 0;
-                    for (ASTNode<?> d1 : desc1) {
-                        ASTNode<?> partner = anchorMap.get(d1);
-                        if (partner != null && descCandidate.contains(partner)) {
-                            commonCount++;
-                        }
-                    }
-                    float dice = (2f * commonCount) / (n1.getWeight() + candidate.getWeight());
+                    // The candidate's descendants are an interval of tree2's pre-order, so the partners within it are counted from the sorted partners
+                    int commonCount = fp2.countDescendants(partners, candidate);
+                    float dice = (2f * commonCount) / (tree1.getWeight(n1) + tree2.getWeight(candidate));
 
                     if (dice > bestDice) {
                         bestDice = dice;
@@ -324,38 +374,30 @@ public class ASTDetector extends PairwiseDetector<ASTDetector.ASTDetectorWorker>
                     }
                 }
 
-                if (bestMatch != null && bestDice >= MIN_DICE) {
+                if (bestMatch != FlatAST.NONE && bestDice >= MIN_DICE) {
                     // EFFECTIVE WEIGHT n_c - sum(n_a)
                     // (subtract weight of anchor-mapped descendants from container-mapping to prevent double-counting)
-                    int effectiveWeight1 = n1.getWeight() - anchorWeightSums1.getOrDefault(n1, 0);
-                    int effectiveWeight2 = bestMatch.getWeight() - anchorWeightSums2.getOrDefault(bestMatch, 0);
+                    int effectiveWeight1 = tree1.getWeight(n1) - anchorWeightSums1[n1];
+                    int effectiveWeight2 = tree2.getWeight(bestMatch) - anchorWeightSums2[bestMatch];
                     if (effectiveWeight1 > 0 && effectiveWeight2 > 0) {
                         addToRawResult(res, n1, effectiveWeight1, bestMatch, effectiveWeight2, bestDice); // add container mapping
-    
+
                         // We "hide" the anchor weights from all ancestors so they aren't used again (only use first container mapping found for each anchor-mapped node, to prevent double-counting in multiple similar containers)
-                        int weightToHide1 = anchorWeightSums1.getOrDefault(n1, 0);
-                        int weightToHide2 = anchorWeightSums2.getOrDefault(bestMatch, 0);
+                        int weightToHide1 = anchorWeightSums1[n1];
+                        int weightToHide2 = anchorWeightSums2[bestMatch];
 
                         // Subtract this container's anchor-mass from all its ancestors
-                        ASTNode<?> p1 = n1.getParent();
-                        while (p1 != null) {
-                            int current = anchorWeightSums1.getOrDefault(p1, 0);
-                            anchorWeightSums1.put(p1, Math.max(0, current - weightToHide1));
-                            p1 = p1.getParent();
+                        for (int p1 = tree1.getParent(n1); p1 != FlatAST.NONE; p1 = tree1.getParent(p1)) {
+                            anchorWeightSums1[p1] = Math.max(0, anchorWeightSums1[p1] - weightToHide1);
                         }
-                        ASTNode<?> p2 = bestMatch.getParent();
-                        while (p2 != null) {
-                            int current = anchorWeightSums2.getOrDefault(p2, 0);
-                            anchorWeightSums2.put(p2, Math.max(0, current - weightToHide2));
-                            p2 = p2.getParent();
+                        for (int p2 = tree2.getParent(bestMatch); p2 != FlatAST.NONE; p2 = tree2.getParent(p2)) {
+                            anchorWeightSums2[p2] = Math.max(0, anchorWeightSums2[p2] - weightToHide2);
                         }
                         // 3. Clear the anchorMap for these descendants to kill the commonCount for parents
-                        for (ASTNode<?> d1 : n1.getDescendants()) {
-                            anchorMap.remove(d1); 
-                        }
+                        Arrays.fill(anchorMap, n1, n1 + tree1.getWeight(n1), FlatAST.NONE);
 
-                        containerMatched1.add(n1);
-                        containerMatched2.add(bestMatch);
+                        containerMatched1[n1] = true;
+                        containerMatched2[bestMatch] = true;
                     }
                 }
             }
@@ -363,5 +405,4 @@ public class ASTDetector extends PairwiseDetector<ASTDetector.ASTDetectorWorker>
             this.result = res;
         }
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,181 @@
+package uk.ac.warwick.dcs.sherlock.module.model.base.detection;
+
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST;
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST.Fingerprint;
+
+import java.util.*;
+
+/**
+ * Immutable, precomputed view of a single file's AST, as used by the {@link ASTDetector} workers.
+ *
+ * <p>Wraps the file's {@link FlatAST}, which holds the weight, height, fingerprints and lines of
+ * every node, and adds the post-order, the BFS position of every node, the by-height groupings
+ * of the tree, and an index of the nodes by height and fingerprint for finding anchors with a
+ * hash join. It is built once per file per job and only read afterwards, so one instance can be
+ * shared by every pair the file is part of, on any thread.</p>
+ *
+ * <p>Nodes are the ids of the flat tree, numbered in pre-order, so the descendants of a node are
+ * the interval of ids starting at the node, as long as its weight. They take no space of their
+ * own and "is a descendant of" is an interval check.</p>
+ */
+final class ASTFingerprints {
+
+    private final FlatAST tree;
+
+    // Every node, children before their parents
+    private final int[] postOrder;
+
+    // Position of each node in BFS order
+    private final int[] bfsPositions;
+
+    // Nodes grouped by height, each group in BFS order
+    private final Map<Integer, int[]> heightMap;
+
+    // Nodes grouped by height and then by strict or abstract fingerprint, each group in BFS order
+    private final Map<Integer, Map<Fingerprint, int[]>> strictBuckets;
+    private final Map<Integer, Map<Fingerprint, int[]>> abstractBuckets;
+
+    private ASTFingerprints(FlatAST tree) {
+        this.tree = tree;
+        int size = tree.size();
+
+        this.postOrder = new int[size];
+        int next = 0;
+        int node = tree.getRoot();
+        while (!tree.isLeaf(node)) {
+            node = tree.getFirstChild(node);
+        }
+        // Each node is followed by the leftmost leaf under its next sibling, or by its parent once it has no next sibling
+        while (node != FlatAST.NONE) {
+            this.postOrder[next++] = node;
+            int sibling = tree.getNextSibling(node);
+            if (sibling == FlatAST.NONE) {
+                node = tree.getParent(node);
+            } else {
+                node = sibling;
+                while (!tree.isLeaf(node)) {
+                    node = tree.getFirstChild(node);
+                }
+            }
+        }
+
+        this.bfsPositions = new int[size];
+        Map<Integer, List<Integer>> byHeight = new HashMap<>();
+        Map<Integer, Map<Fingerprint, List<Integer>>> strict = new HashMap<>();
+        Map<Integer, Map<Fingerprint, List<Integer>>> abstracted = new HashMap<>();
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = tree.getRoot();
+        while (head < tail) {
+            int n = queue[head];
+            this.bfsPositions[n] = head++;
+            int height = tree.getHeight(n);
+            byHeight.computeIfAbsent(height, k -> new ArrayList<>()).add(n);
+            strict.computeIfAbsent(height, k -> new HashMap<>()).computeIfAbsent(tree.getFingerprint(n, false), k -> new ArrayList<>()).add(n);
+            abstracted.computeIfAbsent(height, k -> new HashMap<>()).computeIfAbsent(tree.getFingerprint(n, true), k -> new ArrayList<>()).add(n);
+            for (int child = tree.getFirstChild(n); child != FlatAST.NONE; child = tree.getNextSibling(child)) {
+                queue[tail++] = child;
+            }
+        }
+
+        Map<Integer, int[]> heights = new HashMap<>();
+        byHeight.forEach((k, v) -> heights.put(k, toArray(v)));
+        this.heightMap = Collections.unmodifiableMap(heights);
+        this.strictBuckets = toBuckets(strict);
+        this.abstractBuckets = toBuckets(abstracted);
+    }
+
+    /**
+     * Precomputes the fingerprints for a tree.
+     *
+     * @param tree the file's flat AST
+     * @return the precomputed view of the tree
+     */
+    static ASTFingerprints of(FlatAST tree) {
+        return new ASTFingerprints(tree);
+    }
+
+    private static int[] toArray(List<Integer> nodes) {
+        return nodes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Map<Integer, Map<Fingerprint, int[]>> toBuckets(Map<Integer, Map<Fingerprint, List<Integer>>> buckets) {
+        Map<Integer, Map<Fingerprint, int[]>> result = new HashMap<>();
+        buckets.forEach((height, byFingerprint) -> {
+            Map<Fingerprint, int[]> arrays = new HashMap<>();
+            byFingerprint.forEach((k, v) -> arrays.put(k, toArray(v)));
+            result.put(height, Collections.unmodifiableMap(arrays));
+        });
+        return Collections.unmodifiableMap(result);
+    }
+
+    /** Returns the flat tree, which holds the fields of each node. */
+    public FlatAST getTree() { return tree; }
+
+    /** Returns every node in the tree, children before their parents. The array must not be modified. */
+    public int[] getPostOrder() { return postOrder; }
+
+    /** Returns the heights of the tree's nodes, in no particular order. */
+    public Set<Integer> getHeights() { return heightMap.keySet(); }
+
+    /** Returns the nodes of the given height in BFS order. The array must not be modified. */
+    public int[] getNodesOfHeight(int height) {
+        int[] nodes = heightMap.get(height);
+        return nodes != null ? nodes : new int[0];
+    }
+
+    /**
+     * Returns the nodes of the given height, grouped by fingerprint, each group in BFS order.
+     * Equal fingerprints mean isomorphic subtrees, so a node's anchor partners are found with a
+     * single lookup instead of comparing it against every node of the same height. The arrays
+     * must not be modified.
+     */
+    public Map<Fingerprint, int[]> getFingerprintBuckets(int height, boolean useAbstraction) {
+        Map<Fingerprint, int[]> buckets = (useAbstraction ? abstractBuckets : strictBuckets).get(height);
+        return buckets != null ? buckets : Collections.emptyMap();
+    }
+
+    /**
+     * Returns the distinct fingerprints of the subtrees at least as high as the given height, as
+     * the first 64 bits of each. Two trees can only have an anchor in common if they share one,
+     * and a fingerprint shared by chance only costs a comparison.
+     */
+    public long[] getAnchorFingerprints(float minHeight, boolean useAbstraction) {
+        return getHeights().stream()
+                .filter(h -> h >= minHeight)
+                .flatMap(h -> getFingerprintBuckets(h, useAbstraction).keySet().stream())
+                .mapToLong(Fingerprint::high)
+                .distinct()
+                .toArray();
+    }
+
+    /** Returns the position of the node in a BFS of the tree, the root being 0. */
+    public int getBfsPosition(int node) { return bfsPositions[node]; }
+
+    /**
+     * Counts the nodes which are in a subtree.
+     *
+     * @param nodes sorted node ids in this tree
+     * @param node  the root of the subtree
+     * @return the number of the ids between the node's and its last descendant's
+     */
+    public int countDescendants(int[] nodes, int node) {
+        return lowerBound(nodes, node + tree.getWeight(node)) - lowerBound(nodes, node);
+    }
+
+    // Index of the first value not less than the given one
+    private static int lowerBound(int[] values, int value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
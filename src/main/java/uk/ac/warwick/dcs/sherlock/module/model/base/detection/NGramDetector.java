@@ -15,7 +15,11 @@ import uk.ac.warwick.dcs.sherlock.module.model.base.preprocessing.TrimWhitespace
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
 
 public class NGramDetector extends PairwiseDetector<NGramDetectorWorker> {
 
@@ -45,6 +49,43 @@ public class NGramDetector extends PairwiseDetector<NGramDetectorWorker> {
 	 */
 	@AdjustableParameter (name = "Threshold", defaultValue = 0.8f, minimumBound = 0.0f, maximumBound = 1.0f, step = 0.001f, description = "The threshold on the similarity at which a block of code will be no longer considered similar. This determines where the similarity ends, 1 will give only pure matches, 0 will match anything")
 	public float threshold;
+	/**
+	 * Whether the similarity of an extending match is tracked incrementally.
+	 * <p>
+	 * When enabled the Jaccard numerator and denominator are carried forward as each N-Gram is added to the match, rather than rebuilding both N-Gram bags on every
+	 * step of the extension. Both modes produce identical matches, the full recomputation is kept as a reference implementation.
+	 * </p>
+	 */
+	@AdjustableParameter (name = "Incremental Similarity", defaultValue = 1, minimumBound = 0, maximumBound = 1, step = 1, description = "When set to 1, match similarity is updated as each N-Gram is added instead of being recomputed from scratch. Results are identical, but matching is much faster.")
+	public int incremental_similarity;
+	/**
+	 * Whether N-Grams are encoded as rolling hashes instead of Strings.
+	 * <p>
+	 * When enabled each file is encoded into a {@link NGramHashSequence}, a 64-bit Rabin-Karp hash per N-Gram stored in primitive arrays, and the reverse index is
+	 * keyed on those hashes. Seeds are verified against the underlying characters when hashes match, and similarity is always tracked incrementally.
+	 * </p>
+	 */
+	@AdjustableParameter (name = "Rolling Hash Encoding", defaultValue = 0, minimumBound = 0, maximumBound = 1, step = 1, description = "When set to 1, N-Grams are stored as 64-bit rolling hashes instead of strings. Produces the same matches with far less memory on large workspaces.")
+	public int rolling_hash;
+	/**
+	 * Memory budget for the per job N-Gram cache, in megabytes.
+	 * <p>
+	 * Each file's N-Grams and reverse index are built once, in parallel, before any comparisons run and are then shared by every pair the file is part of. Files
+	 * are cached in order until their estimated size exceeds the budget, the rest are rebuilt for each pair as if the cache was disabled.
+	 * </p>
+	 */
+	@AdjustableParameter (name = "N-Gram Cache Budget", defaultValue = 256, minimumBound = 0, maximumBound = 4096, step = 64, description = "Memory in MB used to keep each file's N-Grams between comparisons instead of rebuilding them for every pair. Files over the budget are rebuilt per pair, 0 disables the cache.")
+	public int cache_budget;
+
+	/**
+	 * Rough memory cost of one N-Gram in each encoding, the String encoding also holds a boxed index entry and the N-Gram characters
+	 */
+	private static final long LIST_BYTES_PER_NGRAM = 136;
+	private static final long HASH_BYTES_PER_NGRAM = 72;
+
+	// Built by prepareFileData before any workers run, then only read, use volatile as accessed across threads
+	private volatile NGramFileCache<NGramList> listCache = null;
+	private volatile NGramFileCache<NGramHashSequence> hashCache = null;
 
 	/**
 	 * Sets meta data for the detector, along with providing the API with pointers to the Worker and the Preprocessing Strategy
@@ -166,6 +207,84 @@ public class NGramDetector extends PairwiseDetector<NGramDetectorWorker> {
 		return index;
 	}
 
+	/**
+	 * Builds the N-Gram cache for the job, holding whichever encoding the worker will use
+	 *
+	 * @param data the data items passed to {@link #buildWorkers(List)}
+	 */
+	@Override
+	protected void prepareFileData(List<ModelDataItem> data) {
+		this.listCache = null;
+		this.hashCache = null;
+		if (cache_budget <= 0 || data == null) {
+			return;
+		}
+
+		long budget = cache_budget * 1024L * 1024L;
+		if (rolling_hash == 1) {
+			this.hashCache = new NGramFileCache<>(data, budget, x -> countNGrams(getLines(x)) * HASH_BYTES_PER_NGRAM, x -> new NGramHashSequence(getLines(x), ngram_size));
+		}
+		else {
+			this.listCache = new NGramFileCache<>(data, budget, x -> countNGrams(getLines(x)) * (LIST_BYTES_PER_NGRAM + ngram_size), x -> this.encodeList(x, true));
+		}
+	}
+
+	/**
+	 * Uses the rolling hash of every N-Gram in the file as its fingerprints, so candidate pairs are files sharing N-Grams
+	 */
+	@Override
+	protected long[] getCandidateFingerprints(ModelDataItem file) {
+		NGramFileCache<NGramHashSequence> cache = hashCache;
+		NGramHashSequence sequence = cache != null ? cache.get(file) : null;
+		return (sequence != null ? sequence : new NGramHashSequence(getLines(file), ngram_size)).getHashes();
+	}
+
+	/**
+	 * @return the cache of String encoded files, null if there is none
+	 */
+	NGramFileCache<NGramList> getListCache() {
+		return listCache;
+	}
+
+	/**
+	 * @return the cache of hash encoded files, null if there is none
+	 */
+	NGramFileCache<NGramHashSequence> getHashCache() {
+		return hashCache;
+	}
+
+	private static List<IndexedString> getLines(ModelDataItem file) {
+		return ((LineListArtifact) file.getPreProcessedArtifact("no_whitespace")).lines();
+	}
+
+	/**
+	 * Upper bound on the number of N-Grams a file will produce, without building them
+	 */
+	private long countNGrams(List<IndexedString> file) {
+		long count = 0;
+		for (IndexedString lineC : file) {
+			String line = lineC.getValue();
+			if (!line.isBlank()) {
+				count += Math.max(line.length(), ngram_size) - (ngram_size - 1);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Encodes a file as a list of N-Gram Strings
+	 *
+	 * @param file      the file to encode
+	 * @param withIndex whether to also build the reverse index, only needed when the file is the reference file of a pair
+	 *
+	 * @return the encoded file
+	 */
+	private NGramList encodeList(ModelDataItem file, boolean withIndex) {
+		ArrayList<NGram> ngrams = new ArrayList<>();
+		loadNGramList(ngrams, new ArrayList<>(getLines(file)));
+		return new NGramList(ngrams, withIndex ? buildIndex(ngrams) : null);
+	}
+
 	/**
 	 * The main processing method used in the detector
 	 */
@@ -189,56 +308,54 @@ public class NGramDetector extends PairwiseDetector<NGramDetectorWorker> {
 		 */
 		@Override
 		public void execute() {
-			// Gets each line as a string in the list, as returned by the specified preprocessor
-			LineListArtifact artiF1 = (LineListArtifact) this.file1.getPreProcessedArtifact("no_whitespace");
-			LineListArtifact artiF2 = (LineListArtifact) this.file2.getPreProcessedArtifact("no_whitespace");
-
-			ArrayList<IndexedString> linesF1 = new ArrayList<IndexedString>(artiF1.lines());
-			ArrayList<IndexedString> linesF2 = new ArrayList<IndexedString>(artiF2.lines());
-
 			// make raw result output container
 			NGramRawResult<NGramMatch> res = new NGramRawResult<>(this.file1.getFile(), this.file2.getFile());
 
-			// Build flat N-Gram sequences for both files
-			ArrayList<NGram> ngramsF1 = new ArrayList<>();
-			loadNGramList(ngramsF1, linesF1);
-			ArrayList<NGram> ngramsF2 = new ArrayList<>();
-			loadNGramList(ngramsF2, linesF2);
+			// Fetch the encoded files from the job cache, or build them if not cached
+			NGramPair pair;
+			if (rolling_hash == 1) {
+				pair = new HashPair(this.getHashSequence(this.file1), this.getHashSequence(this.file2));
+			}
+			else {
+				pair = new ListPair(this.getNGramList(this.file1, true), this.getNGramList(this.file2, false));
+			}
 
-			// Build reverse index: N-Gram string -> positions in file 1
-			HashMap<String, ArrayList<Integer>> index = buildIndex(ngramsF1);
+			this.seedAndExtend(pair, res);
+			this.result = res;
+		}
 
-			// Seed-and-extend: scan file 2 for matching regions
+		/**
+		 * Seed-and-extend over the N-Grams of a pair of files, the same for either encoding
+		 *
+		 * @param pair the encoded files
+		 * @param res  raw result container to record matches in
+		 */
+		private void seedAndExtend(NGramPair pair, NGramRawResult<NGramMatch> res) {
 			// Track positions in file 1 already covered by a recorded match to prevent double-counting
-			HashSet<Integer> usedInFile1 = new HashSet<>();
+			boolean[] usedInFile1 = new boolean[pair.size1()];
 			int i = 0;
-			while (i < ngramsF2.size()) {
-				String ngram = ngramsF2.get(i).getNgram();
-				ArrayList<Integer> seeds = index.get(ngram);
-
-				if (seeds == null) {
-					i++;
-					continue;
-				}
-
+			while (i < pair.size2()) {
 				// Try each seed position in file 1, keep the longest valid match
 				int bestLen = 0;
 				float bestSim = 0.0f;
 				int bestSeed = -1;
 
-				for (int j : seeds) {
+				for (PrimitiveIterator.OfInt seeds = pair.seeds(i); seeds.hasNext(); ) {
+					int j = seeds.nextInt();
 					// Skip seeds already covered by a previously recorded match in file 1
-					if (usedInFile1.contains(j)) continue;
+					if (usedInFile1[j]) continue;
 
 					// Extend the match from this seed
 					int len = 1;
 					float lastValidSim = 0.0f;
+					Extension extension = pair.extend(j, i);
 
-					while (j + len < ngramsF1.size() && i + len < ngramsF2.size()) {
+					while (j + len < pair.size1() && i + len < pair.size2()) {
 						len++;
+						extension.grow();
 						// Only evaluate similarity once the window is large enough to matter
 						if (len >= minimum_window) {
-							float sim = compare(ngramsF1.subList(j, j + len), ngramsF2.subList(i, i + len));
+							float sim = extension.similarity();
 							if (sim < threshold) {
 								len--; // step back to last valid length
 								break;
@@ -257,10 +374,10 @@ public class NGramDetector extends PairwiseDetector<NGramDetectorWorker> {
 
 				if (bestLen >= minimum_window) {
 					// Record the match
-					int refStart = ngramsF1.get(bestSeed).getLineNumber();
-					int refEnd = ngramsF1.get(bestSeed + bestLen - 1).getLineNumber();
-					int checkStart = ngramsF2.get(i).getLineNumber();
-					int checkEnd = ngramsF2.get(i + bestLen - 1).getLineNumber();
+					int refStart = pair.getLineNumber1(bestSeed);
+					int refEnd = pair.getLineNumber1(bestSeed + bestLen - 1);
+					int checkStart = pair.getLineNumber2(i);
+					int checkEnd = pair.getLineNumber2(i + bestLen - 1);
 
 					NGramMatch match = new NGramMatch(
 							refStart, refEnd, checkStart, checkEnd,
@@ -270,21 +387,413 @@ public class NGramDetector extends PairwiseDetector<NGramDetectorWorker> {
 					// Mark matched positions in file 1 as used to prevent the same region
 					// from contributing to multiple matches and inflating scores
 					for (int k = bestSeed; k < bestSeed + bestLen; k++) {
-						usedInFile1.add(k);
+						usedInFile1[k] = true;
 					}
 
 					// Advance past the matched region in file 2, snapping to the next line
 					// to prevent the boundary line being shared with the start of the next match
-					int matchEndLine = ngramsF2.get(i + bestLen - 1).getLineNumber();
-					while (i < ngramsF2.size() && ngramsF2.get(i).getLineNumber() <= matchEndLine) {
+					while (i < pair.size2() && pair.getLineNumber2(i) <= checkEnd) {
 						i++;
 					}
-				} else {
+				}
+				else {
 					i++;
 				}
 			}
+		}
 
-			this.result = res;
+		private NGramList getNGramList(ModelDataItem file, boolean withIndex) {
+			NGramFileCache<NGramList> cache = listCache;
+			NGramList list = cache != null ? cache.get(file) : null;
+			return list != null ? list : encodeList(file, withIndex);
+		}
+
+		private NGramHashSequence getHashSequence(ModelDataItem file) {
+			NGramFileCache<NGramHashSequence> cache = hashCache;
+			NGramHashSequence sequence = cache != null ? cache.get(file) : null;
+			return sequence != null ? sequence : new NGramHashSequence(getLines(file), ngram_size);
+		}
+	}
+
+	/**
+	 * Read access to the N-Grams of the two files of a pair, all the seed-and-extend loop needs from an encoding
+	 */
+	interface NGramPair {
+
+		/**
+		 * @return the number of N-Grams in file 1
+		 */
+		int size1();
+
+		/**
+		 * @return the number of N-Grams in file 2
+		 */
+		int size2();
+
+		int getLineNumber1(int pos);
+
+		int getLineNumber2(int pos);
+
+		/**
+		 * @param pos position of an N-Gram in file 2
+		 *
+		 * @return the positions in file 1 holding the same N-Gram, in ascending order
+		 */
+		PrimitiveIterator.OfInt seeds(int pos);
+
+		/**
+		 * Starts extending a match from a seed
+		 *
+		 * @param pos1 the seed's position in file 1
+		 * @param pos2 the seed's position in file 2
+		 *
+		 * @return the extension, holding the seed N-Grams
+		 */
+		Extension extend(int pos1, int pos2);
+	}
+
+	/**
+	 * The similarity of the two runs of N-Grams in a match being extended
+	 */
+	interface Extension {
+
+		/**
+		 * Adds the next N-Gram of both files to the match
+		 */
+		void grow();
+
+		/**
+		 * @return The float val for Jaccard Similarity (0.0 to 1.0) of the two runs
+		 */
+		float similarity();
+	}
+
+	/**
+	 * A pair of files encoded as N-Gram Strings, similarity is tracked incrementally or recomputed at each step depending on {@link #incremental_similarity}
+	 */
+	class ListPair implements NGramPair {
+
+		private final List<NGram> ngramsF1;
+		private final List<NGram> ngramsF2;
+
+		// Reverse index: N-Gram string -> positions in file 1
+		private final HashMap<String, ArrayList<Integer>> index;
+
+		ListPair(NGramList listF1, NGramList listF2) {
+			this.ngramsF1 = listF1.ngrams;
+			this.ngramsF2 = listF2.ngrams;
+			this.index = listF1.index;
+		}
+
+		@Override
+		public int size1() {
+			return this.ngramsF1.size();
+		}
+
+		@Override
+		public int size2() {
+			return this.ngramsF2.size();
+		}
+
+		@Override
+		public int getLineNumber1(int pos) {
+			return this.ngramsF1.get(pos).getLineNumber();
+		}
+
+		@Override
+		public int getLineNumber2(int pos) {
+			return this.ngramsF2.get(pos).getLineNumber();
+		}
+
+		@Override
+		public PrimitiveIterator.OfInt seeds(int pos) {
+			ArrayList<Integer> seeds = this.index.get(this.ngramsF2.get(pos).getNgram());
+			if (seeds == null) {
+				return IntStream.empty().iterator();
+			}
+
+			Iterator<Integer> iterator = seeds.iterator();
+			return new PrimitiveIterator.OfInt() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public int nextInt() {
+					return iterator.next();
+				}
+			};
+		}
+
+		@Override
+		public Extension extend(int pos1, int pos2) {
+			if (incremental_similarity != 1) {
+				// Running multiset counts are not kept, the similarity is recomputed from scratch
+				return new Extension() {
+					private int len = 1;
+
+					@Override
+					public void grow() {
+						this.len++;
+					}
+
+					@Override
+					public float similarity() {
+						return compare(ngramsF1.subList(pos1, pos1 + this.len), ngramsF2.subList(pos2, pos2 + this.len));
+					}
+				};
+			}
+
+			JaccardTracker tracker = new JaccardTracker();
+			tracker.add(this.ngramsF1.get(pos1).getNgram(), this.ngramsF2.get(pos2).getNgram());
+			return new Extension() {
+				private int len = 1;
+
+				@Override
+				public void grow() {
+					tracker.add(ngramsF1.get(pos1 + this.len).getNgram(), ngramsF2.get(pos2 + this.len).getNgram());
+					this.len++;
+				}
+
+				@Override
+				public float similarity() {
+					return tracker.similarity();
+				}
+			};
+		}
+	}
+
+	/**
+	 * A pair of files encoded as rolling hashes.
+	 * <p>
+	 * Seeds are found through the hash index of file 1 and verified character by character, so a hash collision can never create a seed. Similarity while
+	 * extending is tracked on the hashes, two distinct N-Grams in one extension share a hash with probability around len^2 / 2^64.
+	 * </p>
+	 */
+	static class HashPair implements NGramPair {
+
+		private final NGramHashSequence ngramsF1;
+		private final NGramHashSequence ngramsF2;
+
+		HashPair(NGramHashSequence ngramsF1, NGramHashSequence ngramsF2) {
+			this.ngramsF1 = ngramsF1;
+			this.ngramsF2 = ngramsF2;
+		}
+
+		@Override
+		public int size1() {
+			return this.ngramsF1.size();
+		}
+
+		@Override
+		public int size2() {
+			return this.ngramsF2.size();
+		}
+
+		@Override
+		public int getLineNumber1(int pos) {
+			return this.ngramsF1.getLineNumber(pos);
+		}
+
+		@Override
+		public int getLineNumber2(int pos) {
+			return this.ngramsF2.getLineNumber(pos);
+		}
+
+		@Override
+		public PrimitiveIterator.OfInt seeds(int pos) {
+			return new PrimitiveIterator.OfInt() {
+				private int next = this.verified(ngramsF1.firstWithHash(ngramsF2.getHash(pos)));
+
+				// The first position from j on whose characters match, skipping hash collisions
+				private int verified(int j) {
+					while (j != -1 && !ngramsF1.sameNGram(j, ngramsF2, pos)) {
+						j = ngramsF1.nextWithHash(j);
+					}
+					return j;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return this.next != -1;
+				}
+
+				@Override
+				public int nextInt() {
+					if (this.next == -1) {
+						throw new NoSuchElementException();
+					}
+					int seed = this.next;
+					this.next = this.verified(ngramsF1.nextWithHash(seed));
+					return seed;
+				}
+			};
+		}
+
+		@Override
+		public Extension extend(int pos1, int pos2) {
+			HashedJaccardTracker tracker = new HashedJaccardTracker();
+			tracker.add(this.ngramsF1.getHash(pos1), this.ngramsF2.getHash(pos2));
+			return new Extension() {
+				private int len = 1;
+
+				@Override
+				public void grow() {
+					tracker.add(ngramsF1.getHash(pos1 + this.len), ngramsF2.getHash(pos2 + this.len));
+					this.len++;
+				}
+
+				@Override
+				public float similarity() {
+					return tracker.similarity();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Incremental multiset Jaccard similarity between two growing N-Gram lists.
+	 * <p>
+	 * Keeps the per N-Gram counts for both sides along with the running |intersection| and |union|. Adding an N-Gram to one side raises the intersection if that side
+	 * held fewer copies than the other, and the union otherwise, so each step costs O(1) instead of the O(len) rebuild done by {@link NGramDetector#compare(List, List)}.
+	 * </p>
+	 */
+	static class JaccardTracker {
+
+		private final HashMap<String, int[]> counts = new HashMap<>();
+		private int intersection = 0;
+		private int union = 0;
+
+		/**
+		 * Extends both lists by one N-Gram.
+		 *
+		 * @param reference the N-Gram appended to the reference list
+		 * @param check     the N-Gram appended to the check list
+		 */
+		void add(String reference, String check) {
+			this.addTo(reference, 0);
+			this.addTo(check, 1);
+		}
+
+		private void addTo(String ngram, int side) {
+			int[] count = this.counts.computeIfAbsent(ngram, k -> new int[2]);
+			if (count[side] < count[1 - side]) {
+				this.intersection++;
+			}
+			else {
+				this.union++;
+			}
+			count[side]++;
+		}
+
+		/**
+		 * @return The float val for Jaccard Similarity (0.0 to 1.0), identical to {@link NGramDetector#compare(List, List)} over the same lists
+		 */
+		float similarity() {
+			if (this.union == 0) return 0.0f;
+
+			return (float) this.intersection / this.union;
+		}
+	}
+
+	/**
+	 * {@link JaccardTracker} keyed on N-Gram hashes, counts are held in an open addressing table of primitive arrays to avoid boxing every hash.
+	 */
+	static class HashedJaccardTracker {
+
+		private long[] keys = new long[16];
+		private int[][] counts = new int[2][16];
+		private boolean[] used = new boolean[16];
+		private int distinct = 0;
+		private int intersection = 0;
+		private int union = 0;
+
+		/**
+		 * Extends both lists by one N-Gram.
+		 *
+		 * @param reference the hash of the N-Gram appended to the reference list
+		 * @param check     the hash of the N-Gram appended to the check list
+		 */
+		void add(long reference, long check) {
+			this.addTo(reference, 0);
+			this.addTo(check, 1);
+		}
+
+		private void addTo(long hash, int side) {
+			int slot = this.findSlot(hash);
+			if (!this.used[slot]) {
+				this.used[slot] = true;
+				this.keys[slot] = hash;
+				if (++this.distinct * 2 > this.keys.length) {
+					this.grow();
+					slot = this.findSlot(hash);
+				}
+			}
+
+			if (this.counts[side][slot] < this.counts[1 - side][slot]) {
+				this.intersection++;
+			}
+			else {
+				this.union++;
+			}
+			this.counts[side][slot]++;
+		}
+
+		private int findSlot(long hash) {
+			int mask = this.keys.length - 1;
+			int slot = (int) (hash ^ (hash >>> 32)) * 0x9E3779B9 & mask;
+			while (this.used[slot] && this.keys[slot] != hash) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow() {
+			long[] oldKeys = this.keys;
+			int[][] oldCounts = this.counts;
+			boolean[] oldUsed = this.used;
+
+			this.keys = new long[oldKeys.length * 2];
+			this.counts = new int[2][oldKeys.length * 2];
+			this.used = new boolean[oldKeys.length * 2];
+
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldUsed[i]) {
+					int slot = this.findSlot(oldKeys[i]);
+					this.used[slot] = true;
+					this.keys[slot] = oldKeys[i];
+					this.counts[0][slot] = oldCounts[0][i];
+					this.counts[1][slot] = oldCounts[1][i];
+				}
+			}
+		}
+
+		/**
+		 * @return The float val for Jaccard Similarity (0.0 to 1.0)
+		 */
+		float similarity() {
+			if (this.union == 0) return 0.0f;
+
+			return (float) this.intersection / this.union;
+		}
+	}
+
+	/**
+	 * A file encoded as a flat list of N-Gram Strings, with its reverse index. Never modified once built so can be shared between workers.
+	 */
+	static class NGramList {
+
+		final List<NGram> ngrams;
+		final HashMap<String, ArrayList<Integer>> index;
+
+		/**
+		 * @param ngrams the N-Grams of the file in order
+		 * @param index  map from N-Gram string to positions in ngrams, may be null if the file is never used as the reference file
+		 */
+		NGramList(List<NGram> ngrams, HashMap<String, ArrayList<Integer>> index) {
+			this.ngrams = ngrams;
+			this.index = index;
 		}
 	}
 
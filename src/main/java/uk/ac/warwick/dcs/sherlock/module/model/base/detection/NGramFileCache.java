@@ -0,0 +1,81 @@
+package uk.ac.warwick.dcs.sherlock.module.model.base.detection;
+
+import uk.ac.warwick.dcs.sherlock.api.model.detection.ModelDataItem;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per job cache of the encoded N-Grams for each file, shared read only by all the workers of a detector.
+ * <p>
+ * Without it every pairwise worker encodes both of its files, so over a job of F files each file is encoded around F times. The cache is filled once, in parallel,
+ * before any worker runs and is never written to afterwards, so workers can read it without synchronisation.
+ * </p>
+ * <p>
+ * Files are admitted in the order given while their estimated size fits within the memory budget. Files which do not fit are left out and encoded by the worker
+ * as before, so a small budget only costs speed, never correctness.
+ * </p>
+ *
+ * @param <E> type of the encoded file
+ */
+class NGramFileCache<E> {
+
+	private final Map<ModelDataItem, E> entries;
+	private final long estimatedBytes;
+
+	/**
+	 * Selects the files which fit within the budget and encodes them in parallel
+	 *
+	 * @param files     data items for the job
+	 * @param budget    memory budget in bytes
+	 * @param estimator estimate of the memory used by the encoding of a file, must be cheap compared to the encoding itself
+	 * @param encoder   builds the encoding of a file, must be safe to call concurrently
+	 */
+	NGramFileCache(List<ModelDataItem> files, long budget, ToLongFunction<ModelDataItem> estimator, Function<ModelDataItem, E> encoder) {
+		List<ModelDataItem> admitted = new ArrayList<>();
+		long total = 0;
+		for (ModelDataItem file : files) {
+			long size = estimator.applyAsLong(file);
+			if (total + size <= budget) {
+				admitted.add(file);
+				total += size;
+			}
+		}
+
+		List<E> encoded = admitted.parallelStream().map(encoder).toList();
+
+		// ModelDataItem has no equals, and the same instance is handed to every worker, so identity is the correct key
+		this.entries = new IdentityHashMap<>(admitted.size());
+		for (int i = 0; i < admitted.size(); i++) {
+			this.entries.put(admitted.get(i), encoded.get(i));
+		}
+		this.estimatedBytes = total;
+	}
+
+	/**
+	 * @param file data item to fetch
+	 *
+	 * @return the cached encoding, or null if the file was not admitted to the cache
+	 */
+	E get(ModelDataItem file) {
+		return this.entries.get(file);
+	}
+
+	/**
+	 * @return the number of files held
+	 */
+	int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return the estimated memory used by the cached files in bytes
+	 */
+	long getEstimatedBytes() {
+		return this.estimatedBytes;
+	}
+}
@@ -0,0 +1,215 @@
+package uk.ac.warwick.dcs.sherlock.module.model.base.detection;
+
+import uk.ac.warwick.dcs.sherlock.api.util.IndexedString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Primitive array encoding of the N-Grams in a file.
+ * <p>
+ * Each N-Gram is represented by a 64-bit Rabin-Karp rolling hash of its characters rather than a String, so a file of L characters is encoded in O(L) time without
+ * creating any substrings. The line each N-Gram came from and its offset in that line are kept, allowing the underlying characters to be compared when two hashes
+ * match. A reverse index from hash to positions is stored as an open addressing table with chained position lists, again using only primitive arrays.
+ * </p>
+ * <p>
+ * The N-Grams produced, and their order, are identical to those built as Strings by {@link NGramDetector}.
+ * </p>
+ */
+class NGramHashSequence {
+
+	/**
+	 * Odd multiplier for the polynomial hash, arithmetic is done modulo 2^64 through natural overflow
+	 */
+	private static final long BASE = 0x100000001B3L;
+
+	private final int ngramSize;
+
+	private final long[] hashes;
+	private final int[] lineNumbers;
+	private final int[] lineRefs;
+	private final int[] offsets;
+	private final String[] lines;
+
+	// Reverse index, heads[slot] is the first position with hash keys[slot], next[pos] the following position with the same hash
+	private final long[] keys;
+	private final int[] heads;
+	private final int[] next;
+	private final int mask;
+
+	/**
+	 * Encodes the lines of a file, skipping blank lines and N-Grams, and padding short lines with whitespace as the String encoding does
+	 *
+	 * @param file      the list of lines in a file to be encoded
+	 * @param ngramSize the character width of each N-Gram
+	 */
+	NGramHashSequence(List<IndexedString> file, int ngramSize) {
+		this.ngramSize = ngramSize;
+
+		List<String> lineList = new ArrayList<>();
+		int capacity = 0;
+		for (IndexedString lineC : file) {
+			String line = lineC.getValue();
+			if (!line.isBlank()) {
+				capacity += Math.max(line.length(), ngramSize) - (ngramSize - 1);
+			}
+		}
+
+		long[] hashes = new long[capacity];
+		int[] lineNumbers = new int[capacity];
+		int[] lineRefs = new int[capacity];
+		int[] offsets = new int[capacity];
+		int size = 0;
+
+		// BASE^(ngramSize - 1), used to remove the outgoing character from the hash
+		long topPower = 1;
+		for (int i = 1; i < ngramSize; i++) {
+			topPower *= BASE;
+		}
+
+		for (IndexedString lineC : file) {
+			String line = lineC.getValue();
+			if (line.isBlank()) {
+				continue;
+			}
+			if (line.length() < ngramSize) {
+				line = line + " ".repeat(ngramSize - line.length());
+			}
+
+			int lineRef = lineList.size();
+			lineList.add(line);
+
+			long hash = 0;
+			int nonBlank = 0; // number of non whitespace characters in the current window
+			for (int i = 0; i < line.length(); i++) {
+				char in = line.charAt(i);
+				if (i >= ngramSize) {
+					char out = line.charAt(i - ngramSize);
+					hash -= out * topPower;
+					if (!Character.isWhitespace(out)) {
+						nonBlank--;
+					}
+				}
+				hash = hash * BASE + in;
+				if (!Character.isWhitespace(in)) {
+					nonBlank++;
+				}
+
+				if (i >= ngramSize - 1 && nonBlank > 0) {
+					hashes[size] = hash;
+					lineNumbers[size] = lineC.getKey();
+					lineRefs[size] = lineRef;
+					offsets[size] = i - (ngramSize - 1);
+					size++;
+				}
+			}
+		}
+
+		this.hashes = Arrays.copyOf(hashes, size);
+		this.lineNumbers = Arrays.copyOf(lineNumbers, size);
+		this.lineRefs = Arrays.copyOf(lineRefs, size);
+		this.offsets = Arrays.copyOf(offsets, size);
+		this.lines = lineList.toArray(new String[0]);
+
+		// Build the reverse index, inserting in reverse so each chain lists positions in ascending order
+		int tableSize = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+		this.mask = tableSize - 1;
+		this.keys = new long[tableSize];
+		this.heads = new int[tableSize];
+		this.next = new int[size];
+		Arrays.fill(this.heads, -1);
+
+		for (int pos = size - 1; pos >= 0; pos--) {
+			int slot = this.findSlot(this.hashes[pos]);
+			this.keys[slot] = this.hashes[pos];
+			this.next[pos] = this.heads[slot];
+			this.heads[slot] = pos;
+		}
+	}
+
+	/**
+	 * Spreads the hash bits before masking, the low bits of a polynomial hash are weakly mixed
+	 */
+	private static int mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return (int) hash;
+	}
+
+	private int findSlot(long hash) {
+		int slot = mix(hash) & this.mask;
+		while (this.heads[slot] != -1 && this.keys[slot] != hash) {
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return the number of N-Grams in the file
+	 */
+	int size() {
+		return this.hashes.length;
+	}
+
+	/**
+	 * @return a copy of the hashes of every N-Gram in the file, in order
+	 */
+	long[] getHashes() {
+		return this.hashes.clone();
+	}
+
+	/**
+	 * @param pos position of the N-Gram
+	 *
+	 * @return the 64-bit hash of the N-Gram
+	 */
+	long getHash(int pos) {
+		return this.hashes[pos];
+	}
+
+	/**
+	 * @param pos position of the N-Gram
+	 *
+	 * @return the source line number the N-Gram starts on
+	 */
+	int getLineNumber(int pos) {
+		return this.lineNumbers[pos];
+	}
+
+	/**
+	 * Fetches the first position in this file whose N-Gram has the given hash
+	 *
+	 * @param hash the hash to look up
+	 *
+	 * @return the lowest position with that hash, or -1 if there is none
+	 */
+	int firstWithHash(long hash) {
+		return this.heads[this.findSlot(hash)];
+	}
+
+	/**
+	 * Fetches the next position in this file sharing the hash of the N-Gram at pos
+	 *
+	 * @param pos a position returned by {@link #firstWithHash(long)} or this method
+	 *
+	 * @return the next higher position with the same hash, or -1 if there is none
+	 */
+	int nextWithHash(int pos) {
+		return this.next[pos];
+	}
+
+	/**
+	 * Verifies a hash match by comparing the characters of two N-Grams, guarding against hash collisions
+	 *
+	 * @param pos      position of the N-Gram in this file
+	 * @param other    the file containing the other N-Gram
+	 * @param otherPos position of the N-Gram in the other file
+	 *
+	 * @return whether the two N-Grams have the same characters
+	 */
+	boolean sameNGram(int pos, NGramHashSequence other, int otherPos) {
+		return this.hashes[pos] == other.hashes[otherPos] && this.lines[this.lineRefs[pos]].regionMatches(this.offsets[pos], other.lines[other.lineRefs[otherPos]], other.offsets[otherPos], this.ngramSize);
+	}
+}
@@ -0,0 +1,215 @@
+package uk.ac.warwick.dcs.sherlock.module.model.base.detection;
+
+import uk.ac.warwick.dcs.sherlock.api.util.IndexedString;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The winnowed fingerprints of a single tokenised file, as used by the {@link WinnowingDetector} workers.
+ * <p>
+ * Every K-Gram of consecutive tokens is hashed with a rolling hash, then the minimum hash of each window of consecutive K-Gram hashes is selected as a fingerprint,
+ * taking the rightmost on ties and only recording it once while it stays the minimum. This guarantees any run of at least window + K - 1 tokens shared by two
+ * files gives both files a common fingerprint, while keeping only around 2 / (window + 1) of the K-Grams.
+ * </p>
+ * <p>
+ * Instances are immutable once built, so one can be shared by every pair the file is part of, on any thread.
+ * </p>
+ */
+class WinnowedFile {
+
+	/**
+	 * Odd multiplier for the polynomial hash, arithmetic is done modulo 2^64 through natural overflow
+	 */
+	private static final long BASE = 0x100000001B3L;
+
+	// Selected fingerprints in file order, with the lines of the first and last token of their K-Gram
+	private final long[] hashes;
+	private final int[] startLines;
+	private final int[] endLines;
+
+	// Fingerprint positions sorted by hash, to look up every position with a given hash
+	private final long[] sortedHashes;
+	private final int[] sortedPositions;
+
+	/**
+	 * Tokenises and winnows a file
+	 *
+	 * @param file       lines of the file, each a whitespace separated list of tokens
+	 * @param kgramSize  number of tokens in each K-Gram
+	 * @param windowSize number of consecutive K-Grams each fingerprint is selected from
+	 */
+	WinnowedFile(List<IndexedString> file, int kgramSize, int windowSize) {
+		// Spread hash and line of each token, grown as the file is read
+		long[] tokens = new long[64];
+		int[] tokenLines = new int[64];
+		int tokenCount = 0;
+		for (IndexedString line : file) {
+			for (String token : line.getValue().trim().split("\\s+")) {
+				if (!token.isEmpty()) {
+					if (tokenCount == tokens.length) {
+						tokens = Arrays.copyOf(tokens, tokenCount * 2);
+						tokenLines = Arrays.copyOf(tokenLines, tokenCount * 2);
+					}
+					tokens[tokenCount] = spread(token);
+					tokenLines[tokenCount++] = line.getKey();
+				}
+			}
+		}
+
+		// Rolling hash of each K-Gram
+		int count = Math.max(tokenCount - kgramSize + 1, 0);
+		long[] kgrams = new long[count];
+		long topPower = 1;
+		for (int i = 1; i < kgramSize; i++) {
+			topPower *= BASE;
+		}
+		long hash = 0;
+		for (int i = 0; i < tokenCount; i++) {
+			if (i >= kgramSize) {
+				hash -= tokens[i - kgramSize] * topPower;
+			}
+			hash = hash * BASE + tokens[i];
+			if (i >= kgramSize - 1) {
+				kgrams[i - kgramSize + 1] = hash;
+			}
+		}
+
+		// Winnow, a window shorter than the file still selects its minimum
+		int window = Math.max(Math.min(windowSize, count), 1);
+		int[] selected = new int[count];
+		int size = 0;
+		int[] deque = new int[count];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < count; i++) {
+			// Keep the deque increasing from head to tail, dropping larger or equal hashes so the rightmost minimum wins
+			while (tail > head && kgrams[deque[tail - 1]] >= kgrams[i]) {
+				tail--;
+			}
+			deque[tail++] = i;
+			while (deque[head] <= i - window) {
+				head++;
+			}
+
+			if (i >= window - 1 && (size == 0 || selected[size - 1] != deque[head])) {
+				selected[size++] = deque[head];
+			}
+		}
+
+		this.hashes = new long[size];
+		this.startLines = new int[size];
+		this.endLines = new int[size];
+		for (int f = 0; f < size; f++) {
+			this.hashes[f] = kgrams[selected[f]];
+			this.startLines[f] = tokenLines[selected[f]];
+			this.endLines[f] = tokenLines[selected[f] + kgramSize - 1];
+		}
+
+		// Sort the hashes alone, then place each position in file order at the next free index of its hash's run, so equal hashes keep ascending positions
+		this.sortedHashes = this.hashes.clone();
+		Arrays.sort(this.sortedHashes);
+		this.sortedPositions = new int[size];
+		int[] filled = new int[size];
+		for (int f = 0; f < size; f++) {
+			int first = this.firstIndexOf(this.hashes[f]);
+			this.sortedPositions[first + filled[first]++] = f;
+		}
+	}
+
+	/**
+	 * Spreads the bits of a token's String hash over 64 bits, so K-Gram hashes of few distinct tokens rarely collide
+	 */
+	private static long spread(String token) {
+		long z = token.hashCode() * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the number of fingerprints selected from the file
+	 */
+	int size() {
+		return this.hashes.length;
+	}
+
+	/**
+	 * @return a copy of every fingerprint of the file, in order
+	 */
+	long[] getHashes() {
+		return this.hashes.clone();
+	}
+
+	/**
+	 * @param pos position of the fingerprint
+	 *
+	 * @return the hash of the fingerprint
+	 */
+	long getHash(int pos) {
+		return this.hashes[pos];
+	}
+
+	/**
+	 * @param pos position of the fingerprint
+	 *
+	 * @return the line of the first token of the fingerprint's K-Gram
+	 */
+	int getStartLine(int pos) {
+		return this.startLines[pos];
+	}
+
+	/**
+	 * @param pos position of the fingerprint
+	 *
+	 * @return the line of the last token of the fingerprint's K-Gram
+	 */
+	int getEndLine(int pos) {
+		return this.endLines[pos];
+	}
+
+	/**
+	 * Finds the first of the fingerprints with a given hash, in the order sorted by hash. Together with {@link #endIndexOf(long, int)} this gives the range of sorted
+	 * indices holding the hash, without copying their positions out.
+	 *
+	 * @param hash the fingerprint to look up
+	 *
+	 * @return the first sorted index with that hash, or where it would be if there are none
+	 */
+	int firstIndexOf(long hash) {
+		int lo = 0;
+		int hi = this.sortedHashes.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.sortedHashes[mid] < hash) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @param hash  the fingerprint to look up
+	 * @param first the result of {@link #firstIndexOf(long)} for the hash
+	 *
+	 * @return the sorted index after the last one with that hash, equal to first if there are none
+	 */
+	int endIndexOf(long hash, int first) {
+		int end = first;
+		while (end < this.sortedHashes.length && this.sortedHashes[end] == hash) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * @param index index in the order sorted by hash
+	 *
+	 * @return the position of the fingerprint, positions with the same hash are in ascending order
+	 */
+	int getSortedPosition(int index) {
+		return this.sortedPositions[index];
+	}
+}
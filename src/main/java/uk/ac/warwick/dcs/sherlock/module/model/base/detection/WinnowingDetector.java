@@ -0,0 +1,217 @@
+package uk.ac.warwick.dcs.sherlock.module.model.base.detection;
+
+import uk.ac.warwick.dcs.sherlock.api.annotation.AdjustableParameter;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.IDetector;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.ModelDataItem;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.PairwiseDetector;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.PairwiseDetectorWorker;
+import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.LineListArtifact;
+import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.PreProcessingStrategy;
+import uk.ac.warwick.dcs.sherlock.module.model.base.detection.WinnowingDetector.WinnowingDetectorWorker;
+import uk.ac.warwick.dcs.sherlock.module.model.base.postprocessing.NGramRawResult;
+import uk.ac.warwick.dcs.sherlock.module.model.base.preprocessing.CommentRemover;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detector based on the winnowing algorithm used by MOSS.
+ * <p>
+ * Each file is tokenised by the {@link uk.ac.warwick.dcs.sherlock.module.model.base.preprocessing.StandardTokeniser}, so renamed identifiers and changed literals
+ * still match, and winnowed once per job into a small set of K-Gram fingerprints. Candidate pairs come from an inverted index of the fingerprints, so files which
+ * share none are never compared, and each remaining pair only walks its own fingerprints. The total work grows with the size of the corpus and the number of
+ * genuinely shared fingerprints rather than with the number of pairs.
+ * </p>
+ * <p>
+ * Matched fingerprints which follow on from each other in both files are joined into blocks, which are reported as {@link NGramMatch}es so the existing N-Gram
+ * post processing and scoring can be used.
+ * </p>
+ */
+public class WinnowingDetector extends PairwiseDetector<WinnowingDetectorWorker> {
+
+	/**
+	 * Fingerprints of a block can be at most this many positions apart in either file, allowing for small edits inside a copied block
+	 */
+	private static final int MAX_GAP = 2;
+
+	/**
+	 * The number of tokens in each K-Gram.
+	 * <p>
+	 * Shorter K-Grams find shorter copied sections but also match more common token sequences by chance.
+	 * </p>
+	 */
+	@AdjustableParameter (name = "K-Gram Size", defaultValue = 8, minimumBound = 2, maximumBound = 30, step = 1, description = "The number of tokens hashed into each fingerprint. Smaller is more sensitive, but matches more common code by chance.")
+	public int kgram_size;
+	/**
+	 * The number of consecutive K-Grams each fingerprint is selected from.
+	 * <p>
+	 * Any shared run of at least window + K-Gram size - 1 tokens is guaranteed to be found, larger windows keep fewer fingerprints per file.
+	 * </p>
+	 */
+	@AdjustableParameter (name = "Window Size", defaultValue = 4, minimumBound = 1, maximumBound = 20, step = 1, description = "The number of K-Grams each fingerprint is chosen from. Larger windows keep fewer fingerprints, any copy of at least window + K-Gram size - 1 tokens is always found.")
+	public int window_size;
+	/**
+	 * The minimum number of matched fingerprints in a block before it is reported.
+	 */
+	@AdjustableParameter (name = "Minimum Matches", defaultValue = 3, minimumBound = 1, maximumBound = 20, step = 1, description = "The minimum number of shared fingerprints in a block for it to be reported as a match.")
+	public int minimum_matches;
+
+	// Built by prepareFileData before any workers run, then only read, use volatile as accessed across threads
+	private volatile Map<ModelDataItem, WinnowedFile> winnowed = null;
+
+	/**
+	 * Sets meta data for the detector, along with providing the API with pointers to the Worker and the Preprocessing Strategy
+	 */
+	public WinnowingDetector() {
+		super("Winnowing Detector", "Detects copied sections of code by matching winnowed K-Gram fingerprints of the tokenised source, in the style of MOSS", WinnowingDetectorWorker.class,
+				PreProcessingStrategy.of("tokens", true, CommentRemover.class));
+	}
+
+	/**
+	 * Winnows every file once for the job, in parallel, so the workers and candidate generation share the fingerprints
+	 *
+	 * @param data the data items passed to {@link #buildWorkers(List)}
+	 */
+	@Override
+	protected void prepareFileData(List<ModelDataItem> data) {
+		this.winnowed = null;
+		if (data == null) {
+			return;
+		}
+
+		List<WinnowedFile> built = data.parallelStream().map(this::winnow).toList();
+
+		// ModelDataItem has no equals, the same instance is passed to every worker
+		Map<ModelDataItem, WinnowedFile> map = new IdentityHashMap<>(data.size());
+		for (int i = 0; i < data.size(); i++) {
+			map.put(data.get(i), built.get(i));
+		}
+		this.winnowed = map;
+	}
+
+	/**
+	 * Uses the winnowed fingerprints of the file, so only files with a fingerprint in common are compared
+	 */
+	@Override
+	protected long[] getCandidateFingerprints(ModelDataItem file) {
+		return this.getWinnowedFile(file).getHashes();
+	}
+
+	/**
+	 * A pair without any shared fingerprints can never produce a match, so candidate generation is always used
+	 */
+	@Override
+	protected int getMinimumSharedFingerprints() {
+		return Math.max(super.getMinimumSharedFingerprints(), 1);
+	}
+
+	/**
+	 * Fetches the winnowed fingerprints of a file, winnowing it if the file was not prepared
+	 *
+	 * @param file the file
+	 *
+	 * @return the winnowed file
+	 */
+	WinnowedFile getWinnowedFile(ModelDataItem file) {
+		Map<ModelDataItem, WinnowedFile> map = this.winnowed;
+		WinnowedFile result = map != null ? map.get(file) : null;
+		return result != null ? result : this.winnow(file);
+	}
+
+	private WinnowedFile winnow(ModelDataItem file) {
+		return new WinnowedFile(((LineListArtifact) file.getPreProcessedArtifact("tokens")).lines(), kgram_size, window_size);
+	}
+
+	/**
+	 * The main processing method used in the detector
+	 */
+	public class WinnowingDetectorWorker extends PairwiseDetectorWorker<NGramRawResult> {
+
+		public WinnowingDetectorWorker(IDetector parent, ModelDataItem file1Data, ModelDataItem file2Data) {
+			super(parent, file1Data, file2Data);
+		}
+
+		/**
+		 * Joins the fingerprints shared by both files into matched blocks.
+		 * <p>
+		 * File 2's fingerprints are scanned in order and looked up in file 1. A fingerprint extends the current block if it also occurs in file 1 within
+		 * {@link #MAX_GAP} positions after the block's end, otherwise it starts a new block at its first occurrence in file 1 not already part of a reported block.
+		 * Blocks with at least the minimum number of matched fingerprints are reported, with a similarity of the matched fingerprints over the longer of the two spans.
+		 * </p>
+		 */
+		@Override
+		public void execute() {
+			NGramRawResult<NGramMatch> res = new NGramRawResult<>(this.file1.getFile(), this.file2.getFile());
+			WinnowedFile fp1 = getWinnowedFile(this.file1);
+			WinnowedFile fp2 = getWinnowedFile(this.file2);
+
+			// Positions in file 1 already part of a reported block, so one section is not counted against several
+			BitSet used = new BitSet(fp1.size());
+
+			int start1 = -1, end1 = -1, start2 = -1, end2 = -1, matched = 0;
+			for (int j = 0; j < fp2.size(); j++) {
+				long hash = fp2.getHash(j);
+				int firstIndex = fp1.firstIndexOf(hash);
+				int endIndex = fp1.endIndexOf(hash, firstIndex);
+				if (firstIndex == endIndex) {
+					continue;
+				}
+
+				int next = -1;
+				if (matched > 0 && j - end2 <= MAX_GAP + 1) {
+					for (int k = firstIndex; k < endIndex; k++) {
+						int p = fp1.getSortedPosition(k);
+						if (p > end1 && p - end1 <= MAX_GAP + 1) {
+							next = p;
+							break;
+						}
+					}
+				}
+
+				if (next >= 0) {
+					end1 = next;
+					end2 = j;
+					matched++;
+					continue;
+				}
+
+				int first = -1;
+				for (int k = firstIndex; k < endIndex; k++) {
+					int p = fp1.getSortedPosition(k);
+					if (!used.get(p)) {
+						first = p;
+						break;
+					}
+				}
+				if (first < 0) {
+					continue;
+				}
+
+				this.report(res, fp1, fp2, start1, end1, start2, end2, matched, used);
+				start1 = end1 = first;
+				start2 = end2 = j;
+				matched = 1;
+			}
+			this.report(res, fp1, fp2, start1, end1, start2, end2, matched, used);
+
+			this.result = res;
+		}
+
+		private void report(NGramRawResult<NGramMatch> res, WinnowedFile fp1, WinnowedFile fp2, int start1, int end1, int start2, int end2, int matched, BitSet used) {
+			if (matched < minimum_matches) {
+				return;
+			}
+
+			float similarity = (float) matched / Math.max(end1 - start1 + 1, end2 - start2 + 1);
+			int refStart = fp1.getStartLine(start1);
+			int refEnd = fp1.getEndLine(end1);
+			int checkStart = fp2.getStartLine(start2);
+			int checkEnd = fp2.getEndLine(end2);
+
+			res.put(new NGramMatch(refStart, refEnd, checkStart, checkEnd, similarity, this.file1.getFile(), this.file2.getFile()), refStart, refEnd, checkStart, checkEnd);
+			used.set(start1, end1 + 1);
+		}
+	}
+}
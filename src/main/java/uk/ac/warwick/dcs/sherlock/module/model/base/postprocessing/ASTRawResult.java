@@ -21,10 +21,10 @@ import java.io.Serializable;
 public class ASTRawResult extends AbstractModelTaskRawResult<ASTMatch> {
 
     /**
-     * The AST trees for the two files, used for calculating node counts.
+     * The node counts of the AST trees for the two files, kept rather than the trees so they survive the result being serialised.
      */
-    private transient ASTNode<?> tree1; // Does not need to be serialised (surviving to disk)
-    private transient ASTNode<?> tree2;
+    private final int file1NodeCount;
+    private final int file2NodeCount;
 
     /**
      * Constructs a new empty result container for a file pair.
@@ -33,9 +33,21 @@ public class ASTRawResult extends AbstractModelTaskRawResult<ASTMatch> {
      * @param file2 the second source file
      */
     public ASTRawResult(ISourceFile file1, ISourceFile file2, ASTNode<?> tree1, ASTNode<?> tree2) {
+        this(file1, file2, tree1.getWeight(), tree2.getWeight());
+    }
+
+    /**
+     * Constructs a new empty result container for a file pair.
+     *
+     * @param file1          the first source file
+     * @param file2          the second source file
+     * @param file1NodeCount the number of nodes in the AST of the first file
+     * @param file2NodeCount the number of nodes in the AST of the second file
+     */
+    public ASTRawResult(ISourceFile file1, ISourceFile file2, int file1NodeCount, int file2NodeCount) {
         super(file1,file2);
-        this.tree1 = tree1;
-        this.tree2 = tree2;
+        this.file1NodeCount = file1NodeCount;
+        this.file2NodeCount = file2NodeCount;
     }
 
     /**
@@ -82,14 +94,14 @@ public class ASTRawResult extends AbstractModelTaskRawResult<ASTMatch> {
      * @return the node count of the first file's AST
      */
     public int getFile1NodeCount() {
-        return tree1.getWeight();
+        return this.file1NodeCount;
     }
 
     /**
      * @return the node count of the second file's AST
      */
     public int getFile2NodeCount() {
-        return tree2.getWeight();
+        return this.file2NodeCount;
     }
 
 
@@ -4,6 +4,7 @@ import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.ASTArtifact;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.IAdvancedPreProcessor;
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST;
 import uk.ac.warwick.dcs.sherlock.api.util.HaskellASTNode;
 import uk.ac.warwick.dcs.sherlock.module.model.base.lang.HaskellLexer;
 import uk.ac.warwick.dcs.sherlock.module.model.base.lang.HaskellParser;
@@ -32,13 +33,14 @@ public class ASTGeneratorHaskell implements IAdvancedPreProcessor<HaskellLexer>
             HaskellASTBuilder builder = new HaskellASTBuilder();
             HaskellASTNode astRoot = builder.visit(tree);
 
-            return new ASTArtifact(astRoot);
+            // Only the flat tree is kept, the object tree is garbage once it has been flattened
+            return new ASTArtifact(FlatAST.of(astRoot != null ? astRoot : new HaskellASTNode(HaskellASTNode.Kind.UNKNOWN)));
 
         }catch (ParseCancellationException e) {
             ExecutorUtils.logger.error("Error building parse tree for a submission, if a submission doesn't compile it may report plagiarism scores of 0");
         }
 
-        return new ASTArtifact(new HaskellASTNode(HaskellASTNode.Kind.UNKNOWN));
+        return new ASTArtifact(FlatAST.of(new HaskellASTNode(HaskellASTNode.Kind.UNKNOWN)));
     }
 }
 
@@ -13,6 +13,7 @@ import uk.ac.warwick.dcs.sherlock.module.model.base.lang.JavaParser;
 import uk.ac.warwick.dcs.sherlock.module.model.base.lang.JavaParserBaseListener;
 import uk.ac.warwick.dcs.sherlock.module.model.base.lang.JavaParserBaseVisitor;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.ASTArtifact;
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST;
 import uk.ac.warwick.dcs.sherlock.api.util.JavaASTNode;
 import uk.ac.warwick.dcs.sherlock.engine.executor.common.ExecutorUtils;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
@@ -39,13 +40,14 @@ public class ASTGeneratorJava implements IAdvancedPreProcessor<JavaLexer> {
 
             JavaASTNode astRoot = astBuilder.visit(tree);
 
-            return new ASTArtifact(astRoot);
+            // Only the flat tree is kept, the object tree is garbage once it has been flattened
+            return new ASTArtifact(FlatAST.of(astRoot != null ? astRoot : new JavaASTNode(JavaASTNode.Kind.UNKNOWN)));
 
         }catch (ParseCancellationException e) {
             ExecutorUtils.logger.error("Error building parse tree for a submission, if a submission doesn't compile it may report plagiarism scores of 0");
         }
 
-        return new ASTArtifact(new JavaASTNode(JavaASTNode.Kind.UNKNOWN));
+        return new ASTArtifact(FlatAST.of(new JavaASTNode(JavaASTNode.Kind.UNKNOWN)));
     }
 }
 
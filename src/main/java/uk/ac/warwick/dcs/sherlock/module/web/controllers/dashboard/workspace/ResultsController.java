@@ -74,6 +74,7 @@ public class ResultsController {
         } else {
             result.put("message", status.getMessage());
             result.put("progress", status.getProgressInt());
+            result.put("duplicatePairs", status.getShortCircuitedPairCount());
         }
 
         return result.toString();
@@ -106,6 +107,7 @@ public class ResultsController {
     ) throws InterruptedException {
         // Clear all old results before re-running
         // This ensures the job runs through preprocessing, matching, and postprocessing again
+        // The executor keeps the result of each file pair, so only pairs with a new or changed file are compared again
         results.getJob().clearResults();
         
         SherlockEngine.executor.submitJob(results.getJob());
@@ -0,0 +1,136 @@
+package uk.ac.warwick.dcs.sherlock.api.model.detection;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandidatePairsTest {
+
+    @Test
+    void invertedIndexCountsDistinctSharedFingerprints() {
+        List<long[]> fingerprints = List.of(
+                new long[] { 1, 2, 3, 3, 3 },
+                new long[] { 3, 4, 5 },
+                new long[] { 1, 2, 3 },
+                new long[] { 9 });
+
+        CandidatePairs pairs = CandidatePairs.fromInvertedIndex(fingerprints, 2, (i, j) -> true);
+        assertEquals(1, pairs.size());
+        assertTrue(pairs.contains(0, 2));
+        assertTrue(pairs.contains(2, 0));
+        assertFalse(pairs.contains(0, 1), "Repeated fingerprints only count once");
+
+        CandidatePairs comparable = CandidatePairs.fromInvertedIndex(fingerprints, 1, (i, j) -> i != 0);
+        assertEquals(Arrays.asList(false, false, true), Arrays.asList(comparable.contains(0, 1), comparable.contains(0, 2), comparable.contains(1, 2)));
+    }
+
+    @Test
+    void invertedIndexIgnoresFingerprintsInTooManyFiles() {
+        List<long[]> fingerprints = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            fingerprints.add(i < 2 ? new long[] { 7, 8 } : new long[] { 7, i + 100 });
+        }
+
+        CandidatePairs all = CandidatePairs.fromInvertedIndex(fingerprints, 1, (i, j) -> true);
+        assertEquals(100 * 99 / 2, all.size());
+        assertTrue(all.contains(98, 99));
+
+        CandidatePairs capped = CandidatePairs.fromInvertedIndex(fingerprints, 1, 10, (i, j) -> true);
+        assertEquals(1, capped.size());
+        assertTrue(capped.contains(1, 0));
+        assertFalse(capped.contains(98, 99), "Boilerplate found in every file is ignored");
+    }
+
+    @Test
+    void minHashSkipsIncomparableAndEmptyFiles() {
+        Corpus corpus = new Corpus(7, 20, 4, 0);
+        corpus.files.add(new long[0]);
+        corpus.files.add(new long[0]);
+
+        CandidatePairs all = CandidatePairs.fromMinHash(corpus.files, 64, 16, 4, 0.5f, (i, j) -> true);
+        assertEquals(corpus.planted.size(), all.size());
+        assertFalse(all.contains(corpus.files.size() - 2, corpus.files.size() - 1), "Files without fingerprints have nothing in common");
+
+        int[] first = corpus.planted.get(0);
+        CandidatePairs comparable = CandidatePairs.fromMinHash(corpus.files, 64, 16, 4, 0.5f, (i, j) -> i != first[0] && j != first[0]);
+        assertEquals(corpus.planted.size() - 1, comparable.size());
+        assertFalse(comparable.contains(first[0], first[1]));
+    }
+
+    @Test
+    void minHashFindsPlantedCopies() {
+        Corpus corpus = new Corpus(42, 200, 20, 100);
+
+        CandidatePairs pairs = CandidatePairs.fromMinHash(corpus.files, 128, 32, 4, 0.5f, (i, j) -> true);
+        for (int[] copy : corpus.planted) {
+            assertTrue(pairs.contains(copy[0], copy[1]), "Missed the copy in file " + copy[1]);
+        }
+        assertTrue(pairs.size() < corpus.planted.size() * 2, "Too many candidates: " + pairs.size());
+    }
+
+    /**
+     * Recall versus speed harness. A large cohort sharing a lot of boilerplate, where the inverted index would return every pair, has copies planted in it. Each
+     * band and row setting reports how many of the copies it finds, how many candidates it produces and how long it takes.
+     */
+    @Test
+    @Disabled("Benchmark, run by hand when tuning the MinHash defaults")
+    void minHashRecallVersusSpeed(TestReporter reporter) {
+        Corpus corpus = new Corpus(42, 2000, 40, 200);
+        long allPairs = (long) corpus.files.size() * (corpus.files.size() - 1) / 2;
+        int[][] settings = { { 128, 8, 16 }, { 128, 16, 8 }, { 128, 32, 4 }, { 256, 64, 4 }, { 64, 16, 4 } };
+
+        reporter.publishEntry("corpus", String.format("%d files, %d pairs, %d planted copies", corpus.files.size(), allPairs, corpus.planted.size()));
+        for (int[] setting : settings) {
+            long start = System.nanoTime();
+            CandidatePairs pairs = CandidatePairs.fromMinHash(corpus.files, setting[0], setting[1], setting[2], 0.5f, (i, j) -> true);
+            long time = System.nanoTime() - start;
+
+            double recall = (double) corpus.planted.stream().filter(x -> pairs.contains(x[0], x[1])).count() / corpus.planted.size();
+            reporter.publishEntry(String.format("permutations %d, bands %d x rows %d", setting[0], setting[1], setting[2]),
+                    String.format("recall %.3f, %d candidates, %d ms", recall, pairs.size(), time / 1000000));
+        }
+    }
+
+    /**
+     * Files made of shared boilerplate and their own random fingerprints. Planted copies keep 80% of the original's own fingerprints and replace the rest, giving
+     * them an expected Jaccard similarity of about 0.8, against about 0.25 between unrelated files.
+     */
+    private static class Corpus {
+
+        final List<long[]> files = new ArrayList<>();
+        final List<int[]> planted = new ArrayList<>();
+
+        Corpus(long seed, int originals, int copies, int boilerplate) {
+            Random rand = new Random(seed);
+            long[] shared = rand.longs(boilerplate).toArray();
+
+            for (int f = 0; f < originals; f++) {
+                this.files.add(concat(shared, rand.longs(300).toArray()));
+            }
+            for (int c = 0; c < copies; c++) {
+                int original = c * originals / copies;
+                long[] copy = this.files.get(original).clone();
+                for (int k = boilerplate; k < copy.length; k++) {
+                    if (rand.nextInt(5) == 0) {
+                        copy[k] = rand.nextLong();
+                    }
+                }
+                this.planted.add(new int[] { original, this.files.size() });
+                this.files.add(copy);
+            }
+        }
+
+        private static long[] concat(long[] a, long[] b) {
+            long[] result = Arrays.copyOf(a, a.length + b.length);
+            System.arraycopy(b, 0, result, a.length, b.length);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package uk.ac.warwick.dcs.sherlock.api.model.detection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilePairSpliteratorTest {
+
+    private static List<Long> nestedLoops(int files, FilePairSpliterator.PairFilter filter) {
+        List<Long> pairs = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            for (int j = i + 1; j < files; j++) {
+                if (filter == null || filter.test(i, j)) {
+                    pairs.add(((long) i << 32) | j);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    @Test
+    void enumeratesEveryPairInOrder() {
+        for (int files = 0; files < 40; files++) {
+            List<Long> pairs = FilePairSpliterator.stream(files, null, false).boxed().collect(Collectors.toList());
+            assertEquals(nestedLoops(files, null), pairs);
+            assertEquals(FilePairSpliterator.pairCount(files), pairs.size());
+        }
+    }
+
+    @Test
+    void appliesFilterWhileGenerating() {
+        FilePairSpliterator.PairFilter filter = (i, j) -> (i / 3) != (j / 3);
+        List<Long> pairs = FilePairSpliterator.stream(30, filter, false).boxed().collect(Collectors.toList());
+        assertEquals(nestedLoops(30, filter), pairs);
+
+        long pair = pairs.get(0);
+        assertEquals(0, FilePairSpliterator.first(pair));
+        assertEquals(3, FilePairSpliterator.second(pair));
+    }
+
+    @Test
+    void parallelStreamMatchesSequential() {
+        FilePairSpliterator.PairFilter filter = (i, j) -> (i + j) % 7 != 0;
+        List<Long> pairs = FilePairSpliterator.stream(500, filter, true).boxed().collect(Collectors.toList());
+        assertEquals(nestedLoops(500, filter), pairs);
+    }
+
+    @Test
+    void splitsCoverRangeWithoutOverlap() {
+        Spliterator.OfLong suffix = new FilePairSpliterator(300, null);
+        long total = suffix.estimateSize();
+
+        List<Spliterator.OfLong> parts = new ArrayList<>();
+        Spliterator.OfLong prefix;
+        while ((prefix = suffix.trySplit()) != null) {
+            parts.add(prefix);
+        }
+        parts.add(suffix);
+        assertTrue(parts.size() > 2, "Large ranges should split");
+        assertEquals(total, parts.stream().mapToLong(Spliterator::estimateSize).sum());
+
+        List<Long> pairs = parts.stream().flatMap(x -> StreamSupport.longStream(x, false).boxed()).collect(Collectors.toList());
+        assertEquals(nestedLoops(300, null), pairs);
+    }
+}
@@ -0,0 +1,84 @@
+package uk.ac.warwick.dcs.sherlock.api.model.detection;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PairwiseDetectorTest {
+
+    private static ISubmission submission() {
+        // Submissions are compared with the ISubmission overload of equals, which mocks do not answer by identity
+        ISubmission submission = mock(ISubmission.class);
+        when(submission.equals(any(ISubmission.class))).thenAnswer(x -> x.getArgument(0) == submission);
+        return submission;
+    }
+
+    private static ModelDataItem file(ISubmission submission, String path) {
+        ISourceFile file = mock(ISourceFile.class);
+        when(file.getSubmission()).thenReturn(submission);
+        when(file.getFileDisplayPath()).thenReturn(path);
+        when(file.getFileDisplayName()).thenReturn(path.substring(path.lastIndexOf('/') + 1));
+        return new ModelDataItem(file);
+    }
+
+    private static Set<String> pairNames(List<TestWorker> workers) {
+        return workers.stream().map(x -> x.file1.getFile().getFileDisplayPath() + "-" + x.file2.getFile().getFileDisplayPath()).collect(Collectors.toSet());
+    }
+
+    @Test
+    void comparesEveryCrossSubmissionPair() {
+        ISubmission s1 = submission();
+        ISubmission s2 = submission();
+        List<ModelDataItem> data = List.of(file(s1, "a/Main.java"), file(s1, "a/Util.java"), file(s2, "b/Main.java"));
+
+        PairwiseDetector<TestWorker> detector = new PairwiseDetector<>("Test", TestWorker.class);
+        assertEquals(Set.of("a/Main.java-b/Main.java", "a/Util.java-b/Main.java"), pairNames(detector.buildWorkers(data)));
+    }
+
+    @Test
+    void matchByFilenameOnlyPairsWithinBuckets() {
+        ISubmission s1 = submission();
+        ISubmission s2 = submission();
+        ISubmission s3 = submission();
+        List<ModelDataItem> data = new ArrayList<>(List.of(
+                file(s1, "a/Main.java"), file(s1, "a/Util.java"),
+                file(s2, "b/main.java"), file(s2, "b/Util.java"),
+                file(s3, "c/src/Main.kt")));
+
+        PairwiseDetector<TestWorker> detector = new PairwiseDetector<>("Test", TestWorker.class);
+        detector.matchByFilename = 1;
+        assertEquals(Set.of("a/Util.java-b/Util.java"), pairNames(detector.buildWorkers(data)));
+
+        detector.matchFilenameIgnoreCase = 1;
+        assertEquals(Set.of("a/Util.java-b/Util.java", "a/Main.java-b/main.java"), pairNames(detector.buildWorkers(data)));
+
+        detector.matchFilenameIgnoreExtension = 1;
+        assertEquals(Set.of("a/Util.java-b/Util.java", "a/Main.java-b/main.java", "a/Main.java-c/src/Main.kt", "b/main.java-c/src/Main.kt"),
+                pairNames(detector.buildWorkers(data)));
+
+        detector.matchFilenamePathDepth = 1;
+        assertEquals("src/main", detector.getFilenameMatchKey(data.get(4)));
+        assertEquals(Set.of(), pairNames(detector.buildWorkers(data)), "Parent directories differ between every submission");
+    }
+
+    static class TestWorker extends PairwiseDetectorWorker {
+
+        TestWorker(IDetector parent, ModelDataItem file1Data, ModelDataItem file2Data) {
+            super(parent, file1Data, file2Data);
+        }
+
+        @Override
+        public void execute() {
+        }
+    }
+}
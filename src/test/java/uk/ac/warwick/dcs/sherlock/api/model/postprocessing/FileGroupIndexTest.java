@@ -0,0 +1,106 @@
+package uk.ac.warwick.dcs.sherlock.api.model.postprocessing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityArchive;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityCodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityFile;
+import uk.ac.warwick.dcs.sherlock.module.model.base.utils.TestUtils;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileGroupIndexTest {
+
+    private List<ISourceFile> files;
+    private ModelTaskProcessedResults results;
+
+    @BeforeEach
+    void setUp() {
+        files = new ArrayList<>();
+        EntityArchive archive = new EntityArchive("Archive");
+        for (int i = 0; i < 100; i++) {
+            EntityFile file = new EntityFile(archive, "File" + i + ".java", "java", new Timestamp(1), 1000, 100 + i, 100 + i);
+            TestUtils.setEntityId(file, i + 1);
+            files.add(file);
+        }
+
+        Random rand = new Random(15);
+        results = new ModelTaskProcessedResults();
+        for (int g = 0; g < 500; g++) {
+            EntityCodeBlockGroup group = new EntityCodeBlockGroup();
+            int size = 2 + rand.nextInt(3);
+            for (int i = 0; i < size; i++) {
+                group.addCodeBlock(files.get(rand.nextInt(files.size())), 1, new Tuple<>(1, 5), null);
+            }
+            results.getGroups().add(group);
+        }
+    }
+
+    @Test
+    void indexedGroupsMatchFilteringEveryGroup() {
+        Map<ISourceFile, List<ICodeBlockGroup>> expected = new HashMap<>();
+        Map<ISourceFile, List<ICodeBlockGroup>> expectedPairs = new HashMap<>();
+        for (ISourceFile file : files) {
+            expected.put(file, results.getGroups(file));
+            expectedPairs.put(file, results.getGroups(file, files.get(0)));
+        }
+
+        results.indexFiles();
+        for (ISourceFile file : files) {
+            assertEquals(expected.get(file), results.getGroups(file));
+            assertEquals(expectedPairs.get(file), results.getGroups(file, files.get(0)));
+        }
+
+        // Removing a group drops the index rather than returning it
+        ICodeBlockGroup removed = expected.get(files.get(0)).get(0);
+        results.removeGroup(removed);
+        assertFalse(results.getGroups(files.get(0)).contains(removed));
+    }
+
+    @Test
+    void groupsOfSetsOfFilesKeepTheirOrder() {
+        FileGroupIndex index = new FileGroupIndex(results.getGroups());
+        Set<Long> first = Set.of(1L, 2L, 3L, 4L);
+        Set<Long> second = Set.of(50L, 60L, 70L);
+
+        List<ICodeBlockGroup> either = results.getGroups().stream()
+            .filter(g -> first.stream().anyMatch(id -> g.filePresent(files.get((int) (id - 1))))).collect(Collectors.toList());
+        List<ICodeBlockGroup> both = either.stream()
+            .filter(g -> second.stream().anyMatch(id -> g.filePresent(files.get((int) (id - 1))))).collect(Collectors.toList());
+
+        assertEquals(either, index.getGroups(first));
+        assertEquals(both, index.getGroups(first, second));
+        assertTrue(index.getGroups(12345L).isEmpty());
+        assertTrue(index.getGroups((Set<Long>) null).isEmpty());
+    }
+
+    @Test
+    void fileTotalsAreFoundById() {
+        Map<ISourceFile, Integer> totals = new HashMap<>();
+        for (int i = 0; i < files.size(); i += 2) {
+            totals.put(files.get(i), i * 3);
+        }
+        results.setFileTotals(totals);
+        results.indexFiles();
+
+        // A different instance of the same file, as returned by another query
+        EntityFile copy = new EntityFile(new EntityArchive("Other"), "File4.java", "java", new Timestamp(1), 1000, 7, 7);
+        TestUtils.setEntityId(copy, 5);
+        assertEquals(12, results.getFileTotal(copy));
+        assertEquals(12, results.getFileTotal(files.get(4)));
+        // Files without a total fall back to their line count
+        assertEquals(105, results.getFileTotal(files.get(5)));
+    }
+}
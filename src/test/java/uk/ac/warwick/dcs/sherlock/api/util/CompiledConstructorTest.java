@@ -0,0 +1,72 @@
+package uk.ac.warwick.dcs.sherlock.api.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledConstructorTest {
+
+    @Test
+    void compilesNullaryConstructor() throws Exception {
+        CompiledConstructor<Supplier> constructor = CompiledConstructor.compile(Supplier.class, Nested.class);
+        assertFalse(constructor.isInner());
+
+        Object first = constructor.get().get();
+        Object second = constructor.get().get();
+        assertTrue(first instanceof Nested);
+        assertNotSame(first, second, "Each call should construct a new instance");
+    }
+
+    @Test
+    void compilesConstructorWithParameters() throws Exception {
+        CompiledConstructor<Function> constructor = CompiledConstructor.compile(Function.class, Nested.class, String.class);
+        assertEquals("value", ((Nested) constructor.get().apply("value")).value);
+    }
+
+    @Test
+    void bindsEnclosingInstanceOfInnerClass() throws Exception {
+        CompiledConstructor<Function> constructor = CompiledConstructor.compile(Function.class, Inner.class, String.class);
+        assertTrue(constructor.isInner());
+        assertThrows(IllegalStateException.class, constructor::get);
+
+        CompiledConstructorTest enclosing = new CompiledConstructorTest();
+        Inner inner = (Inner) constructor.bind(enclosing).apply("value");
+        assertSame(enclosing, inner.enclosing());
+        assertEquals("value", inner.value);
+    }
+
+    @Test
+    void rejectsMissingConstructor() {
+        assertThrows(NoSuchMethodException.class, () -> CompiledConstructor.compile(Function.class, Nested.class, Integer.class));
+        assertThrows(NoSuchMethodException.class, () -> CompiledConstructor.compile(Object.class, Nested.class));
+    }
+
+    static class Nested {
+
+        final String value;
+
+        Nested() {
+            this(null);
+        }
+
+        Nested(String value) {
+            this.value = value;
+        }
+    }
+
+    class Inner {
+
+        final String value;
+
+        Inner(String value) {
+            this.value = value;
+        }
+
+        CompiledConstructorTest enclosing() {
+            return CompiledConstructorTest.this;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package uk.ac.warwick.dcs.sherlock.api.util;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.util.JavaASTNode.Kind;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlatASTTest {
+
+    private static JavaASTNode node(Kind kind, String value, Integer line, JavaASTNode... children) {
+        JavaASTNode node = new JavaASTNode(kind, value);
+        if (line != null) {
+            node.setMetadata("startLine", line);
+            node.setMetadata("endLine", line + children.length);
+        }
+        for (JavaASTNode child : children) {
+            node.addChild(child);
+        }
+        return node;
+    }
+
+    private static void preOrder(ASTNode<?> node, List<ASTNode<?>> result) {
+        result.add(node);
+        for (ASTNode<?> child : node.getChildren()) {
+            preOrder(child, result);
+        }
+    }
+
+    // class Main { int f() { int a = b + 1; return a; } }, the return has no lines
+    private static JavaASTNode buildTree() {
+        return node(Kind.PROGRAM, "", 1,
+                node(Kind.CLASS_DECL, "Main", 1,
+                        node(Kind.FUNCTION_DECL, "f", 2,
+                                node(Kind.BLOCK, "", 2,
+                                        node(Kind.VARIABLE_DECL, "a", 3,
+                                                node(Kind.BINARY_EXPR, "+", 3, node(Kind.IDENTIFIER, "b", 3), node(Kind.NUMBER_LITERAL, "1", 3))),
+                                        node(Kind.RETURN, "", null, node(Kind.IDENTIFIER, "a", 4))))));
+    }
+
+    @Test
+    void holdsTheFieldsOfEveryNodeInPreOrder() {
+        JavaASTNode root = buildTree();
+        root.computeWeight();
+        root.computeHeight();
+        FlatAST tree = FlatAST.of(root);
+
+        List<ASTNode<?>> nodes = new ArrayList<>();
+        preOrder(root, nodes);
+        assertEquals(nodes.size(), tree.size());
+        assertEquals(0, tree.getRoot());
+
+        for (int id = 0; id < tree.size(); id++) {
+            ASTNode<?> node = nodes.get(id);
+            assertEquals(node.getKind(), tree.getKind(id));
+            assertEquals(node.getWeight(), tree.getWeight(id));
+            assertEquals(node.getHeight(), tree.getHeight(id));
+            assertEquals(node.getValue(), tree.getValue(id));
+            assertEquals(node.getChildren().isEmpty(), tree.isLeaf(id));
+            assertEquals(node.getParent() == null ? FlatAST.NONE : nodes.indexOf(node.getParent()), tree.getParent(id));
+
+            // Children are linked from the first child through the next siblings
+            List<Integer> children = new ArrayList<>();
+            for (int child = tree.getFirstChild(id); child != FlatAST.NONE; child = tree.getNextSibling(child)) {
+                children.add(child);
+            }
+            assertEquals(node.getChildren().stream().map(nodes::indexOf).toList(), children);
+
+            // The descendants of a node follow it
+            for (ASTNode<?> descendant : node.getDescendants()) {
+                assertTrue(tree.isDescendant(nodes.indexOf(descendant), id));
+            }
+            assertFalse(tree.isDescendant(id + node.getWeight(), id));
+        }
+    }
+
+    @Test
+    void fingerprintsAreEqualExactlyWhenTheObjectTreeFingerprintsAre() {
+        // The same statement, renamed, and changed, then the same method twice
+        JavaASTNode root = node(Kind.BLOCK, "", 1,
+                node(Kind.VARIABLE_DECL, "a", 1, node(Kind.BINARY_EXPR, "+", 1, node(Kind.IDENTIFIER, "b", 1), node(Kind.NUMBER_LITERAL, "1", 1))),
+                node(Kind.VARIABLE_DECL, "x", 2, node(Kind.BINARY_EXPR, "+", 2, node(Kind.IDENTIFIER, "y", 2), node(Kind.NUMBER_LITERAL, "2", 2))),
+                node(Kind.VARIABLE_DECL, "a", 3, node(Kind.BINARY_EXPR, "-", 3, node(Kind.IDENTIFIER, "b", 3), node(Kind.NUMBER_LITERAL, "1", 3))),
+                node(Kind.VARIABLE_DECL, "a", 4, node(Kind.BINARY_EXPR, "+", 4, node(Kind.NUMBER_LITERAL, "1", 4), node(Kind.IDENTIFIER, "b", 4))),
+                buildTree(),
+                buildTree());
+        FlatAST tree = FlatAST.of(root);
+
+        List<ASTNode<?>> nodes = new ArrayList<>();
+        preOrder(root, nodes);
+        for (boolean useAbstraction : new boolean[] {false, true}) {
+            for (int i = 0; i < tree.size(); i++) {
+                for (int j = 0; j < tree.size(); j++) {
+                    boolean same = nodes.get(i).computeFingerprint(useAbstraction).equals(nodes.get(j).computeFingerprint(useAbstraction));
+                    assertEquals(same, tree.sameFingerprint(i, tree, j, useAbstraction));
+                    assertEquals(same, tree.getFingerprint(i, useAbstraction).equals(tree.getFingerprint(j, useAbstraction)));
+                    assertEquals(same, tree.isIsomorphic(i, tree, j, useAbstraction));
+                }
+            }
+        }
+    }
+
+    @Test
+    void comparesSubtreesOfDifferentTrees() {
+        FlatAST tree = FlatAST.of(buildTree());
+        FlatAST copy = FlatAST.of(buildTree());
+        FlatAST renamed = FlatAST.of(node(Kind.VARIABLE_DECL, "c", 7,
+                node(Kind.BINARY_EXPR, "+", 7, node(Kind.IDENTIFIER, "d", 7), node(Kind.NUMBER_LITERAL, "1", 7))));
+        FlatAST reordered = FlatAST.of(node(Kind.VARIABLE_DECL, "a", 7,
+                node(Kind.BINARY_EXPR, "+", 7, node(Kind.NUMBER_LITERAL, "1", 7), node(Kind.IDENTIFIER, "b", 7))));
+
+        assertTrue(tree.isIsomorphic(0, copy, 0, false));
+        assertTrue(tree.sameFingerprint(0, copy, 0, false));
+
+        // The variable declaration, which only differs from the renamed one by its names
+        assertTrue(tree.isIsomorphic(4, renamed, 0, true));
+        assertTrue(tree.sameFingerprint(4, renamed, 0, true));
+        assertFalse(tree.isIsomorphic(4, renamed, 0, false));
+        assertFalse(tree.sameFingerprint(4, renamed, 0, false));
+
+        assertFalse(tree.isIsomorphic(4, reordered, 0, true));
+        assertFalse(tree.sameFingerprint(4, reordered, 0, true));
+        assertFalse(tree.isIsomorphic(0, renamed, 0, true), "Subtrees of different sizes");
+    }
+
+    @Test
+    void keepsLinesAndMarksMissingOnes() {
+        FlatAST tree = FlatAST.of(buildTree());
+
+        // The block, then the variable declaration
+        assertEquals(2, tree.getStartLine(3));
+        assertEquals(4, tree.getEndLine(3));
+        assertEquals(3, tree.getStartLine(4));
+
+        int ret = tree.getNextSibling(4);
+        assertEquals(Kind.RETURN, tree.getKind(ret));
+        assertEquals(FlatAST.NO_LINE, tree.getStartLine(ret));
+        assertEquals(FlatAST.NO_LINE, tree.getEndLine(ret));
+        assertEquals(4, tree.getStartLine(tree.getFirstChild(ret)));
+    }
+
+    @Test
+    void flattensASingleNode() {
+        FlatAST tree = FlatAST.of(new HaskellASTNode(HaskellASTNode.Kind.UNKNOWN));
+
+        assertEquals(1, tree.size());
+        assertEquals(HaskellASTNode.Kind.UNKNOWN, tree.getKind(0));
+        assertTrue(tree.isLeaf(0));
+        assertEquals(FlatAST.NONE, tree.getParent(0));
+        assertEquals(FlatAST.NONE, tree.getNextSibling(0));
+        assertEquals(1, tree.getWeight(0));
+    }
+}
@@ -0,0 +1,218 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.common;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.executor.JobSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgingQueueTest {
+
+    private static final long AGING = 300;
+
+    @Test
+    void priorityForJob() {
+        assertAll(() -> assertEquals(Priority.HIGH, Priority.forJob(5, JobSource.INTERACTIVE, 200)),
+                () -> assertEquals(Priority.MEDIUM, Priority.forJob(2000, JobSource.INTERACTIVE, 200)),
+                () -> assertEquals(Priority.LOW, Priority.forJob(5, JobSource.BATCH, 200)),
+                () -> assertEquals(Priority.DEFAULT, Priority.forJob(2000, JobSource.BATCH, 200)));
+    }
+
+    @Test
+    void waitingItemsAgeAndKeepTheirRank() {
+        long[] now = { 0 };
+        AgingQueue<String> queue = new AgingQueue<>(4, AGING, () -> now[0]);
+
+        long batchRank = queue.add("batch", Priority.DEFAULT);
+        now[0] = 100;
+        queue.add("interactive", Priority.HIGH);
+        assertEquals(List.of("interactive", "batch"), queue.getItems());
+        assertTrue(queue.hasWaitingBefore(batchRank));
+
+        // Taken out and added back, as a paused job is, the batch item keeps the time it waited but not the time it ran for
+        assertEquals("interactive", queue.poll());
+        assertEquals("batch", queue.poll());
+        now[0] = 150;
+        queue.add("later", Priority.HIGH);
+        now[0] = 160;
+        long pausedRank = queue.runningRank(batchRank, 100);
+        assertEquals(batchRank + 60, pausedRank);
+        assertTrue(queue.hasWaitingBefore(pausedRank));
+        queue.add("batch", pausedRank);
+        assertEquals(List.of("later", "batch"), queue.getItems());
+        assertEquals("later", queue.poll());
+        assertEquals("batch", queue.poll());
+        now[0] = 200;
+        queue.add("later", Priority.HIGH);
+
+        // Equal ranks are taken in order of arrival
+        queue.add("a", Priority.LOW);
+        queue.add("b", Priority.LOW);
+        assertTrue(queue.remove("later"));
+        assertFalse(queue.remove("later"));
+        assertEquals(List.of("a", "b"), queue.getItems());
+    }
+
+    @Test
+    void agingBoundsTheWaitOfLowPriorityJobs() {
+        // One slot saturated by interactive jobs for two hours, a batch job arriving among them must still start within three aging intervals
+        List<SimJob> jobs = new ArrayList<>();
+        for (long t = 0; t < 7200; t += 10) {
+            jobs.add(new SimJob("small", Priority.HIGH, t, 10));
+        }
+        SimJob batch = new SimJob("batch", Priority.DEFAULT, 5, 100);
+        jobs.add(batch);
+
+        simulate(jobs, 1, AGING, true);
+        assertTrue(batch.started <= batch.submitted + 3 * AGING + 2 * 10, "Batch job started at " + batch.started);
+        jobs.forEach(j -> assertTrue(j.finished > 0, j.name + " never finished"));
+
+        // Without aging the same job waits for the stream to end
+        List<SimJob> copy = jobs.stream().map(SimJob::copy).toList();
+        simulate(copy, 1, 1000000, true);
+        assertTrue(copy.get(copy.size() - 1).started >= 7200);
+    }
+
+    @Test
+    void mixedJobSizesWaitingBounds() {
+        Random rand = new Random(12);
+        long maxPhase = 0;
+
+        // Four hours of a busy two slot executor: frequent small web reruns, some medium interactive jobs and hourly batches of three large jobs
+        List<SimJob> jobs = new ArrayList<>();
+        for (long t = 0; t < 4 * 3600; ) {
+            t += 1 + rand.nextInt(120);
+            jobs.add(new SimJob("small", Priority.forJob(5, JobSource.INTERACTIVE, 200), t, 2 + rand.nextInt(3), 1, 5 + rand.nextInt(10), 1));
+        }
+        for (long t = 0; t < 4 * 3600; t += 600 + rand.nextInt(600)) {
+            jobs.add(new SimJob("medium", Priority.forJob(100, JobSource.INTERACTIVE, 200), t, 10, 20, 60 + rand.nextInt(60), 10));
+        }
+        for (long t = 0; t < 4 * 3600; t += 3600) {
+            for (int b = 0; b < 3; b++) {
+                jobs.add(new SimJob("large", Priority.forJob(2000, JobSource.BATCH, 200), t, 60, 300, 900 + rand.nextInt(300), 60));
+            }
+        }
+        for (SimJob j : jobs) {
+            for (long p : j.phases) {
+                maxPhase = Math.max(maxPhase, p);
+            }
+        }
+
+        List<SimJob> fifo = jobs.stream().map(j -> j.copy(Priority.DEFAULT)).toList();
+        simulate(jobs, 2, AGING, true);
+        simulate(fifo, 2, AGING, false);
+
+        for (SimJob j : jobs) {
+            assertTrue(j.finished > 0, j.name + " job submitted at " + j.submitted + " never finished");
+            long bound = switch (j.priority) {
+                // Small interactive jobs take the first slot to reach the end of a phase
+                case HIGH -> maxPhase;
+                // Only held back further by small interactive jobs arriving within an aging interval of them
+                case MEDIUM -> maxPhase + AGING;
+                // Batch jobs can only be held back by jobs ranked ahead of them, everything arriving within three aging intervals
+                default -> 3 * AGING + 2 * maxPhase;
+            };
+            assertTrue(j.waited <= bound, j.name + " job submitted at " + j.submitted + " waited " + j.waited + ", more than " + bound);
+        }
+
+        double small = averageWait(jobs, "small");
+        double smallFifo = averageWait(fifo, "small");
+        assertTrue(small * 2 < smallFifo, "Small jobs waited " + small + " on average, " + smallFifo + " in arrival order");
+    }
+
+    private static double averageWait(List<SimJob> jobs, String name) {
+        return jobs.stream().filter(j -> j.name.equals(name)).mapToLong(j -> j.waited).average().orElse(0);
+    }
+
+    /**
+     * Discrete event simulation of the executor's job slots, using an {@link AgingQueue} on a virtual clock. Jobs run one phase at a time and, as in
+     * {@link uk.ac.warwick.dcs.sherlock.engine.executor.BaseExecutor#preemptionPoint}, give up their slot between phases if every slot is taken and a job
+     * ranked ahead of them is waiting.
+     */
+    private static void simulate(List<SimJob> jobs, int slots, long aging, boolean preemption) {
+        long[] now = { 0 };
+        AgingQueue<SimJob> queue = new AgingQueue<>(jobs.size(), aging, () -> now[0]);
+        List<SimJob> arrivals = new ArrayList<>(jobs);
+        arrivals.sort(Comparator.comparingLong(j -> j.submitted));
+        List<SimJob> running = new ArrayList<>();
+        int next = 0;
+
+        while (next < arrivals.size() || !running.isEmpty() || queue.size() > 0) {
+            long nextArrival = next < arrivals.size() ? arrivals.get(next).submitted : Long.MAX_VALUE;
+            long nextEnd = running.stream().mapToLong(j -> j.phaseEnd).min().orElse(Long.MAX_VALUE);
+            now[0] = Math.min(nextArrival, nextEnd);
+
+            while (next < arrivals.size() && arrivals.get(next).submitted == now[0]) {
+                SimJob j = arrivals.get(next++);
+                j.queuedAt = now[0];
+                j.rank = queue.add(j, j.priority);
+            }
+
+            for (SimJob j : new ArrayList<>(running)) {
+                if (j.phaseEnd != now[0]) {
+                    continue;
+                }
+                if (++j.phase == j.phases.length) {
+                    j.finished = now[0];
+                    running.remove(j);
+                }
+                else if (preemption && running.size() == slots && queue.hasWaitingBefore(queue.runningRank(j.rank, j.takenAt))) {
+                    running.remove(j);
+                    j.queuedAt = now[0];
+                    j.rank = queue.runningRank(j.rank, j.takenAt);
+                    queue.add(j, j.rank);
+                }
+                else {
+                    j.phaseEnd = now[0] + j.phases[j.phase];
+                }
+            }
+
+            while (running.size() < slots && queue.size() > 0) {
+                SimJob j = queue.poll();
+                j.waited += now[0] - j.queuedAt;
+                j.takenAt = now[0];
+                if (j.started < 0) {
+                    j.started = now[0];
+                }
+                j.phaseEnd = now[0] + j.phases[j.phase];
+                running.add(j);
+            }
+        }
+    }
+
+    private static class SimJob {
+
+        final String name;
+        final Priority priority;
+        final long submitted;
+        final long[] phases;
+
+        long rank;
+        long takenAt;
+        int phase = 0;
+        long phaseEnd;
+        long queuedAt;
+        long waited = 0;
+        long started = -1;
+        long finished = -1;
+
+        SimJob(String name, Priority priority, long submitted, long... phases) {
+            this.name = name;
+            this.priority = priority;
+            this.submitted = submitted;
+            this.phases = phases;
+        }
+
+        SimJob copy() {
+            return this.copy(this.priority);
+        }
+
+        SimJob copy(Priority priority) {
+            return new SimJob(this.name, priority, this.submitted, this.phases);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.common;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.ModelTaskProcessedResults;
+import uk.ac.warwick.dcs.sherlock.api.util.ITuple;
+import uk.ac.warwick.dcs.sherlock.api.util.SherlockHelper;
+import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityArchive;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityCodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityFile;
+import uk.ac.warwick.dcs.sherlock.module.model.base.utils.TestUtils;
+
+import java.lang.reflect.Field;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+class DuplicateFilesTest {
+
+    private static long nextId = 1;
+
+    private static ISourceFile file(ISubmission submission, String... lines) {
+        ISourceFile file = mock(ISourceFile.class);
+        when(file.getPersistentId()).thenReturn(nextId++);
+        when(file.getSubmission()).thenReturn(submission);
+        when(file.getFileContentsAsStringList()).thenReturn(List.of(lines));
+        when(file.getTotalLineCount()).thenReturn(lines.length);
+        return file;
+    }
+
+    private static EntityFile entityFile(EntityArchive submission, long id, String... lines) {
+        EntityFile file = new EntityFile(submission, "File" + id, "java", new Timestamp(1), 0, lines.length, lines.length);
+        TestUtils.setEntityId(file, id);
+        file = spy(file);
+        doReturn(List.of(lines)).when(file).getFileContentsAsStringList();
+        return file;
+    }
+
+    /**
+     * Sets the code block group implementation, as the engine does on startup
+     *
+     * @return the implementation set before
+     */
+    private static Class<?> setCodeBlockGroupClass(Class<?> type) throws ReflectiveOperationException {
+        Field field = SherlockHelper.class.getDeclaredField("codeBlockGroupClass");
+        field.setAccessible(true);
+        Class<?> previous = (Class<?>) field.get(null);
+        field.set(null, type);
+
+        Field constructor = SherlockHelper.class.getDeclaredField("codeBlockGroupConstructor");
+        constructor.setAccessible(true);
+        constructor.set(null, null);
+        return previous;
+    }
+
+    @Test
+    void hashIgnoresWhitespaceWithinLines() {
+        ISubmission s = mock(ISubmission.class);
+        String hash = DuplicateFiles.hash(file(s, "int a = 1;", "return a;"));
+        assertEquals(hash, DuplicateFiles.hash(file(s, "  int  a =\t1;  ", "return a;", "", "")));
+        assertNotEquals(hash, DuplicateFiles.hash(file(s, "int a = 1; return a;")), "Lines are kept so line numbers match");
+        assertNotEquals(hash, DuplicateFiles.hash(file(s, "int a = 2;", "return a;")));
+    }
+
+    @Test
+    void detectsOneFileOfEachDuplicateSet() {
+        ISubmission s1 = mock(ISubmission.class);
+        ISubmission s2 = mock(ISubmission.class);
+        ISubmission s3 = mock(ISubmission.class);
+        ISourceFile a1 = file(s1, "class A {}");
+        ISourceFile b1 = file(s1, "class B {}");
+        ISourceFile a2 = file(s2, "class  A {}");
+        ISourceFile c2 = file(s2, "class C {}");
+        ISourceFile a3 = file(s3, "class A {}");
+
+        DuplicateFiles duplicates = DuplicateFiles.find(List.of(a1, b1, a2, c2, a3), Set.of());
+        assertEquals(List.of(b1, c2, a3), duplicates.getDetectedFiles(), "The copy from the smallest submission is detected");
+        assertFalse(duplicates.isEmpty());
+
+        // 8 comparable pairs in total, 3 left between the detected files
+        assertEquals(5, duplicates.getShortCircuitedPairCount());
+    }
+
+    @Test
+    void detectsCopiesWhenTheOriginalIsNotComparedWithEveryFile() {
+        ISubmission s1 = mock(ISubmission.class);
+        ISubmission s2 = mock(ISubmission.class);
+        ISourceFile a1 = file(s1, "class A {}");
+        ISourceFile x1 = file(s1, "class X {}");
+        ISourceFile a2 = file(s2, "class A {}");
+        ISourceFile z2 = file(s2, "class Z {}");
+
+        // The original a1 is never compared with x1, so a2 has to be compared with x1 itself
+        DuplicateFiles duplicates = DuplicateFiles.find(List.of(a1, x1, a2, z2), Set.of());
+        assertEquals(List.of(a1, x1, a2, z2), duplicates.getDetectedFiles());
+        assertEquals(0, duplicates.getShortCircuitedPairCount());
+        assertFalse(duplicates.isEmpty(), "The identical files are still grouped");
+    }
+
+    @Test
+    void copiedResultsCoverEveryComparablePair() throws ReflectiveOperationException {
+        Class<?> previous = setCodeBlockGroupClass(EntityCodeBlockGroup.class);
+        try {
+            Random rand = new Random(3);
+            for (int trial = 0; trial < 100; trial++) {
+                // Submissions of one to three files, each with one of a few contents so many files are identical
+                List<ISourceFile> files = new ArrayList<>();
+                int submissions = 2 + rand.nextInt(4);
+                for (int s = 0; s < submissions; s++) {
+                    EntityArchive submission = new EntityArchive("Submission" + s);
+                    TestUtils.setEntityId(submission, s + 1);
+                    for (int f = rand.nextInt(3); f >= 0; f--) {
+                        files.add(entityFile(submission, files.size() + 1, "class C" + rand.nextInt(4) + " {}"));
+                    }
+                }
+
+                DuplicateFiles duplicates = DuplicateFiles.find(files, Set.of());
+
+                // Stand in for the detectors, matching every pair of detected files from different submissions
+                ModelTaskProcessedResults results = new ModelTaskProcessedResults();
+                List<ISourceFile> detected = duplicates.getDetectedFiles();
+                long detectedPairs = 0;
+                for (int i = 0; i < detected.size(); i++) {
+                    for (int j = i + 1; j < detected.size(); j++) {
+                        if (detected.get(i).getSubmission() != detected.get(j).getSubmission()) {
+                            ICodeBlockGroup group = results.addGroup();
+                            group.addCodeBlock(detected.get(i), 1, new Tuple<>(1, 1), null);
+                            group.addCodeBlock(detected.get(j), 1, new Tuple<>(1, 1), null);
+                            detectedPairs++;
+                        }
+                    }
+                }
+                duplicates.copyResults(results, Map.of());
+
+                long comparablePairs = 0;
+                for (int i = 0; i < files.size(); i++) {
+                    for (int j = i + 1; j < files.size(); j++) {
+                        if (files.get(i).getSubmission() != files.get(j).getSubmission()) {
+                            assertFalse(results.getGroups(files.get(i), files.get(j)).isEmpty(), "Trial " + trial + " lost the pair of files " + (i + 1) + " and " + (j + 1));
+                            comparablePairs++;
+                        }
+                    }
+                }
+                assertEquals(comparablePairs - detectedPairs, duplicates.getShortCircuitedPairCount());
+            }
+        }
+        finally {
+            setCodeBlockGroupClass(previous);
+        }
+    }
+
+    @Test
+    void skipsFilesIdenticalToSkeletonCode() {
+        ISubmission skeleton = mock(ISubmission.class);
+        ISubmission s1 = mock(ISubmission.class);
+        ISubmission s2 = mock(ISubmission.class);
+        ISourceFile template = file(skeleton, "class Main {}");
+        ISourceFile untouched1 = file(s1, "class Main {}");
+        ISourceFile untouched2 = file(s2, "class Main {}");
+        ISourceFile edited = file(s2, "class Main { int x; }");
+
+        DuplicateFiles duplicates = DuplicateFiles.find(List.of(template, untouched1, untouched2, edited), Set.of(template.getPersistentId()));
+        assertEquals(List.of(template, edited), duplicates.getDetectedFiles());
+        assertTrue(duplicates.isEmpty(), "Copies of skeleton code have no results to copy");
+        assertEquals(2, duplicates.getShortCircuitedPairCount());
+    }
+
+    @Test
+    void removesSkeletonLinesFromWholeFile() {
+        List<ITuple<Integer, Integer>> remove = List.of(new Tuple<>(8, 9), new Tuple<>(1, 2), new Tuple<>(-1, -1), new Tuple<>(5, 6), new Tuple<>(6, 7));
+        assertEquals(List.of(new Tuple<>(3, 4), new Tuple<>(10, 12)), DuplicateFiles.removeLines(12, remove));
+        assertEquals(List.of(), DuplicateFiles.removeLines(4, List.of(new Tuple<>(1, 10))));
+        assertEquals(List.of(new Tuple<>(1, 3)), DuplicateFiles.removeLines(3, List.of()));
+    }
+}
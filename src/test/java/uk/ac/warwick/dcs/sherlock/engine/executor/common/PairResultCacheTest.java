@@ -0,0 +1,240 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.common;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.component.ISubmission;
+import uk.ac.warwick.dcs.sherlock.api.component.ITask;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.DetectorWorker;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.IDetector;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.ModelDataItem;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.PairwiseDetector;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.PairwiseDetectorWorker;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.AbstractModelTaskRawResult;
+import uk.ac.warwick.dcs.sherlock.api.util.PairedTuple;
+import uk.ac.warwick.dcs.sherlock.module.model.base.detection.AbstractMatch;
+import uk.ac.warwick.dcs.sherlock.module.model.base.postprocessing.NGramRawResult;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PairResultCacheTest {
+
+    private long nextId = 1;
+
+    private static ISubmission submission() {
+        // Submissions are compared with the ISubmission overload of equals, which mocks do not answer by identity
+        ISubmission submission = mock(ISubmission.class);
+        when(submission.equals(any(ISubmission.class))).thenAnswer(x -> x.getArgument(0) == submission);
+        return submission;
+    }
+
+    private ISourceFile file(ISubmission submission, String... lines) {
+        ISourceFile file = mock(ISourceFile.class);
+        long id = nextId++;
+        when(file.getPersistentId()).thenReturn(id);
+        when(file.getSubmission()).thenReturn(submission);
+        when(file.getFileDisplayName()).thenReturn("File" + id + ".java");
+        when(file.getFileContentsAsStringList()).thenReturn(List.of(lines));
+        when(file.getContentHash()).thenReturn(String.join("\n", lines));
+        return file;
+    }
+
+    private static ITask task(Map<String, Float> parameters) {
+        ITask task = mock(ITask.class);
+        when(task.getPersistentId()).thenReturn(1L);
+        doReturn(TestDetector.class).when(task).getDetector();
+        when(task.getParameterMapping()).thenReturn(parameters);
+        return task;
+    }
+
+    /**
+     * Runs the detector over the files as the executor does, using and then storing the kept results if there is a cache
+     */
+    private static List<AbstractModelTaskRawResult> run(TestDetector detector, PairResultCache cache, ITask task, List<ISourceFile> files) {
+        List<DetectorWorker> workers = new ArrayList<>(detector.buildWorkers(files.stream().map(ModelDataItem::new).collect(Collectors.toList())));
+
+        PairResultCache.TaskResults stored = cache != null ? cache.getTaskResults(task, "Java") : null;
+        if (stored != null) {
+            workers = stored.useStoredResults(detector, workers);
+        }
+        workers.forEach(DetectorWorker::execute);
+        List<AbstractModelTaskRawResult> results = workers.stream().map(DetectorWorker::getRawResult).filter(Objects::nonNull).filter(x -> !x.isEmpty())
+                .collect(Collectors.toList());
+        if (stored != null) {
+            stored.store(workers);
+        }
+
+        // Matches must refer to the files of the run, not copies of them
+        Map<Long, ISourceFile> byId = files.stream().collect(Collectors.toMap(ISourceFile::getPersistentId, x -> x));
+        for (AbstractModelTaskRawResult<TestMatch> result : (List<AbstractModelTaskRawResult<TestMatch>>) (List) results) {
+            for (TestMatch match : result.getObjects()) {
+                assertSame(byId.get(result.getFile1Id()), match.files[0]);
+                assertSame(byId.get(result.getFile2Id()), match.files[1]);
+            }
+        }
+
+        return results;
+    }
+
+    private static List<String> describe(List<AbstractModelTaskRawResult> results) {
+        return results.stream().map(x -> x.getFile1Id() + "-" + x.getFile2Id() + " " + x.getLocations()).collect(Collectors.toList());
+    }
+
+    private static List<String> fullRun(List<ISourceFile> files) {
+        return describe(run(new TestDetector(), null, task(new HashMap<>()), files));
+    }
+
+    @Test
+    void rerunsOnlyCompareNewPairsAndMatchAFullRun() {
+        ISubmission s1 = submission();
+        ISubmission s2 = submission();
+        ISubmission s3 = submission();
+        ISubmission late = submission();
+        List<ISourceFile> files = new ArrayList<>(List.of(
+                file(s1, "int a = 1;", "return a;"), file(s1, "class B {}"),
+                file(s2, "int a = 1;", "int b = 2;"), file(s2, "class B {}", "return a;"),
+                file(s3, "nothing in common")));
+
+        PairResultCache cache = new PairResultCache(1024 * 1024);
+        ITask task = task(new HashMap<>());
+        TestDetector detector = new TestDetector();
+
+        List<String> first = describe(run(detector, cache, task, files));
+        assertEquals(fullRun(files), first);
+        assertEquals(8, detector.executed.get());
+        assertEquals(8, cache.getTaskResults(task, "Java").getPairCount(), "Pairs without matches are kept");
+
+        // Late submission, only its pairs are compared
+        files.add(file(late, "return a;", "class B {}"));
+        detector.executed.set(0);
+        assertEquals(fullRun(files), describe(run(detector, cache, task, files)));
+        assertEquals(5, detector.executed.get());
+
+        // Removed submission, nothing is compared and its pairs are dropped
+        files.removeIf(x -> x.getSubmission() == s2);
+        detector.executed.set(0);
+        assertEquals(fullRun(files), describe(run(detector, cache, task, files)));
+        assertEquals(0, detector.executed.get());
+        assertEquals(5, cache.getTaskResults(task, "Java").getPairCount());
+    }
+
+    @Test
+    void changedFilesAndParametersAreComparedAgain() {
+        ISubmission s1 = submission();
+        ISubmission s2 = submission();
+        ISourceFile a = file(s1, "int a = 1;");
+        ISourceFile b = file(s2, "int a = 1;");
+
+        PairResultCache cache = new PairResultCache(1024 * 1024);
+        Map<String, Float> parameters = new HashMap<>();
+        ITask task = task(parameters);
+        TestDetector detector = new TestDetector();
+        run(detector, cache, task, List.of(a, b));
+
+        // Same id, different content
+        when(b.getFileContentsAsStringList()).thenReturn(List.of("int a = 2;"));
+        when(b.getContentHash()).thenReturn("int a = 2;");
+        assertEquals(List.of(), describe(run(detector, cache, task, List.of(a, b))));
+        assertEquals(2, detector.executed.get());
+
+        run(detector, cache, task, List.of(a, b));
+        assertEquals(2, detector.executed.get());
+
+        parameters.put("threshold", 2f);
+        run(detector, cache, task, List.of(a, b));
+        assertEquals(3, detector.executed.get(), "Results are dropped when the parameters change");
+
+        run(detector, cache, task, List.of(a, b));
+        assertEquals(3, detector.executed.get());
+    }
+
+    @Test
+    void eachRunReadsItsOwnCopy() {
+        ISubmission s1 = submission();
+        ISubmission s2 = submission();
+        List<ISourceFile> files = List.of(file(s1, "int a = 1;", "return a;"), file(s2, "int a = 1;", "return a;"));
+
+        PairResultCache cache = new PairResultCache(1024 * 1024);
+        ITask task = task(new HashMap<>());
+        TestDetector detector = new TestDetector();
+
+        // Skeleton code removal changes the raw results of a run
+        List<AbstractModelTaskRawResult> first = run(detector, cache, task, files);
+        first.get(0).removeLines(List.of(new PairedTuple<>(1, 1, 1, 1)));
+
+        assertEquals(fullRun(files), describe(run(detector, cache, task, files)));
+        assertEquals(1, detector.executed.get());
+    }
+
+    @Test
+    void leastRecentlyUsedTasksAreDroppedOverTheLimit() {
+        ISubmission s1 = submission();
+        ISubmission s2 = submission();
+        List<ISourceFile> files = List.of(file(s1, "int a = 1;"), file(s2, "int a = 1;"));
+
+        PairResultCache cache = new PairResultCache(1);
+        ITask task = task(new HashMap<>());
+        TestDetector detector = new TestDetector();
+        run(detector, cache, task, files);
+        cache.trim();
+        assertEquals(0, cache.getSize());
+
+        run(detector, cache, task, files);
+        assertEquals(2, detector.executed.get());
+
+        assertNull(new PairResultCache(0).getTaskResults(task, "Java"), "A cache without space keeps nothing");
+    }
+
+    public static class TestMatch extends AbstractMatch<TestMatch> {
+
+        TestMatch(int file1Line, int file2Line, ISourceFile file1, ISourceFile file2) {
+            super(file1Line, file1Line, file2Line, file2Line, 1, file1, file2);
+        }
+
+        @Override
+        public TestMatch copy() {
+            return new TestMatch(this.lines.get(0).getKey(), this.lines.get(1).getKey(), this.files[0], this.files[1]);
+        }
+    }
+
+    public static class TestDetector extends PairwiseDetector<TestWorker> {
+
+        final AtomicInteger executed = new AtomicInteger();
+
+        public TestDetector() {
+            super("Test", TestWorker.class);
+        }
+    }
+
+    /**
+     * Matches every line of file 1 which is also in file 2
+     */
+    static class TestWorker extends PairwiseDetectorWorker<NGramRawResult<TestMatch>> {
+
+        TestWorker(IDetector parent, ModelDataItem file1Data, ModelDataItem file2Data) {
+            super(parent, file1Data, file2Data);
+        }
+
+        @Override
+        public void execute() {
+            ((TestDetector) this.parent).executed.incrementAndGet();
+
+            ISourceFile f1 = this.file1.getFile();
+            ISourceFile f2 = this.file2.getFile();
+            List<String> lines1 = f1.getFileContentsAsStringList();
+            List<String> lines2 = f2.getFileContentsAsStringList();
+
+            this.result = new NGramRawResult<>(f1, f2);
+            for (int i = 0; i < lines1.size(); i++) {
+                int j = lines2.indexOf(lines1.get(i));
+                if (j >= 0) {
+                    this.result.put(new TestMatch(i + 1, j + 1, f1, f2), i + 1, j + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package uk.ac.warwick.dcs.sherlock.engine.executor.work;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.component.ICodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.api.component.ISourceFile;
+import uk.ac.warwick.dcs.sherlock.api.model.postprocessing.ModelTaskProcessedResults;
+import uk.ac.warwick.dcs.sherlock.api.util.Tuple;
+import uk.ac.warwick.dcs.sherlock.engine.executor.JobStatus;
+import uk.ac.warwick.dcs.sherlock.engine.executor.common.Priority;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityArchive;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityCodeBlockGroup;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityFile;
+import uk.ac.warwick.dcs.sherlock.module.model.base.utils.TestUtils;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkScoreFilesTest {
+
+    @Test
+    void scoresAreBitIdenticalAtAnyParallelism() {
+        List<ISourceFile> files = new ArrayList<>();
+        EntityArchive archive = new EntityArchive("Archive");
+        for (int i = 0; i < 80; i++) {
+            EntityFile file = new EntityFile(archive, "File" + i + ".java", "java", new Timestamp(1), 1000, 200, 200);
+            TestUtils.setEntityId(file, i + 1);
+            files.add(file);
+        }
+
+        Random rand = new Random(14);
+        List<ModelTaskProcessedResults> results = List.of(lineResults(files, rand), astResults(files, rand), lineResults(files, rand));
+
+        WorkScoreFiles single = score(files, results, 1);
+        WorkScoreFiles parallel = score(files, results, 16);
+
+        boolean scored = false;
+        for (int f = 0; f < files.size(); f++) {
+            WorkScoreFiles.FileScores expected = single.getScores(f);
+            WorkScoreFiles.FileScores actual = parallel.getScores(f);
+            assertSameScores(expected.scores(), actual.scores());
+            scored |= expected.scores().score() > 0;
+
+            for (int t = 0; t < results.size(); t++) {
+                WorkScoreFiles.TaskScores expectedTask = expected.taskScores()[t];
+                WorkScoreFiles.TaskScores actualTask = actual.taskScores()[t];
+                assertNotNull(expectedTask);
+                assertEquals(expectedTask.groups(), actualTask.groups());
+                assertSameScores(expectedTask.scores(), actualTask.scores());
+            }
+        }
+        assertTrue(scored);
+    }
+
+    private static WorkScoreFiles score(List<ISourceFile> files, List<ModelTaskProcessedResults> results, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            WorkScoreFiles work = new WorkScoreFiles(new JobStatus(1, Priority.DEFAULT), files, results, 1);
+            pool.invoke(work);
+            return work;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertSameScores(WorkScoreFiles.Scores expected, WorkScoreFiles.Scores actual) {
+        assertEquals(Float.floatToRawIntBits(expected.score()), Float.floatToRawIntBits(actual.score()));
+        assertEquals(expected.fileScores().length, actual.fileScores().length);
+        for (int i = 0; i < expected.fileScores().length; i++) {
+            assertEquals(Float.floatToRawIntBits(expected.fileScores()[i]), Float.floatToRawIntBits(actual.fileScores()[i]));
+        }
+    }
+
+    // Groups of several files with overlapping line ranges, as from the token based detectors
+    private static ModelTaskProcessedResults lineResults(List<ISourceFile> files, Random rand) {
+        ModelTaskProcessedResults results = new ModelTaskProcessedResults();
+        for (int g = 0; g < 400; g++) {
+            EntityCodeBlockGroup group = new EntityCodeBlockGroup();
+            int size = 2 + rand.nextInt(4);
+            for (int i = 0; i < size; i++) {
+                int start = 1 + rand.nextInt(180);
+                group.addCodeBlock(files.get(rand.nextInt(files.size())), rand.nextFloat(), new Tuple<>(start, start + rand.nextInt(20)), null);
+            }
+            results.getGroups().add(group);
+        }
+        return results;
+    }
+
+    // Pairwise groups weighted by subtree size, as from the AST detector
+    private static ModelTaskProcessedResults astResults(List<ISourceFile> files, Random rand) {
+        ModelTaskProcessedResults results = new ModelTaskProcessedResults();
+        for (int g = 0; g < 400; g++) {
+            EntityCodeBlockGroup group = new EntityCodeBlockGroup();
+            for (int i = 0; i < 2; i++) {
+                int start = 1 + rand.nextInt(180);
+                group.addCodeBlock(files.get(rand.nextInt(files.size())), rand.nextFloat(), new Tuple<>(start, start + rand.nextInt(20)), 1 + rand.nextInt(30), null);
+            }
+            results.getGroups().add(group);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,213 @@
+package uk.ac.warwick.dcs.sherlock.engine.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import uk.ac.warwick.dcs.sherlock.engine.Configuration;
+import uk.ac.warwick.dcs.sherlock.engine.SherlockEngine;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StorageKeyManagerTest {
+
+    private Configuration previousConfiguration;
+    private File dataDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.previousConfiguration = SherlockEngine.configuration;
+        this.dataDir = Files.createTempDirectory("sherlock-keys").toFile();
+        SherlockEngine.configuration = new Configuration();
+        SherlockEngine.configuration.setDataPath(this.dataDir.getAbsolutePath());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        SherlockEngine.configuration = this.previousConfiguration;
+        FileUtils.deleteDirectory(this.dataDir);
+    }
+
+    @Test
+    void envelopeRoundTrip() throws Exception {
+        File keyFile = new File(this.dataDir, "Store.key");
+        StorageKeyManager manager = new StorageKeyManager(keyFile, false);
+        byte[] content = "public class A {}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] secureParam = manager.createSecureParam();
+        assertTrue(StorageKeyManager.isEnvelope(secureParam));
+        assertFalse(StorageKeyManager.isEnvelope(new byte[16]));
+        assertNotEquals(new String(secureParam, StandardCharsets.ISO_8859_1), new String(manager.createSecureParam(), StandardCharsets.ISO_8859_1));
+
+        byte[] encrypted = manager.getCipher(Cipher.ENCRYPT_MODE, secureParam).doFinal(content);
+
+        // The master key is persisted, so a new manager can still unwrap the data key
+        StorageKeyManager reloaded = new StorageKeyManager(keyFile, true);
+        assertArrayEquals(content, reloaded.getCipher(Cipher.DECRYPT_MODE, secureParam).doFinal(encrypted));
+    }
+
+    @Test
+    void legacyFilesStayReadableAndMigrate() throws Exception {
+        BaseStorageFilesystem filesystem = new BaseStorageFilesystem();
+        EntityFile file = this.storeLegacyFiles(filesystem, 1).get(0);
+        byte[] legacyParam = file.getSecureParam();
+        assertFalse(StorageKeyManager.isEnvelope(legacyParam));
+        assertEquals("content 0", filesystem.loadFileAsString(file));
+
+        assertTrue(filesystem.migrateFile(file));
+        assertTrue(StorageKeyManager.isEnvelope(file.getSecureParam()));
+        assertEquals("content 0", filesystem.loadFileAsString(file));
+        filesystem.finishFileMigration(file);
+        assertEquals("content 0", filesystem.loadFileAsString(file));
+        assertEquals("content 0", new BaseStorageFilesystem().loadFileAsString(file));
+
+        // Already migrated, nothing left to do
+        assertFalse(filesystem.migrateFile(file));
+    }
+
+    @Test
+    void missingKeyIsNotReplacedWhileObjectsUseIt() throws Exception {
+        File keyFile = new File(this.dataDir, "Store.key");
+        assertThrows(IOException.class, () -> new StorageKeyManager(keyFile, true));
+        assertFalse(keyFile.exists());
+
+        new StorageKeyManager(keyFile, false);
+        assertTrue(keyFile.exists());
+        if (Files.getFileStore(keyFile.toPath()).supportsFileAttributeView("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(keyFile.toPath()));
+        }
+    }
+
+    @Test
+    void migrationInterruptedBeforeSavingKeepsTheLegacyFile() throws Exception {
+        BaseStorageFilesystem filesystem = new BaseStorageFilesystem();
+        EntityFile file = this.storeLegacyFiles(filesystem, 1).get(0);
+        byte[] legacyParam = file.getSecureParam();
+        File onDisk = this.storedFiles().get(0);
+        byte[] legacyContent = FileUtils.readFileToByteArray(onDisk);
+
+        assertTrue(filesystem.migrateFile(file));
+        assertArrayEquals(legacyContent, FileUtils.readFileToByteArray(onDisk));
+
+        // The database still holds the legacy parameter when the next session starts
+        file.setSecureParam(legacyParam);
+        assertTrue(new BaseStorageFilesystem().validateFileStore(List.of(file), List.of()).isEmpty());
+        assertEquals(List.of(onDisk), this.storedFiles());
+        assertEquals("content 0", new BaseStorageFilesystem().loadFileAsString(file));
+    }
+
+    @Test
+    void migrationInterruptedAfterSavingIsCompleted() throws Exception {
+        BaseStorageFilesystem filesystem = new BaseStorageFilesystem();
+        EntityFile file = this.storeLegacyFiles(filesystem, 1).get(0);
+        File onDisk = this.storedFiles().get(0);
+
+        // The database holds the new parameter, but the new file was never moved into place
+        assertTrue(filesystem.migrateFile(file));
+        assertEquals("content 0", new BaseStorageFilesystem().loadFileAsString(file));
+
+        BaseStorageFilesystem restarted = new BaseStorageFilesystem();
+        assertTrue(restarted.validateFileStore(List.of(file), List.of()).isEmpty());
+        assertEquals(List.of(onDisk), this.storedFiles());
+        assertEquals("content 0", restarted.loadFileAsString(file));
+    }
+
+    @Test
+    void filesAreNotStoredWithoutTheirKey() throws Exception {
+        BaseStorageFilesystem filesystem = new BaseStorageFilesystem();
+        EntityFile first = new EntityFile(new EntityArchive("Submission0"), "File0", "java", new Timestamp(1000), 9, 1, 1);
+        assertTrue(filesystem.storeFile(first, "content 0".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(StorageKeyManager.isEnvelope(first.getSecureParam()));
+
+        // The key the stored file was wrapped with is lost, a new one must not be made for later files
+        assertTrue(new File(this.dataDir, "Store.key").delete());
+        BaseStorageFilesystem restarted = new BaseStorageFilesystem();
+        restarted.validateFileStore(List.of(first), List.of());
+
+        EntityFile second = new EntityFile(new EntityArchive("Submission1"), "File1", "java", new Timestamp(1001), 9, 1, 1);
+        assertFalse(restarted.storeFile(second, "content 1".getBytes(StandardCharsets.UTF_8)));
+        assertNull(second.getSecureParam());
+        assertEquals(1, this.storedFiles().size());
+        assertFalse(new File(this.dataDir, "Store.key").exists());
+    }
+
+    /**
+     * Load throughput harness, comparing loads of files stored with the legacy PBKDF2 derived keys against the same files once migrated to envelope keys
+     */
+    @Test
+    @Disabled("Benchmark, run by hand when changing the file store encryption")
+    void loadThroughputBenchmark(TestReporter reporter) throws Exception {
+        int count = 20;
+        BaseStorageFilesystem filesystem = new BaseStorageFilesystem();
+        List<EntityFile> files = this.storeLegacyFiles(filesystem, count);
+
+        long legacyTime = this.timeLoads(filesystem, files);
+        for (EntityFile file : files) {
+            assertTrue(filesystem.migrateFile(file));
+            filesystem.finishFileMigration(file);
+        }
+        long envelopeTime = this.timeLoads(filesystem, files);
+
+        reporter.publishEntry("legacy PBKDF2 keys", String.format("%d files, %.1f files/s", count, count * 1e9 / legacyTime));
+        reporter.publishEntry("envelope keys", String.format("%d files, %.1f files/s", count, count * 1e9 / envelopeTime));
+    }
+
+    private long timeLoads(BaseStorageFilesystem filesystem, List<EntityFile> files) {
+        long start = System.nanoTime();
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals("content " + i, filesystem.loadFileAsString(files.get(i)));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private List<File> storedFiles() {
+        return new ArrayList<>(FileUtils.listFiles(new File(this.dataDir, "Store"), null, true));
+    }
+
+    /**
+     * Stores files unencrypted, then rewrites them as the legacy scheme would have encrypted them
+     */
+    private List<EntityFile> storeLegacyFiles(BaseStorageFilesystem filesystem, int count) throws Exception {
+        SherlockEngine.configuration.setEncryptFiles(false);
+        SecureRandom random = new SecureRandom();
+        List<EntityFile> files = new ArrayList<>();
+        Collection<File> stored = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            EntityFile file = new EntityFile(new EntityArchive("Submission" + i), "File" + i, "java", new Timestamp(1000 + i), 9, 1, 1);
+            byte[] content = ("content " + i).getBytes(StandardCharsets.UTF_8);
+            assertTrue(filesystem.storeFile(file, content));
+
+            // The new file is the only one in the store not seen before
+            Collection<File> all = FileUtils.listFiles(new File(this.dataDir, "Store"), null, true);
+            File onDisk = all.stream().filter(x -> !stored.contains(x)).findFirst().orElseThrow();
+            stored.add(onDisk);
+
+            byte[] iv = new byte[16];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, BaseStorageFilesystem.getLegacyKey(file), new IvParameterSpec(iv));
+            FileUtils.writeByteArrayToFile(onDisk, cipher.doFinal(content));
+            file.setSecureParam(iv);
+            files.add(file);
+        }
+
+        SherlockEngine.configuration.setEncryptFiles(true);
+        return files;
+    }
+}
@@ -0,0 +1,401 @@
+package uk.ac.warwick.dcs.sherlock.module.model.base.detection;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.ModelDataItem;
+import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.ASTArtifact;
+import uk.ac.warwick.dcs.sherlock.api.util.ASTNode;
+import uk.ac.warwick.dcs.sherlock.api.util.FlatAST;
+import uk.ac.warwick.dcs.sherlock.api.util.JavaASTNode;
+import uk.ac.warwick.dcs.sherlock.api.util.JavaASTNode.Kind;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityArchive;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityFile;
+import uk.ac.warwick.dcs.sherlock.module.model.base.postprocessing.ASTRawResult;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ASTDetectorTest {
+
+    @Test
+    void getDisplayName() {
+        assertEquals("AST Detector", new ASTDetector().getDisplayName());
+    }
+
+    @Test
+    void fingerprintsMatchNodeValues() {
+        ASTNode<?> root = buildFile(3, 0.0);
+        ASTFingerprints fp = ASTFingerprints.of(FlatAST.of(root));
+        FlatAST tree = fp.getTree();
+
+        // Nodes are numbered in pre-order
+        List<ASTNode<?>> nodes = new ArrayList<>();
+        preOrder(root, nodes);
+        assertEquals(nodes.size(), tree.size());
+
+        int[] postOrder = fp.getPostOrder();
+        assertEquals(tree.size(), postOrder.length);
+        assertEquals(tree.getRoot(), postOrder[postOrder.length - 1]);
+        Set<Integer> seen = new HashSet<>();
+        for (int node : postOrder) {
+            // Every child comes before its parent
+            for (int child = tree.getFirstChild(node); child != FlatAST.NONE; child = tree.getNextSibling(child)) {
+                assertTrue(seen.contains(child));
+            }
+            seen.add(node);
+
+            assertEquals(nodes.get(node).computeHeight(), tree.getHeight(node));
+            assertTrue(IntStream.of(fp.getNodesOfHeight(tree.getHeight(node))).anyMatch(x -> x == node));
+            assertTrue(IntStream.of(fp.getFingerprintBuckets(tree.getHeight(node), true).get(tree.getFingerprint(node, true))).anyMatch(x -> x == node));
+            assertTrue(IntStream.of(fp.getFingerprintBuckets(tree.getHeight(node), false).get(tree.getFingerprint(node, false))).anyMatch(x -> x == node));
+        }
+
+        // The root, three nodes in the subtree of its only child, and one past the end of the tree
+        int child = tree.getFirstChild(tree.getRoot());
+        int[] sorted = { 0, child, child + 1, child + tree.getWeight(child) - 1, child + tree.getWeight(child) };
+        assertEquals(3, fp.countDescendants(sorted, child));
+        assertEquals(4, fp.countDescendants(sorted, tree.getRoot()));
+
+        // Groups and buckets keep BFS order
+        assertEquals(0, fp.getBfsPosition(tree.getRoot()));
+        for (int height : fp.getHeights()) {
+            int[] group = fp.getNodesOfHeight(height);
+            for (int k = 1; k < group.length; k++) {
+                assertTrue(fp.getBfsPosition(group[k - 1]) < fp.getBfsPosition(group[k]));
+            }
+        }
+        assertTrue(fp.getFingerprintBuckets(tree.getHeight(tree.getRoot()) + 1, true).isEmpty());
+        assertEquals(0, fp.getNodesOfHeight(tree.getHeight(tree.getRoot()) + 1).length);
+    }
+
+    @Test
+    void largeFilesMatchEveryRepeatedPart() {
+        // Around 5,000 nodes each, the parts repeat so each fingerprint bucket holds several nodes
+        long[] seeds = { 5, 6, 7, 8, 5, 6, 7, 8, 5, 6 };
+        long[] reversed = new long[seeds.length];
+        for (int k = 0; k < seeds.length; k++) {
+            reversed[k] = seeds[seeds.length - 1 - k];
+        }
+        ASTNode<?> tree1 = buildLargeFile(seeds);
+        ASTNode<?> tree2 = buildLargeFile(reversed);
+        assertTrue(tree1.computeWeight() > 5000);
+
+        List<ModelDataItem> items = buildItems(List.of(tree1, tree2));
+        List<ASTMatch> matches = runPair(buildDetector(), items.get(0), items.get(1)).getMatches();
+
+        // Each part is an anchor, as a part is only matched to a copy not already taken
+        List<ASTMatch> anchors = matches.stream().filter(x -> x.similarity == 1.0f).toList();
+        assertEquals(seeds.length, anchors.size());
+        assertEquals(tree1.computeWeight() - 1, anchors.stream().mapToInt(x -> x.subtreeWeight1).sum());
+        assertEquals(tree2.computeWeight() - 1, anchors.stream().mapToInt(x -> x.subtreeWeight2).sum());
+    }
+
+    @Test
+    void onlyFilesSharingASubtreeAreCandidates() {
+        int variants = 4;
+        List<ASTNode<?>> trees = new ArrayList<>();
+        for (int v = 0; v <= variants; v++) {
+            trees.add(buildFile(17, 0.2 * v));
+        }
+        trees.add(buildFile(23, 0.0));
+        JavaASTNode empty = node(Kind.CLASS_DECL, "Empty", 1);
+        empty.addChild(node(Kind.BLOCK, "", 1));
+        trees.add(empty);
+
+        for (int abstraction = 0; abstraction <= 1; abstraction++) {
+            ASTDetector detector = buildDetector();
+            detector.ABSTRACT_MATCHING = abstraction;
+            List<ModelDataItem> items = buildItems(trees);
+            detector.prepareFileData(items);
+
+            List<Set<Long>> fingerprints = items.stream()
+                    .map(x -> LongStream.of(detector.getCandidateFingerprints(x)).boxed().collect(Collectors.toSet()))
+                    .toList();
+            assertTrue(fingerprints.get(trees.size() - 1).isEmpty(), "No subtree of the empty class is high enough");
+
+            // A pair has matches exactly when its files share a fingerprint, so skipping the others loses nothing
+            int candidates = 0;
+            for (int i = 0; i < items.size(); i++) {
+                for (int j = i + 1; j < items.size(); j++) {
+                    boolean shared = fingerprints.get(i).stream().anyMatch(fingerprints.get(j)::contains);
+                    boolean matched = !runPair(detector, items.get(i), items.get(j)).getMatches().isEmpty();
+                    assertEquals(shared, matched, "abstraction " + abstraction + " pair " + i + "-" + j);
+                    candidates += shared ? 1 : 0;
+                }
+            }
+            assertTrue(candidates > 0 && candidates < items.size() * (items.size() - 1) / 2);
+        }
+    }
+
+    @Test
+    void boilerplateSubtreesDoNotMakeEveryPairACandidate() {
+        int files = 30;
+
+        // Every file has the same class as well as its own, and file 1 copies the class of file 0
+        List<ASTNode<?>> trees = new ArrayList<>();
+        for (int f = 0; f < files; f++) {
+            trees.add(buildLargeFile(99, f == 1 ? 1000 : 1000 + f));
+        }
+        List<ModelDataItem> items = buildItems(trees);
+
+        // At the default height, where unrelated files only now and then share a subtree by chance
+        ASTDetector detector = buildDetector();
+        detector.MIN_HEIGHT = 5;
+        List<ASTDetector.ASTDetectorWorker> workers = detector.buildWorkers(items);
+        assertEquals(files * (files - 1) / 2, workers.size() + detector.getPrunedPairCount());
+        assertTrue(workers.size() < files * 2, "Only pairs sharing more than boilerplate should be compared, got " + workers.size());
+
+        // The compared pairs are exactly those sharing a subtree found in at most half of the files
+        List<Set<Long>> fingerprints = items.stream()
+                .map(x -> LongStream.of(detector.getCandidateFingerprints(x)).boxed().collect(Collectors.toSet()))
+                .toList();
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < files; i++) {
+            for (int j = i + 1; j < files; j++) {
+                for (long fingerprint : fingerprints.get(i)) {
+                    long count = fingerprints.stream().filter(x -> x.contains(fingerprint)).count();
+                    if (count <= files / 2 && fingerprints.get(j).contains(fingerprint)) {
+                        expected.add(i + "-" + j);
+                        break;
+                    }
+                }
+            }
+        }
+        Set<String> compared = workers.stream().map(x -> items.indexOf(x.getFile1Data()) + "-" + items.indexOf(x.getFile2Data())).collect(Collectors.toSet());
+        assertEquals(expected, compared);
+        assertTrue(compared.contains("0-1"), "Missed the copied class");
+        assertFalse(runPair(detector, items.get(0), items.get(1)).getMatches().isEmpty());
+
+        // Without the limit the shared class makes every pair a candidate
+        detector.maximumFingerprintFrequency = files;
+        assertEquals(files * (files - 1) / 2, detector.buildWorkers(items).size());
+    }
+
+    @Test
+    void verifiedAnchorsMatchFingerprintAnchors() {
+        int variants = 4;
+        for (int abstraction = 0; abstraction <= 1; abstraction++) {
+            ASTDetector detector = buildDetector();
+            detector.ABSTRACT_MATCHING = abstraction;
+            ASTDetector verifying = buildDetector();
+            verifying.ABSTRACT_MATCHING = abstraction;
+            verifying.VERIFY_ANCHORS = 1;
+
+            List<ModelDataItem> items = buildItems(variants);
+            for (int[] pair : pairs(variants)) {
+                assertSameMatches(runPair(detector, items.get(pair[0]), items.get(pair[1])).getMatches(),
+                        runPair(verifying, items.get(pair[0]), items.get(pair[1])).getMatches(), "abstraction " + abstraction + " pair " + pair[0] + "-" + pair[1]);
+            }
+        }
+    }
+
+    @Test
+    void concurrentPairsAreDeterministic() throws Exception {
+        int variants = 6;
+
+        // Expected results, each pair run alone on its own copy of the trees
+        List<List<ASTMatch>> expected = new ArrayList<>();
+        for (int[] pair : pairs(variants)) {
+            List<ModelDataItem> items = buildItems(variants);
+            expected.add(runPair(buildDetector(), items.get(pair[0]), items.get(pair[1])).getMatches());
+        }
+        assertTrue(expected.stream().allMatch(x -> !x.isEmpty()), "Every variant should share some structure");
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 4; round++) {
+                // Every file, and the shared base file in particular, is used by many pairs at once
+                List<ModelDataItem> items = buildItems(variants);
+                ASTDetector detector = buildDetector();
+                if (round % 2 == 0) {
+                    detector.prepareFileData(items);
+                }
+
+                List<Future<ASTRawResult>> futures = new ArrayList<>();
+                for (int[] pair : pairs(variants)) {
+                    futures.add(pool.submit(() -> runPair(detector, items.get(pair[0]), items.get(pair[1]))));
+                }
+
+                for (int k = 0; k < futures.size(); k++) {
+                    assertSameMatches(expected.get(k), futures.get(k).get().getMatches(), "round " + round + " pair " + k);
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static void assertSameMatches(List<ASTMatch> expected, List<ASTMatch> actual, String context) {
+        assertEquals(expected.size(), actual.size(), "Match count differs for " + context);
+        for (int k = 0; k < expected.size(); k++) {
+            assertEquals(expected.get(k).lines, actual.get(k).lines, "Match lines differ for " + context);
+            assertEquals(expected.get(k).similarity, actual.get(k).similarity, "Match similarity differs for " + context);
+            assertEquals(expected.get(k).subtreeWeight1, actual.get(k).subtreeWeight1, "Match weight differs for " + context);
+            assertEquals(expected.get(k).subtreeWeight2, actual.get(k).subtreeWeight2, "Match weight differs for " + context);
+        }
+    }
+
+    static ASTDetector buildDetector() {
+        ASTDetector detector = new ASTDetector();
+        detector.MIN_HEIGHT = 3;
+        detector.MIN_DICE = 0.5f;
+        detector.ABSTRACT_MATCHING = 1;
+        return detector;
+    }
+
+    // The base file against every variant in both orders, and every pair of variants
+    static List<int[]> pairs(int variants) {
+        List<int[]> pairs = new ArrayList<>();
+        for (int i = 1; i <= variants; i++) {
+            pairs.add(new int[] { 0, i });
+            pairs.add(new int[] { i, 0 });
+            for (int j = i + 1; j <= variants; j++) {
+                pairs.add(new int[] { i, j });
+            }
+        }
+        return pairs;
+    }
+
+    // A base file followed by variants of it with renamed identifiers and dropped statements
+    static List<ModelDataItem> buildItems(int variants) {
+        List<ASTNode<?>> trees = new ArrayList<>();
+        trees.add(buildFile(17, 0.0));
+        for (int v = 1; v <= variants; v++) {
+            trees.add(buildFile(17, 0.1 * v));
+        }
+        return buildItems(trees);
+    }
+
+    static List<ModelDataItem> buildItems(List<ASTNode<?>> trees) {
+        List<ModelDataItem> items = new ArrayList<>();
+        for (int f = 0; f < trees.size(); f++) {
+            EntityFile file = new EntityFile(new EntityArchive("Submission" + f), "File" + f, "java", new Timestamp(1), 0, 0, 0);
+            ModelDataItem item = new ModelDataItem(file);
+            item.addPreProcessedArtifact("ast", new ASTArtifact(trees.get(f)));
+            items.add(item);
+        }
+        return items;
+    }
+
+    static ASTRawResult runPair(ASTDetector detector, ModelDataItem file1, ModelDataItem file2) {
+        ASTDetector.ASTDetectorWorker worker = detector.getAbstractPairwiseDetectorWorker(file1, file2);
+        worker.execute();
+        return worker.getRawResult();
+    }
+
+    private static void preOrder(ASTNode<?> node, List<ASTNode<?>> result) {
+        result.add(node);
+        for (ASTNode<?> child : node.getChildren()) {
+            preOrder(child, result);
+        }
+    }
+
+    // Joins the files generated from each seed under a single root
+    static ASTNode<?> buildLargeFile(long... seeds) {
+        JavaASTNode root = node(Kind.PROGRAM, "", 1);
+        for (long seed : seeds) {
+            root.addChild((JavaASTNode) buildFile(seed, 0.0));
+        }
+        return root;
+    }
+
+    /**
+     * Generates a Java-like AST with line metadata. The structure only depends on the seed, the
+     * mutation rate decides how many identifiers are renamed and statements dropped.
+     */
+    static ASTNode<?> buildFile(long seed, double mutationRate) {
+        Random structure = new Random(seed);
+        Random mutation = new Random(seed * 31 + Double.hashCode(mutationRate));
+        int[] line = { 1 };
+
+        JavaASTNode program = node(Kind.PROGRAM, "", line[0]);
+        JavaASTNode cls = node(Kind.CLASS_DECL, "Main", line[0]++);
+        program.addChild(cls);
+        JavaASTNode body = node(Kind.BLOCK, "", line[0]);
+        cls.addChild(body);
+
+        for (int m = 0; m < 6; m++) {
+            JavaASTNode method = node(Kind.FUNCTION_DECL, "method" + m, line[0]++);
+            JavaASTNode block = node(Kind.BLOCK, "", line[0]);
+            addStatements(block, structure, mutation, mutationRate, line, 3);
+            close(block, line[0]);
+            method.addChild(block);
+            close(method, line[0]++);
+            body.addChild(method);
+        }
+        close(body, line[0]);
+        close(cls, line[0]);
+        close(program, line[0]);
+        return program;
+    }
+
+    private static void addStatements(JavaASTNode block, Random structure, Random mutation, double rate, int[] line, int depth) {
+        int count = 2 + structure.nextInt(4);
+        for (int s = 0; s < count; s++) {
+            JavaASTNode statement;
+            int type = depth > 0 ? structure.nextInt(4) : 0;
+            if (type == 0) {
+                statement = node(Kind.VARIABLE_DECL, name(structure, mutation, rate), line[0]);
+                statement.addChild(expression(structure, mutation, rate, line[0], 2));
+                close(statement, line[0]++);
+            }
+            else if (type == 1) {
+                statement = node(Kind.RETURN, "", line[0]);
+                statement.addChild(expression(structure, mutation, rate, line[0], 2));
+                close(statement, line[0]++);
+            }
+            else {
+                statement = node(type == 2 ? Kind.IF_STATEMENT : Kind.WHILE_LOOP, "", line[0]);
+                statement.addChild(expression(structure, mutation, rate, line[0]++, 2));
+                JavaASTNode inner = node(Kind.BLOCK, "", line[0]);
+                addStatements(inner, structure, mutation, rate, line, depth - 1);
+                close(inner, line[0]);
+                statement.addChild(inner);
+                close(statement, line[0]++);
+            }
+
+            // Decide after generating, so dropping a statement does not change the rest of the structure
+            if (mutation.nextDouble() >= rate / 2) {
+                block.addChild(statement);
+            }
+        }
+    }
+
+    private static JavaASTNode expression(Random structure, Random mutation, double rate, int line, int depth) {
+        if (depth == 0 || structure.nextBoolean()) {
+            return structure.nextBoolean() ? node(Kind.IDENTIFIER, name(structure, mutation, rate), line) : node(Kind.NUMBER_LITERAL, String.valueOf(structure.nextInt(10)), line);
+        }
+        JavaASTNode binary = node(Kind.BINARY_EXPR, structure.nextBoolean() ? "+" : "<", line);
+        binary.addChild(expression(structure, mutation, rate, line, depth - 1));
+        binary.addChild(expression(structure, mutation, rate, line, depth - 1));
+        return binary;
+    }
+
+    private static String name(Random structure, Random mutation, double rate) {
+        String name = "v" + structure.nextInt(8);
+        return mutation.nextDouble() < rate ? name + "_renamed" : name;
+    }
+
+    private static JavaASTNode node(Kind kind, String value, int startLine) {
+        JavaASTNode node = new JavaASTNode(kind, value);
+        node.setMetadata("startLine", startLine);
+        node.setMetadata("endLine", startLine);
+        return node;
+    }
+
+    private static void close(JavaASTNode node, int endLine) {
+        node.setMetadata("endLine", endLine);
+    }
+}
@@ -5,9 +5,19 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import uk.ac.warwick.dcs.sherlock.api.model.detection.IDetector;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.ModelDataItem;
+import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.LineListArtifact;
 import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.PreProcessingStrategy;
+import uk.ac.warwick.dcs.sherlock.api.util.IndexedString;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityArchive;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityFile;
+import uk.ac.warwick.dcs.sherlock.module.model.base.postprocessing.NGramRawResult;
+import uk.ac.warwick.dcs.sherlock.module.model.base.utils.TestUtils;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -47,4 +57,208 @@ class NGramDetectorTest {
         List<PreProcessingStrategy> listOfPreProcessors = detector.getPreProcessors();
         assertAll(() -> assertEquals(1, listOfPreProcessors.size()), () -> assertEquals("no_whitespace", listOfPreProcessors.get(0).getName()));
     }
-}
\ No newline at end of file
+
+    @Test
+    void incrementalSimilarityMatchesFullRecompute() {
+        List<ModelDataItem> items = buildItems(TestUtils.generateCorpus(42, 8, 120));
+
+        for (int i = 0; i < items.size(); i++) {
+            for (int j = i + 1; j < items.size(); j++) {
+                NGramRawResult<NGramMatch> full = runPair(buildDetector(0), items.get(i), items.get(j));
+                NGramRawResult<NGramMatch> incremental = runPair(buildDetector(1), items.get(i), items.get(j));
+
+                assertSameMatches(full, incremental, "pair " + i + "," + j);
+            }
+        }
+    }
+
+    @Test
+    void rollingHashMatchesStringEncoding() {
+        List<ModelDataItem> items = buildItems(TestUtils.generateCorpus(7, 8, 120));
+
+        for (int i = 0; i < items.size(); i++) {
+            for (int j = i + 1; j < items.size(); j++) {
+                NGramRawResult<NGramMatch> strings = runPair(buildDetector(1, 0), items.get(i), items.get(j));
+                NGramRawResult<NGramMatch> hashed = runPair(buildDetector(1, 1), items.get(i), items.get(j));
+
+                assertSameMatches(strings, hashed, "pair " + i + "," + j);
+            }
+        }
+    }
+
+    @Test
+    void cachedMatchesUncached() {
+        List<ModelDataItem> items = buildItems(TestUtils.generateCorpus(11, 8, 120));
+
+        for (int rollingHash = 0; rollingHash <= 1; rollingHash++) {
+            NGramDetector cached = buildDetector(1, rollingHash);
+            cached.cache_budget = 256;
+            cached.prepareFileData(items);
+            NGramFileCache<?> cache = rollingHash == 1 ? cached.getHashCache() : cached.getListCache();
+            assertEquals(items.size(), cache.size());
+
+            for (int i = 0; i < items.size(); i++) {
+                for (int j = i + 1; j < items.size(); j++) {
+                    NGramRawResult<NGramMatch> uncached = runPair(buildDetector(1, rollingHash), items.get(i), items.get(j));
+                    // run both orders, so every cached file is used as both the reference and check file
+                    assertSameMatches(uncached, runPair(cached, items.get(i), items.get(j)), "pair " + i + "," + j + " rolling hash " + rollingHash);
+                    assertSameMatches(runPair(buildDetector(1, rollingHash), items.get(j), items.get(i)), runPair(cached, items.get(j), items.get(i)), "pair " + j + "," + i + " rolling hash " + rollingHash);
+                }
+            }
+        }
+    }
+
+    @Test
+    void cacheRespectsBudget() {
+        List<ModelDataItem> items = buildItems(TestUtils.generateCorpus(3, 4, 10));
+        NGramFileCache<String> cache = new NGramFileCache<>(items, 250, x -> 100, x -> x.getFile().getFileDisplayName());
+
+        assertEquals(2, cache.size());
+        assertEquals(200, cache.getEstimatedBytes());
+        assertEquals(items.get(1).getFile().getFileDisplayName(), cache.get(items.get(1)));
+        assertNull(cache.get(items.get(2)));
+
+        NGramDetector detector = buildDetector(1);
+        detector.cache_budget = 0;
+        detector.prepareFileData(items);
+        assertNull(detector.getListCache());
+        assertNull(detector.getHashCache());
+    }
+
+    @Test
+    void hashSequenceEncodesSameNGrams() {
+        List<IndexedString> lines = List.of(IndexedString.of(1, "int x = 0;"), IndexedString.of(2, "   "), IndexedString.of(3, "y++;"), IndexedString.of(4, "a      b"));
+        NGramHashSequence sequence = new NGramHashSequence(lines, 4);
+        // "int x = 0;" gives 7 N-Grams, the blank line none, "y++;" 1 and "a      b" 2 since the all whitespace windows are skipped
+        assertEquals(10, sequence.size());
+        assertEquals(1, sequence.getLineNumber(0));
+        assertEquals(3, sequence.getLineNumber(7));
+        assertEquals(4, sequence.getLineNumber(9));
+
+        NGramHashSequence other = new NGramHashSequence(List.of(IndexedString.of(9, "x = 0;")), 4);
+        // "x = " is the 5th N-Gram of line 1
+        assertEquals(4, sequence.firstWithHash(other.getHash(0)));
+        assertTrue(sequence.sameNGram(4, other, 0));
+        assertFalse(sequence.sameNGram(3, other, 0));
+        assertEquals(-1, sequence.nextWithHash(4));
+    }
+
+    @Test
+    void jaccardTrackerMatchesCompare() {
+        NGramDetector detector = buildDetector(1);
+        NGramDetector.JaccardTracker tracker = new NGramDetector.JaccardTracker();
+        String[] ref = { "aaaa", "bbbb", "aaaa", "cccc", "aaaa", "dddd" };
+        String[] check = { "aaaa", "aaaa", "bbbb", "eeee", "cccc", "aaaa" };
+        List<NGramDetector.NGram> refList = new ArrayList<>();
+        List<NGramDetector.NGram> checkList = new ArrayList<>();
+
+        for (int i = 0; i < ref.length; i++) {
+            tracker.add(ref[i], check[i]);
+            refList.add(detector.new NGram(ref[i], i));
+            checkList.add(detector.new NGram(check[i], i));
+            assertEquals(detector.compare(refList, checkList), tracker.similarity());
+        }
+    }
+
+    @Test
+    void candidatePairsKeepEveryMatchingPair() {
+        // Pairs of a random file and a copy of it with some lines changed, different pairs have no N-Grams in common
+        Random rand = new Random(5);
+        List<List<String>> corpus = new ArrayList<>();
+        for (int f = 0; f < 12; f++) {
+            List<String> file = new ArrayList<>();
+            for (int l = 0; l < 60; l++) {
+                file.add(f % 2 == 1 && rand.nextInt(5) > 0 ? corpus.get(f - 1).get(l) : randomLine(rand));
+            }
+            corpus.add(file);
+        }
+
+        // Every pair compared, as with candidate generation disabled
+        NGramDetector full = buildDetector(0, 1);
+        int total = 0;
+        int matching = 0;
+        List<ModelDataItem> items = buildItems(corpus);
+        for (int i = 0; i < items.size(); i++) {
+            for (int j = i + 1; j < items.size(); j++) {
+                total++;
+                matching += runPair(full, items.get(i), items.get(j)).getObjects().isEmpty() ? 0 : 1;
+            }
+        }
+        assertTrue(matching > 0 && matching < total, "Corpus should have both matching and unrelated pairs");
+
+        NGramDetector pruning = buildDetector(0, 1);
+        pruning.minimumSharedFingerprints = 1;
+        List<NGramDetector.NGramDetectorWorker> workers = pruning.buildWorkers(buildItems(corpus));
+        assertEquals(total, workers.size() + pruning.getPrunedPairCount());
+        assertTrue(pruning.getPrunedPairCount() > 0, "Unrelated pairs should be pruned");
+
+        int kept = 0;
+        for (NGramDetector.NGramDetectorWorker worker : workers) {
+            worker.execute();
+            kept += worker.getRawResult().getObjects().isEmpty() ? 0 : 1;
+        }
+        assertEquals(matching, kept, "Every pair with matches should still be compared");
+
+        // Disabled by default, every pair is compared
+        NGramDetector unfiltered = buildDetector(0, 1);
+        assertEquals(total, unfiltered.buildWorkers(buildItems(corpus)).size());
+        assertEquals(0, unfiltered.getPrunedPairCount());
+    }
+
+    private static String randomLine(Random rand) {
+        StringBuilder line = new StringBuilder();
+        for (int c = 0; c < 24; c++) {
+            line.append((char) ('a' + rand.nextInt(26)));
+        }
+        return line.toString();
+    }
+
+    static void assertSameMatches(NGramRawResult<NGramMatch> expected, NGramRawResult<NGramMatch> actual, String context) {
+        List<NGramMatch> expectedMatches = expected.getObjects();
+        List<NGramMatch> actualMatches = actual.getObjects();
+        assertEquals(expectedMatches.size(), actualMatches.size(), "Match count differs for " + context);
+
+        for (int k = 0; k < expectedMatches.size(); k++) {
+            assertEquals(expectedMatches.get(k).lines, actualMatches.get(k).lines, "Match lines differ for " + context);
+            assertEquals(expectedMatches.get(k).similarity, actualMatches.get(k).similarity, "Match similarity differs for " + context);
+        }
+    }
+
+    static NGramDetector buildDetector(int incremental) {
+        return buildDetector(incremental, 0);
+    }
+
+    static NGramDetector buildDetector(int incremental, int rollingHash) {
+        NGramDetector detector = new NGramDetector();
+        detector.ngram_size = 8;
+        detector.minimum_window = 10;
+        detector.threshold = 0.8f;
+        detector.incremental_similarity = incremental;
+        detector.rolling_hash = rollingHash;
+        detector.minimumSharedFingerprints = 0;
+        return detector;
+    }
+
+    static List<ModelDataItem> buildItems(List<List<String>> corpus) {
+        List<ModelDataItem> items = new ArrayList<>();
+        for (int f = 0; f < corpus.size(); f++) {
+            EntityFile file = new EntityFile(new EntityArchive("Submission" + f), "File" + f, "java", new Timestamp(1), 0, corpus.get(f).size(), corpus.get(f).size());
+            List<IndexedString> lines = new ArrayList<>();
+            for (int l = 0; l < corpus.get(f).size(); l++) {
+                lines.add(IndexedString.of(l + 1, corpus.get(f).get(l)));
+            }
+            TestUtils.setEntityId(file.getSubmission(), f + 1);
+            TestUtils.setEntityId(file, f + 1);
+            items.add(new ModelDataItem(file));
+            items.get(f).addPreProcessedArtifact("no_whitespace", new LineListArtifact(lines));
+        }
+        return items;
+    }
+
+    @SuppressWarnings ("unchecked")
+    static NGramRawResult<NGramMatch> runPair(NGramDetector detector, ModelDataItem file1, ModelDataItem file2) {
+        NGramDetector.NGramDetectorWorker worker = detector.getAbstractPairwiseDetectorWorker(file1, file2);
+        worker.execute();
+        return worker.getRawResult();
+    }
+}
@@ -0,0 +1,170 @@
+package uk.ac.warwick.dcs.sherlock.module.model.base.detection;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.IDetector;
+import uk.ac.warwick.dcs.sherlock.api.model.detection.ModelDataItem;
+import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.LineListArtifact;
+import uk.ac.warwick.dcs.sherlock.api.model.preprocessing.PreProcessingStrategy;
+import uk.ac.warwick.dcs.sherlock.api.util.IndexedString;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityArchive;
+import uk.ac.warwick.dcs.sherlock.engine.storage.EntityFile;
+import uk.ac.warwick.dcs.sherlock.module.model.base.postprocessing.NGramRawResult;
+import uk.ac.warwick.dcs.sherlock.module.model.base.utils.TestUtils;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WinnowingDetectorTest {
+
+    private static final String[] TOKENS = { "IDENTIFIER", "LPAREN", "RPAREN", "LBRACE", "RBRACE", "SEMI", "ASSIGN", "ADD", "SUB", "LT", "GT", "DOT", "COMMA",
+            "INT", "IF", "WHILE", "FOR", "RETURN", "DECIMAL_LITERAL", "STRING_LITERAL" };
+
+    @Test
+    void getDisplayName() {
+        assertEquals("Winnowing Detector", new WinnowingDetector().getDisplayName());
+    }
+
+    @Test
+    void getPreProcessors() {
+        IDetector detector = new WinnowingDetector();
+        List<PreProcessingStrategy> strategies = detector.getPreProcessors();
+        assertAll(() -> assertEquals(1, strategies.size()), () -> assertEquals("tokens", strategies.get(0).getName()));
+    }
+
+    @Test
+    void sharedRunsAlwaysShareAFingerprint() {
+        int k = 5;
+        int w = 4;
+        Random rand = new Random(3);
+
+        for (int trial = 0; trial < 200; trial++) {
+            // A run of exactly window + K - 1 tokens placed at random offsets in two unrelated files
+            List<String> run = randomTokens(rand, w + k - 1);
+            List<String> a = randomTokens(rand, rand.nextInt(40));
+            a.addAll(run);
+            a.addAll(randomTokens(rand, rand.nextInt(40)));
+            List<String> b = randomTokens(rand, rand.nextInt(40));
+            b.addAll(run);
+            b.addAll(randomTokens(rand, rand.nextInt(40)));
+
+            WinnowedFile fa = new WinnowedFile(toLines(a, 1 + rand.nextInt(6)), k, w);
+            WinnowedFile fb = new WinnowedFile(toLines(b, 1 + rand.nextInt(6)), k, w);
+            Set<Long> shared = new HashSet<>();
+            Arrays.stream(fa.getHashes()).forEach(shared::add);
+            assertTrue(Arrays.stream(fb.getHashes()).anyMatch(shared::contains), "Trial " + trial + " shared no fingerprints");
+        }
+
+        // Only a fraction of the K-Grams are kept, around 2 / (window + 1)
+        WinnowedFile large = new WinnowedFile(toLines(randomTokens(rand, 10000), 6), k, w);
+        assertTrue(large.size() > 10000 / (w + 1) && large.size() < 10000 * 3 / (w + 1), "Kept " + large.size() + " fingerprints");
+        long hash = large.getHash(100);
+        int first = large.firstIndexOf(hash);
+        assertTrue(IntStream.range(first, large.endIndexOf(hash, first)).map(large::getSortedPosition).anyMatch(x -> x == 100));
+        WinnowedFile small = new WinnowedFile(toLines(randomTokens(rand, 4), 6), k, w);
+        assertEquals(small.firstIndexOf(hash), small.endIndexOf(hash, small.firstIndexOf(hash)));
+    }
+
+    @Test
+    void findsPlantedCopiesWithoutComparingUnrelatedFiles() {
+        Random rand = new Random(9);
+        int files = 30;
+
+        // Every third file copies a section of the file before it, with some tokens renamed
+        List<List<String>> corpus = new ArrayList<>();
+        List<int[]> planted = new ArrayList<>();
+        for (int f = 0; f < files; f++) {
+            List<String> tokens = randomTokens(rand, 600);
+            if (f % 3 == 2) {
+                List<String> source = corpus.get(f - 1);
+                for (int t = 120; t < 360; t++) {
+                    tokens.set(t + 60, rand.nextInt(40) == 0 ? TOKENS[rand.nextInt(TOKENS.length)] : source.get(t));
+                }
+                planted.add(new int[] { f - 1, f });
+            }
+            corpus.add(tokens);
+        }
+
+        WinnowingDetector detector = buildDetector();
+        List<ModelDataItem> items = buildItems(corpus);
+        List<WinnowingDetector.WinnowingDetectorWorker> workers = detector.buildWorkers(items);
+        assertEquals(files * (files - 1) / 2, workers.size() + detector.getPrunedPairCount());
+        assertTrue(workers.size() < files, "Only pairs sharing fingerprints should be compared, got " + workers.size());
+
+        Set<String> found = new HashSet<>();
+        for (WinnowingDetector.WinnowingDetectorWorker worker : workers) {
+            worker.execute();
+            NGramRawResult<NGramMatch> result = worker.getRawResult();
+            if (!result.getObjects().isEmpty()) {
+                NGramMatch match = result.getObjects().get(0);
+                found.add(match.files[0].getFileDisplayName() + "-" + match.files[1].getFileDisplayName());
+            }
+        }
+
+        for (int[] pair : planted) {
+            assertTrue(found.contains("File" + pair[0] + ".java-File" + pair[1] + ".java"), "Missed the copy in file " + pair[1]);
+
+            // The copied section is on lines 21 to 60 of the original, 6 tokens per line, and 10 lines later in the copy
+            NGramRawResult<NGramMatch> result = runPair(detector, items.get(pair[0]), items.get(pair[1]));
+            NGramMatch match = result.getObjects().get(0);
+            assertTrue(match.lines.get(0).getKey() >= 20 && match.lines.get(0).getValue() <= 61, "Match lines " + match.lines.get(0));
+            assertEquals(10, match.lines.get(1).getKey() - match.lines.get(0).getKey());
+        }
+        assertEquals(planted.size(), found.size());
+    }
+
+    static WinnowingDetector buildDetector() {
+        WinnowingDetector detector = new WinnowingDetector();
+        detector.kgram_size = 8;
+        detector.window_size = 4;
+        detector.minimum_matches = 3;
+        detector.minimumSharedFingerprints = 0;
+        detector.minhashPermutations = 0;
+        return detector;
+    }
+
+    static List<ModelDataItem> buildItems(List<List<String>> corpus) {
+        List<ModelDataItem> items = new ArrayList<>();
+        for (int f = 0; f < corpus.size(); f++) {
+            List<IndexedString> lines = toLines(corpus.get(f), 6);
+            EntityFile file = new EntityFile(new EntityArchive("Submission" + f), "File" + f, "java", new Timestamp(1), 0, lines.size(), lines.size());
+            TestUtils.setEntityId(file.getSubmission(), f + 1);
+            TestUtils.setEntityId(file, f + 1);
+            ModelDataItem item = new ModelDataItem(file);
+            item.addPreProcessedArtifact("tokens", new LineListArtifact(lines));
+            items.add(item);
+        }
+        return items;
+    }
+
+    @SuppressWarnings ("unchecked")
+    static NGramRawResult<NGramMatch> runPair(WinnowingDetector detector, ModelDataItem file1, ModelDataItem file2) {
+        WinnowingDetector.WinnowingDetectorWorker worker = detector.getAbstractPairwiseDetectorWorker(file1, file2);
+        worker.execute();
+        return worker.getRawResult();
+    }
+
+    private static List<String> randomTokens(Random rand, int count) {
+        List<String> tokens = new ArrayList<>();
+        for (int t = 0; t < count; t++) {
+            tokens.add(TOKENS[rand.nextInt(TOKENS.length)]);
+        }
+        return tokens;
+    }
+
+    // Lines as produced by the StandardTokeniser, space separated token names
+    private static List<IndexedString> toLines(List<String> tokens, int perLine) {
+        List<IndexedString> lines = new ArrayList<>();
+        for (int t = 0; t < tokens.size(); t += perLine) {
+            lines.add(IndexedString.of(lines.size() + 1, String.join(" ", tokens.subList(t, Math.min(t + perLine, tokens.size())))));
+        }
+        return lines;
+    }
+}
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -871,4 +872,115 @@ class SkeletonCodeTest {
         iscs = rawLegitimateResult.getInternalSkeletonCode(2);
         assertEquals(0, iscs.size());
     }
-}
\ No newline at end of file
+
+    /**
+     * Checks that removing a sequence of ranges at once gives exactly the same matches, match objects and internal skeleton
+     *  code as removing them one at a time, for the sequences used in the tests above
+     */
+    @Test
+    void removeLinesMatchesRemoveLine() {
+        List<List<PairedTuple<Integer, Integer, Integer, Integer>>> sequences = List.of(
+            List.of(new PairedTuple<>(1,1,1,1)),
+            List.of(new PairedTuple<>(1,30,1,30)),
+            List.of(new PairedTuple<>(10,15,13,20)),
+            List.of(new PairedTuple<>(8,12,11,15), new PairedTuple<>(18,21,23,26)),
+            List.of(new PairedTuple<>(11,12,1,1), new PairedTuple<>(14,15,1,1)),
+            List.of(new PairedTuple<>(11,12,1,1), new PairedTuple<>(10,10,1,1)),
+            List.of(new PairedTuple<>(11,12,1,1), new PairedTuple<>(12,14,11,11), new PairedTuple<>(10,10,1,1)),
+            List.of(new PairedTuple<>(12,14,1,1), new PairedTuple<>(11,12,11,11), new PairedTuple<>(10,10,1,1)),
+            //ranges missing both matches either side of one which doesnt
+            List.of(new PairedTuple<>(1,1,1,1), new PairedTuple<>(-1,-1,2,2), new PairedTuple<>(11,12,15,17),
+                new PairedTuple<>(40,41,-1,-1), new PairedTuple<>(1,1,-1,-1))
+        );
+
+        for (List<PairedTuple<Integer, Integer, Integer, Integer>> sequence : sequences) {
+            assertRemoveLinesMatches(sequence, resultWith(new int[][] {{10,15,13,20}, {16,20,21,25}}));
+        }
+    }
+
+    /**
+     * Checks removing a sequence of ranges at once against removing them one at a time, for larger generated results where
+     *  most of the skeleton code misses most of the matches
+     */
+    @Test
+    void removeLinesMatchesRemoveLineGenerated() {
+        Random rand = new Random(2025);
+        for (int n = 0; n < 200; n++) {
+            int fileLength = 50 + rand.nextInt(1000);
+            int[][] matches = new int[rand.nextInt(40)][];
+            for (int i = 0; i < matches.length; i++) {
+                matches[i] = new int[4];
+                for (int f = 0; f < 2; f++) {
+                    int start = 1 + rand.nextInt(fileLength);
+                    matches[i][f * 2] = start;
+                    matches[i][f * 2 + 1] = start + rand.nextInt(30);
+                }
+            }
+
+            List<PairedTuple<Integer, Integer, Integer, Integer>> sequence = new ArrayList<>();
+            int removals = rand.nextInt(60);
+            for (int i = 0; i < removals; i++) {
+                int[] r = new int[4];
+                for (int f = 0; f < 2; f++) {
+                    //the dummy range used when a file has run out of skeleton code matches
+                    if (rand.nextInt(5) == 0) {
+                        r[f * 2] = -1;
+                        r[f * 2 + 1] = -1;
+                        continue;
+                    }
+                    int start = 1 + rand.nextInt(fileLength);
+                    r[f * 2] = start;
+                    r[f * 2 + 1] = start + rand.nextInt(10);
+                }
+                sequence.add(new PairedTuple<>(r[0], r[1], r[2], r[3]));
+            }
+
+            assertRemoveLinesMatches(sequence, resultWith(matches));
+        }
+    }
+
+    private NGramRawResult<NGramMatch> resultWith(int[][] matches) {
+        NGramRawResult<NGramMatch> result = new NGramRawResult<>(testFile1, testFile2);
+        for (int[] m : matches) {
+            result.put(new NGramMatch(m[0], m[1], m[2], m[3], 0.5f, testFile1, testFile2), m[0], m[1], m[2], m[3]);
+        }
+        return result;
+    }
+
+    private void assertRemoveLinesMatches(List<PairedTuple<Integer, Integer, Integer, Integer>> sequence, NGramRawResult<NGramMatch> expected) {
+        NGramRawResult<NGramMatch> actual = resultWith(expected.getLocations().stream()
+            .map(l -> new int[] {l.getPoint1().getKey(), l.getPoint1().getValue(), l.getPoint2().getKey(), l.getPoint2().getValue()})
+            .toArray(int[][]::new));
+
+        for (PairedTuple<Integer, Integer, Integer, Integer> line : sequence) {
+            expected.removeLine(line);
+        }
+        actual.removeLines(sequence);
+        assertSameResult(expected, actual, sequence);
+
+        expected.cleanInternalSkeletonCode();
+        actual.cleanInternalSkeletonCode();
+        assertSameResult(expected, actual, sequence);
+    }
+
+    private void assertSameResult(NGramRawResult<NGramMatch> expected, NGramRawResult<NGramMatch> actual, List<?> sequence) {
+        List<PairedTuple<Integer, Integer, Integer, Integer>> expectedLocations = expected.getLocations();
+        List<PairedTuple<Integer, Integer, Integer, Integer>> actualLocations = actual.getLocations();
+        assertEquals(expectedLocations.size(), actualLocations.size(), "Locations after removing " + sequence);
+        for (int i = 0; i < expectedLocations.size(); i++) {
+            assertEquals(expectedLocations.get(i).getPoint1(), actualLocations.get(i).getPoint1(), "Locations after removing " + sequence);
+            assertEquals(expectedLocations.get(i).getPoint2(), actualLocations.get(i).getPoint2(), "Locations after removing " + sequence);
+        }
+        assertEquals(expected.getInternalSkeletonCode(1), actual.getInternalSkeletonCode(1));
+        assertEquals(expected.getInternalSkeletonCode(2), actual.getInternalSkeletonCode(2));
+
+        List<NGramMatch> expectedMatches = expected.getObjects();
+        List<NGramMatch> actualMatches = actual.getObjects();
+        assertEquals(expectedMatches.size(), actualMatches.size());
+        for (int i = 0; i < expectedMatches.size(); i++) {
+            assertEquals(expectedMatches.get(i).lines, actualMatches.get(i).lines);
+            assertEquals(expectedMatches.get(i).getInternalSkeletonCodeFile(1), actualMatches.get(i).getInternalSkeletonCodeFile(1));
+            assertEquals(expectedMatches.get(i).getInternalSkeletonCodeFile(2), actualMatches.get(i).getInternalSkeletonCodeFile(2));
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.antlr.v4.runtime.*;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.lang.reflect.Field;
 import java.util.*;
 
 public class TestUtils {
@@ -49,6 +50,76 @@ public class TestUtils {
 		return file;
 	}
 
+	/**
+	 * Generates a deterministic corpus of Java-like source files, where every other file is a mutated copy of the one before it.
+	 * Copies have some lines renamed, dropped or replaced, so detectors see a mix of exact, near and non-matching regions.
+	 *
+	 * @param seed  random seed, the same seed always gives the same corpus
+	 * @param files number of files to generate
+	 * @param lines number of lines in each original file
+	 *
+	 * @return the lines of each generated file
+	 */
+	public static List<List<String>> generateCorpus(long seed, int files, int lines) {
+		String[] types = { "int", "long", "String", "double", "boolean", "List<Integer>" };
+		String[] names = { "count", "total", "index", "value", "result", "temp", "node", "sum", "size", "key" };
+		String[] calls = { "compute", "update", "check", "print", "load", "merge", "split" };
+
+		Random rand = new Random(seed);
+		List<List<String>> corpus = new ArrayList<>();
+
+		for (int f = 0; f < files; f++) {
+			List<String> file = new ArrayList<>();
+			if (f % 2 == 1) {
+				for (String line : corpus.get(f - 1)) {
+					int r = rand.nextInt(20);
+					if (r == 0) {
+						continue; // dropped line
+					}
+					else if (r == 1) {
+						file.add(line.replace(names[rand.nextInt(names.length)], names[rand.nextInt(names.length)])); // renamed variable
+					}
+					else if (r == 2) {
+						file.add(calls[rand.nextInt(calls.length)] + "(" + names[rand.nextInt(names.length)] + ");"); // replaced line
+					}
+					else {
+						file.add(line);
+					}
+				}
+			}
+			else {
+				for (int l = 0; l < lines; l++) {
+					switch (rand.nextInt(4)) {
+						case 0 -> file.add(types[rand.nextInt(types.length)] + " " + names[rand.nextInt(names.length)] + l + " = " + rand.nextInt(100) + ";");
+						case 1 -> file.add(names[rand.nextInt(names.length)] + " = " + calls[rand.nextInt(calls.length)] + "(" + names[rand.nextInt(names.length)] + ", " + rand.nextInt(10) + ");");
+						case 2 -> file.add("for (int i = 0; i < " + names[rand.nextInt(names.length)] + "; i++) {");
+						default -> file.add("}");
+					}
+				}
+			}
+			corpus.add(file);
+		}
+
+		return corpus;
+	}
+
+	/**
+	 * Sets the generated id of an entity, so entities which were never persisted can be told apart by their equals methods
+	 *
+	 * @param entity the entity
+	 * @param id     the id to give it
+	 */
+	public static void setEntityId(Object entity, long id) {
+		try {
+			Field field = entity.getClass().getDeclaredField("id");
+			field.setAccessible(true);
+			field.setLong(entity, id);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Could not set the id of " + entity.getClass().getName(), e);
+		}
+	}
+
 	public static class TokenUtil {
 
 		public String Text;